@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+/**
+ * Stops requests to an endpoint that keeps failing, so a struggling server isn't hammered
+ * by every loader and retry of the app.
+ *
+ * After a number of failures in a row the breaker opens, and requests are refused for a
+ * while (longer if the server asked for it with Retry-After). Once that time has passed, a
+ * single trial request is let through: if it succeeds the breaker closes again, if it fails
+ * the breaker stays open for another while. A trial that never reports back (because it was
+ * cancelled) is given up on after the same time, so the breaker can't get stuck.
+ *
+ * Times are passed in by the caller, in milliseconds from the Epoch. All methods are thread safe.
+ */
+public final class CircuitBreaker {
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    /* Guarded by this */
+    private int mConsecutiveFailures;
+
+    /* Until when requests are refused, 0 while the breaker is closed. Guarded by this */
+    private long mOpenUntil;
+
+    /* When the trial request was let through, 0 if there is none. Guarded by this */
+    private long mTrialStartedAt;
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold the number of failures in a row that open the breaker
+     * @param openMillis how long the breaker stays open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis)
+        {
+            mFailureThreshold = failureThreshold;
+            mOpenMillis = openMillis;
+        }
+
+    /**
+     * Returns true if a request may be made now. While the breaker is open this is only true
+     * for the one trial request after the open time has passed.
+     */
+    public synchronized boolean allowRequest(long now)
+        {
+            if(mOpenUntil == 0)
+                {
+                    return true;
+                }
+            if(now < mOpenUntil)
+                {
+                    return false;
+                }
+            if(mTrialStartedAt != 0 && now - mTrialStartedAt < mOpenMillis)
+                {
+                    return false;
+                }
+            mTrialStartedAt = now;
+            return true;
+        }
+
+    /**
+     * Returns true while requests are refused, not counting a due trial request.
+     */
+    public synchronized boolean isOpen(long now)
+        {
+            return mOpenUntil != 0 && now < mOpenUntil;
+        }
+
+    /**
+     * Records a request that reached a working server, which closes the breaker.
+     */
+    public synchronized void onSuccess()
+        {
+            mConsecutiveFailures = 0;
+            mOpenUntil = 0;
+            mTrialStartedAt = 0;
+        }
+
+    /**
+     * Records a failed request, opening the breaker if that was one failure too many or if
+     * it was the trial request.
+     *
+     * @param now the current time
+     * @param retryAfterMillis the wait the server asked for, or -1 if it didn't
+     */
+    public synchronized void onFailure(long now, long retryAfterMillis)
+        {
+            mConsecutiveFailures++;
+            if(mTrialStartedAt != 0 || mConsecutiveFailures >= mFailureThreshold)
+                {
+                    mOpenUntil = now + Math.max(mOpenMillis, retryAfterMillis);
+                    mTrialStartedAt = 0;
+                }
+        }
+
+    @Override
+    public synchronized String toString()
+        {
+            return "CircuitBreaker{failures=" + mConsecutiveFailures + ", openUntil=" + mOpenUntil + "}";
+        }
+}
@@ -0,0 +1,504 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for the USGS response of a query made with format=csv, which lists the same events
+ * as the GeoJSON response in a fraction of its size: one header line naming the columns, then
+ * one line per event.
+ *
+ * Columns are found by their name in the header, so their order doesn't matter, and only the
+ * ones an {@link Earthquake} needs are decoded. Numbers and ISO 8601 times are decoded straight
+ * out of a reused builder, so the only per-event allocations are the {@link Earthquake} itself
+ * and its id and place. Fields may be quoted, as places with a comma are, and a quote inside a
+ * quoted field is doubled. The url is not in the response and is built from the id, the way
+ * USGS builds it. The parsed earthquakes are equal to the ones {@link GeoJsonStreamParser}
+ * produces for the same query in GeoJSON.
+ */
+final class CsvStreamParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /* What a column is read into. Columns an Earthquake doesn't need are skipped */
+    private static final int SKIP = 0;
+    private static final int TIME = 1;
+    private static final int LATITUDE = 2;
+    private static final int LONGITUDE = 3;
+    private static final int DEPTH = 4;
+    private static final int MAGNITUDE = 5;
+    private static final int ID = 6;
+    private static final int UPDATED = 7;
+    private static final int PLACE = 8;
+    private static final int STATUS = 9;
+
+    /* The header names of the columns above, in the same order */
+    private static final String[] COLUMN_NAMES = {
+            null, "time", "latitude", "longitude", "depth", "mag", "id", "updated", "place", "status"};
+
+    /* Powers of ten that are exact doubles, for decoding numbers without going through a String */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /* Where the features go when they are handed out in batches, null otherwise */
+    private GeoJsonStreamParser.BatchListener batchListener;
+    private int batchSize;
+
+    /* Reused for every field that has to be decoded */
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    /* What each column of the header is read into, see SKIP */
+    private int[] columns;
+
+    /* Fields of the event currently being read */
+    private String id;
+    private double magnitude;
+    private String place;
+    private long time;
+    private boolean hasTime;
+    private long updated;
+    private double longitude;
+    private double latitude;
+    private double depth;
+    private boolean deleted;
+
+    /**
+     * Constructs a new {@link CsvStreamParser}.
+     *
+     * @param in the reader positioned at the start of the CSV response
+     */
+    CsvStreamParser(Reader in)
+        {
+            this.in = in;
+        }
+
+    /**
+     * Reads the whole response and adds every event in it to the given list. Events that were
+     * read before a parse error stay in the list. An empty response has no events.
+     *
+     * @param earthquakes the list the parsed earthquakes are added to
+     * @throws IOException if the reader fails or the response is not a USGS CSV response
+     */
+    void parse(List<Earthquake> earthquakes) throws IOException
+        {
+            if(!readHeader())
+                {
+                    return;
+                }
+            while (skipLineBreaks())
+                {
+                    earthquakes.add(readRow());
+                    if(batchListener != null && earthquakes.size() >= batchSize)
+                        {
+                            publishBatch(earthquakes);
+                        }
+                }
+        }
+
+    /**
+     * Reads the whole response like {@link #parse(List)}, but hands the events to the listener
+     * in batches as soon as each batch is complete, the same way
+     * {@link GeoJsonStreamParser#parse(List, int, GeoJsonStreamParser.BatchListener)} does.
+     *
+     * @param batch the list the events of the current batch are collected in
+     * @param batchSize the number of events in a batch
+     * @param listener receives the batches
+     * @throws IOException if the reader or the listener fails or the response is not valid CSV
+     */
+    void parse(List<Earthquake> batch, int batchSize, GeoJsonStreamParser.BatchListener listener)
+            throws IOException
+        {
+            this.batchSize = batchSize;
+            this.batchListener = listener;
+            parse(batch);
+            if(!batch.isEmpty())
+                {
+                    publishBatch(batch);
+                }
+        }
+
+    private void publishBatch(List<Earthquake> batch) throws IOException
+        {
+            batchListener.onBatch(new ArrayList<>(batch));
+            batch.clear();
+        }
+
+    /**
+     * Reads the header line and looks up the columns by name.
+     *
+     * @return false if the response is empty
+     */
+    private boolean readHeader() throws IOException
+        {
+            if(!skipLineBreaks())
+                {
+                    return false;
+                }
+            List<String> names = new ArrayList<>();
+            boolean more = true;
+            while (more)
+                {
+                    more = readField(scratch);
+                    names.add(scratch.toString());
+                }
+
+            columns = new int[names.size()];
+            boolean hasId = false;
+            boolean hasTimeColumn = false;
+            for (int i = 0; i < columns.length; i++)
+                {
+                    for (int field = 1; field < COLUMN_NAMES.length; field++)
+                        {
+                            if(COLUMN_NAMES[field].equals(names.get(i)))
+                                {
+                                    columns[i] = field;
+                                    hasId |= field == ID;
+                                    hasTimeColumn |= field == TIME;
+                                }
+                        }
+                }
+
+            // The url is built from the id, and the time is required as in GeoJSON
+            if(!hasId || !hasTimeColumn)
+                {
+                    throw new IOException("CSV header is missing the time or id column: " + names);
+                }
+            return true;
+        }
+
+    private Earthquake readRow() throws IOException
+        {
+            id = "";
+            magnitude = Double.NaN;
+            place = null;
+            hasTime = false;
+            updated = 0;
+            longitude = Double.NaN;
+            latitude = Double.NaN;
+            depth = Double.NaN;
+            deleted = false;
+
+            boolean more = true;
+            for (int column = 0; more; column++)
+                {
+                    int field = column < columns.length ? columns[column] : SKIP;
+                    more = readField(field == SKIP ? null : scratch);
+                    switch (field)
+                        {
+                            case TIME:
+                                if(scratch.length() > 0)
+                                    {
+                                        time = readTime();
+                                        hasTime = true;
+                                    }
+                                break;
+                            case LATITUDE:
+                                latitude = readDouble();
+                                break;
+                            case LONGITUDE:
+                                longitude = readDouble();
+                                break;
+                            case DEPTH:
+                                depth = readDouble();
+                                break;
+                            case MAGNITUDE:
+                                magnitude = readDouble();
+                                break;
+                            case ID:
+                                id = scratch.toString();
+                                break;
+                            case UPDATED:
+                                updated = scratch.length() > 0 ? readTime() : 0;
+                                break;
+                            case PLACE:
+                                //An event without a place has an empty field here and a null place in GeoJSON
+                                place = scratch.length() > 0 ? scratch.toString() : null;
+                                break;
+                            case STATUS:
+                                deleted = tokenEquals("deleted");
+                                break;
+                            default:
+                                break;
+                        }
+                }
+
+            if(!hasTime)
+                {
+                    throw new IOException("Event " + id + " is missing its time");
+                }
+            Earthquake earthquake = new Earthquake(id, magnitude, place, time, updated,
+                    EarthquakeCatalog.USGS_EVENT_PAGE_PREFIX + id, longitude, latitude, depth);
+            earthquake.setDeleted(deleted);
+            return earthquake;
+        }
+
+    /**
+     * Reads one field, quoted or not, and the comma or line break that ends it.
+     *
+     * @param out the builder the field is decoded into, or null to skip the field
+     * @return true if another field of the same line follows
+     */
+    private boolean readField(StringBuilder out) throws IOException
+        {
+            if(out != null)
+                {
+                    out.setLength(0);
+                }
+            if(pos == limit && !fill())
+                {
+                    return false;
+                }
+            if(buffer[pos] == '"')
+                {
+                    pos++;
+                    readQuotedBody(out);
+                }
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            return false;
+                        }
+                    char c = buffer[pos++];
+                    if(c == ',')
+                        {
+                            return true;
+                        }
+                    if(c == '\n' || c == '\r')
+                        {
+                            return false;
+                        }
+                    if(out != null)
+                        {
+                            out.append(c);
+                        }
+                }
+        }
+
+    /**
+     * Reads the rest of a quoted field whose opening quote has already been consumed, up to
+     * and including its closing quote. Commas and line breaks inside it are part of the field.
+     */
+    private void readQuotedBody(StringBuilder out) throws IOException
+        {
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            throw new IOException("Unterminated quoted field");
+                        }
+                    char c = buffer[pos++];
+                    if(c == '"')
+                        {
+                            // A doubled quote stands for one quote, any other one ends the field
+                            if((pos < limit || fill()) && buffer[pos] == '"')
+                                {
+                                    pos++;
+                                }
+                            else
+                                {
+                                    return;
+                                }
+                        }
+                    if(out != null)
+                        {
+                            out.append(c);
+                        }
+                }
+        }
+
+    /**
+     * Skips empty lines and returns true if there is anything left to read.
+     */
+    private boolean skipLineBreaks() throws IOException
+        {
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            return false;
+                        }
+                    char c = buffer[pos];
+                    if(c != '\n' && c != '\r')
+                        {
+                            return true;
+                        }
+                    pos++;
+                }
+        }
+
+    /**
+     * Decodes the number in {@link #scratch}, returning NaN for an empty field (the same
+     * contract as the null handling of the GeoJSON parsers).
+     *
+     * Plain decimals of up to 15 digits, which is how USGS writes coordinates and magnitudes,
+     * are decoded as their digits divided by a power of ten. Both are exact doubles, so the
+     * division rounds the same way Double.parseDouble() does. Anything else goes through
+     * Double.parseDouble().
+     */
+    private double readDouble() throws IOException
+        {
+            int length = scratch.length();
+            if(length == 0)
+                {
+                    return Double.NaN;
+                }
+            boolean negative = scratch.charAt(0) == '-';
+            long digits = 0;
+            int digitCount = 0;
+            int fractionDigits = -1;
+            for (int i = negative ? 1 : 0; i < length; i++)
+                {
+                    char c = scratch.charAt(i);
+                    if(c >= '0' && c <= '9')
+                        {
+                            digits = digits * 10 + (c - '0');
+                            digitCount++;
+                            if(fractionDigits >= 0)
+                                {
+                                    fractionDigits++;
+                                }
+                        }
+                    else if(c == '.' && fractionDigits < 0)
+                        {
+                            fractionDigits = 0;
+                        }
+                    else
+                        {
+                            return parseDoubleSlow();
+                        }
+                }
+            if(digitCount == 0 || digitCount >= POWERS_OF_TEN.length)
+                {
+                    return parseDoubleSlow();
+                }
+            double value = fractionDigits > 0 ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+            return negative ? -value : value;
+        }
+
+    private double parseDoubleSlow() throws IOException
+        {
+            try
+                {
+                    return Double.parseDouble(scratch.toString());
+                }
+            catch (NumberFormatException e)
+                {
+                    throw new IOException("Expected a number but was " + scratch);
+                }
+        }
+
+    /**
+     * Decodes the UTC time in {@link #scratch}, which USGS writes as 2018-01-20T12:34:56.789Z,
+     * into milliseconds from the Epoch.
+     */
+    private long readTime() throws IOException
+        {
+            int length = scratch.length();
+            if(length < 19 || scratch.charAt(4) != '-' || scratch.charAt(7) != '-'
+                    || scratch.charAt(10) != 'T' || scratch.charAt(13) != ':' || scratch.charAt(16) != ':')
+                {
+                    throw new IOException("Expected a time but was " + scratch);
+                }
+            int year = readDigits(0, 4);
+            int month = readDigits(5, 2);
+            int day = readDigits(8, 2);
+            long seconds = daysFromCivil(year, month, day) * 86400L
+                    + readDigits(11, 2) * 3600 + readDigits(14, 2) * 60 + readDigits(17, 2);
+
+            // Up to three fraction digits, then an optional Z
+            int millis = 0;
+            int end = 19;
+            if(end < length && scratch.charAt(end) == '.')
+                {
+                    int scale = 100;
+                    for (end++; end < length && scratch.charAt(end) != 'Z'; end++)
+                        {
+                            millis += readDigits(end, 1) * scale;
+                            scale /= 10;
+                        }
+                }
+            if(end < length && scratch.charAt(end) == 'Z')
+                {
+                    end++;
+                }
+            if(end != length)
+                {
+                    throw new IOException("Expected a time but was " + scratch);
+                }
+            return seconds * 1000 + millis;
+        }
+
+    private int readDigits(int start, int count) throws IOException
+        {
+            int value = 0;
+            for (int i = start; i < start + count; i++)
+                {
+                    char c = scratch.charAt(i);
+                    if(c < '0' || c > '9')
+                        {
+                            throw new IOException("Expected a time but was " + scratch);
+                        }
+                    value = value * 10 + (c - '0');
+                }
+            return value;
+        }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the given date of the proleptic Gregorian
+     * calendar, counting in 400 year eras of 146097 days.
+     */
+    static long daysFromCivil(int year, int month, int day)
+        {
+            int y = month <= 2 ? year - 1 : year;
+            int era = (y >= 0 ? y : y - 399) / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097L + dayOfEra - 719468;
+        }
+
+    /**
+     * Compares the field in {@link #scratch} with the given string, without allocating.
+     */
+    private boolean tokenEquals(String value)
+        {
+            int length = value.length();
+            if(scratch.length() != length)
+                {
+                    return false;
+                }
+            for (int i = 0; i < length; i++)
+                {
+                    if(scratch.charAt(i) != value.charAt(i))
+                        {
+                            return false;
+                        }
+                }
+            return true;
+        }
+
+    /**
+     * Refills the buffer from the reader.
+     *
+     * @return false if the reader is exhausted
+     */
+    private boolean fill() throws IOException
+        {
+            int read = in.read(buffer, 0, buffer.length);
+            if(read <= 0)
+                {
+                    return false;
+                }
+            pos = 0;
+            limit = read;
+            return true;
+        }
+}
@@ -0,0 +1,163 @@
+package com.example.android.quakereport;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used cache of {@link EarthquakeDetail}s, bounded by the bytes they hold
+ * rather than by their number.
+ *
+ * A detail is kept with the update time of the event it was fetched for, and an event that
+ * was updated since (for example because more people reported feeling it) misses the cache,
+ * so its detail is fetched again. Details that USGS doesn't have are cached too, as empty
+ * details, so they aren't asked for at every scroll. All methods are thread safe.
+ */
+public final class DetailCache {
+
+    /* About 800 formatted details, far more than the rows around the visible ones */
+    private static final int DEFAULT_MAX_SIZE_IN_BYTES = 256 * 1024;
+
+    private static DetailCache sInstance;
+
+    private final int mMaxSizeInBytes;
+
+    /* Cached details by event key in access order, least recently used first. Guarded by this */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private int mSizeInBytes;
+
+    /* Counters for tuning the size. Guarded by this */
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * Returns the single cache of the process, so the details outlive the activity.
+     */
+    public static synchronized DetailCache getInstance()
+        {
+            if(sInstance == null)
+                {
+                    sInstance = new DetailCache(DEFAULT_MAX_SIZE_IN_BYTES);
+                }
+            return sInstance;
+        }
+
+    /**
+     * Constructs a new, empty {@link DetailCache}.
+     *
+     * @param maxSizeInBytes the total {@link EarthquakeDetail#getSizeInBytes()} to keep at most
+     */
+    public DetailCache(int maxSizeInBytes)
+        {
+            mMaxSizeInBytes = maxSizeInBytes;
+        }
+
+    /**
+     * Returns the detail of the earthquake, or null if it isn't cached or was fetched before
+     * the earthquake was last updated.
+     */
+    public synchronized EarthquakeDetail get(Earthquake earthquake)
+        {
+            Entry entry = mEntries.get(earthquake.getKey());
+            if(entry == null || entry.updated < earthquake.getUpdatedInMilliseconds())
+                {
+                    mMissCount++;
+                    return null;
+                }
+            mHitCount++;
+            return entry.detail;
+        }
+
+    /**
+     * Returns true if the detail of the earthquake is cached and up to date, without counting
+     * as a use of it.
+     */
+    public synchronized boolean contains(Earthquake earthquake)
+        {
+            Entry entry = mEntries.get(earthquake.getKey());
+            return entry != null && entry.updated >= earthquake.getUpdatedInMilliseconds();
+        }
+
+    /**
+     * Caches the detail of the earthquake, dropping the least recently used details until the
+     * cache fits again.
+     */
+    public synchronized void put(Earthquake earthquake, EarthquakeDetail detail)
+        {
+            String key = earthquake.getKey();
+            remove(key);
+            int size = entrySize(key, detail);
+            if(size > mMaxSizeInBytes)
+                {
+                    return;
+                }
+            mEntries.put(key, new Entry(detail, earthquake.getUpdatedInMilliseconds(), size));
+            mSizeInBytes += size;
+
+            Iterator<Entry> entries = mEntries.values().iterator();
+            while (mSizeInBytes > mMaxSizeInBytes && entries.hasNext())
+                {
+                    mSizeInBytes -= entries.next().size;
+                    entries.remove();
+                    mEvictionCount++;
+                }
+        }
+
+    public synchronized void remove(String key)
+        {
+            Entry entry = mEntries.remove(key);
+            if(entry != null)
+                {
+                    mSizeInBytes -= entry.size;
+                }
+        }
+
+    public synchronized void clear()
+        {
+            mEntries.clear();
+            mSizeInBytes = 0;
+        }
+
+    public synchronized int size()
+        {
+            return mEntries.size();
+        }
+
+    public synchronized int getSizeInBytes()
+        {
+            return mSizeInBytes;
+        }
+
+    @Override
+    public synchronized String toString()
+        {
+            return "DetailCache{hits=" + mHitCount + ", misses=" + mMissCount + ", evictions="
+                    + mEvictionCount + ", cached=" + mEntries.size() + " details/" + mSizeInBytes
+                    + " of " + mMaxSizeInBytes + " bytes}";
+        }
+
+    /**
+     * Returns what a cached detail costs with its key and map entry.
+     */
+    private static int entrySize(String key, EarthquakeDetail detail)
+        {
+            return detail.getSizeInBytes() + 40 + 2 * key.length() + 64;
+        }
+
+    /**
+     * A cached detail and the update time of the event it was fetched for.
+     */
+    private static class Entry {
+
+        final EarthquakeDetail detail;
+        final long updated;
+        final int size;
+
+        Entry(EarthquakeDetail detail, long updated, int size)
+            {
+                this.detail = detail;
+                this.updated = updated;
+                this.size = size;
+            }
+    }
+}
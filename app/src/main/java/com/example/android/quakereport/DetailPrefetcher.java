@@ -0,0 +1,384 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import android.widget.AbsListView;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Fetches the detail GeoJSON of the events around the visible rows of the list, as the list
+ * is scrolled.
+ *
+ * The details of the visible rows are fetched first, then those of the rows up to the
+ * prefetch distance ahead in the direction the list was last scrolled, so they are there by
+ * the time those rows come into view. Fetches of rows that left that range, queued or
+ * running, are cancelled. Fetched details go into a {@link DetailCache}, and rows that are
+ * still visible are rebound through the {@link Listener}.
+ *
+ * This is the scroll listener of the list and is only used on the main thread, apart from
+ * the fetches themselves.
+ */
+public class DetailPrefetcher implements AbsListView.OnScrollListener {
+
+    /**
+     * Told when the detail of a visible row arrived.
+     */
+    public interface Listener {
+
+        void onDetailLoaded(Earthquake earthquake);
+    }
+
+    private static final String DETAIL_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventid=";
+
+    /* Details are small, two at a time keep up with scrolling without crowding out the list requests */
+    private static final int MAX_CONNECTIONS = 2;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+
+    private final Context mContext;
+    private final EarthquakePager mPager;
+    private final DetailCache mCache;
+    private final int mPrefetchDistance;
+    private final Listener mListener;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Fetches that are queued or running, by event key */
+    private final HashMap<String, Fetch> mFetches = new HashMap<>();
+
+    /* Events whose fetch failed, which are not asked for again until they leave the range */
+    private final HashSet<String> mFailedKeys = new HashSet<>();
+
+    /* The visible rows as of the last scroll, and the direction the list moved in */
+    private int mFirstVisible;
+    private int mVisibleCount;
+    private int mTotalCount;
+    private Earthquake mFirstVisibleEarthquake;
+    private boolean mScrollingUp;
+
+    private boolean mClosed;
+
+    /**
+     * Constructs a new {@link DetailPrefetcher}.
+     *
+     * @param context used to format the details for the rows
+     * @param pager the rows of the list, which are only peeked at so no page is requested
+     * @param cache where the details are kept
+     * @param prefetchDistance the number of rows past the visible ones to fetch details for
+     * @param listener is told when the detail of a visible row arrived
+     */
+    public DetailPrefetcher(Context context, EarthquakePager pager, DetailCache cache, int prefetchDistance,
+                            Listener listener)
+        {
+            mContext = context.getApplicationContext();
+            mPager = pager;
+            mCache = cache;
+            mPrefetchDistance = prefetchDistance;
+            mListener = listener;
+        }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState)
+        {
+        }
+
+    /**
+     * Called by the list after every scroll and every layout, so also when the rows change.
+     */
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+        {
+            //Layouts that didn't move or change the rows happen every frame while the list is busy
+            Earthquake firstVisibleEarthquake = mPager.peekItem(firstVisibleItem);
+            if(firstVisibleItem == mFirstVisible && visibleItemCount == mVisibleCount
+                    && totalItemCount == mTotalCount && firstVisibleEarthquake == mFirstVisibleEarthquake)
+                {
+                    return;
+                }
+            if(firstVisibleItem != mFirstVisible)
+                {
+                    mScrollingUp = firstVisibleItem < mFirstVisible;
+                }
+            mFirstVisible = firstVisibleItem;
+            mVisibleCount = visibleItemCount;
+            mTotalCount = totalItemCount;
+            mFirstVisibleEarthquake = firstVisibleEarthquake;
+            update();
+        }
+
+    /**
+     * Starts the fetches the rows in range need and cancels the ones they no longer need.
+     */
+    private void update()
+        {
+            if(mClosed)
+                {
+                    return;
+                }
+
+            //The visible rows first, then outwards in the scroll direction
+            Map<String, Earthquake> wanted = new LinkedHashMap<>();
+            for (int i = 0; i < mVisibleCount; i++)
+                {
+                    addWanted(wanted, mFirstVisible + i);
+                }
+            for (int i = 1; i <= mPrefetchDistance; i++)
+                {
+                    addWanted(wanted, mScrollingUp ? mFirstVisible - i : mFirstVisible + mVisibleCount - 1 + i);
+                }
+
+            Iterator<Map.Entry<String, Fetch>> fetches = mFetches.entrySet().iterator();
+            while (fetches.hasNext())
+                {
+                    Map.Entry<String, Fetch> fetch = fetches.next();
+                    if(!wanted.containsKey(fetch.getKey()))
+                        {
+                            fetch.getValue().cancellation.cancel();
+                            fetches.remove();
+                        }
+                }
+            mFailedKeys.retainAll(wanted.keySet());
+
+            for (Map.Entry<String, Earthquake> row : wanted.entrySet())
+                {
+                    String key = row.getKey();
+                    if(!mFetches.containsKey(key) && !mFailedKeys.contains(key) && !mCache.contains(row.getValue()))
+                        {
+                            Fetch fetch = new Fetch(row.getValue());
+                            mFetches.put(key, fetch);
+                            EXECUTOR.execute(fetch);
+                        }
+                }
+        }
+
+    private void addWanted(Map<String, Earthquake> wanted, int position)
+        {
+            if(position < 0 || position >= mTotalCount)
+                {
+                    return;
+                }
+
+            //Rows still loading have nothing to fetch for, nor do events without an id
+            Earthquake earthquake = mPager.peekItem(position);
+            if(earthquake != null && earthquake.getId() != null && !earthquake.isDeleted())
+                {
+                    wanted.put(earthquake.getKey(), earthquake);
+                }
+        }
+
+    /**
+     * Stores a detail that arrived, unless its row left the range meanwhile.
+     */
+    private void onFetchDone(Fetch fetch, EarthquakeDetail detail)
+        {
+            String key = fetch.earthquake.getKey();
+            if(mClosed || mFetches.get(key) != fetch)
+                {
+                    return;
+                }
+            mFetches.remove(key);
+            if(detail == null)
+                {
+                    mFailedKeys.add(key);
+                    return;
+                }
+            mCache.put(fetch.earthquake, detail);
+
+            //Prefetched rows are bound with their detail when they are scrolled to
+            for (int i = 0; i < mVisibleCount; i++)
+                {
+                    if(mPager.peekItem(mFirstVisible + i) == fetch.earthquake)
+                        {
+                            mListener.onDetailLoaded(fetch.earthquake);
+                            return;
+                        }
+                }
+        }
+
+    /**
+     * Cancels every fetch, for when the list goes away.
+     */
+    public void close()
+        {
+            mClosed = true;
+            for (Fetch fetch : mFetches.values())
+                {
+                    fetch.cancellation.cancel();
+                }
+            mFetches.clear();
+        }
+
+    /**
+     * Returns the number of fetches that are queued or running.
+     */
+    public int getPendingCount()
+        {
+            return mFetches.size();
+        }
+
+    /**
+     * Reads the fields of {@link EarthquakeDetail} from the detail GeoJSON of an event and
+     * skips the rest, most of which is the contents of its products.
+     */
+    static EarthquakeDetail readDetail(JsonReader reader) throws IOException
+        {
+            int feltReports = -1;
+            double maxReportedIntensity = Double.NaN;
+            double maxEstimatedIntensity = Double.NaN;
+            String alertLevel = null;
+            boolean tsunami = false;
+            boolean hasShakeMap = false;
+
+            reader.beginObject();
+            while (reader.hasNext())
+                {
+                    if(!reader.nextName().equals("properties"))
+                        {
+                            reader.skipValue();
+                            continue;
+                        }
+
+                    reader.beginObject();
+                    while (reader.hasNext())
+                        {
+                            String name = reader.nextName();
+                            if(reader.peek() == JsonToken.NULL)
+                                {
+                                    reader.nextNull();
+                                }
+                            else if(name.equals("felt"))
+                                {
+                                    feltReports = reader.nextInt();
+                                }
+                            else if(name.equals("cdi"))
+                                {
+                                    maxReportedIntensity = reader.nextDouble();
+                                }
+                            else if(name.equals("mmi"))
+                                {
+                                    maxEstimatedIntensity = reader.nextDouble();
+                                }
+                            else if(name.equals("alert"))
+                                {
+                                    alertLevel = reader.nextString();
+                                }
+                            else if(name.equals("tsunami"))
+                                {
+                                    tsunami = reader.nextInt() == 1;
+                                }
+                            else if(name.equals("products"))
+                                {
+                                    //Only the product types matter, not their contents
+                                    reader.beginObject();
+                                    while (reader.hasNext())
+                                        {
+                                            if(reader.nextName().equals("shakemap"))
+                                                {
+                                                    hasShakeMap = true;
+                                                }
+                                            reader.skipValue();
+                                        }
+                                    reader.endObject();
+                                }
+                            else
+                                {
+                                    reader.skipValue();
+                                }
+                        }
+                    reader.endObject();
+                }
+            reader.endObject();
+
+            return new EarthquakeDetail(feltReports, maxReportedIntensity, maxEstimatedIntensity, alertLevel,
+                    tsunami, hasShakeMap);
+        }
+
+    /**
+     * Fetches the detail of one event on a thread of the executor.
+     */
+    private class Fetch implements Runnable {
+
+        final Earthquake earthquake;
+        final LoadCancellation cancellation = new LoadCancellation();
+
+        Fetch(Earthquake earthquake)
+            {
+                this.earthquake = earthquake;
+            }
+
+        @Override
+        public void run()
+            {
+                //Fetches cancelled while queued never touch the network
+                if(cancellation.isCanceled())
+                    {
+                        return;
+                    }
+
+                EarthquakeDetail detail = null;
+                try
+                    {
+                        HttpResponse response = QueryUtils.getTransport().get(
+                                new URL(DETAIL_URL + earthquake.getId()), cancellation);
+                        if(response.isSuccessful())
+                            {
+                                detail = readDetail(new JsonReader(cancellation.wrap(response.getBodyReader())));
+                            }
+                        else if(response.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND)
+                            {
+                                //USGS has no detail for the event, cache that so it isn't asked again
+                                detail = new EarthquakeDetail(-1, Double.NaN, Double.NaN, null, false, false);
+                            }
+                        else
+                            {
+                                Log.e(LOG_TAG, "Error response code " + response.getResponseCode()
+                                        + " for the detail of " + earthquake.getId());
+                            }
+                    }
+                catch (IOException e)
+                    {
+                        if(!cancellation.isCanceled())
+                            {
+                                Log.e(LOG_TAG, "Problem fetching the detail of " + earthquake.getId(), e);
+                            }
+                    }
+                catch (IllegalStateException e)
+                    {
+                        //JsonReader reports unexpected tokens with an IllegalStateException
+                        Log.e(LOG_TAG, "Problem parsing the detail of " + earthquake.getId(), e);
+                    }
+
+                if(detail != null)
+                    {
+                        //Format on this thread, so binding the row only assigns the text
+                        detail.setText(EarthquakeAdapter.formatDetail(mContext, detail));
+                    }
+
+                final EarthquakeDetail result = detail;
+                mMainHandler.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                            {
+                                onFetchDone(Fetch.this, result);
+                            }
+                    });
+            }
+    }
+}
@@ -6,11 +6,17 @@ package com.example.android.quakereport;
 
 public class Earthquake {
 
+    private String id;
     private double magnitude;
     private String city;
-    private String time;
     private long timeInMilliseconds;
+    private long updatedInMilliseconds;
     private String url;
+    private double longitude = Double.NaN;
+    private double latitude = Double.NaN;
+    private double depth = Double.NaN;
+    private boolean deleted;
+    private EarthquakeDisplay display;
 
     /**
      * Constructs a new {@link Earthquake} object.
@@ -23,12 +29,77 @@ public class Earthquake {
      */
     public Earthquake(double magnitude, String city, long timeInMilliseconds, String url)
         {
+            this(null, magnitude, city, timeInMilliseconds, url);
+        }
+
+    /**
+     * Constructs a new {@link Earthquake} object.
+     *
+     * @param id is the USGS event id of the earthquake, or null if it is unknown
+     * @param magnitude is the magnitude (size) of the earthquake
+     * @param city is the location where the earthquake happened
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the
+     *                           earthquake happened
+     * @param url is the website URL to find more details about the earthquake
+     */
+    public Earthquake(String id, double magnitude, String city, long timeInMilliseconds, String url)
+        {
+            this(id, magnitude, city, timeInMilliseconds, 0, url);
+        }
+
+    /**
+     * Constructs a new {@link Earthquake} object.
+     *
+     * @param id is the USGS event id of the earthquake, or null if it is unknown
+     * @param magnitude is the magnitude (size) of the earthquake
+     * @param city is the location where the earthquake happened
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the
+     *                           earthquake happened
+     * @param updatedInMilliseconds is the time in milliseconds (from the Epoch) when USGS last
+     *                              revised the event, or 0 if it is unknown
+     * @param url is the website URL to find more details about the earthquake
+     */
+    public Earthquake(String id, double magnitude, String city, long timeInMilliseconds,
+                      long updatedInMilliseconds, String url)
+        {
+            this.id = id;
             this.magnitude = magnitude;
             this.city = city;
             this.timeInMilliseconds = timeInMilliseconds;
+            this.updatedInMilliseconds = updatedInMilliseconds;
             this.url = url;
         }
 
+    /**
+     * Constructs a new {@link Earthquake} object.
+     *
+     * @param id is the USGS event id of the earthquake, or null if it is unknown
+     * @param magnitude is the magnitude (size) of the earthquake
+     * @param city is the location where the earthquake happened
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the
+     *                           earthquake happened
+     * @param updatedInMilliseconds is the time in milliseconds (from the Epoch) when USGS last
+     *                              revised the event, or 0 if it is unknown
+     * @param url is the website URL to find more details about the earthquake
+     * @param longitude is the longitude of the epicenter in degrees, or NaN if it is unknown
+     * @param latitude is the latitude of the epicenter in degrees, or NaN if it is unknown
+     * @param depth is the depth of the hypocenter in kilometers, or NaN if it is unknown
+     */
+    public Earthquake(String id, double magnitude, String city, long timeInMilliseconds,
+                      long updatedInMilliseconds, String url,
+                      double longitude, double latitude, double depth)
+        {
+            this(id, magnitude, city, timeInMilliseconds, updatedInMilliseconds, url);
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.depth = depth;
+        }
+
+    public String getId()
+        {
+            return id;
+        }
+
     public double getMagnitude()
         {
             return this.magnitude;
@@ -44,8 +115,65 @@ public class Earthquake {
             return timeInMilliseconds;
         }
 
+    public long getUpdatedInMilliseconds()
+        {
+            return updatedInMilliseconds;
+        }
+
     public String getUrl()
         {
             return url;
         }
+
+    /**
+     * Returns the key that tells events apart: the USGS event id, or the event page url for
+     * earthquakes that came without an id.
+     */
+    public String getKey()
+        {
+            return id != null ? id : url;
+        }
+
+    public double getLongitude()
+        {
+            return longitude;
+        }
+
+    public double getLatitude()
+        {
+            return latitude;
+        }
+
+    public double getDepth()
+        {
+            return depth;
+        }
+
+    /**
+     * Returns true if USGS reported this event as deleted (status "deleted"), which only
+     * happens for queries made with includedeleted=true.
+     */
+    public boolean isDeleted()
+        {
+            return deleted;
+        }
+
+    void setDeleted(boolean deleted)
+        {
+            this.deleted = deleted;
+        }
+
+    /**
+     * Returns the preformatted texts shown in the list, or null if the earthquake was not
+     * formatted by an {@link EarthquakeFormatter} yet.
+     */
+    public EarthquakeDisplay getDisplay()
+        {
+            return display;
+        }
+
+    void setDisplay(EarthquakeDisplay display)
+        {
+            this.display = display;
+        }
 }
@@ -26,29 +26,126 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>>,
+        EarthquakeStreamLoader.BatchCallbacks {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
-    /* The USGS Api URL */
+    /* The USGS Api URL, which is paged through with offset and limit */
     private static final String USGS_REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&orderby=time&minmag=5&limit=10";
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&orderby=time&minmag=5";
+
+    /* Number of earthquakes fetched per page */
+    private static final int PAGE_SIZE = 20;
+
+    /* Number of pages kept in memory while scrolling, the others are fetched again when needed */
+    private static final int MAX_PAGES_IN_MEMORY = 5;
+
+    /* The first page, which is stored on the device and kept in sync */
+    static final String FIRST_PAGE_URL = USGS_REQUEST_URL + "&limit=" + PAGE_SIZE;
+
+    /* The minimum magnitude of USGS_REQUEST_URL */
+    private static final double DEFAULT_MIN_MAGNITUDE = 5;
+
+    /* The query USGS_REQUEST_URL stands for, which is paged through from the network */
+    private static final EarthquakeQuery DEFAULT_QUERY =
+            EarthquakeQuery.ALL.withMagnitudeRange(DEFAULT_MIN_MAGNITUDE, Double.POSITIVE_INFINITY);
+
+    /* Number of earthquakes added to the list at a time while a narrowed down request streams in */
+    private static final int STREAM_BATCH_SIZE = 50;
+
+    private static final long DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+    /* Number of rows past the visible ones, in the scroll direction, whose details are fetched */
+    private static final int DETAIL_PREFETCH_DISTANCE = 10;
 
     /* Adapter for the list of earthquakes */
     private EarthquakeAdapter mAdapter;
 
+    /* The window of pages shown by the adapter */
+    private EarthquakePager mPager;
+
+    /* Fetches the details of the rows around the visible ones while the list is scrolled */
+    private DetailPrefetcher mDetails;
+
+    /* The earthquakes of the first page, as last delivered by the earthquake loader */
+    private List<Earthquake> mFirstPage;
+
+    /* Answers the filters and sort orders the first page covers without a new request */
+    private EarthquakeQueryEngine mQueryEngine;
+
+    /* The filters and the sort order picked in the menu */
+    private double mMinMagnitude = DEFAULT_MIN_MAGNITUDE;
+    private long mTimeWindowMillis;
+    private String mOrderBy = EarthquakeQuery.ORDER_BY_TIME;
+
+    /* The query shown in the list */
+    private EarthquakeQuery mQuery = DEFAULT_QUERY;
+
+    /* The narrowed down request being streamed into the list, null while none is shown */
+    private String mStreamUrl;
+
+    /* The earthquakes of mStreamUrl received so far */
+    private List<Earthquake> mStreamRows;
+
+    /* Whether the list shows the live summary feed instead of the query of the menu */
+    private boolean mLiveFeed;
+
+    /* The events of the live feed as of the last poll, null until the first poll finished */
+    private List<Earthquake> mFeedRows;
+
+    /* Counts of the rows shown in the list, updated along with them */
+    private final EarthquakeStats mStats = new EarthquakeStats(EarthquakeAdapter.MAGNITUDE_BAND_COUNT);
+
+    /* Whether the summary of mStats is shown above the list */
+    private boolean mShowSummary;
+
+    /* The number of regions named in the summary */
+    private static final int SUMMARY_REGION_COUNT = 3;
+
+    /* The rows shown in the list by place, updated along with mStats */
+    private final PlaceSearchIndex mSearchIndex = new PlaceSearchIndex();
+
+    /* The text in the search box, empty while the list isn't narrowed down by place */
+    private String mSearchQuery = "";
+
+    /* How far from a long pressed earthquake the nearby ones are shown */
+    private static final int NEARBY_RADIUS_KM = 500;
+
+    /* The earthquake the list is narrowed down around, null while it isn't */
+    private Earthquake mNearbyCenter;
+
+    /* The rows of mSearchIndex by epicenter, built for the first nearby query after they changed */
+    private EarthquakeSpatialIndex mSpatialIndex;
+    private List<Earthquake> mSpatialIndexRows;
+    private int mSpatialIndexVersion;
+
+    /* The list of earthquakes */
+    private ListView mListView;
+
     /*
     *   TextView to display the status of the app
     *   (if it doesn't have any data to display
@@ -56,6 +153,9 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     * */
     private TextView mStateTextView;
 
+    /* The summary above the list, only visible when turned on in the menu */
+    private TextView mSummaryView;
+
     /* ProgressBar variable */
     private ProgressBar progressBar;
 
@@ -74,6 +174,15 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    /* The loader streaming a narrowed down request */
+    private static final int STREAM_LOADER_ID = 2;
+
+    /* The loader polling the live summary feed */
+    private static final int FEED_LOADER_ID = 3;
+
+    /* Page n (after the first one) is loaded by the loader with the ID PAGE_LOADER_ID_BASE + n */
+    private static final int PAGE_LOADER_ID_BASE = 100;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Log.i(LOG_TAG, "TEST: Earthquake ACTIVITY onCreate() called");
@@ -90,11 +199,17 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         isConnected = activeNetwork != null && activeNetwork.isConnectedOrConnecting();
 
         // Get a reference to the ListView, and attach the adapter to the listView.
-        ListView listView = (ListView) findViewById(R.id.list);
+        final ListView listView = (ListView) findViewById(R.id.list);
+        mListView = listView;
 
         mStateTextView = (TextView) findViewById(R.id.state_view);
         listView.setEmptyView(mStateTextView);
 
+        mSummaryView = (TextView) findViewById(R.id.summary);
+
+        // Set the progress bar to the ProgressBar View in the xml
+        progressBar = (ProgressBar) findViewById(R.id.indeterminateBar);
+
         /*
             final ArrayList<Earthquake> earthquakes = QueryUtils.extractFeatureFromJson();
 
@@ -123,8 +238,55 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             });
         */
 
-        //Create a new adapter that takes an empty list as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
+        //Create a pager that starts out empty. It asks for pages as rows are shown
+        //and forgets the pages far away from the visible rows
+        mPager = new EarthquakePager(PAGE_SIZE, MAX_PAGES_IN_MEMORY, new EarthquakePager.Listener()
+            {
+                @Override
+                public void onPageNeeded(final int page)
+                    {
+                        //Pages are requested while the ListView lays out its rows,
+                        //so start the loader once the layout is done
+                        listView.post(new Runnable()
+                            {
+                                @Override
+                                public void run()
+                                    {
+                                        getLoaderManager().initLoader(PAGE_LOADER_ID_BASE + page, null,
+                                                EarthquakeActivity.this);
+                                    }
+                            });
+                    }
+
+                @Override
+                public void onPageEvicted(int page, List<Earthquake> earthquakes)
+                    {
+                        destroyPageLoader(page);
+
+                        //The summary and the search only cover the rows in memory
+                        for (int i = 0; i < earthquakes.size(); i++)
+                            {
+                                String key = earthquakes.get(i).getKey();
+                                mStats.remove(key);
+                                mSearchIndex.remove(key);
+                            }
+                    }
+            });
+
+        //Create a new adapter that reads its rows from the pager, and their details
+        //from the cache the prefetcher fills
+        mAdapter = new EarthquakeAdapter(this, mPager, DetailCache.getInstance());
+        mDetails = new DetailPrefetcher(this, mPager, DetailCache.getInstance(), DETAIL_PREFETCH_DISTANCE,
+                new DetailPrefetcher.Listener()
+                    {
+                        @Override
+                        public void onDetailLoaded(Earthquake earthquake)
+                            {
+                                // Only the rows on screen are rebound
+                                mAdapter.notifyDataSetChanged();
+                            }
+                    });
+        listView.setOnScrollListener(mDetails);
 
         //Set the adapter on the {@link ListView}
         //so the list can be populated in the user interface
@@ -138,7 +300,13 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
                 public void onItemClick(AdapterView<?> adapterView, View view, int i, long l)
                     {
                         // Find the current earthquake that was clicked on
-                        Earthquake currentEarthquake = (Earthquake) mAdapter.getItem(i);
+                        Earthquake currentEarthquake = mAdapter.getItem(i);
+
+                        // Nothing to open while the row is still loading
+                        if(currentEarthquake == null)
+                            {
+                                return;
+                            }
 
                         //Convert the String URL into a URI object (to pass to the Intent constructor)
                         Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
@@ -152,36 +320,54 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             }
         );
 
+        //A long press narrows the list down to the earthquakes around the pressed one,
+        //another one shows every row again
+        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener()
+            {
+                @Override
+                public boolean onItemLongClick(AdapterView<?> adapterView, View view, int i, long l)
+                    {
+                        Earthquake earthquake = mAdapter.getItem(i);
+                        if(earthquake == null)
+                            {
+                                return false;
+                            }
+                        showNearby(mNearbyCenter == null ? earthquake : null);
+                        return true;
+                    }
+            });
+
         /*
             //Start the AsyncTask to fetch the earthquake data
             EarthquakeAsyncTask task = new EarthquakeAsyncTask();
             task.execute(USGS_REQUEST_URL);
         */
 
-        if(isConnected)
+        //Show the earthquakes of the last sync in the first frame, also after the process was
+        //killed. The loader replaces them with the stored ones and then with fresh ones
+        List<Earthquake> snapshot = EarthquakeStore.loadSnapshot(this);
+        if(snapshot != null && !snapshot.isEmpty())
             {
-                //Get a reference to the LoaderManager, in order to interact with the loaders
-                LoaderManager loaderManager = getLoaderManager();
-
-                //Initialize the loader. Pass in the int ID constant defined above and pass in null for
-                //the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-                //because this activity implements the LoaderCallbacks interface)
-                loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-                Log.i(LOG_TAG, "TEST: calling initLoader() ... ");
+                mFirstPage = snapshot;
+                mPager.reset(snapshot);
+                mStats.replaceAll(snapshot);
+                mSearchIndex.replaceAll(snapshot);
+                progressBar.setVisibility(View.GONE);
             }
-        else
-            {
-                // Set the progress bar to the ProgressBar View in the xml
-                // And set it into an indeterminate state
-                progressBar = (ProgressBar) findViewById(R.id.indeterminateBar);
-                progressBar.setProgress(0);
 
-                // Once the onLoadFinished() method is called, the loading progressbar will disappear
-                progressBar.setVisibility(View.GONE);
+        //Get a reference to the LoaderManager, in order to interact with the loaders
+        LoaderManager loaderManager = getLoaderManager();
 
-                // Set the TextView to show a text that says "Not connected to any Network"
-                mStateTextView.setText(R.string.no_internet);
-            }
+        //Initialize the loader. Pass in the int ID constant defined above and pass in null for
+        //the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        //because this activity implements the LoaderCallbacks interface).
+        //The loader is started even without a connection, so the stored earthquakes are shown
+        loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+        Log.i(LOG_TAG, "TEST: calling initLoader() ... ");
+
+        //Keep the stored earthquakes fresh while the app is closed, so the next launch
+        //shows recent ones before the network refresh is done
+        RefreshService.schedule(this);
     }
 
     /**
@@ -246,8 +432,19 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         {
             Log.i(LOG_TAG, "TEST: onCreateLoader() called ... ");
 
-            //Create a new Loader for the given url
-            return new EarthquakeLoader(this, USGS_REQUEST_URL);
+            //Every loader ID after the page loader base loads one further page
+            if(i >= PAGE_LOADER_ID_BASE)
+                {
+                    return new EarthquakePageLoader(this, USGS_REQUEST_URL, i - PAGE_LOADER_ID_BASE, PAGE_SIZE);
+                }
+
+            if(i == STREAM_LOADER_ID)
+                {
+                    return new EarthquakeStreamLoader(this, mStreamUrl, STREAM_BATCH_SIZE, this);
+                }
+
+            //Create a new Loader for the first page, which shows the stored earthquakes first
+            return new EarthquakeLoader(this, FIRST_PAGE_URL, isConnected);
         }
 
     @Override
@@ -255,26 +452,589 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         {
             Log.i(LOG_TAG, "TEST: onLoadFinished() called ... ");
 
-            // Set the progress bar to the ProgressBar View in the xml
-            // And set it into an indeterminate state
-            progressBar = (ProgressBar) findViewById(R.id.indeterminateBar);
-            progressBar.setProgress(0);
+            if(loader.getId() >= PAGE_LOADER_ID_BASE)
+                {
+                    onPageLoadFinished(loader.getId() - PAGE_LOADER_ID_BASE, earthquakes);
+                    return;
+                }
+
+            if(loader.getId() == STREAM_LOADER_ID)
+                {
+                    onStreamLoadFinished((EarthquakeStreamLoader) loader, earthquakes);
+                    return;
+                }
+
+            boolean hasEarthquakes = earthquakes != null && !earthquakes.isEmpty();
 
-            // Once the onLoadFinished() method is called, the loading progressbar will disappear
+            // While only the stored earthquakes are known and the network refresh is still
+            // running, keep the progress bar if there is nothing to show yet
+            boolean refreshPending = ((EarthquakeLoader) loader).isRefreshPending();
+
+            if(hasEarthquakes || !refreshPending)
+                {
+                    // Set the progress bar into an indeterminate state
+                    progressBar.setProgress(0);
+
+                    // Once the onLoadFinished() method is called, the loading progressbar will disappear
+                    progressBar.setVisibility(View.GONE);
+
+                    // Set the state TextView to show a text that says "Not Earthquakes found",
+                    // or "Not connected to any Network" if nothing was stored either
+                    mStateTextView.setText(isConnected ? R.string.no_earthquakes : R.string.no_internet);
+                }
+
+            mFirstPage = hasEarthquakes ? earthquakes : null;
+            mQueryEngine = ((EarthquakeLoader) loader).getQueryEngine();
+            showEarthquakes();
+        }
+
+    /**
+     * Shows the earthquakes of the current query: the first page and the pages after it for
+     * the default query, the loaded earthquakes filtered and sorted on the device if they cover
+     * the query, or else a USGS request narrowed down to the query, streamed in as it arrives.
+     */
+    private void showEarthquakes()
+        {
+            if(mLiveFeed)
+                {
+                    // Show the feed as of the last poll, the loader keeps polling it while started
+                    stopStream();
+                    mPager.showRows(mFeedRows != null ? mFeedRows : new ArrayList<Earthquake>());
+                    mStats.replaceAll(mFeedRows != null ? mFeedRows : new ArrayList<Earthquake>());
+                    mSearchIndex.replaceAll(mFeedRows != null ? mFeedRows : new ArrayList<Earthquake>());
+                    if(mFeedRows == null)
+                        {
+                            progressBar.setVisibility(View.VISIBLE);
+                        }
+                    getLoaderManager().initLoader(FEED_LOADER_ID, null, mFeedCallbacks);
+                }
+            else if(mQuery.equals(DEFAULT_QUERY))
+                {
+                    // Start over with the new first page. This drops the pages fetched after it,
+                    // since the offsets of their rows may have changed with the new data
+                    stopStream();
+                    mPager.reset(mFirstPage);
+                    mStats.replaceAll(mFirstPage != null ? mFirstPage : new ArrayList<Earthquake>());
+                    mSearchIndex.replaceAll(mFirstPage != null ? mFirstPage : new ArrayList<Earthquake>());
+                }
+            else if(mQueryEngine != null && mQueryEngine.canAnswer(mQuery))
+                {
+                    long start = SystemClock.elapsedRealtime();
+                    stopStream();
+                    List<Earthquake> rows = mQueryEngine.select(mQuery);
+                    mPager.showRows(rows);
+                    mStats.replaceAll(rows);
+                    mSearchIndex.replaceAll(rows);
+                    Log.i(LOG_TAG, "Answered " + mQuery + " on the device in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                }
+            else
+                {
+                    // A query loaded whole can return thousands of rows, so it is asked for in
+                    // CSV, which is a fraction of the GeoJSON on the wire and cheaper to parse.
+                    // The pages stay in GeoJSON like the first page they continue
+                    String requestUrl = mQuery.applyTo(UsgsQuery.parse(USGS_REQUEST_URL))
+                            .with("format", QueryUtils.FORMAT_CSV).toUrl();
+                    if(requestUrl.equals(mStreamUrl))
+                        {
+                            // Already streaming this request, show all of its rows again
+                            mPager.showRows(mStreamRows);
+                        }
+                    else
+                        {
+                            startStream(requestUrl);
+                        }
+                }
+
+            // Notifying the ListView only rebinds the rows that are on screen
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            updateSummary();
+        }
+
+    /**
+     * Narrows the list down to the rows whose place contains the text in the search box and
+     * that are near mNearbyCenter, or shows every row again if neither is set. The rows are
+     * looked up in mSearchIndex and mSpatialIndex, so this is called again whenever the rows
+     * change and costs about the same for a page or a streamed catalogue. The matches are
+     * shown over the rows of the pager, which keeps its pages for when the search is cleared.
+     */
+    private void applySearch()
+        {
+            if(mSearchQuery.isEmpty() && mNearbyCenter == null)
+                {
+                    mPager.setFilteredRows(null);
+                    return;
+                }
+            long start = SystemClock.elapsedRealtime();
+            Comparator<Earthquake> order = mLiveFeed ? EarthquakeQuery.MOST_RECENT_FIRST : mQuery.getComparator();
+            List<Earthquake> matches;
+            if(mSearchQuery.isEmpty())
+                {
+                    matches = findNearby(order);
+                }
+            else
+                {
+                    matches = mSearchIndex.search(mSearchQuery, order);
+
+                    //The places found are few, so they are checked one by one
+                    if(mNearbyCenter != null)
+                        {
+                            List<Earthquake> nearby = new ArrayList<>();
+                            for (int i = 0; i < matches.size(); i++)
+                                {
+                                    Earthquake earthquake = matches.get(i);
+                                    if(EarthquakeSpatialIndex.distanceKm(mNearbyCenter.getLatitude(),
+                                            mNearbyCenter.getLongitude(), earthquake.getLatitude(),
+                                            earthquake.getLongitude()) <= NEARBY_RADIUS_KM)
+                                        {
+                                            nearby.add(earthquake);
+                                        }
+                                }
+                            matches = nearby;
+                        }
+                }
+            mPager.setFilteredRows(matches);
+            Log.i(LOG_TAG, "Found " + matches.size() + " of " + mSearchIndex.size() + " earthquakes in \""
+                    + mSearchQuery + "\"" + (mNearbyCenter != null ? " near " + mNearbyCenter.getCity() : "")
+                    + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+
+    /**
+     * Returns the rows within NEARBY_RADIUS_KM of mNearbyCenter in the given order. The
+     * spatial index over the rows is only built again after they changed, so picking another
+     * earthquake is a lookup of the few grid cells around it.
+     */
+    private List<Earthquake> findNearby(Comparator<Earthquake> order)
+        {
+            if(mSpatialIndex == null || mSpatialIndexVersion != mSearchIndex.getVersion())
+                {
+                    mSpatialIndexRows = mSearchIndex.getEvents();
+                    mSpatialIndex = new EarthquakeSpatialIndex(EarthquakeCatalog.from(mSpatialIndexRows));
+                    mSpatialIndexVersion = mSearchIndex.getVersion();
+                }
+
+            //The catalogue rows are in the order of mSpatialIndexRows, which holds the formatted rows
+            int[] rows = mSpatialIndex.queryRadius(mNearbyCenter.getLatitude(), mNearbyCenter.getLongitude(),
+                    NEARBY_RADIUS_KM);
+            List<Earthquake> nearby = new ArrayList<>(rows.length);
+            for (int i = 0; i < rows.length; i++)
+                {
+                    nearby.add(mSpatialIndexRows.get(rows[i]));
+                }
+            Collections.sort(nearby, order);
+            return nearby;
+        }
+
+    /**
+     * Narrows the list down to the earthquakes around the given one, or shows every row again
+     * if it is null.
+     */
+    private void showNearby(Earthquake center)
+        {
+            if(center != null && (Double.isNaN(center.getLatitude()) || Double.isNaN(center.getLongitude())))
+                {
+                    Toast.makeText(this, R.string.nearby_unknown, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+            mNearbyCenter = center;
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            mListView.setSelection(0);
+            Toast.makeText(this, center != null
+                    ? getString(R.string.nearby_shown, NEARBY_RADIUS_KM, center.getDisplay().getPrimaryLocation())
+                    : getString(R.string.nearby_cleared), Toast.LENGTH_SHORT).show();
+        }
+
+    /**
+     * Starts streaming a narrowed down request into an empty list. A narrowed down request
+     * covers at most the 12 months of the time menu above the minimum magnitude of the menu,
+     * so it is loaded whole rather than paged through.
+     */
+    private void startStream(String requestUrl)
+        {
+            mStreamUrl = requestUrl;
+            mStreamRows = new ArrayList<>();
+            mPager.showRows(mStreamRows);
+            mStats.clear();
+            mSearchIndex.clear();
+            updateSummary();
+            progressBar.setVisibility(View.VISIBLE);
+            getLoaderManager().restartLoader(STREAM_LOADER_ID, null, this);
+        }
+
+    /**
+     * Stops streaming the narrowed down request, if any. This can be called from a loader
+     * callback, so the loader is destroyed after the callback returned.
+     */
+    private void stopStream()
+        {
+            if(mStreamUrl == null)
+                {
+                    return;
+                }
+            mStreamUrl = null;
+            mStreamRows = null;
+            mListView.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        {
+                            // Unless another request started streaming meanwhile
+                            if(mStreamUrl == null)
+                                {
+                                    getLoaderManager().destroyLoader(STREAM_LOADER_ID);
+                                }
+                        }
+                });
+        }
+
+    /**
+     * Adds the next earthquakes of the streamed request to the list. The progress bar goes
+     * away with the first batch, long before the whole response was read.
+     */
+    @Override
+    public void onEarthquakesBatch(EarthquakeStreamLoader loader, List<Earthquake> batch)
+        {
+            if(!loader.getUrl().equals(mStreamUrl))
+                {
+                    return;
+                }
             progressBar.setVisibility(View.GONE);
+            mStreamRows.addAll(batch);
+            mStats.putAll(batch);
+            mSearchIndex.putAll(batch);
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            updateSummary();
+        }
 
-            // Set the state TextView to show a text that says "Not Earthquakes found"
-            mStateTextView.setText(R.string.no_earthquakes);
+    /**
+     * Shows the complete result of the streamed request, which only adds the rows of batches
+     * that weren't received (for example by an activity created meanwhile).
+     */
+    private void onStreamLoadFinished(EarthquakeStreamLoader loader, List<Earthquake> earthquakes)
+        {
+            if(!loader.getUrl().equals(mStreamUrl))
+                {
+                    return;
+                }
+            progressBar.setVisibility(View.GONE);
 
-            // Clear the adapter of previous earthquake data
-            mAdapter.clear();
+            //If the request failed midway, keep the rows that made it
+            if(earthquakes != null)
+                {
+                    mStreamRows = earthquakes;
+                    mPager.showRows(earthquakes);
+
+                    //Only count the rows again if batches were missed
+                    if(earthquakes.size() != mStats.size())
+                        {
+                            mStats.replaceAll(earthquakes);
+                            mSearchIndex.replaceAll(earthquakes);
+                        }
+                }
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            updateSummary();
+        }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu)
+        {
+            getMenuInflater().inflate(R.menu.earthquake_menu, menu);
 
-            // If there is a valid list of {@link Earthquake} then add them to the adapter's
-            // data set. This will trigger the ListView to update
-            if(earthquakes != null && !earthquakes.isEmpty())
+            //Narrow the list down with every key typed, each search is a lookup in mSearchIndex
+            SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.search));
+            searchView.setQueryHint(getString(R.string.search_hint));
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener()
                 {
-                    // Add all the Earthquake infos to the adapter
-                    mAdapter.addAll(earthquakes);
+                    @Override
+                    public boolean onQueryTextSubmit(String query)
+                        {
+                            return onQueryTextChange(query);
+                        }
+
+                    @Override
+                    public boolean onQueryTextChange(String query)
+                        {
+                            String searchQuery = query.trim();
+                            if(searchQuery.equals(mSearchQuery))
+                                {
+                                    return true;
+                                }
+                            mSearchQuery = searchQuery;
+
+                            //Only the search changed, so the rows and their index stay as they are.
+                            //Without a search text, every row of the query is shown again
+                            applySearch();
+                            mAdapter.notifyDataSetChanged();
+                            return true;
+                        }
+                });
+            return true;
+        }
+
+    /**
+     * Polls the live summary feed, which is separate from the query loaders.
+     */
+    private final LoaderCallbacks<FeedMonitor.Changes> mFeedCallbacks = new LoaderCallbacks<FeedMonitor.Changes>()
+        {
+            @Override
+            public Loader<FeedMonitor.Changes> onCreateLoader(int i, Bundle bundle)
+                {
+                    return new FeedLoader(EarthquakeActivity.this, FeedMonitor.FEED_4_5_DAY);
+                }
+
+            @Override
+            public void onLoadFinished(Loader<FeedMonitor.Changes> loader, FeedMonitor.Changes changes)
+                {
+                    onFeedChanged(changes);
+                }
+
+            @Override
+            public void onLoaderReset(Loader<FeedMonitor.Changes> loader)
+                {
+                    mFeedRows = null;
+                }
+        };
+
+    /**
+     * Shows the live feed after a poll. A poll answered with a 304, or whose feed has the
+     * same events as before, leaves the list alone.
+     */
+    private void onFeedChanged(FeedMonitor.Changes changes)
+        {
+            if(!mLiveFeed)
+                {
+                    return;
+                }
+            progressBar.setVisibility(View.GONE);
+
+            //A failed poll keeps the rows of the last one
+            if(changes == null || (mFeedRows != null && changes.isEmpty()))
+                {
+                    return;
+                }
+
+            // Unchanged events are the same instances as before, so only the new and changed
+            // rows are formatted and their views rebound with new texts. They are also the only
+            // ones counted again
+            if(mFeedRows == null)
+                {
+                    mStats.replaceAll(changes.getSnapshot());
+                    mSearchIndex.replaceAll(changes.getSnapshot());
+                }
+            else
+                {
+                    mStats.putAll(changes.getAdded());
+                    mStats.putAll(changes.getChanged());
+                    mSearchIndex.putAll(changes.getAdded());
+                    mSearchIndex.putAll(changes.getChanged());
+                    for (String key : changes.getRemovedKeys())
+                        {
+                            mStats.remove(key);
+                            mSearchIndex.remove(key);
+                        }
+                }
+            mFeedRows = changes.getSnapshot();
+            mPager.showRows(mFeedRows);
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            updateSummary();
+            Log.i(LOG_TAG, "Live feed: " + changes);
+        }
+
+    /**
+     * Shows the counts of the rows in the list above it, if the summary is turned on. This
+     * only reads counters, the rows are not looked at again.
+     */
+    private void updateSummary()
+        {
+            if(!mShowSummary || mStats.size() == 0)
+                {
+                    mSummaryView.setVisibility(View.GONE);
+                    return;
+                }
+
+            long now = System.currentTimeMillis();
+            StringBuilder bands = new StringBuilder();
+            for (int band = EarthquakeAdapter.MAGNITUDE_BAND_COUNT - 1; band >= 0; band--)
+                {
+                    int count = mStats.getBandCount(band);
+                    if(count > 0)
+                        {
+                            if(bands.length() > 0)
+                                {
+                                    bands.append("  ");
+                                }
+                            bands.append('M').append(band)
+                                    .append(band == EarthquakeAdapter.MAGNITUDE_BAND_COUNT - 1 ? "+" : "")
+                                    .append(": ").append(count);
+                        }
+                }
+
+            StringBuilder regions = new StringBuilder();
+            for (String region : mStats.getTopRegions(SUMMARY_REGION_COUNT))
+                {
+                    if(regions.length() > 0)
+                        {
+                            regions.append(", ");
+                        }
+                    regions.append(region).append(' ').append(mStats.getRegionCount(region));
+                }
+
+            mSummaryView.setText(getString(R.string.summary_counts, mStats.size(),
+                    mStats.getCountInHours(now, 24), mStats.getCountInDays(now, 7))
+                    + "\n" + getString(R.string.summary_largest, formatMagnitude(mStats.getMaxMagnitude()),
+                    formatMagnitude(mStats.getMaxMagnitudeInHours(now, 24)))
+                    + "\n" + getString(R.string.summary_bands, bands)
+                    + "\n" + getString(R.string.summary_regions, regions));
+            mSummaryView.setVisibility(View.VISIBLE);
+        }
+
+    /**
+     * Formats a magnitude of the summary like "6.2", with a point whatever the locale, as
+     * USGS writes magnitudes. No magnitude (NaN) is shown as "-".
+     */
+    private static String formatMagnitude(double magnitude)
+        {
+            return Double.isNaN(magnitude) ? "-" : String.format(Locale.US, "%.1f", magnitude);
+        }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item)
+        {
+            if(item.getItemId() == R.id.show_summary)
+                {
+                    mShowSummary = !item.isChecked();
+                    item.setChecked(mShowSummary);
+                    updateSummary();
+                    return true;
+                }
+
+            if(item.getItemId() == R.id.live_feed)
+                {
+                    mLiveFeed = !item.isChecked();
+                    item.setChecked(mLiveFeed);
+                    if(!mLiveFeed)
+                        {
+                            // Stop polling, the feed is fetched again when it is turned back on
+                            getLoaderManager().destroyLoader(FEED_LOADER_ID);
+                            mFeedRows = null;
+                            progressBar.setVisibility(View.GONE);
+                        }
+                    showEarthquakes();
+                    return true;
+                }
+
+            switch (item.getItemId())
+                {
+                    case R.id.min_magnitude_5:
+                        mMinMagnitude = 5;
+                        break;
+                    case R.id.min_magnitude_6:
+                        mMinMagnitude = 6;
+                        break;
+                    case R.id.min_magnitude_7:
+                        mMinMagnitude = 7;
+                        break;
+                    case R.id.time_window_all:
+                        mTimeWindowMillis = 0;
+                        break;
+                    case R.id.time_window_day:
+                        mTimeWindowMillis = DAY_IN_MILLISECONDS;
+                        break;
+                    case R.id.time_window_week:
+                        mTimeWindowMillis = 7 * DAY_IN_MILLISECONDS;
+                        break;
+                    case R.id.time_window_year:
+                        mTimeWindowMillis = 365 * DAY_IN_MILLISECONDS;
+                        break;
+                    case R.id.order_by_time:
+                        mOrderBy = EarthquakeQuery.ORDER_BY_TIME;
+                        break;
+                    case R.id.order_by_magnitude:
+                        mOrderBy = EarthquakeQuery.ORDER_BY_MAGNITUDE;
+                        break;
+                    default:
+                        return super.onOptionsItemSelected(item);
+                }
+            item.setChecked(true);
+
+            mQuery = EarthquakeQuery.ALL
+                    .withMagnitudeRange(mMinMagnitude, Double.POSITIVE_INFINITY)
+                    .withOrderBy(mOrderBy);
+            if(mTimeWindowMillis > 0)
+                {
+                    mQuery = mQuery.withTimeRange(System.currentTimeMillis() - mTimeWindowMillis, Long.MAX_VALUE);
+                }
+            showEarthquakes();
+            return true;
+        }
+
+    /**
+     * Puts a page fetched while scrolling into the pager.
+     */
+    private void onPageLoadFinished(final int page, List<Earthquake> earthquakes)
+        {
+            if(earthquakes == null)
+                {
+                    //The fetch failed, the page will be requested again when it is scrolled to
+                    mPager.onPageFailed(page);
+                    destroyPageLoader(page);
+                    return;
+                }
+
+            mPager.putPage(page, earthquakes);
+            mStats.putAll(earthquakes);
+            mSearchIndex.putAll(earthquakes);
+            applySearch();
+            mAdapter.notifyDataSetChanged();
+            updateSummary();
+        }
+
+    /**
+     * Destroys the loader of a page that is no longer needed, so it lets go of its data.
+     * This can be called from a loader callback, so it runs after the callback returned.
+     */
+    private void destroyPageLoader(final int page)
+        {
+            mListView.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        {
+                            getLoaderManager().destroyLoader(PAGE_LOADER_ID_BASE + page);
+                        }
+                });
+        }
+
+    /**
+     * Adds the pipeline metrics to "adb shell dumpsys activity", so they can be read from
+     * any build without attaching a debugger.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args)
+        {
+            super.dump(prefix, fd, writer, args);
+            PipelineMetrics.dump(writer);
+            writer.println(DetailCache.getInstance());
+        }
+
+    @Override
+    protected void onDestroy()
+        {
+            super.onDestroy();
+
+            // The details of this list are no longer needed, the cache keeps the ones that came
+            mDetails.close();
+
+            // The stream loader outlives the activity, so it must not keep publishing to it
+            Loader<List<Earthquake>> streamLoader = getLoaderManager().getLoader(STREAM_LOADER_ID);
+            if(streamLoader != null)
+                {
+                    ((EarthquakeStreamLoader) streamLoader).setBatchCallbacks(null);
                 }
         }
 
@@ -284,6 +1044,11 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             Log.i(LOG_TAG, "TEST: onLoaderReset() called ... ");
 
             // Loader reset, so we can clear out our existing data
-            mAdapter.clear();
+            if(loader.getId() == EARTHQUAKE_LOADER_ID)
+                {
+                    mFirstPage = null;
+                    mQueryEngine = null;
+                    showEarthquakes();
+                }
         }
 }
@@ -1,52 +1,117 @@
 package com.example.android.quakereport;
 
 import android.app.Activity;
+import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 import android.graphics.drawable.GradientDrawable;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Locale;
 
 /**
  * Created by test-pc on 20-Jan-18.
  */
 
-public class EarthquakeAdapter extends ArrayAdapter {
+public class EarthquakeAdapter extends BaseAdapter {
 
-    private String fullLocation;
-    private String offsetLocation;
-    private String primaryLocation;
-    private static final String LOCATION_SEPARATOR = " of ";
+    /**
+     * The colors for the magnitude circle based on the intensity of the earthquake, indexed by
+     * the floor of the magnitude. Everything from 10 up uses the last one.
+     */
+    private static final int[] MAGNITUDE_COLOR_RESOURCE_IDS =
+            {
+                    R.color.magnitude1,
+                    R.color.magnitude1,
+                    R.color.magnitude2,
+                    R.color.magnitude3,
+                    R.color.magnitude4,
+                    R.color.magnitude5,
+                    R.color.magnitude6,
+                    R.color.magnitude7,
+                    R.color.magnitude8,
+                    R.color.magnitude9,
+                    R.color.magnitude10plus
+            };
+
+    /* The number of magnitude bands the rows are colored by */
+    static final int MAGNITUDE_BAND_COUNT = MAGNITUDE_COLOR_RESOURCE_IDS.length;
+
+    private final Activity mContext;
+
+    /* The window of pages the rows are read from */
+    private final EarthquakePager mPager;
+
+    /* The details fetched for the rows near the visible ones */
+    private final DetailCache mDetailCache;
+
+    /* Formats rows that weren't formatted by the loader, only ever used on the main thread */
+    private EarthquakeFormatter mFormatter;
 
     /**
      * This is our own custom constructor (it doesn't mirror a superclass constructor).
-     * The context is used to inflate the layout file, and the list is the data we want
+     * The context is used to inflate the layout file, and the pager holds the data we want
      * to populate into the lists.
      *
      * @param context        The current context. Used to inflate the layout file.
-     * @param earthquake List of AndroidFlavor objects to display in a list
+     * @param pager The pages of earthquakes to display in a list
+     * @param detailCache The details shown in the rows that have one
      */
-    public EarthquakeAdapter(Activity context, ArrayList<Earthquake> earthquake)
+    public EarthquakeAdapter(Activity context, EarthquakePager pager, DetailCache detailCache)
+        {
+            mContext = context;
+            mPager = pager;
+            mDetailCache = detailCache;
+        }
+
+    public Context getContext()
         {
-            // Here, we initialize the ArrayAdapter's internal storage for the context and the list.
-            // the second argument is used when the ArrayAdapter is populating a single TextView.
-            // Because this is a custom adapter for two TextViews and an ImageView, the adapter is not
-            // going to use this second argument, so it can be any value. Here, we used 0.
-            super(context, 0, earthquake);
+            return mContext;
+        }
+
+    @Override
+    public int getCount()
+        {
+            return mPager.getCount();
+        }
+
+    /**
+     * Returns the earthquake at the given position, or null while its page is being fetched.
+     */
+    @Override
+    public Earthquake getItem(int position)
+        {
+            return mPager.getItem(position);
+        }
+
+    /**
+     * Rows are identified by their USGS event, so the ListView can keep its state when pages
+     * arrive or are dropped.
+     */
+    @Override
+    public long getItemId(int position)
+        {
+            return mPager.getItemId(position);
+        }
+
+    @Override
+    public boolean hasStableIds()
+        {
+            return true;
         }
 
     /**
      * Provides a view for an AdapterView (ListView, GridView, etc.)
      *
+     * The texts and the color of each row were formatted by the loader into an
+     * {@link EarthquakeDisplay}, and the views of a row are looked up once and kept in a
+     * {@link ViewHolder}, so binding a row only assigns fields.
+     *
      * @param position The position in the list of data that should be displayed in the
      *                 list item view.
      * @param convertView The recycled view to populate.
@@ -57,116 +122,46 @@ public class EarthquakeAdapter extends ArrayAdapter {
     @Override
     public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent)
         {
+            long start = System.nanoTime();
             View listItemView = convertView;
+            ViewHolder holder;
             if(listItemView == null)
                 {
                     listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
-                }
-
-            // Get the {@link Earthquake} object located at this position in the list
-            Earthquake currentEarthquake = (Earthquake) getItem(position);
-
-            DecimalFormat formatter = new DecimalFormat("0.0");
-
-            // Find the TextView in the list_item.xml layout with the ID version_name
-            TextView magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude);
-
-            // Get the version name from the current AndroidFlavor object and
-            // set this text on the name TextView
-            magnitudeTextView.setText(String.valueOf(formatter.format(currentEarthquake.getMagnitude())));
-
-            // Set the proper background color on the magnitude circle.
-            // Fetch the background from the TextView, which is a GradientDrawable.
-            GradientDrawable magnitudeCircle = (GradientDrawable) listItemView.findViewById(R.id.magnitude).getBackground();
-
-            // Get the appropriate background color based on the current earthquake magnitude
-            int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-
-            // Set the color on the magnitude circle
-            magnitudeCircle.setColor(magnitudeColor);
-
-            //Get the complete location as is from the JSON data that was used
-            fullLocation = currentEarthquake.getCity();
-
-            //If the complete location contains a " of "
-            if (fullLocation.contains(LOCATION_SEPARATOR))
-                {
-                    //Splits the original location into an array at the index of the string " of "
-                    String[] parts = fullLocation.split(LOCATION_SEPARATOR);
-
-                    //Index 0 is used as the offset location with the " of " added to it
-                    offsetLocation = parts[0] + LOCATION_SEPARATOR;
-
-                    //Index 1 is used as the primary location, which is the rest of the original
-                    //String after the " of "
-                    primaryLocation = parts[1];
+                    holder = new ViewHolder(listItemView);
+                    listItemView.setTag(holder);
                 }
             else
                 {
-                    //Set the value of offsetLoaction to be the value that is
-                    //used in the String values directory, named "near_the"
-                    offsetLocation = getContext().getString(R.string.near_the);
-
-                    //The primary location value is set to be the original value that was queried
-                    //from JSON
-                    primaryLocation = fullLocation;
+                    holder = (ViewHolder) listItemView.getTag();
                 }
 
-            TextView primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_Location);
-            primaryLocationView.setText(primaryLocation);
-
-            TextView locationOffsetView = (TextView) listItemView.findViewById(R.id.offset_Location);
-            locationOffsetView.setText(offsetLocation);
+            // Get the {@link Earthquake} object located at this position in the list
+            Earthquake currentEarthquake = getItem(position);
 
-            /*
-            //Alternative code that i made by myself
-            if(fullLocation.contains("of"))
+            // While the page of this row is being fetched, show an empty row
+            if(currentEarthquake == null)
                 {
-                    int length = fullLocation.length();
-                    int index = fullLocation.indexOf("of") + 3;
-                    offsetLocation = fullLocation.substring(0, index);
-                    primaryLocation = fullLocation.substring(index, length);
-
-                    TextView offsetLocationTextView = (TextView) listItemView.findViewById(R.id.offset_Location);
-                    TextView primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primary_Location);
-
-                    offsetLocationTextView.setText(offsetLocation);
-                    primaryLocationTextView.setText(primaryLocation);
+                    holder.bindPlaceholder();
+                    PipelineMetrics.BIND.record(System.nanoTime() - start);
+                    return listItemView;
                 }
-            else
-                {
-                    offsetLocation = "Near the";
-
-                    TextView offsetLocationTextView = (TextView) listItemView.findViewById(R.id.offset_Location);
-                    TextView primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primary_Location);
 
-                    offsetLocationTextView.setText(offsetLocation);
-                    primaryLocationTextView.setText(fullLocation);
+            EarthquakeDisplay display = currentEarthquake.getDisplay();
+            if(display == null)
+                {
+                    // Only earthquakes that didn't come through a loader get here
+                    if(mFormatter == null)
+                        {
+                            mFormatter = newFormatter(getContext());
+                        }
+                    display = mFormatter.format(currentEarthquake);
+                    currentEarthquake.setDisplay(display);
                 }
-            */
-
-            //Get the millisecond value (from the JSON source) of the date where the earthquake happened
-            Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
-
-            //Cast a TextView that uses the id "date" from the list_item.xml layout
-            TextView dateTextView = (TextView) listItemView.findViewById(R.id.date);
-
-            //Convert the millisecond into a "Month Date, Year" format based on the formatDate()
-            //method below
-            String formattedDate = formatDate(dateObject);
-
-            //Set the value of the new Date format into the TextView that was created
-            dateTextView.setText(formattedDate);
-
-            //Cast a TextView that uses the id "time" from the list_item.xml layout
-            TextView timeTextView = (TextView) listItemView.findViewById(R.id.time);
-
-            //Convert the millisecond into a "hh:mm AM/PN" format based on the formatTime()
-            //method below
-            String formattedTime = formatTime(dateObject);
 
-            //Set the value of the new Date format into the TextView that was created
-            timeTextView.setText(formattedTime);
+            holder.bind(display);
+            holder.bindDetail(mDetailCache.get(currentEarthquake));
+            PipelineMetrics.BIND.record(System.nanoTime() - start);
 
             // Return the whole list item layout (containing 2 TextViews and an ImageView)
             // so that it can be shown in the ListView
@@ -174,72 +169,126 @@ public class EarthquakeAdapter extends ArrayAdapter {
         }
 
     /**
-     * Converts the data of time (in milliseconds) from when the Earthquake happened that we got
-     * from JSON into a "Month Date, Year" format
+     * Creates a formatter that uses the colors and texts of the list rows.
+     * Formatters are not thread safe, so every thread needs its own.
      *
-     * @param dateObject the date when the Earthquake happened (in milliseconds)
+     * @param context used to resolve the colors and strings
      */
-    private String formatDate(Date dateObject)
+    public static EarthquakeFormatter newFormatter(Context context)
         {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyy");
-            return dateFormat.format(dateObject);
+            int[] magnitudeColors = new int[MAGNITUDE_COLOR_RESOURCE_IDS.length];
+            for (int i = 0; i < magnitudeColors.length; i++)
+                {
+                    magnitudeColors[i] = ContextCompat.getColor(context, MAGNITUDE_COLOR_RESOURCE_IDS[i]);
+                }
+            return new EarthquakeFormatter(context.getString(R.string.near_the), magnitudeColors);
         }
 
     /**
-     * Converts the data of time (in milliseconds) from when the Earthquake happened that we got
-     * from JSON into a "hh:mm AM/PM" format
+     * Formats the line of a detail shown under the place, such as "PAGER ORANGE, Tsunami,
+     * Felt by 1,204, MMI 7.1". This is called on the thread that fetched the detail.
      *
-     * @param dateObject the date when the Earthquake happened (in milliseconds)
+     * @param context used to resolve the strings
+     * @return the line, or null if the detail has nothing to show
      */
-    private String formatTime(Date dateObject)
+    public static String formatDetail(Context context, EarthquakeDetail detail)
         {
-            SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-            return timeFormat.format(dateObject);
+            StringBuilder text = new StringBuilder();
+            if(detail.getAlertLevel() != null)
+                {
+                    appendDetail(text, context.getString(R.string.detail_alert,
+                            detail.getAlertLevel().toUpperCase(Locale.US)));
+                }
+            if(detail.isTsunami())
+                {
+                    appendDetail(text, context.getString(R.string.detail_tsunami));
+                }
+            if(detail.getFeltReports() > 0)
+                {
+                    appendDetail(text, context.getString(R.string.detail_felt, detail.getFeltReports()));
+                }
+            if(!Double.isNaN(detail.getMaxEstimatedIntensity()))
+                {
+                    appendDetail(text, context.getString(R.string.detail_intensity,
+                            detail.getMaxEstimatedIntensity()));
+                }
+            else if(detail.hasShakeMap())
+                {
+                    appendDetail(text, context.getString(R.string.detail_shakemap));
+                }
+            return text.length() == 0 ? null : text.toString();
         }
 
-    /**
-     * Return the color for the magnitude circle based on the intensity of the earthquake.
-     *
-     * @param magnitude of the earthquake
-     */
-    private int getMagnitudeColor(double magnitude)
+    private static void appendDetail(StringBuilder text, String part)
         {
-            int magnitudeColorResourceID;
-            int magnitudeFloor = (int) Math.floor(magnitude);
-            switch (magnitudeFloor)
+            if(text.length() > 0)
                 {
-                    case 0:
-                    case 1:
-                        magnitudeColorResourceID = R.color.magnitude1;
-                        break;
-                    case 2:
-                        magnitudeColorResourceID = R.color.magnitude2;
-                        break;
-                    case 3:
-                        magnitudeColorResourceID = R.color.magnitude3;
-                        break;
-                    case 4:
-                        magnitudeColorResourceID = R.color.magnitude4;
-                        break;
-                    case 5:
-                        magnitudeColorResourceID = R.color.magnitude5;
-                        break;
-                    case 6:
-                        magnitudeColorResourceID = R.color.magnitude6;
-                        break;
-                    case 7:
-                        magnitudeColorResourceID = R.color.magnitude7;
-                        break;
-                    case 8:
-                        magnitudeColorResourceID = R.color.magnitude8;
-                        break;
-                    case 9:
-                        magnitudeColorResourceID = R.color.magnitude9;
-                        break;
-                    default:
-                        magnitudeColorResourceID = R.color.magnitude10plus;
-                        break;
+                    text.append(", ");
                 }
-            return ContextCompat.getColor(getContext(), magnitudeColorResourceID);
+            text.append(part);
         }
+
+    /**
+     * The views of a list item, looked up once when the item is inflated.
+     */
+    private static class ViewHolder {
+
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        final TextView primaryLocationView;
+        final TextView offsetLocationView;
+        final TextView dateView;
+        final TextView timeView;
+        final TextView detailsView;
+
+        ViewHolder(View listItemView)
+            {
+                magnitudeView = (TextView) listItemView.findViewById(R.id.magnitude);
+
+                // The background of the magnitude TextView is a GradientDrawable
+                magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+                primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_Location);
+                offsetLocationView = (TextView) listItemView.findViewById(R.id.offset_Location);
+                dateView = (TextView) listItemView.findViewById(R.id.date);
+                timeView = (TextView) listItemView.findViewById(R.id.time);
+                detailsView = (TextView) listItemView.findViewById(R.id.details);
+            }
+
+        void bind(EarthquakeDisplay display)
+            {
+                magnitudeView.setText(display.getMagnitudeText());
+                magnitudeCircle.setColor(display.getMagnitudeColor());
+                primaryLocationView.setText(display.getPrimaryLocation());
+                offsetLocationView.setText(display.getOffsetLocation());
+                dateView.setText(display.getDateText());
+                timeView.setText(display.getTimeText());
+            }
+
+        /**
+         * Shows the detail line of a row, or hides it while there is none.
+         */
+        void bindDetail(EarthquakeDetail detail)
+            {
+                if(detail == null || detail.getText() == null)
+                    {
+                        detailsView.setVisibility(View.GONE);
+                        return;
+                    }
+                detailsView.setText(detail.getText());
+                detailsView.setVisibility(View.VISIBLE);
+            }
+
+        /**
+         * Clears the texts of a row whose earthquake is not in memory yet.
+         */
+        void bindPlaceholder()
+            {
+                magnitudeView.setText("");
+                primaryLocationView.setText("");
+                offsetLocationView.setText("");
+                dateView.setText("");
+                timeView.setText("");
+                detailsView.setVisibility(View.GONE);
+            }
+    }
 }
@@ -0,0 +1,328 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A read-only, column oriented set of earthquakes for large results (USGS returns up to
+ * 20,000 events per query).
+ *
+ * Instead of one {@link Earthquake} object with its own strings per event, every field is kept
+ * in a primitive array indexed by row: magnitudes and coordinates in double[]s, times in
+ * long[]s, places as indexes into a table holding each distinct place once, and ids in a single
+ * byte pool. Event page urls are almost always {@link #USGS_EVENT_PAGE_PREFIX} followed by the
+ * id, so those are not stored at all. Reading a row through the getters below allocates
+ * nothing, except for {@link #getId(int)}, {@link #getUrl(int)} and {@link #get(int)}, which
+ * build their result.
+ */
+public final class EarthquakeCatalog {
+
+    /* The event page urls of USGS, which end with the event id */
+    static final String USGS_EVENT_PAGE_PREFIX = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int size;
+    private final double[] magnitudes;
+    private final long[] times;
+    private final long[] updatedTimes;
+    private final double[] longitudes;
+    private final double[] latitudes;
+    private final double[] depths;
+    private final int[] placeIndexes;
+    private final String[] places;
+
+    /* Ids (and the few urls that don't follow the USGS pattern) as UTF-8 in one array */
+    private final byte[] stringPool;
+
+    /* Row i's id is stringPool[rowStarts[i]] up to urlStarts[i] */
+    private final int[] rowStarts;
+
+    /* Row i's url is stringPool[urlStarts[i]] up to rowStarts[i + 1], or derived from the id if empty */
+    private final int[] urlStarts;
+
+    private EarthquakeCatalog(Builder builder)
+        {
+            size = builder.size;
+            magnitudes = Arrays.copyOf(builder.magnitudes, size);
+            times = Arrays.copyOf(builder.times, size);
+            updatedTimes = Arrays.copyOf(builder.updatedTimes, size);
+            longitudes = Arrays.copyOf(builder.longitudes, size);
+            latitudes = Arrays.copyOf(builder.latitudes, size);
+            depths = Arrays.copyOf(builder.depths, size);
+            placeIndexes = Arrays.copyOf(builder.placeIndexes, size);
+            places = Arrays.copyOf(builder.places, builder.placeCount);
+            stringPool = Arrays.copyOf(builder.stringPool, builder.stringPoolLength);
+            rowStarts = Arrays.copyOf(builder.rowStarts, size + 1);
+            urlStarts = Arrays.copyOf(builder.urlStarts, size);
+        }
+
+    /**
+     * Builds a catalogue holding the given earthquakes, in the same order.
+     */
+    public static EarthquakeCatalog from(List<Earthquake> earthquakes)
+        {
+            Builder builder = new Builder(earthquakes.size());
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    builder.add(earthquakes.get(i));
+                }
+            return builder.build();
+        }
+
+    public int size()
+        {
+            return size;
+        }
+
+    public double getMagnitude(int row)
+        {
+            return magnitudes[row];
+        }
+
+    public long getTimeInMilliseconds(int row)
+        {
+            return times[row];
+        }
+
+    public long getUpdatedInMilliseconds(int row)
+        {
+            return updatedTimes[row];
+        }
+
+    public double getLongitude(int row)
+        {
+            return longitudes[row];
+        }
+
+    public double getLatitude(int row)
+        {
+            return latitudes[row];
+        }
+
+    public double getDepth(int row)
+        {
+            return depths[row];
+        }
+
+    /**
+     * Returns the place of the row. Rows with the same place share one String.
+     */
+    public String getCity(int row)
+        {
+            return places[placeIndexes[row]];
+        }
+
+    /**
+     * Returns the index of the row's place in the place table, so rows can be grouped by
+     * place without comparing strings.
+     */
+    public int getPlaceIndex(int row)
+        {
+            return placeIndexes[row];
+        }
+
+    /**
+     * Returns the number of distinct places.
+     */
+    public int getPlaceCount()
+        {
+            return places.length;
+        }
+
+    /**
+     * Returns the place with the given index in the place table.
+     */
+    public String getPlace(int placeIndex)
+        {
+            return places[placeIndex];
+        }
+
+    /**
+     * Returns the USGS event id of the row, or null if it has none.
+     */
+    public String getId(int row)
+        {
+            int start = rowStarts[row];
+            int end = urlStarts[row];
+            return start == end ? null : new String(stringPool, start, end - start, UTF_8);
+        }
+
+    public String getUrl(int row)
+        {
+            int start = urlStarts[row];
+            int end = rowStarts[row + 1];
+            if(start == end)
+                {
+                    return USGS_EVENT_PAGE_PREFIX + getId(row);
+                }
+            return new String(stringPool, start, end - start, UTF_8);
+        }
+
+    /**
+     * Builds an {@link Earthquake} object for the row, for code that needs one.
+     */
+    public Earthquake get(int row)
+        {
+            return new Earthquake(getId(row), magnitudes[row], getCity(row), times[row],
+                    updatedTimes[row], getUrl(row), longitudes[row], latitudes[row], depths[row]);
+        }
+
+    /**
+     * Returns the number of bytes held by the arrays of this catalogue, counting each
+     * distinct place string once. Object headers and array lengths are left out.
+     */
+    public long getFootprintBytes()
+        {
+            long bytes = (long) size * (8 + 8 + 8 + 8 + 8 + 8 + 4) + (size * 2L + 1) * 4 + stringPool.length;
+            for (int i = 0; i < places.length; i++)
+                {
+                    bytes += 4 + places[i].length() * 2L;
+                }
+            return bytes;
+        }
+
+    /**
+     * Collects earthquakes row by row. A builder can only build one catalogue.
+     */
+    public static final class Builder {
+
+        private int size;
+        private double[] magnitudes;
+        private long[] times;
+        private long[] updatedTimes;
+        private double[] longitudes;
+        private double[] latitudes;
+        private double[] depths;
+        private int[] placeIndexes;
+        private int[] rowStarts;
+        private int[] urlStarts;
+
+        private final HashMap<String, Integer> placeTable = new HashMap<>();
+        private String[] places = new String[16];
+        private int placeCount;
+
+        private byte[] stringPool;
+        private int stringPoolLength;
+
+        /**
+         * Constructs a new {@link Builder}.
+         *
+         * @param expectedSize the number of rows to make room for, the builder grows if needed
+         */
+        public Builder(int expectedSize)
+            {
+                int capacity = Math.max(expectedSize, 16);
+                magnitudes = new double[capacity];
+                times = new long[capacity];
+                updatedTimes = new long[capacity];
+                longitudes = new double[capacity];
+                latitudes = new double[capacity];
+                depths = new double[capacity];
+                placeIndexes = new int[capacity];
+                rowStarts = new int[capacity + 1];
+                urlStarts = new int[capacity];
+                stringPool = new byte[capacity * 12];
+            }
+
+        public Builder add(Earthquake earthquake)
+            {
+                return add(earthquake.getId(), earthquake.getMagnitude(), earthquake.getCity(),
+                        earthquake.getTimeInMilliseconds(), earthquake.getUpdatedInMilliseconds(),
+                        earthquake.getUrl(), earthquake.getLongitude(), earthquake.getLatitude(),
+                        earthquake.getDepth());
+            }
+
+        /**
+         * Adds a row with the same fields as an {@link Earthquake}.
+         */
+        public Builder add(String id, double magnitude, String place, long timeInMilliseconds,
+                           long updatedInMilliseconds, String url,
+                           double longitude, double latitude, double depth)
+            {
+                if(size == magnitudes.length)
+                    {
+                        grow();
+                    }
+                magnitudes[size] = magnitude;
+                times[size] = timeInMilliseconds;
+                updatedTimes[size] = updatedInMilliseconds;
+                longitudes[size] = longitude;
+                latitudes[size] = latitude;
+                depths[size] = depth;
+                placeIndexes[size] = getPlaceIndex(place);
+
+                rowStarts[size] = stringPoolLength;
+                if(id != null)
+                    {
+                        appendToPool(id);
+                    }
+
+                urlStarts[size] = stringPoolLength;
+                boolean derivedUrl = id != null && !id.isEmpty() && url != null
+                        && url.length() == USGS_EVENT_PAGE_PREFIX.length() + id.length()
+                        && url.startsWith(USGS_EVENT_PAGE_PREFIX) && url.endsWith(id);
+                if(!derivedUrl && url != null)
+                    {
+                        appendToPool(url);
+                    }
+
+                size++;
+                rowStarts[size] = stringPoolLength;
+                return this;
+            }
+
+        public EarthquakeCatalog build()
+            {
+                return new EarthquakeCatalog(this);
+            }
+
+        private int getPlaceIndex(String place)
+            {
+                if(place == null)
+                    {
+                        place = "";
+                    }
+                Integer index = placeTable.get(place);
+                if(index != null)
+                    {
+                        return index;
+                    }
+                if(placeCount == places.length)
+                    {
+                        places = Arrays.copyOf(places, placeCount * 2);
+                    }
+                places[placeCount] = place;
+                placeTable.put(place, placeCount);
+                return placeCount++;
+            }
+
+        private void appendToPool(String value)
+            {
+                byte[] bytes = value.getBytes(UTF_8);
+                if(stringPoolLength + bytes.length > stringPool.length)
+                    {
+                        stringPool = Arrays.copyOf(stringPool,
+                                Math.max(stringPool.length * 2, stringPoolLength + bytes.length));
+                    }
+                System.arraycopy(bytes, 0, stringPool, stringPoolLength, bytes.length);
+                stringPoolLength += bytes.length;
+            }
+
+        private void grow()
+            {
+                int capacity = magnitudes.length * 2;
+                magnitudes = Arrays.copyOf(magnitudes, capacity);
+                times = Arrays.copyOf(times, capacity);
+                updatedTimes = Arrays.copyOf(updatedTimes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                placeIndexes = Arrays.copyOf(placeIndexes, capacity);
+                rowStarts = Arrays.copyOf(rowStarts, capacity + 1);
+                urlStarts = Arrays.copyOf(urlStarts, capacity);
+            }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Creates and upgrades the on-device earthquake database.
+ */
+public class EarthquakeDbHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "earthquakes.db";
+    private static final int DATABASE_VERSION = 3;
+
+    /* Table and column names of the earthquakes table */
+    public static final String TABLE_EARTHQUAKES = "earthquakes";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_EVENT_ID = "event_id";
+    public static final String COLUMN_MAGNITUDE = "magnitude";
+    public static final String COLUMN_PLACE = "place";
+    public static final String COLUMN_TIME = "time";
+    public static final String COLUMN_UPDATED = "updated";
+    public static final String COLUMN_URL = "url";
+    public static final String COLUMN_LONGITUDE = "longitude";
+    public static final String COLUMN_LATITUDE = "latitude";
+    public static final String COLUMN_DEPTH = "depth";
+
+    private static final String SQL_CREATE_EARTHQUAKES =
+            "CREATE TABLE " + TABLE_EARTHQUAKES + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_EVENT_ID + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_MAGNITUDE + " REAL, "
+                    + COLUMN_PLACE + " TEXT, "
+                    + COLUMN_TIME + " INTEGER NOT NULL, "
+                    + COLUMN_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_URL + " TEXT, "
+                    + COLUMN_LONGITUDE + " REAL, "
+                    + COLUMN_LATITUDE + " REAL, "
+                    + COLUMN_DEPTH + " REAL)";
+
+    /* The event id is already indexed through its UNIQUE constraint */
+    private static final String SQL_CREATE_TIME_INDEX =
+            "CREATE INDEX earthquakes_time ON " + TABLE_EARTHQUAKES + " (" + COLUMN_TIME + ")";
+
+    private static final String SQL_CREATE_MAGNITUDE_INDEX =
+            "CREATE INDEX earthquakes_magnitude ON " + TABLE_EARTHQUAKES + " (" + COLUMN_MAGNITUDE + ")";
+
+    private static EarthquakeDbHelper sInstance;
+
+    /**
+     * Returns the single helper of the process, so every caller shares one connection.
+     */
+    public static synchronized EarthquakeDbHelper getInstance(Context context)
+        {
+            if(sInstance == null)
+                {
+                    sInstance = new EarthquakeDbHelper(context.getApplicationContext());
+                }
+            return sInstance;
+        }
+
+    private EarthquakeDbHelper(Context context)
+        {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+        {
+            db.execSQL(SQL_CREATE_EARTHQUAKES);
+            db.execSQL(SQL_CREATE_TIME_INDEX);
+            db.execSQL(SQL_CREATE_MAGNITUDE_INDEX);
+        }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+        {
+            // The table only caches data from USGS, so it can simply be rebuilt. EarthquakeSync
+            // fetches the whole query again when it finds the table empty
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_EARTHQUAKES);
+            onCreate(db);
+        }
+}
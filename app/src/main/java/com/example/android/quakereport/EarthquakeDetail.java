@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+/**
+ * The fields of an event's detail GeoJSON that the list query doesn't return: how many people
+ * reported feeling it, the tsunami flag, the PAGER alert level and whether USGS made a
+ * ShakeMap for it.
+ *
+ * Details are fetched one event at a time by {@link DetailPrefetcher} and kept in a
+ * {@link DetailCache}, which is bounded by {@link #getSizeInBytes()}.
+ */
+public class EarthquakeDetail {
+
+    /* What an instance costs besides its strings: header, fields and padding */
+    private static final int BASE_SIZE_IN_BYTES = 48;
+
+    /* The number of "Did You Feel It?" reports, or -1 if USGS has none */
+    private final int feltReports;
+
+    /* The maximum reported and the maximum estimated intensity, or NaN */
+    private final double maxReportedIntensity;
+    private final double maxEstimatedIntensity;
+
+    /* The PAGER alert level (green, yellow, orange or red), or null */
+    private final String alertLevel;
+
+    private final boolean tsunami;
+    private final boolean hasShakeMap;
+
+    /* The line shown under the place, or null if it wasn't formatted yet */
+    private String text;
+
+    /**
+     * Constructs a new {@link EarthquakeDetail}.
+     *
+     * @param feltReports the number of felt reports, or -1 if there are none
+     * @param maxReportedIntensity the "cdi" property, or NaN
+     * @param maxEstimatedIntensity the "mmi" property, or NaN
+     * @param alertLevel the "alert" property, or null
+     * @param tsunami true if the "tsunami" property is 1
+     * @param hasShakeMap true if the event has a shakemap product
+     */
+    public EarthquakeDetail(int feltReports, double maxReportedIntensity, double maxEstimatedIntensity,
+                            String alertLevel, boolean tsunami, boolean hasShakeMap)
+        {
+            this.feltReports = feltReports;
+            this.maxReportedIntensity = maxReportedIntensity;
+            this.maxEstimatedIntensity = maxEstimatedIntensity;
+            this.alertLevel = alertLevel;
+            this.tsunami = tsunami;
+            this.hasShakeMap = hasShakeMap;
+        }
+
+    public int getFeltReports()
+        {
+            return feltReports;
+        }
+
+    public double getMaxReportedIntensity()
+        {
+            return maxReportedIntensity;
+        }
+
+    public double getMaxEstimatedIntensity()
+        {
+            return maxEstimatedIntensity;
+        }
+
+    public String getAlertLevel()
+        {
+            return alertLevel;
+        }
+
+    public boolean isTsunami()
+        {
+            return tsunami;
+        }
+
+    public boolean hasShakeMap()
+        {
+            return hasShakeMap;
+        }
+
+    /**
+     * Returns the line shown in the row, see {@link EarthquakeAdapter#formatDetail}.
+     */
+    public String getText()
+        {
+            return text;
+        }
+
+    void setText(String text)
+        {
+            this.text = text;
+        }
+
+    /**
+     * Returns true if there is anything to show besides the list fields.
+     */
+    public boolean isEmpty()
+        {
+            return feltReports < 0 && alertLevel == null && !tsunami && !hasShakeMap;
+        }
+
+    /**
+     * Returns about how much memory this detail holds on to, for bounding the cache.
+     */
+    public int getSizeInBytes()
+        {
+            return BASE_SIZE_IN_BYTES + (alertLevel == null ? 0 : 40 + 2 * alertLevel.length())
+                    + (text == null ? 0 : 40 + 2 * text.length());
+        }
+
+    @Override
+    public String toString()
+        {
+            return "EarthquakeDetail{felt=" + feltReports + ", cdi=" + maxReportedIntensity
+                    + ", mmi=" + maxEstimatedIntensity + ", alert=" + alertLevel
+                    + ", tsunami=" + tsunami + ", shakemap=" + hasShakeMap + "}";
+        }
+}
@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+/**
+ * Everything a list row shows for an {@link Earthquake}, formatted ahead of time by an
+ * {@link EarthquakeFormatter} on a background thread, so binding a row only assigns fields.
+ */
+public final class EarthquakeDisplay {
+
+    private final String magnitudeText;
+    private final int magnitudeColor;
+    private final String offsetLocation;
+    private final String primaryLocation;
+    private final String dateText;
+    private final String timeText;
+
+    /**
+     * Constructs a new {@link EarthquakeDisplay} object.
+     *
+     * @param magnitudeText is the magnitude with one decimal, like "5.3"
+     * @param magnitudeColor is the resolved color of the magnitude circle
+     * @param offsetLocation is the distance part of the location, like "74km NW of "
+     * @param primaryLocation is the place part of the location, like "Rumoi, Japan"
+     * @param dateText is the date in a "Month Date, Year" format
+     * @param timeText is the time in a "hh:mm AM/PM" format
+     */
+    public EarthquakeDisplay(String magnitudeText, int magnitudeColor, String offsetLocation,
+                             String primaryLocation, String dateText, String timeText)
+        {
+            this.magnitudeText = magnitudeText;
+            this.magnitudeColor = magnitudeColor;
+            this.offsetLocation = offsetLocation;
+            this.primaryLocation = primaryLocation;
+            this.dateText = dateText;
+            this.timeText = timeText;
+        }
+
+    public String getMagnitudeText()
+        {
+            return magnitudeText;
+        }
+
+    public int getMagnitudeColor()
+        {
+            return magnitudeColor;
+        }
+
+    public String getOffsetLocation()
+        {
+            return offsetLocation;
+        }
+
+    public String getPrimaryLocation()
+        {
+            return primaryLocation;
+        }
+
+    public String getDateText()
+        {
+            return dateText;
+        }
+
+    public String getTimeText()
+        {
+            return timeText;
+        }
+}
@@ -0,0 +1,135 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns parsed earthquakes into {@link EarthquakeDisplay} records.
+ *
+ * The number and date formats are created once per formatter and reused for every earthquake,
+ * so a formatter must only be used by one thread at a time. Loaders create one for each load.
+ */
+public class EarthquakeFormatter {
+
+    static final String LOCATION_SEPARATOR = " of ";
+
+    private final DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyy");
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
+    private final Date date = new Date();
+
+    /* Text shown as the offset of places without a distance, like "Near the" */
+    private final String nearThe;
+
+    /* Magnitude circle colors, indexed by the floor of the magnitude */
+    private final int[] magnitudeColors;
+
+    /**
+     * Constructs a new {@link EarthquakeFormatter}.
+     *
+     * @param nearThe is the offset text for locations without a " of " part
+     * @param magnitudeColors are the circle colors for the magnitude floors 0 up to
+     *                        magnitudeColors.length - 1; any other floor uses the last color
+     */
+    public EarthquakeFormatter(String nearThe, int[] magnitudeColors)
+        {
+            this.nearThe = nearThe;
+            this.magnitudeColors = magnitudeColors;
+        }
+
+    /**
+     * Formats every earthquake of the list that has no display record yet.
+     */
+    public void formatAll(List<Earthquake> earthquakes)
+        {
+            if(earthquakes == null)
+                {
+                    return;
+                }
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i);
+                    if(earthquake.getDisplay() == null)
+                        {
+                            earthquake.setDisplay(format(earthquake));
+                        }
+                }
+        }
+
+    /**
+     * Returns the display record of a single earthquake.
+     */
+    public EarthquakeDisplay format(Earthquake earthquake)
+        {
+            //Some events have no place, they are shown with an empty one
+            String fullLocation = earthquake.getCity() == null ? "" : earthquake.getCity();
+            String offsetLocation;
+            String primaryLocation;
+
+            //If the complete location contains a " of ", the part before it (with the " of ")
+            //is the offset and the part after it the primary location
+            int separator = fullLocation.indexOf(LOCATION_SEPARATOR);
+            offsetLocation = separator >= 0
+                    ? fullLocation.substring(0, separator + LOCATION_SEPARATOR.length())
+                    : nearThe;
+            primaryLocation = getPrimaryLocation(fullLocation);
+
+            date.setTime(earthquake.getTimeInMilliseconds());
+
+            return new EarthquakeDisplay(
+                    magnitudeFormat.format(earthquake.getMagnitude()),
+                    getMagnitudeColor(earthquake.getMagnitude()),
+                    offsetLocation,
+                    primaryLocation,
+                    dateFormat.format(date),
+                    timeFormat.format(date));
+        }
+
+    /**
+     * Returns the primary location of a USGS place, like "Hachinohe, Japan" for
+     * "10km SSW of Hachinohe, Japan": the part after the first " of " (up to a second one),
+     * or the whole place if it has none.
+     */
+    static String getPrimaryLocation(String fullLocation)
+        {
+            int separator = fullLocation.indexOf(LOCATION_SEPARATOR);
+            if(separator < 0)
+                {
+                    return fullLocation;
+                }
+            int primaryStart = separator + LOCATION_SEPARATOR.length();
+            int primaryEnd = fullLocation.indexOf(LOCATION_SEPARATOR, primaryStart);
+            return primaryEnd < 0
+                    ? fullLocation.substring(primaryStart)
+                    : fullLocation.substring(primaryStart, primaryEnd);
+        }
+
+    /**
+     * Return the color for the magnitude circle based on the intensity of the earthquake.
+     *
+     * @param magnitude of the earthquake
+     */
+    private int getMagnitudeColor(double magnitude)
+        {
+            return magnitudeColors[getMagnitudeBand(magnitude, magnitudeColors.length)];
+        }
+
+    /**
+     * Returns the band a magnitude is colored by: its floor, or the last band for floors
+     * outside of 0 up to bandCount - 1.
+     *
+     * @param magnitude of the earthquake
+     * @param bandCount the number of bands
+     */
+    static int getMagnitudeBand(double magnitude, int bandCount)
+        {
+            int magnitudeFloor = (int) Math.floor(magnitude);
+            if(magnitudeFloor < 0 || magnitudeFloor >= bandCount)
+                {
+                    return bandCount - 1;
+                }
+            return magnitudeFloor;
+        }
+}
@@ -17,6 +17,37 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     /*Request Url*/
     private String mUrl;
 
+    /* Whether the network can be used to refresh the stored earthquakes */
+    private final boolean mNetworkAvailable;
+
+    /* The on-device copy of the last successful fetch */
+    private final EarthquakeStore mStore;
+
+    /* Refreshes the store with only the events that changed since the last load */
+    private final EarthquakeSync mSync;
+
+    /* False while the stored earthquakes are loaded, true once the network refresh started */
+    private volatile boolean mLoadFromNetwork;
+
+    /* The last delivered result, so a restarted loader can show it right away */
+    private List<Earthquake> mEarthquakes;
+
+    /* Filters and sorts the last result on the device, built along with it */
+    private volatile EarthquakeQueryEngine mQueryEngine;
+
+    /* Where the result of the running load came from, see EarthquakeQueryEngine.forResult() */
+    private boolean mResultFetched;
+    private long mResultLoadedAt;
+
+    /* Cancels the running load, null while none is running. Guarded by this */
+    private LoadCancellation mCancellation;
+
+    /* Set when the running load is cancelled, even before it created mCancellation, until it is over */
+    private volatile boolean mLoadCanceled;
+
+    /* When the running load was asked for, on the System.nanoTime() clock */
+    private volatile long mForceLoadNanos;
+
     /**
      * Constructs a new {@link EarthquakeLoader}.
      *
@@ -24,9 +55,25 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
      * @param url to load data from
      */
     public EarthquakeLoader(Context context, String url)
+        {
+            this(context, url, true);
+        }
+
+    /**
+     * Constructs a new {@link EarthquakeLoader} that first delivers the earthquakes stored on
+     * the device and then, if the network is available, refreshes them from the given url.
+     *
+     * @param context of the activity
+     * @param url to load data from
+     * @param networkAvailable whether the url can be fetched at all
+     */
+    public EarthquakeLoader(Context context, String url, boolean networkAvailable)
         {
             super(context);
             this.mUrl = url;
+            this.mNetworkAvailable = networkAvailable;
+            this.mStore = new EarthquakeStore(context);
+            this.mSync = new EarthquakeSync(context, mStore);
         }
 
     @Override
@@ -34,9 +81,23 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
         {
             Log.i(LOG_TAG, "TEST: onStartLoading() called ... ");
 
+            if(mEarthquakes != null)
+                {
+                    deliverResult(mEarthquakes);
+                }
             forceLoad();
         }
 
+    /**
+     * Notes when the load was asked for, to measure how long it waits for a loader thread.
+     */
+    @Override
+    protected void onForceLoad()
+        {
+            mForceLoadNanos = System.nanoTime();
+            super.onForceLoad();
+        }
+
     /**
      * This is on a background thread.
      */
@@ -44,13 +105,155 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     public List<Earthquake> loadInBackground()
         {
             Log.i(LOG_TAG, "TEST: loadInBackground() called ... ");
+            PipelineMetrics.LOADER_QUEUE.record(PipelineMetrics.microsSince(mForceLoadNanos));
+
+            LoadCancellation cancellation;
+            synchronized (this)
+                {
+                    if(mLoadCanceled)
+                        {
+                            return null;
+                        }
+                    cancellation = new LoadCancellation();
+                    mCancellation = cancellation;
+                }
+
+            List<Earthquake> result;
+            PipelineMetrics.beginSection("load");
+            try
+                {
+                    result = load(cancellation);
+                }
+            finally
+                {
+                    PipelineMetrics.endSection();
+                    synchronized (this)
+                        {
+                            mCancellation = null;
+                        }
+                }
+
+            //A cancelled result is dropped by the loader, so don't spend time on it
+            if(cancellation.isCanceled())
+                {
+                    return null;
+                }
+
+            //Format the rows here, so the adapter doesn't have to while scrolling
+            EarthquakeAdapter.newFormatter(getContext()).formatAll(result);
+
+            //Sort the rows by time and magnitude here too, so they can be filtered right away
+            mQueryEngine = result == null || mUrl == null
+                    ? null
+                    : EarthquakeQueryEngine.forResult(result, mUrl, mResultLoadedAt, mResultFetched);
+            return result;
+        }
+
+    private List<Earthquake> load(LoadCancellation cancellation)
+        {
+            //The first load only reads what is stored on the device, which takes milliseconds.
+            //Stored rows are only as recent as the sync that stored them
+            mResultFetched = false;
+            mResultLoadedAt = mUrl == null ? 0 : mSync.getSyncedAt(mUrl);
+            if(!mLoadFromNetwork)
+                {
+                    return mStore.loadAll();
+                }
 
             if(this.mUrl == null)
                 {
                     return null;
                 }
 
-            List<Earthquake> result = QueryUtils.fetchEarthquakeData(mUrl);
+            //Download only what changed since the last load and merge it into the store
+            List<Earthquake> result = mSync.sync(mUrl, cancellation);
+            if(result != null)
+                {
+                    mResultFetched = mSync.wasLastSyncFull();
+                    mResultLoadedAt = System.currentTimeMillis();
+                }
+
+            //If the fetch failed, keep showing what is stored instead of an empty list
+            if(result == null && !cancellation.isCanceled())
+                {
+                    return mStore.loadAll();
+                }
             return result;
         }
+
+    /**
+     * Called on the main thread when the running load is cancelled, because the loader was
+     * abandoned, reset or restarted. Stops the request so it frees the loader thread and
+     * its connection right away.
+     *
+     * This overrides cancelLoad() rather than cancelLoadInBackground(), which needs API 16.
+     * cancelLoad() is called by onForceLoad() on every version, and by the LoaderManager too
+     * from API 16.
+     */
+    @Override
+    public boolean cancelLoad()
+        {
+            boolean canceled = super.cancelLoad();
+
+            //False means no load was running: there was none, or it was dropped before it started
+            if(canceled)
+                {
+                    synchronized (this)
+                        {
+                            mLoadCanceled = true;
+                            if(mCancellation != null)
+                                {
+                                    mCancellation.cancel();
+                                }
+                        }
+                }
+            return canceled;
+        }
+
+    /**
+     * Called on the main thread once a cancelled load is over, before the next one starts.
+     */
+    @Override
+    public void onCanceled(List<Earthquake> data)
+        {
+            super.onCanceled(data);
+            mLoadCanceled = false;
+        }
+
+    /**
+     * Delivers the result and, right after the stored earthquakes were delivered, starts
+     * the network refresh.
+     */
+    @Override
+    public void deliverResult(List<Earthquake> data)
+        {
+            mEarthquakes = data;
+
+            //isRefreshPending() is still true while the stored earthquakes are being delivered
+            super.deliverResult(data);
+
+            if(isRefreshPending() && isStarted())
+                {
+                    mLoadFromNetwork = true;
+                    forceLoad();
+                }
+        }
+
+    /**
+     * Returns the engine answering local queries on the delivered data, or null if
+     * nothing was loaded.
+     */
+    public EarthquakeQueryEngine getQueryEngine()
+        {
+            return mQueryEngine;
+        }
+
+    /**
+     * Returns true if the delivered data only came from the device and a network refresh
+     * is still going to follow.
+     */
+    public boolean isRefreshPending()
+        {
+            return mNetworkAvailable && !mLoadFromNetwork;
+        }
 }
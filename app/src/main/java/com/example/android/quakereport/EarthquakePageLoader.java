@@ -0,0 +1,169 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Loads a single page of a USGS query, using the offset and limit parameters.
+ */
+public class EarthquakePageLoader extends AsyncTaskLoader<List<Earthquake>> {
+
+    /* Request Url of this page */
+    private final String mUrl;
+
+    /* The page loaded by this loader */
+    private final int mPage;
+
+    /* The last delivered result, so a restarted loader doesn't fetch the page again */
+    private List<Earthquake> mEarthquakes;
+
+    /* Set when the last result is an old one shown because the fetch failed, so a restart retries */
+    private volatile boolean mStale;
+
+    /* Cancels the running load, null while none is running. Guarded by this */
+    private LoadCancellation mCancellation;
+
+    /* Set when the running load is cancelled, even before it created mCancellation, until it is over */
+    private volatile boolean mLoadCanceled;
+
+    /* When the running load was asked for, on the System.nanoTime() clock */
+    private volatile long mForceLoadNanos;
+
+    /**
+     * Constructs a new {@link EarthquakePageLoader}.
+     *
+     * @param context of the activity
+     * @param url the query to page through, without offset and limit
+     * @param page the index of the page to load
+     * @param pageSize the number of earthquakes in a page
+     */
+    public EarthquakePageLoader(Context context, String url, int page, int pageSize)
+        {
+            super(context);
+            this.mPage = page;
+            this.mUrl = UsgsQuery.parse(url)
+                    .with("offset", String.valueOf(page * pageSize + 1))
+                    .with("limit", String.valueOf(pageSize))
+                    .toUrl();
+        }
+
+    public int getPage()
+        {
+            return mPage;
+        }
+
+    @Override
+    protected void onStartLoading()
+        {
+            if(mEarthquakes != null)
+                {
+                    deliverResult(mEarthquakes);
+                }
+            if(mEarthquakes == null || mStale)
+                {
+                    forceLoad();
+                }
+        }
+
+    /**
+     * Notes when the load was asked for, to measure how long it waits for a loader thread.
+     */
+    @Override
+    protected void onForceLoad()
+        {
+            mForceLoadNanos = System.nanoTime();
+            super.onForceLoad();
+        }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public List<Earthquake> loadInBackground()
+        {
+            Log.i(LOG_TAG, "Loading page " + mPage);
+            PipelineMetrics.LOADER_QUEUE.record(PipelineMetrics.microsSince(mForceLoadNanos));
+
+            LoadCancellation cancellation;
+            synchronized (this)
+                {
+                    if(mLoadCanceled)
+                        {
+                            return null;
+                        }
+                    cancellation = new LoadCancellation();
+                    mCancellation = cancellation;
+                }
+
+            List<Earthquake> result;
+            PipelineMetrics.beginSection("load");
+            try
+                {
+                    result = EarthquakeRepository.getInstance(getContext()).fetch(mUrl, cancellation);
+                }
+            finally
+                {
+                    PipelineMetrics.endSection();
+                    synchronized (this)
+                        {
+                            mCancellation = null;
+                        }
+                }
+
+            //If USGS can't be reached, show what it last sent for this page rather than nothing.
+            //That is only ever shown, the repository and the sync never see it. The repository
+            //formatted it when it was fetched, and the rows are not formatted again here: other
+            //loaders share the earthquakes
+            mStale = result == null && !cancellation.isCanceled();
+            if(mStale)
+                {
+                    result = QueryUtils.getLastGoodResult(mUrl);
+                }
+            return result;
+        }
+
+    /**
+     * Stops the request of a page that was scrolled away from or destroyed meanwhile.
+     */
+    @Override
+    public boolean cancelLoad()
+        {
+            boolean canceled = super.cancelLoad();
+
+            //False means no load was running: there was none, or it was dropped before it started
+            if(canceled)
+                {
+                    synchronized (this)
+                        {
+                            mLoadCanceled = true;
+                            if(mCancellation != null)
+                                {
+                                    mCancellation.cancel();
+                                }
+                        }
+                }
+            return canceled;
+        }
+
+    /**
+     * Called on the main thread once a cancelled load is over, before the next one starts.
+     */
+    @Override
+    public void onCanceled(List<Earthquake> data)
+        {
+            super.onCanceled(data);
+            mLoadCanceled = false;
+        }
+
+    @Override
+    public void deliverResult(List<Earthquake> data)
+        {
+            mEarthquakes = data;
+            super.deliverResult(data);
+        }
+}
@@ -0,0 +1,330 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds a bounded window of result pages for a USGS query, so the list can be scrolled
+ * through tens of thousands of events while only a few pages are kept in memory.
+ *
+ * Positions whose page is not in memory return null from {@link #getItem(int)} and make the
+ * pager ask its {@link Listener} for that page. Once more than the allowed number of pages are
+ * held, the pages farthest from the last position that was shown are dropped again.
+ *
+ * Looking up a row allocates nothing, since it happens for every row that is bound while
+ * scrolling. All methods must be called on the main thread.
+ */
+public class EarthquakePager {
+
+    /**
+     * Receives the page requests and evictions of an {@link EarthquakePager}.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a page that is not in memory is needed and should be fetched.
+         */
+        void onPageNeeded(int page);
+
+        /**
+         * Called when a page was dropped from memory, so whatever fetched it can let go of it
+         * too, and whatever counts or indexes its rows can take them out.
+         */
+        void onPageEvicted(int page, List<Earthquake> earthquakes);
+    }
+
+    /* How many rows before the end of the known list the next page is requested */
+    private static final int PREFETCH_DISTANCE = 5;
+
+    private final int mPageSize;
+    private final int mMaxPagesInMemory;
+    private final Listener mListener;
+
+    /* The pages in memory, few enough to be searched one by one without boxing page numbers */
+    private final List<Page> mPages = new ArrayList<>();
+    private final Set<Integer> mRequestedPages = new HashSet<>();
+
+    /* The row ids handed out so far by event key, so every event keeps its own id */
+    private final HashMap<String, Long> mItemIds = new HashMap<>();
+
+    /* Number of rows known so far, which only grows until the pager is reset */
+    private int mCount;
+
+    /* Whether a page with fewer than mPageSize rows was received */
+    private boolean mEndReached;
+
+    /* Page of the last position that was shown, the center of the window in memory */
+    private int mViewportPage;
+
+    /* Rows answered on the device, shown instead of the pages until the pager is reset */
+    private List<Earthquake> mLocalRows;
+
+    /* The rows narrowed down on the device, shown over the pages or local rows while set */
+    private List<Earthquake> mFilteredRows;
+
+    /**
+     * Constructs a new {@link EarthquakePager}.
+     *
+     * @param pageSize the number of earthquakes in a page (the USGS limit)
+     * @param maxPagesInMemory the number of pages to keep before evicting
+     * @param listener is told which pages to fetch and which were dropped
+     */
+    public EarthquakePager(int pageSize, int maxPagesInMemory, Listener listener)
+        {
+            mPageSize = pageSize;
+            mMaxPagesInMemory = maxPagesInMemory;
+            mListener = listener;
+        }
+
+    public int getPageSize()
+        {
+            return mPageSize;
+        }
+
+    public int getCount()
+        {
+            if(mFilteredRows != null)
+                {
+                    return mFilteredRows.size();
+                }
+            return mLocalRows != null ? mLocalRows.size() : mCount;
+        }
+
+    /**
+     * Returns the earthquake at the given position, or null if its page is not in memory
+     * yet, in which case the page is requested. Showing a position close to the end of the
+     * known rows also requests the next page.
+     */
+    public Earthquake getItem(int position)
+        {
+            if(mFilteredRows != null)
+                {
+                    return mFilteredRows.get(position);
+                }
+            if(mLocalRows != null)
+                {
+                    return mLocalRows.get(position);
+                }
+
+            int page = position / mPageSize;
+            mViewportPage = page;
+
+            if(!mEndReached && position >= mCount - PREFETCH_DISTANCE)
+                {
+                    requestPage((mCount + mPageSize - 1) / mPageSize);
+                }
+
+            if(findPage(page) == null)
+                {
+                    requestPage(page);
+                    return null;
+                }
+            return peekItem(position);
+        }
+
+    /**
+     * Returns the earthquake at the given position if its page is in memory, without
+     * requesting anything.
+     */
+    public Earthquake peekItem(int position)
+        {
+            if(mFilteredRows != null)
+                {
+                    return position < mFilteredRows.size() ? mFilteredRows.get(position) : null;
+                }
+            if(mLocalRows != null)
+                {
+                    return position < mLocalRows.size() ? mLocalRows.get(position) : null;
+                }
+
+            int page = position / mPageSize;
+            List<Earthquake> earthquakes = findPage(page);
+            if(earthquakes == null)
+                {
+                    return null;
+                }
+            int index = position - page * mPageSize;
+            return index < earthquakes.size() ? earthquakes.get(index) : null;
+        }
+
+    /**
+     * Returns an id for the row at the given position that belongs to its event, so it stays
+     * the same when pages arrive, are dropped or the rows are replaced, and no two events
+     * share one. Rows that are not in memory get negative ids, which no event has.
+     */
+    public long getItemId(int position)
+        {
+            Earthquake earthquake = peekItem(position);
+            if(earthquake == null)
+                {
+                    return -1 - position;
+                }
+            String key = earthquake.getKey();
+            Long id = mItemIds.get(key);
+            if(id == null)
+                {
+                    id = (long) mItemIds.size();
+                    mItemIds.put(key, id);
+                }
+            return id;
+        }
+
+    /**
+     * Drops every page and starts over with the given first page.
+     */
+    public void reset(List<Earthquake> firstPage)
+        {
+            List<Page> evicted = new ArrayList<>(mPages);
+            mPages.clear();
+            mRequestedPages.clear();
+            mCount = 0;
+            mEndReached = false;
+            mViewportPage = 0;
+            mLocalRows = null;
+            mFilteredRows = null;
+            for (int i = 0; i < evicted.size(); i++)
+                {
+                    Page page = evicted.get(i);
+                    if(page.number != 0)
+                        {
+                            mListener.onPageEvicted(page.number, page.earthquakes);
+                        }
+                }
+            if(firstPage != null)
+                {
+                    putPage(0, firstPage);
+                }
+        }
+
+    /**
+     * Drops every page and shows the given rows instead, which are complete, so nothing
+     * is requested until the pager is reset again.
+     */
+    public void showRows(List<Earthquake> rows)
+        {
+            reset(null);
+            mLocalRows = rows;
+        }
+
+    /**
+     * Shows the given rows over the pages or local rows, which stay in memory, so they are
+     * shown again as they were once the filter is taken off. Nothing is requested while the
+     * filter is set, and resetting the pager takes it off.
+     *
+     * @param rows the rows to show, or null to show every row again
+     */
+    public void setFilteredRows(List<Earthquake> rows)
+        {
+            mFilteredRows = rows;
+        }
+
+    /**
+     * Drops every page and requests the first one again, for when the query changed.
+     */
+    public void restart()
+        {
+            reset(null);
+            requestPage(0);
+        }
+
+    /**
+     * Stores a fetched page and evicts the pages farthest from the viewport if there are
+     * too many in memory.
+     */
+    public void putPage(int page, List<Earthquake> earthquakes)
+        {
+            mRequestedPages.remove(page);
+            removePage(page);
+            mPages.add(new Page(page, earthquakes));
+
+            mCount = Math.max(mCount, page * mPageSize + earthquakes.size());
+            if(earthquakes.size() < mPageSize)
+                {
+                    mEndReached = true;
+                }
+
+            evictFarthestPages();
+        }
+
+    /**
+     * Forgets a failed page request, so the page is requested again the next time one of
+     * its rows is shown.
+     */
+    public void onPageFailed(int page)
+        {
+            mRequestedPages.remove(page);
+        }
+
+    private void requestPage(int page)
+        {
+            if(findPage(page) != null || !mRequestedPages.add(page))
+                {
+                    return;
+                }
+            mListener.onPageNeeded(page);
+        }
+
+    private void evictFarthestPages()
+        {
+            while (mPages.size() > mMaxPagesInMemory)
+                {
+                    int farthest = 0;
+                    for (int i = 1; i < mPages.size(); i++)
+                        {
+                            if(Math.abs(mPages.get(i).number - mViewportPage)
+                                    > Math.abs(mPages.get(farthest).number - mViewportPage))
+                                {
+                                    farthest = i;
+                                }
+                        }
+                    Page evicted = mPages.remove(farthest);
+                    mListener.onPageEvicted(evicted.number, evicted.earthquakes);
+                }
+        }
+
+    /**
+     * Returns the rows of the given page, or null if it is not in memory.
+     */
+    private List<Earthquake> findPage(int page)
+        {
+            for (int i = 0; i < mPages.size(); i++)
+                {
+                    Page candidate = mPages.get(i);
+                    if(candidate.number == page)
+                        {
+                            return candidate.earthquakes;
+                        }
+                }
+            return null;
+        }
+
+    private void removePage(int page)
+        {
+            for (int i = 0; i < mPages.size(); i++)
+                {
+                    if(mPages.get(i).number == page)
+                        {
+                            mPages.remove(i);
+                            return;
+                        }
+                }
+        }
+
+    /**
+     * A page in memory and its number.
+     */
+    private static class Page {
+
+        final int number;
+        final List<Earthquake> earthquakes;
+
+        Page(int number, List<Earthquake> earthquakes)
+            {
+                this.number = number;
+                this.earthquakes = earthquakes;
+            }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.quakereport;
+
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A magnitude range, a time range and a sort order to show the earthquakes with.
+ *
+ * The same query can be answered on the device by an {@link EarthquakeQueryEngine}, or turned
+ * into USGS query parameters with {@link #applyTo(UsgsQuery)} when the local data doesn't
+ * cover it. Instances are immutable; every change returns a new {@link EarthquakeQuery}.
+ */
+public final class EarthquakeQuery {
+
+    /* The sort orders, named like the values of the USGS orderby parameter */
+    public static final String ORDER_BY_TIME = "time";
+    public static final String ORDER_BY_TIME_ASC = "time-asc";
+    public static final String ORDER_BY_MAGNITUDE = "magnitude";
+    public static final String ORDER_BY_MAGNITUDE_ASC = "magnitude-asc";
+
+    /* Orders earthquakes from the most recent to the oldest */
+    static final Comparator<Earthquake> MOST_RECENT_FIRST = new Comparator<Earthquake>()
+        {
+            @Override
+            public int compare(Earthquake first, Earthquake second)
+                {
+                    long firstTime = first.getTimeInMilliseconds();
+                    long secondTime = second.getTimeInMilliseconds();
+                    return firstTime < secondTime ? 1 : (firstTime == secondTime ? 0 : -1);
+                }
+        };
+
+    /* Orders earthquakes from the largest magnitude to the smallest, unknown magnitudes last */
+    static final Comparator<Earthquake> LARGEST_FIRST = new Comparator<Earthquake>()
+        {
+            @Override
+            public int compare(Earthquake first, Earthquake second)
+                {
+                    double firstMagnitude = first.getMagnitude();
+                    double secondMagnitude = second.getMagnitude();
+                    if(Double.isNaN(firstMagnitude))
+                        {
+                            return Double.isNaN(secondMagnitude) ? 0 : 1;
+                        }
+                    if(Double.isNaN(secondMagnitude))
+                        {
+                            return -1;
+                        }
+                    return Double.compare(secondMagnitude, firstMagnitude);
+                }
+        };
+
+    /* Every earthquake, most recent first */
+    public static final EarthquakeQuery ALL = new EarthquakeQuery(Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY, Long.MIN_VALUE, Long.MAX_VALUE, ORDER_BY_TIME);
+
+    private final double mMinMagnitude;
+    private final double mMaxMagnitude;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final String mOrderBy;
+
+    private EarthquakeQuery(double minMagnitude, double maxMagnitude, long startTime, long endTime,
+                            String orderBy)
+        {
+            mMinMagnitude = minMagnitude;
+            mMaxMagnitude = maxMagnitude;
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mOrderBy = orderBy;
+        }
+
+    /**
+     * Returns the smallest magnitude to show, or negative infinity if there is no lower bound
+     * (in which case earthquakes without a magnitude are shown as well).
+     */
+    public double getMinMagnitude()
+        {
+            return mMinMagnitude;
+        }
+
+    /**
+     * Returns the largest magnitude to show, or positive infinity if there is no upper bound.
+     */
+    public double getMaxMagnitude()
+        {
+            return mMaxMagnitude;
+        }
+
+    /**
+     * Returns the earliest time to show, or Long.MIN_VALUE if there is no lower bound.
+     */
+    public long getStartTime()
+        {
+            return mStartTime;
+        }
+
+    /**
+     * Returns the latest time to show, or Long.MAX_VALUE if there is no upper bound.
+     */
+    public long getEndTime()
+        {
+            return mEndTime;
+        }
+
+    /**
+     * Returns one of the ORDER_BY constants.
+     */
+    public String getOrderBy()
+        {
+            return mOrderBy;
+        }
+
+    /**
+     * Returns a copy of this query showing only the magnitudes from min to max, both included.
+     */
+    public EarthquakeQuery withMagnitudeRange(double minMagnitude, double maxMagnitude)
+        {
+            return new EarthquakeQuery(minMagnitude, maxMagnitude, mStartTime, mEndTime, mOrderBy);
+        }
+
+    /**
+     * Returns a copy of this query showing only the earthquakes from start to end, both included.
+     */
+    public EarthquakeQuery withTimeRange(long startTime, long endTime)
+        {
+            return new EarthquakeQuery(mMinMagnitude, mMaxMagnitude, startTime, endTime, mOrderBy);
+        }
+
+    /**
+     * Returns a copy of this query sorted by the given order.
+     *
+     * @param orderBy one of the ORDER_BY constants
+     */
+    public EarthquakeQuery withOrderBy(String orderBy)
+        {
+            if(!ORDER_BY_TIME.equals(orderBy) && !ORDER_BY_TIME_ASC.equals(orderBy)
+                    && !ORDER_BY_MAGNITUDE.equals(orderBy) && !ORDER_BY_MAGNITUDE_ASC.equals(orderBy))
+                {
+                    throw new IllegalArgumentException("Unknown sort order " + orderBy);
+                }
+            return new EarthquakeQuery(mMinMagnitude, mMaxMagnitude, mStartTime, mEndTime, orderBy);
+        }
+
+    /**
+     * Returns the sort order as a comparator, to sort earthquakes on the device.
+     */
+    public Comparator<Earthquake> getComparator()
+        {
+            if(ORDER_BY_TIME.equals(mOrderBy))
+                {
+                    return MOST_RECENT_FIRST;
+                }
+            if(ORDER_BY_TIME_ASC.equals(mOrderBy))
+                {
+                    return Collections.reverseOrder(MOST_RECENT_FIRST);
+                }
+            if(ORDER_BY_MAGNITUDE.equals(mOrderBy))
+                {
+                    return LARGEST_FIRST;
+                }
+            return Collections.reverseOrder(LARGEST_FIRST);
+        }
+
+    /**
+     * Returns true if the given magnitude lies in the magnitude range. An unknown (NaN)
+     * magnitude only matches a query without a lower bound.
+     */
+    public boolean matchesMagnitude(double magnitude)
+        {
+            if(Double.isNaN(magnitude))
+                {
+                    return mMinMagnitude == Double.NEGATIVE_INFINITY;
+                }
+            return magnitude >= mMinMagnitude && magnitude <= mMaxMagnitude;
+        }
+
+    public boolean matchesTime(long timeInMilliseconds)
+        {
+            return timeInMilliseconds >= mStartTime && timeInMilliseconds <= mEndTime;
+        }
+
+    /**
+     * Returns a copy of the given USGS query narrowed down to this query. A magnitude or time
+     * bound already in the USGS query is only replaced by a narrower one.
+     */
+    public UsgsQuery applyTo(UsgsQuery usgsQuery)
+        {
+            UsgsQuery result = usgsQuery.with("orderby", mOrderBy);
+            if(mMinMagnitude > usgsQuery.getDouble("minmagnitude",
+                    usgsQuery.getDouble("minmag", Double.NEGATIVE_INFINITY)))
+                {
+                    result = result.without("minmagnitude").with("minmag", String.valueOf(mMinMagnitude));
+                }
+            if(mMaxMagnitude < usgsQuery.getDouble("maxmagnitude",
+                    usgsQuery.getDouble("maxmag", Double.POSITIVE_INFINITY)))
+                {
+                    result = result.without("maxmagnitude").with("maxmag", String.valueOf(mMaxMagnitude));
+                }
+            if(mStartTime != Long.MIN_VALUE)
+                {
+                    result = result.without("start").with("starttime", UsgsQuery.formatTime(mStartTime));
+                }
+            if(mEndTime != Long.MAX_VALUE)
+                {
+                    result = result.without("end").with("endtime", UsgsQuery.formatTime(mEndTime));
+                }
+            return result;
+        }
+
+    @Override
+    public boolean equals(Object o)
+        {
+            if(this == o)
+                {
+                    return true;
+                }
+            if(!(o instanceof EarthquakeQuery))
+                {
+                    return false;
+                }
+            EarthquakeQuery other = (EarthquakeQuery) o;
+            return Double.compare(mMinMagnitude, other.mMinMagnitude) == 0
+                    && Double.compare(mMaxMagnitude, other.mMaxMagnitude) == 0
+                    && mStartTime == other.mStartTime
+                    && mEndTime == other.mEndTime
+                    && mOrderBy.equals(other.mOrderBy);
+        }
+
+    @Override
+    public int hashCode()
+        {
+            long magnitudeBits = Double.doubleToLongBits(mMinMagnitude) * 31
+                    + Double.doubleToLongBits(mMaxMagnitude);
+            int result = (int) (magnitudeBits ^ (magnitudeBits >>> 32));
+            result = 31 * result + (int) (mStartTime ^ (mStartTime >>> 32));
+            result = 31 * result + (int) (mEndTime ^ (mEndTime >>> 32));
+            result = 31 * result + mOrderBy.hashCode();
+            return result;
+        }
+
+    @Override
+    public String toString()
+        {
+            return "EarthquakeQuery{magnitude=" + mMinMagnitude + ".." + mMaxMagnitude
+                    + ", time=" + mStartTime + ".." + mEndTime + ", orderby=" + mOrderBy + "}";
+        }
+}
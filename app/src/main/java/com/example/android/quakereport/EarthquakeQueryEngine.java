@@ -0,0 +1,356 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Filters and sorts an already loaded list of earthquakes by {@link EarthquakeQuery}, so
+ * changing the magnitude, the time window or the sort order doesn't need a new request.
+ *
+ * Building the engine sorts the rows once by time and once by magnitude and keeps both
+ * permutations with their sort keys. A query then finds its range in the permutation of its
+ * sort order by binary search and only checks the other predicate on the rows in that range,
+ * which takes well under a millisecond for thousands of rows. Build it on a background
+ * thread; queries are cheap enough for the main thread.
+ *
+ * The engine also knows which part of USGS the rows cover (the magnitude and time range of
+ * the request they came from, narrowed down if the result was cut off by its limit), so
+ * {@link #canAnswer(EarthquakeQuery)} tells which queries still need the network.
+ */
+public final class EarthquakeQueryEngine {
+
+    /* Without a starttime USGS only returns the earthquakes of the last 30 days */
+    private static final long USGS_DEFAULT_WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /* The rows in the order they were loaded */
+    private final List<Earthquake> mEarthquakes;
+
+    /* Rows from the most recent to the oldest, and their times in the same order */
+    private final int[] mByTime;
+    private final long[] mSortedTimes;
+
+    /* Rows from the largest to the smallest magnitude, and their magnitude keys in the same order */
+    private final int[] mByMagnitude;
+    private final long[] mSortedMagnitudeKeys;
+
+    /* The range of USGS events that are all in the rows */
+    private final double mCoveredMinMagnitude;
+    private final double mCoveredMaxMagnitude;
+    private final long mCoveredStartTime;
+    private final long mCoveredEndTime;
+
+    private EarthquakeQueryEngine(List<Earthquake> earthquakes, double coveredMinMagnitude,
+                                  double coveredMaxMagnitude, long coveredStartTime, long coveredEndTime)
+        {
+            mEarthquakes = Collections.unmodifiableList(new ArrayList<>(earthquakes));
+            mCoveredMinMagnitude = coveredMinMagnitude;
+            mCoveredMaxMagnitude = coveredMaxMagnitude;
+            mCoveredStartTime = coveredStartTime;
+            mCoveredEndTime = coveredEndTime;
+
+            int size = earthquakes.size();
+            long[] times = new long[size];
+            long[] magnitudeKeys = new long[size];
+            for (int row = 0; row < size; row++)
+                {
+                    Earthquake earthquake = earthquakes.get(row);
+                    times[row] = earthquake.getTimeInMilliseconds();
+                    magnitudeKeys[row] = magnitudeKey(earthquake.getMagnitude());
+                }
+
+            mByTime = sortDescending(times);
+            mSortedTimes = permute(times, mByTime);
+            mByMagnitude = sortDescending(magnitudeKeys);
+            mSortedMagnitudeKeys = permute(magnitudeKeys, mByMagnitude);
+        }
+
+    /**
+     * Builds an engine over the result of a USGS query.
+     *
+     * Only the response of a request, as it came, can show that a limited query was not cut
+     * off by its limit. Stored or merged earthquakes may have lost rows since, so they are
+     * always taken as cut off, and they cover nothing after they were last brought up to date.
+     *
+     * @param earthquakes the earthquakes of the url
+     * @param url the USGS query the earthquakes were loaded with
+     * @param loadedAtMillis when the earthquakes were last up to date with USGS, since USGS
+     *                       defaults to the last 30 days
+     * @param fetched true if the earthquakes are the whole response to the url, false if they
+     *                were read from the store or merged from the changes of a delta sync
+     */
+    public static EarthquakeQueryEngine forResult(List<Earthquake> earthquakes, String url,
+                                                  long loadedAtMillis, boolean fetched)
+        {
+            UsgsQuery query = UsgsQuery.parse(url);
+            double minMagnitude = query.getDouble("minmagnitude",
+                    query.getDouble("minmag", Double.NEGATIVE_INFINITY));
+            double maxMagnitude = query.getDouble("maxmagnitude",
+                    query.getDouble("maxmag", Double.POSITIVE_INFINITY));
+            long startTime = query.getTime("starttime",
+                    query.getTime("start", loadedAtMillis - USGS_DEFAULT_WINDOW_MILLIS));
+            long endTime = query.getTime("endtime", query.getTime("end", Long.MAX_VALUE));
+
+            //Events that happened after the rows were last up to date are not in them
+            if(!fetched)
+                {
+                    endTime = Math.min(endTime, loadedAtMillis);
+                }
+
+            //A result cut off by its limit only covers the range up to its last row, and that
+            //row's value itself only partly, since more events may share it
+            int limit = query.getInt("limit", Integer.MAX_VALUE);
+            boolean cutOff = earthquakes.size() >= limit || (!fetched && limit != Integer.MAX_VALUE);
+            if(cutOff && earthquakes.isEmpty())
+                {
+                    //Nothing is known about the range at all
+                    endTime = Long.MIN_VALUE;
+                }
+            else if(cutOff)
+                {
+                    String orderBy = query.get("orderby");
+                    if(orderBy == null || EarthquakeQuery.ORDER_BY_TIME.equals(orderBy))
+                        {
+                            startTime = Math.max(startTime, minTime(earthquakes) + 1);
+                        }
+                    else if(EarthquakeQuery.ORDER_BY_TIME_ASC.equals(orderBy))
+                        {
+                            endTime = Math.min(endTime, maxTime(earthquakes) - 1);
+                        }
+                    else if(EarthquakeQuery.ORDER_BY_MAGNITUDE.equals(orderBy))
+                        {
+                            minMagnitude = Math.max(minMagnitude,
+                                    Math.nextUp(minMagnitude(earthquakes)));
+                        }
+                    else
+                        {
+                            maxMagnitude = Math.min(maxMagnitude,
+                                    Math.nextAfter(maxMagnitude(earthquakes), Double.NEGATIVE_INFINITY));
+                        }
+                }
+            return new EarthquakeQueryEngine(earthquakes, minMagnitude, maxMagnitude, startTime, endTime);
+        }
+
+    public int size()
+        {
+            return mEarthquakes.size();
+        }
+
+    /**
+     * Returns true if every USGS event matching the query is in the rows, so
+     * {@link #select(EarthquakeQuery)} gives the same earthquakes as a new request would.
+     */
+    public boolean canAnswer(EarthquakeQuery query)
+        {
+            return query.getMinMagnitude() >= mCoveredMinMagnitude
+                    && query.getMaxMagnitude() <= mCoveredMaxMagnitude
+                    && query.getStartTime() >= mCoveredStartTime
+                    && query.getEndTime() <= mCoveredEndTime;
+        }
+
+    /**
+     * Returns the earthquakes matching the query, in its sort order.
+     */
+    public List<Earthquake> select(EarthquakeQuery query)
+        {
+            int[] rows = query(query);
+            List<Earthquake> result = new ArrayList<>(rows.length);
+            for (int row : rows)
+                {
+                    result.add(mEarthquakes.get(row));
+                }
+            return result;
+        }
+
+    /**
+     * Returns the indexes of the rows matching the query, in its sort order.
+     */
+    public int[] query(EarthquakeQuery query)
+        {
+            String orderBy = query.getOrderBy();
+            boolean byMagnitude = EarthquakeQuery.ORDER_BY_MAGNITUDE.equals(orderBy)
+                    || EarthquakeQuery.ORDER_BY_MAGNITUDE_ASC.equals(orderBy);
+            boolean ascending = EarthquakeQuery.ORDER_BY_TIME_ASC.equals(orderBy)
+                    || EarthquakeQuery.ORDER_BY_MAGNITUDE_ASC.equals(orderBy);
+
+            //Find the rows in range of the sort key, then check the other predicate on those
+            int[] permutation;
+            int from;
+            int to;
+            if(byMagnitude)
+                {
+                    permutation = mByMagnitude;
+                    from = firstAtMost(mSortedMagnitudeKeys, magnitudeKey(query.getMaxMagnitude()));
+                    to = query.getMinMagnitude() == Double.NEGATIVE_INFINITY
+                            ? mSortedMagnitudeKeys.length
+                            : firstAtMost(mSortedMagnitudeKeys, magnitudeKey(query.getMinMagnitude()) - 1);
+                }
+            else
+                {
+                    permutation = mByTime;
+                    from = firstAtMost(mSortedTimes, query.getEndTime());
+                    to = query.getStartTime() == Long.MIN_VALUE
+                            ? mSortedTimes.length
+                            : firstAtMost(mSortedTimes, query.getStartTime() - 1);
+                }
+
+            int[] rows = new int[Math.max(0, to - from)];
+            int count = 0;
+            for (int i = from; i < to; i++)
+                {
+                    int row = permutation[ascending ? to - 1 - (i - from) : i];
+                    Earthquake earthquake = mEarthquakes.get(row);
+                    boolean matches = byMagnitude
+                            ? query.matchesTime(earthquake.getTimeInMilliseconds())
+                            : query.matchesMagnitude(earthquake.getMagnitude());
+                    if(matches)
+                        {
+                            rows[count++] = row;
+                        }
+                }
+            return count == rows.length ? rows : copyOf(rows, count);
+        }
+
+    /**
+     * Maps a magnitude to a long that sorts the same way, with unknown (NaN) magnitudes
+     * below all others.
+     */
+    private static long magnitudeKey(double magnitude)
+        {
+            if(Double.isNaN(magnitude))
+                {
+                    return Long.MIN_VALUE;
+                }
+            long bits = Double.doubleToLongBits(magnitude + 0.0);
+            return bits >= 0 ? bits : bits ^ Long.MAX_VALUE;
+        }
+
+    /**
+     * Returns the first index of the descending array whose value is at most the given one.
+     */
+    private static int firstAtMost(long[] descending, long value)
+        {
+            int low = 0;
+            int high = descending.length;
+            while (low < high)
+                {
+                    int middle = (low + high) >>> 1;
+                    if(descending[middle] > value)
+                        {
+                            low = middle + 1;
+                        }
+                    else
+                        {
+                            high = middle;
+                        }
+                }
+            return low;
+        }
+
+    /**
+     * Returns the row indexes sorted by descending key. Rows with equal keys keep their
+     * loaded order.
+     */
+    private static int[] sortDescending(long[] keys)
+        {
+            int size = keys.length;
+            int[] rows = new int[size];
+            for (int i = 0; i < size; i++)
+                {
+                    rows[i] = i;
+                }
+
+            //Bottom-up merge sort on the indexes, which is stable and doesn't box anything
+            int[] buffer = new int[size];
+            for (int width = 1; width < size; width *= 2)
+                {
+                    for (int start = 0; start < size; start += 2 * width)
+                        {
+                            int middle = Math.min(start + width, size);
+                            int end = Math.min(start + 2 * width, size);
+                            int left = start;
+                            int right = middle;
+                            for (int out = start; out < end; out++)
+                                {
+                                    if(left < middle && (right >= end || keys[rows[left]] >= keys[rows[right]]))
+                                        {
+                                            buffer[out] = rows[left++];
+                                        }
+                                    else
+                                        {
+                                            buffer[out] = rows[right++];
+                                        }
+                                }
+                        }
+                    int[] swap = rows;
+                    rows = buffer;
+                    buffer = swap;
+                }
+            return rows;
+        }
+
+    private static long[] permute(long[] values, int[] rows)
+        {
+            long[] result = new long[rows.length];
+            for (int i = 0; i < rows.length; i++)
+                {
+                    result[i] = values[rows[i]];
+                }
+            return result;
+        }
+
+    private static int[] copyOf(int[] rows, int count)
+        {
+            int[] result = new int[count];
+            System.arraycopy(rows, 0, result, 0, count);
+            return result;
+        }
+
+    private static long minTime(List<Earthquake> earthquakes)
+        {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    min = Math.min(min, earthquakes.get(i).getTimeInMilliseconds());
+                }
+            return min;
+        }
+
+    private static long maxTime(List<Earthquake> earthquakes)
+        {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    max = Math.max(max, earthquakes.get(i).getTimeInMilliseconds());
+                }
+            return max;
+        }
+
+    private static double minMagnitude(List<Earthquake> earthquakes)
+        {
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    double magnitude = earthquakes.get(i).getMagnitude();
+                    if(!Double.isNaN(magnitude))
+                        {
+                            min = Math.min(min, magnitude);
+                        }
+                }
+            return min;
+        }
+
+    private static double maxMagnitude(List<Earthquake> earthquakes)
+        {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    double magnitude = earthquakes.get(i).getMagnitude();
+                    if(!Double.isNaN(magnitude))
+                        {
+                            max = Math.max(max, magnitude);
+                        }
+                }
+            return max;
+        }
+}
@@ -0,0 +1,358 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Process-wide front of {@link QueryUtils#fetchEarthquakeData(String, LoadCancellation)}, so
+ * loaders asking for the same query don't each make their own request. Queries over a long
+ * time range go through {@link TimeShardedFetch} instead.
+ *
+ * Queries are keyed by their canonical URL (parameters sorted by name). A request whose key
+ * is already being fetched waits for that fetch instead of starting another one, and
+ * successful results are kept for a while in a least recently used cache bounded by the
+ * total number of earthquakes it holds.
+ *
+ * Fetches run on a thread of the repository rather than on the first caller's thread, so
+ * any caller can stop waiting when its load is cancelled. The fetch itself is only cancelled
+ * once every caller waiting for it has gone. At most {@link #MAX_FETCHES} run at a time, the
+ * others wait in line for a thread.
+ *
+ * Every caller of a query gets the same earthquakes, so the repository formats them for the
+ * list once, before any caller sees them, and nobody may change them afterwards.
+ */
+public final class EarthquakeRepository {
+
+    /* How long a result is served from the cache */
+    private static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    /* The cache drops its least recently used results beyond this many earthquakes */
+    private static final int DEFAULT_MAX_CACHED_EARTHQUAKES = 5000;
+
+    /* Fetches running at the same time, as many as TimeShardedFetch uses for the slices of one */
+    static final int MAX_FETCHES = 4;
+
+    private static EarthquakeRepository sInstance;
+
+    /* The application context, for the formats and colors of the list */
+    private final Context mContext;
+    private final long mTtlMillis;
+    private final int mMaxCachedEarthquakes;
+    private final Executor mExecutor = Executors.newFixedThreadPool(MAX_FETCHES);
+
+    /* Cached results in access order, least recently used first. Guarded by this */
+    private final LinkedHashMap<String, CacheEntry> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private int mCachedEarthquakes;
+
+    /* Fetches that are running, by key. Guarded by this */
+    private final Map<String, Fetch> mFetches = new HashMap<>();
+
+    /* Counters for tuning the TTL and the cache size. Guarded by this */
+    private long mHitCount;
+    private long mMissCount;
+    private long mCoalescedCount;
+
+    /**
+     * Returns the single repository of the process.
+     *
+     * @param context any context, only its application context is kept
+     */
+    public static synchronized EarthquakeRepository getInstance(Context context)
+        {
+            if(sInstance == null)
+                {
+                    sInstance = new EarthquakeRepository(context.getApplicationContext(), DEFAULT_TTL_MILLIS,
+                            DEFAULT_MAX_CACHED_EARTHQUAKES);
+                }
+            return sInstance;
+        }
+
+    EarthquakeRepository(Context context, long ttlMillis, int maxCachedEarthquakes)
+        {
+            mContext = context;
+            mTtlMillis = ttlMillis;
+            mMaxCachedEarthquakes = maxCachedEarthquakes;
+        }
+
+    /**
+     * Returns the earthquakes of the query, from the cache, from a fetch of the same query
+     * that is already running, or from a new fetch. This is on a background thread.
+     *
+     * @param url the USGS query
+     * @param cancellation stops waiting for the result when the load is cancelled
+     * @return the earthquakes, already formatted, which are shared with the other callers
+     *         and must not be modified, or null if the request failed or the load was cancelled
+     */
+    public List<Earthquake> fetch(String url, LoadCancellation cancellation)
+        {
+            String key = canonicalize(url);
+            Fetch fetch;
+            boolean start = false;
+            synchronized (this)
+                {
+                    CacheEntry entry = mCache.get(key);
+                    if(entry != null)
+                        {
+                            if(SystemClock.elapsedRealtime() < entry.expiresAt)
+                                {
+                                    mHitCount++;
+                                    return entry.earthquakes;
+                                }
+                            removeCached(key);
+                        }
+
+                    fetch = mFetches.get(key);
+                    if(fetch != null)
+                        {
+                            mCoalescedCount++;
+                        }
+                    else
+                        {
+                            mMissCount++;
+                            fetch = new Fetch(key, url);
+                            mFetches.put(key, fetch);
+                            start = true;
+                        }
+                    fetch.waiters++;
+                }
+
+            if(start)
+                {
+                    mExecutor.execute(fetch);
+                }
+            return await(fetch, cancellation);
+        }
+
+    public synchronized long getHitCount()
+        {
+            return mHitCount;
+        }
+
+    public synchronized long getMissCount()
+        {
+            return mMissCount;
+        }
+
+    /**
+     * Returns how many requests waited for a fetch of the same query instead of starting one.
+     */
+    public synchronized long getCoalescedCount()
+        {
+            return mCoalescedCount;
+        }
+
+    /**
+     * Drops every cached result, for example after the user asked for a refresh.
+     */
+    public synchronized void clear()
+        {
+            mCache.clear();
+            mCachedEarthquakes = 0;
+        }
+
+    @Override
+    public synchronized String toString()
+        {
+            return "EarthquakeRepository{hits=" + mHitCount + ", misses=" + mMissCount
+                    + ", coalesced=" + mCoalescedCount + ", cached=" + mCache.size()
+                    + " results/" + mCachedEarthquakes + " earthquakes}";
+        }
+
+    /**
+     * Returns the key of a query: its URL with the parameters sorted by name.
+     */
+    static String canonicalize(String url)
+        {
+            return UsgsQuery.parse(url).canonical().toUrl();
+        }
+
+    /**
+     * Waits until the fetch is done or the caller's load is cancelled.
+     */
+    private List<Earthquake> await(final Fetch fetch, LoadCancellation cancellation)
+        {
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            synchronized (fetch)
+                                {
+                                    fetch.notifyAll();
+                                }
+                        }
+                });
+            try
+                {
+                    synchronized (fetch)
+                        {
+                            while (!fetch.done && !cancellation.isCanceled())
+                                {
+                                    fetch.wait();
+                                }
+                            if(fetch.done)
+                                {
+                                    return fetch.result;
+                                }
+                        }
+                }
+            catch (InterruptedException e)
+                {
+                    //Keep the interrupt for whoever owns the thread
+                    Thread.currentThread().interrupt();
+                }
+            finally
+                {
+                    cancellation.setOnCancelListener(null);
+                }
+
+            leave(fetch);
+            return null;
+        }
+
+    /**
+     * Stops waiting for a fetch, cancelling it if nobody else is waiting for it either.
+     */
+    private void leave(Fetch fetch)
+        {
+            synchronized (this)
+                {
+                    fetch.waiters--;
+                    if(fetch.waiters > 0)
+                        {
+                            return;
+                        }
+
+                    //A request for the same key from now on starts a new fetch
+                    if(mFetches.get(fetch.key) == fetch)
+                        {
+                            mFetches.remove(fetch.key);
+                        }
+                }
+            fetch.cancellation.cancel();
+        }
+
+    private void complete(Fetch fetch, List<Earthquake> earthquakes)
+        {
+            List<Earthquake> result = earthquakes == null ? null : Collections.unmodifiableList(earthquakes);
+            synchronized (this)
+                {
+                    if(mFetches.get(fetch.key) == fetch)
+                        {
+                            mFetches.remove(fetch.key);
+                        }
+
+                    //Failed and cancelled fetches are not cached, so the next request tries again
+                    if(result != null && !fetch.cancellation.isCanceled())
+                        {
+                            putCached(fetch.key, result);
+                        }
+                }
+            synchronized (fetch)
+                {
+                    fetch.result = result;
+                    fetch.done = true;
+                    fetch.notifyAll();
+                }
+        }
+
+    private void putCached(String key, List<Earthquake> earthquakes)
+        {
+            removeCached(key);
+            if(earthquakes.size() > mMaxCachedEarthquakes)
+                {
+                    return;
+                }
+            mCache.put(key, new CacheEntry(earthquakes, SystemClock.elapsedRealtime() + mTtlMillis));
+            mCachedEarthquakes += earthquakes.size();
+
+            //Drop the least recently used results until the cache fits again
+            Iterator<CacheEntry> entries = mCache.values().iterator();
+            while (mCachedEarthquakes > mMaxCachedEarthquakes && entries.hasNext())
+                {
+                    mCachedEarthquakes -= entries.next().earthquakes.size();
+                    entries.remove();
+                }
+        }
+
+    private void removeCached(String key)
+        {
+            CacheEntry entry = mCache.remove(key);
+            if(entry != null)
+                {
+                    mCachedEarthquakes -= entry.earthquakes.size();
+                }
+        }
+
+    /**
+     * A cached result and the time it expires at, on the elapsedRealtime() clock.
+     */
+    private static class CacheEntry {
+
+        final List<Earthquake> earthquakes;
+        final long expiresAt;
+
+        CacheEntry(List<Earthquake> earthquakes, long expiresAt)
+            {
+                this.earthquakes = earthquakes;
+                this.expiresAt = expiresAt;
+            }
+    }
+
+    /**
+     * A running fetch and the callers waiting for it.
+     */
+    private class Fetch implements Runnable {
+
+        final String key;
+        final String url;
+        final LoadCancellation cancellation = new LoadCancellation();
+
+        /* Guarded by the repository */
+        int waiters;
+
+        /* Guarded by this */
+        boolean done;
+        List<Earthquake> result;
+
+        Fetch(String key, String url)
+            {
+                this.key = key;
+                this.url = url;
+            }
+
+        @Override
+        public void run()
+            {
+                List<Earthquake> earthquakes = null;
+                try
+                    {
+                        //Long histories are fetched in time slices side by side
+                        earthquakes = TimeShardedFetch.isShardable(url)
+                                ? TimeShardedFetch.fetch(url, cancellation)
+                                : QueryUtils.fetchEarthquakeData(url, cancellation);
+
+                        //Format while the earthquakes are still this thread's alone; once
+                        //they are handed out, loaders on other threads would race to do it
+                        EarthquakeAdapter.newFormatter(mContext).formatAll(earthquakes);
+                    }
+                finally
+                    {
+                        complete(this, earthquakes);
+                        Log.i(LOG_TAG, EarthquakeRepository.this.toString());
+                    }
+            }
+    }
+}
@@ -0,0 +1,414 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The last displayed earthquakes in a compact binary file, which is memory-mapped at startup so
+ * the list can be shown in the first frame, before any database query or JSON parsing.
+ *
+ * The file starts with a fixed header, followed by one fixed-width column per field (so the
+ * value of a row is at a computed offset) and a string table holding every distinct place,
+ * id and url once:
+ *
+ * <pre>
+ *   int magic, int version, int rowCount, int stringCount, long savedAt, int fileLength, int 0
+ *   double magnitude[rowCount], long time[rowCount], long updated[rowCount],
+ *   double longitude[rowCount], double latitude[rowCount], double depth[rowCount],
+ *   int place[rowCount], int id[rowCount], int url[rowCount]
+ *   int stringEnd[stringCount], UTF-8 bytes
+ * </pre>
+ *
+ * String columns hold an index into the table, or -1 for null. A url that is the USGS event
+ * page of the id is not stored (-2) and derived from the id instead, as in
+ * {@link EarthquakeCatalog}. A file with another magic number or version, or whose length
+ * doesn't match its header, is rejected, so an old or damaged file is just not used.
+ * Files are replaced atomically by {@link #write(File, List, long)}.
+ */
+public final class EarthquakeSnapshot {
+
+    /* "QKSN" */
+    static final int MAGIC = 0x514B534E;
+
+    /* Changed whenever the layout changes, older files are ignored */
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    /* The width of a row over all columns: six 8 byte and three 4 byte columns */
+    private static final int ROW_BYTES = 6 * 8 + 3 * 4;
+
+    private static final int NO_STRING = -1;
+    private static final int DERIVED_URL = -2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final long savedAt;
+
+    /* Start of each column */
+    private final int magnitudes;
+    private final int times;
+    private final int updatedTimes;
+    private final int longitudes;
+    private final int latitudes;
+    private final int depths;
+    private final int placeIndexes;
+    private final int idIndexes;
+    private final int urlIndexes;
+
+    /* Start of the end offsets of the strings, and of their bytes */
+    private final int stringEnds;
+    private final int stringBytes;
+
+    /* The strings decoded so far, so rows sharing a place share one String */
+    private final String[] strings;
+
+    private EarthquakeSnapshot(ByteBuffer buffer) throws IOException
+        {
+            if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+                {
+                    throw new IOException("Not a snapshot");
+                }
+            if(buffer.getInt(4) != VERSION)
+                {
+                    throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+                }
+            this.buffer = buffer;
+            size = buffer.getInt(8);
+            int stringCount = buffer.getInt(12);
+            savedAt = buffer.getLong(16);
+            if(size < 0 || stringCount < 0 || buffer.getInt(24) != buffer.capacity()
+                    || HEADER_BYTES + (long) size * ROW_BYTES + stringCount * 4L > buffer.capacity())
+                {
+                    throw new IOException("Truncated snapshot");
+                }
+
+            magnitudes = HEADER_BYTES;
+            times = magnitudes + size * 8;
+            updatedTimes = times + size * 8;
+            longitudes = updatedTimes + size * 8;
+            latitudes = longitudes + size * 8;
+            depths = latitudes + size * 8;
+            placeIndexes = depths + size * 8;
+            idIndexes = placeIndexes + size * 4;
+            urlIndexes = idIndexes + size * 4;
+            stringEnds = urlIndexes + size * 4;
+            stringBytes = stringEnds + stringCount * 4;
+
+            //Check the string table and the references to it once, so reading a row can't run
+            //past the file
+            for (int i = placeIndexes; i < stringEnds; i += 4)
+                {
+                    int index = buffer.getInt(i);
+                    if(index >= stringCount || index < DERIVED_URL || (index == DERIVED_URL && i < urlIndexes))
+                        {
+                            throw new IOException("Corrupt string reference");
+                        }
+                }
+            int end = 0;
+            for (int i = 0; i < stringCount; i++)
+                {
+                    int next = buffer.getInt(stringEnds + i * 4);
+                    if(next < end)
+                        {
+                            throw new IOException("Corrupt string table");
+                        }
+                    end = next;
+                }
+            if(stringBytes + end != buffer.capacity())
+                {
+                    throw new IOException("Corrupt string table");
+                }
+            strings = new String[stringCount];
+        }
+
+    /**
+     * Maps the snapshot in the given file. Only the header and the string references are
+     * checked, no string is decoded and no object is built until rows are asked for.
+     *
+     * @throws IOException if the file is missing, unreadable, or not a valid snapshot
+     */
+    public static EarthquakeSnapshot map(File file) throws IOException
+        {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try
+                {
+                    //The mapping stays valid after the file is closed
+                    FileChannel channel = input.getChannel();
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    return new EarthquakeSnapshot(buffer);
+                }
+            finally
+                {
+                    input.close();
+                }
+        }
+
+    /**
+     * Reads a snapshot from bytes that are already in memory.
+     *
+     * @throws IOException if the bytes are not a valid snapshot
+     */
+    public static EarthquakeSnapshot wrap(byte[] bytes) throws IOException
+        {
+            return new EarthquakeSnapshot(ByteBuffer.wrap(bytes));
+        }
+
+    /**
+     * Replaces the snapshot in the given file. The new snapshot is written to a temporary file
+     * next to it and renamed over it once it is on disk, so a reader never sees half a file
+     * and concurrent writers don't mix their rows.
+     *
+     * @param file the snapshot file
+     * @param earthquakes the rows, in the order to show them
+     * @param savedAt when the rows were loaded, in milliseconds from the Epoch
+     */
+    public static void write(File file, List<Earthquake> earthquakes, long savedAt) throws IOException
+        {
+            ByteBuffer buffer = encode(earthquakes, savedAt);
+            File temporary = File.createTempFile(file.getName() + ".new", ".tmp", file.getParentFile());
+            boolean replaced = false;
+            try
+                {
+                    FileOutputStream output = new FileOutputStream(temporary);
+                    try
+                        {
+                            while (buffer.hasRemaining())
+                                {
+                                    output.getChannel().write(buffer);
+                                }
+                            output.getFD().sync();
+                        }
+                    finally
+                        {
+                            output.close();
+                        }
+                    replaced = temporary.renameTo(file);
+                    if(!replaced)
+                        {
+                            throw new IOException("Could not replace " + file);
+                        }
+                }
+            finally
+                {
+                    if(!replaced)
+                        {
+                            temporary.delete();
+                        }
+                }
+        }
+
+    /**
+     * Lays out the given rows in the snapshot format.
+     */
+    static ByteBuffer encode(List<Earthquake> earthquakes, long savedAt)
+        {
+            int size = earthquakes.size();
+            HashMap<String, Integer> stringTable = new HashMap<>();
+            List<byte[]> strings = new ArrayList<>();
+            int[] placeIndexes = new int[size];
+            int[] idIndexes = new int[size];
+            int[] urlIndexes = new int[size];
+            int stringLength = 0;
+            for (int i = 0; i < size; i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i);
+                    String id = earthquake.getId();
+                    String url = earthquake.getUrl();
+                    placeIndexes[i] = addString(earthquake.getCity(), stringTable, strings);
+                    idIndexes[i] = addString(id, stringTable, strings);
+                    urlIndexes[i] = id != null && !id.isEmpty() && url != null
+                            && url.equals(EarthquakeCatalog.USGS_EVENT_PAGE_PREFIX + id)
+                            ? DERIVED_URL
+                            : addString(url, stringTable, strings);
+                }
+            for (int i = 0; i < strings.size(); i++)
+                {
+                    stringLength += strings.get(i).length;
+                }
+
+            int length = HEADER_BYTES + size * ROW_BYTES + strings.size() * 4 + stringLength;
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(strings.size())
+                    .putLong(savedAt).putInt(length).putInt(0);
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putDouble(earthquakes.get(i).getMagnitude());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putLong(earthquakes.get(i).getTimeInMilliseconds());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putLong(earthquakes.get(i).getUpdatedInMilliseconds());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putDouble(earthquakes.get(i).getLongitude());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putDouble(earthquakes.get(i).getLatitude());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putDouble(earthquakes.get(i).getDepth());
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putInt(placeIndexes[i]);
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putInt(idIndexes[i]);
+                }
+            for (int i = 0; i < size; i++)
+                {
+                    buffer.putInt(urlIndexes[i]);
+                }
+
+            int end = 0;
+            for (int i = 0; i < strings.size(); i++)
+                {
+                    end += strings.get(i).length;
+                    buffer.putInt(end);
+                }
+            for (int i = 0; i < strings.size(); i++)
+                {
+                    buffer.put(strings.get(i));
+                }
+            buffer.flip();
+            return buffer;
+        }
+
+    private static int addString(String value, HashMap<String, Integer> stringTable, List<byte[]> strings)
+        {
+            if(value == null)
+                {
+                    return NO_STRING;
+                }
+            Integer index = stringTable.get(value);
+            if(index == null)
+                {
+                    index = strings.size();
+                    stringTable.put(value, index);
+                    strings.add(value.getBytes(UTF_8));
+                }
+            return index;
+        }
+
+    public int size()
+        {
+            return size;
+        }
+
+    /**
+     * Returns when the rows were loaded, in milliseconds from the Epoch.
+     */
+    public long getSavedAt()
+        {
+            return savedAt;
+        }
+
+    public double getMagnitude(int row)
+        {
+            return buffer.getDouble(magnitudes + checkRow(row) * 8);
+        }
+
+    public long getTimeInMilliseconds(int row)
+        {
+            return buffer.getLong(times + checkRow(row) * 8);
+        }
+
+    public long getUpdatedInMilliseconds(int row)
+        {
+            return buffer.getLong(updatedTimes + checkRow(row) * 8);
+        }
+
+    public String getCity(int row)
+        {
+            return getString(buffer.getInt(placeIndexes + checkRow(row) * 4));
+        }
+
+    public String getId(int row)
+        {
+            return getString(buffer.getInt(idIndexes + checkRow(row) * 4));
+        }
+
+    public String getUrl(int row)
+        {
+            int index = buffer.getInt(urlIndexes + checkRow(row) * 4);
+            if(index == DERIVED_URL)
+                {
+                    return EarthquakeCatalog.USGS_EVENT_PAGE_PREFIX + getId(row);
+                }
+            return getString(index);
+        }
+
+    /**
+     * Builds an {@link Earthquake} object for the row.
+     */
+    public Earthquake get(int row)
+        {
+            int offset = checkRow(row) * 8;
+            return new Earthquake(getId(row), buffer.getDouble(magnitudes + offset), getCity(row),
+                    buffer.getLong(times + offset), buffer.getLong(updatedTimes + offset), getUrl(row),
+                    buffer.getDouble(longitudes + offset), buffer.getDouble(latitudes + offset),
+                    buffer.getDouble(depths + offset));
+        }
+
+    /**
+     * Builds the {@link Earthquake} objects of all rows, in order.
+     */
+    public List<Earthquake> toList()
+        {
+            List<Earthquake> earthquakes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                {
+                    earthquakes.add(get(i));
+                }
+            return earthquakes;
+        }
+
+    private int checkRow(int row)
+        {
+            if(row < 0 || row >= size)
+                {
+                    throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+                }
+            return row;
+        }
+
+    private String getString(int index)
+        {
+            if(index == NO_STRING)
+                {
+                    return null;
+                }
+            String value = strings[index];
+            if(value == null)
+                {
+                    int start = index == 0 ? 0 : buffer.getInt(stringEnds + (index - 1) * 4);
+                    int end = buffer.getInt(stringEnds + index * 4);
+                    byte[] bytes = new byte[end - start];
+                    ByteBuffer source = buffer.duplicate();
+                    source.position(stringBytes + start);
+                    source.get(bytes);
+                    value = new String(bytes, UTF_8);
+                    strings[index] = value;
+                }
+            return value;
+        }
+}
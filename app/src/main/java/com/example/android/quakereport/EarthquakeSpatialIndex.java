@@ -0,0 +1,235 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * A grid over latitude and longitude that answers bounding box and radius queries on an
+ * {@link EarthquakeCatalog} without looking at every row.
+ *
+ * The rows are bucketed by the grid cell of their epicenter and stored cell after cell in one
+ * int array, so a query only visits the cells that overlap its area and then checks the exact
+ * bounds on the rows in them. Rows without coordinates are left out of the index.
+ */
+public final class EarthquakeSpatialIndex {
+
+    /* The default cell size gives a 90 x 180 grid */
+    public static final double DEFAULT_CELL_SIZE_DEGREES = 2.0;
+
+    /* Mean radius of the Earth */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final EarthquakeCatalog mCatalog;
+    private final double mCellSize;
+    private final int mLatitudeCells;
+    private final int mLongitudeCells;
+
+    /* The rows of cell c are mRows[mCellStarts[c]] up to mRows[mCellStarts[c + 1]] */
+    private final int[] mCellStarts;
+    private final int[] mRows;
+
+    /**
+     * Builds an index over the catalogue with the default cell size.
+     */
+    public EarthquakeSpatialIndex(EarthquakeCatalog catalog)
+        {
+            this(catalog, DEFAULT_CELL_SIZE_DEGREES);
+        }
+
+    /**
+     * Builds an index over the catalogue.
+     *
+     * @param catalog the earthquakes to index
+     * @param cellSizeDegrees the height and width of a grid cell in degrees
+     */
+    public EarthquakeSpatialIndex(EarthquakeCatalog catalog, double cellSizeDegrees)
+        {
+            mCatalog = catalog;
+            mCellSize = cellSizeDegrees;
+            mLatitudeCells = (int) Math.ceil(180 / cellSizeDegrees);
+            mLongitudeCells = (int) Math.ceil(360 / cellSizeDegrees);
+
+            // Counting sort of the rows by cell: count, turn the counts into starts, then place
+            int cellCount = mLatitudeCells * mLongitudeCells;
+            int size = catalog.size();
+            int[] rowCells = new int[size];
+            int[] cellStarts = new int[cellCount + 1];
+            int indexed = 0;
+            for (int row = 0; row < size; row++)
+                {
+                    double latitude = catalog.getLatitude(row);
+                    double longitude = catalog.getLongitude(row);
+                    if(Double.isNaN(latitude) || Double.isNaN(longitude))
+                        {
+                            rowCells[row] = -1;
+                            continue;
+                        }
+                    int cell = latitudeCell(latitude) * mLongitudeCells + longitudeCell(longitude);
+                    rowCells[row] = cell;
+                    cellStarts[cell + 1]++;
+                    indexed++;
+                }
+            for (int cell = 0; cell < cellCount; cell++)
+                {
+                    cellStarts[cell + 1] += cellStarts[cell];
+                }
+            int[] next = Arrays.copyOf(cellStarts, cellCount);
+            int[] rows = new int[indexed];
+            for (int row = 0; row < size; row++)
+                {
+                    if(rowCells[row] >= 0)
+                        {
+                            rows[next[rowCells[row]]++] = row;
+                        }
+                }
+            mCellStarts = cellStarts;
+            mRows = rows;
+        }
+
+    public EarthquakeCatalog getCatalog()
+        {
+            return mCatalog;
+        }
+
+    /**
+     * Returns the catalogue rows whose epicenter is inside the box, in ascending order.
+     * If west is greater than east, the box crosses the 180th meridian.
+     */
+    public int[] queryBoundingBox(double south, double west, double north, double east)
+        {
+            RowCollector rows = new RowCollector();
+            int firstColumn = longitudeCell(west);
+            int lastColumn = longitudeCell(east);
+            boolean crossesAntimeridian = west > east;
+
+            // Number of grid columns between west and east, wrapping around at the 180th meridian
+            int columnCount = lastColumn - firstColumn + 1;
+            if(crossesAntimeridian)
+                {
+                    columnCount = lastColumn >= firstColumn
+                            ? mLongitudeCells
+                            : lastColumn + mLongitudeCells - firstColumn + 1;
+                }
+
+            for (int latitudeCell = latitudeCell(south); latitudeCell <= latitudeCell(north); latitudeCell++)
+                {
+                    for (int c = 0; c < columnCount; c++)
+                        {
+                            int column = (firstColumn + c) % mLongitudeCells;
+                            int cell = latitudeCell * mLongitudeCells + column;
+                            for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++)
+                                {
+                                    int row = mRows[i];
+                                    double latitude = mCatalog.getLatitude(row);
+                                    double longitude = mCatalog.getLongitude(row);
+                                    boolean insideLongitude = crossesAntimeridian
+                                            ? longitude >= west || longitude <= east
+                                            : longitude >= west && longitude <= east;
+                                    if(latitude >= south && latitude <= north && insideLongitude)
+                                        {
+                                            rows.add(row);
+                                        }
+                                }
+                        }
+                }
+            return rows.toSortedArray();
+        }
+
+    /**
+     * Returns the catalogue rows whose epicenter is at most radiusKm away from the given
+     * point along the surface of the Earth, in ascending order.
+     */
+    public int[] queryRadius(double latitude, double longitude, double radiusKm)
+        {
+            double angularRadius = radiusKm / EARTH_RADIUS_KM;
+            double latitudeDelta = Math.toDegrees(angularRadius);
+            double south = Math.max(latitude - latitudeDelta, -90);
+            double north = Math.min(latitude + latitudeDelta, 90);
+
+            // The widest longitude span of the circle; near a pole it covers every longitude
+            double west = -180;
+            double east = 180;
+            double sinRatio = Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude));
+            if(north < 90 && south > -90 && sinRatio < 1)
+                {
+                    double longitudeDelta = Math.toDegrees(Math.asin(sinRatio));
+                    west = normalizeLongitude(longitude - longitudeDelta);
+                    east = normalizeLongitude(longitude + longitudeDelta);
+                }
+
+            int[] candidates = queryBoundingBox(south, west, north, east);
+            int matches = 0;
+            for (int i = 0; i < candidates.length; i++)
+                {
+                    int row = candidates[i];
+                    if(distanceKm(latitude, longitude, mCatalog.getLatitude(row), mCatalog.getLongitude(row)) <= radiusKm)
+                        {
+                            candidates[matches++] = row;
+                        }
+                }
+            return Arrays.copyOf(candidates, matches);
+        }
+
+    /**
+     * Returns the great-circle distance between two points with the haversine formula.
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2)
+        {
+            double latitudeDelta = Math.toRadians(latitude2 - latitude1);
+            double longitudeDelta = Math.toRadians(longitude2 - longitude1);
+            double sinLatitude = Math.sin(latitudeDelta / 2);
+            double sinLongitude = Math.sin(longitudeDelta / 2);
+            double a = sinLatitude * sinLatitude
+                    + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                    * sinLongitude * sinLongitude;
+            return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+        }
+
+    private int latitudeCell(double latitude)
+        {
+            int cell = (int) ((latitude + 90) / mCellSize);
+            return Math.max(0, Math.min(cell, mLatitudeCells - 1));
+        }
+
+    private int longitudeCell(double longitude)
+        {
+            int cell = (int) ((normalizeLongitude(longitude) + 180) / mCellSize);
+            return Math.max(0, Math.min(cell, mLongitudeCells - 1));
+        }
+
+    /**
+     * Brings a longitude into the range -180 to 180.
+     */
+    private static double normalizeLongitude(double longitude)
+        {
+            if(longitude >= -180 && longitude <= 180)
+                {
+                    return longitude;
+                }
+            return ((longitude + 180) % 360 + 360) % 360 - 180;
+        }
+
+    /**
+     * A growable list of row numbers.
+     */
+    private static class RowCollector {
+
+        private int[] rows = new int[64];
+        private int size;
+
+        void add(int row)
+            {
+                if(size == rows.length)
+                    {
+                        rows = Arrays.copyOf(rows, size * 2);
+                    }
+                rows[size++] = row;
+            }
+
+        int[] toSortedArray()
+            {
+                int[] result = Arrays.copyOf(rows, size);
+                Arrays.sort(result);
+                return result;
+            }
+    }
+}
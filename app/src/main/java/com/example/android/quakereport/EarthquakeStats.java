@@ -0,0 +1,368 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summary statistics over a set of earthquakes that are kept up to date as events are added,
+ * revised or removed, instead of being recomputed from the whole list.
+ *
+ * Every event is counted in its magnitude band (the floors the rows are colored by), in the
+ * hour and the day (UTC) it happened, and in its region. Each of those buckets also knows its
+ * largest magnitude. An update touches one bucket of each kind, so it costs the same for a
+ * catalogue of 20 or 20,000 events, and reading a count or a maximum is a lookup. Only
+ * {@link #getTopRegions(int)} looks at every region, of which there are a few hundred at most.
+ *
+ * Events are told apart by {@link Earthquake#getKey()}: putting an event that is already
+ * counted replaces it. All methods are thread safe.
+ */
+public final class EarthquakeStats {
+
+    public static final long HOUR_IN_MILLISECONDS = 60 * 60 * 1000L;
+    public static final long DAY_IN_MILLISECONDS = 24 * HOUR_IN_MILLISECONDS;
+
+    private final int bandCount;
+
+    /* The counted events by key, to take out what they added when they change */
+    private final HashMap<String, Earthquake> events = new HashMap<>();
+
+    private final int[] bandCounts;
+    private final Bucket all = new Bucket();
+
+    /* Buckets by the number of hours or days since the Epoch */
+    private final HashMap<Long, Bucket> hours = new HashMap<>();
+    private final HashMap<Long, Bucket> days = new HashMap<>();
+
+    private final HashMap<String, Bucket> regions = new HashMap<>();
+
+    /**
+     * Constructs a new, empty {@link EarthquakeStats}.
+     *
+     * @param bandCount the number of magnitude bands, see
+     *                  {@link EarthquakeFormatter#getMagnitudeBand(double, int)}
+     */
+    public EarthquakeStats(int bandCount)
+        {
+            this.bandCount = bandCount;
+            this.bandCounts = new int[bandCount];
+        }
+
+    /**
+     * Counts an event, or replaces the counted event with the same key by this revision.
+     */
+    public synchronized void put(Earthquake earthquake)
+        {
+            Earthquake previous = events.put(earthquake.getKey(), earthquake);
+            if(previous != null)
+                {
+                    count(previous, -1);
+                }
+            count(earthquake, 1);
+        }
+
+    public synchronized void putAll(List<Earthquake> earthquakes)
+        {
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    put(earthquakes.get(i));
+                }
+        }
+
+    /**
+     * Stops counting the event with the given key, if it is counted.
+     */
+    public synchronized void remove(String key)
+        {
+            Earthquake previous = events.remove(key);
+            if(previous != null)
+                {
+                    count(previous, -1);
+                }
+        }
+
+    public synchronized void clear()
+        {
+            events.clear();
+            for (int i = 0; i < bandCount; i++)
+                {
+                    bandCounts[i] = 0;
+                }
+            all.clear();
+            hours.clear();
+            days.clear();
+            regions.clear();
+        }
+
+    /**
+     * Starts over with the given events, for when a different list is shown.
+     */
+    public synchronized void replaceAll(List<Earthquake> earthquakes)
+        {
+            clear();
+            putAll(earthquakes);
+        }
+
+    public synchronized int size()
+        {
+            return events.size();
+        }
+
+    /**
+     * Returns the number of events in a magnitude band.
+     */
+    public synchronized int getBandCount(int band)
+        {
+            return bandCounts[band];
+        }
+
+    /**
+     * Returns the largest magnitude of all events, or NaN if there are none.
+     */
+    public synchronized double getMaxMagnitude()
+        {
+            return all.max;
+        }
+
+    /**
+     * Returns the number of events in the hour (UTC) that contains the given time.
+     */
+    public synchronized int getHourCount(long time)
+        {
+            return countOf(hours.get(hourOf(time)));
+        }
+
+    /**
+     * Returns the largest magnitude in the hour (UTC) that contains the given time, or NaN.
+     */
+    public synchronized double getHourMaxMagnitude(long time)
+        {
+            return maxOf(hours.get(hourOf(time)));
+        }
+
+    /**
+     * Returns the number of events in the day (UTC) that contains the given time.
+     */
+    public synchronized int getDayCount(long time)
+        {
+            return countOf(days.get(dayOf(time)));
+        }
+
+    /**
+     * Returns the largest magnitude in the day (UTC) that contains the given time, or NaN.
+     */
+    public synchronized double getDayMaxMagnitude(long time)
+        {
+            return maxOf(days.get(dayOf(time)));
+        }
+
+    /**
+     * Returns the number of events in the given number of hours up to and including the hour
+     * of the given time.
+     */
+    public synchronized int getCountInHours(long time, int hourCount)
+        {
+            long last = hourOf(time);
+            int count = 0;
+            for (long hour = last - hourCount + 1; hour <= last; hour++)
+                {
+                    count += countOf(hours.get(hour));
+                }
+            return count;
+        }
+
+    /**
+     * Returns the largest magnitude in the given number of hours up to and including the hour
+     * of the given time, or NaN if there were no events.
+     */
+    public synchronized double getMaxMagnitudeInHours(long time, int hourCount)
+        {
+            long last = hourOf(time);
+            double max = Double.NaN;
+            for (long hour = last - hourCount + 1; hour <= last; hour++)
+                {
+                    max = maxOf(max, maxOf(hours.get(hour)));
+                }
+            return max;
+        }
+
+    /**
+     * Returns the number of events in the given number of days up to and including the day
+     * of the given time.
+     */
+    public synchronized int getCountInDays(long time, int dayCount)
+        {
+            long last = dayOf(time);
+            int count = 0;
+            for (long day = last - dayCount + 1; day <= last; day++)
+                {
+                    count += countOf(days.get(day));
+                }
+            return count;
+        }
+
+    /**
+     * Returns the number of events in a region, see {@link #getRegion(String)}.
+     */
+    public synchronized int getRegionCount(String region)
+        {
+            return countOf(regions.get(region));
+        }
+
+    /**
+     * Returns the largest magnitude in a region, or NaN if it had no events.
+     */
+    public synchronized double getRegionMaxMagnitude(String region)
+        {
+            return maxOf(regions.get(region));
+        }
+
+    /**
+     * Returns the regions with the most events, most events first.
+     *
+     * @param limit the number of regions to return at most
+     */
+    public synchronized List<String> getTopRegions(int limit)
+        {
+            List<String> top = new ArrayList<>(limit + 1);
+            for (Map.Entry<String, Bucket> region : regions.entrySet())
+                {
+                    //Insert into the short sorted list, dropping the one that falls off
+                    int count = region.getValue().count;
+                    int position = top.size();
+                    while (position > 0 && regions.get(top.get(position - 1)).count < count)
+                        {
+                            position--;
+                        }
+                    if(position < limit)
+                        {
+                            top.add(position, region.getKey());
+                            if(top.size() > limit)
+                                {
+                                    top.remove(limit);
+                                }
+                        }
+                }
+            return top;
+        }
+
+    /**
+     * Returns the region of a place: the last part of its primary location, so
+     * "10km SSW of Hachinohe, Japan" is in "Japan" and "Fiji region" is in "Fiji region".
+     */
+    public static String getRegion(String place)
+        {
+            if(place == null)
+                {
+                    return "";
+                }
+            String primaryLocation = EarthquakeFormatter.getPrimaryLocation(place);
+            int comma = primaryLocation.lastIndexOf(',');
+            return (comma < 0 ? primaryLocation : primaryLocation.substring(comma + 1)).trim();
+        }
+
+    /**
+     * Adds (delta 1) or takes out (delta -1) what an event adds to every bucket.
+     */
+    private void count(Earthquake earthquake, int delta)
+        {
+            double magnitude = earthquake.getMagnitude();
+            long time = earthquake.getTimeInMilliseconds();
+            bandCounts[EarthquakeFormatter.getMagnitudeBand(magnitude, bandCount)] += delta;
+            all.count(magnitude, delta);
+            count(hours, hourOf(time), magnitude, delta);
+            count(days, dayOf(time), magnitude, delta);
+            count(regions, getRegion(earthquake.getCity()), magnitude, delta);
+        }
+
+    private static <K> void count(HashMap<K, Bucket> buckets, K key, double magnitude, int delta)
+        {
+            Bucket bucket = buckets.get(key);
+            if(bucket == null)
+                {
+                    bucket = new Bucket();
+                    buckets.put(key, bucket);
+                }
+            bucket.count(magnitude, delta);
+            if(bucket.count == 0)
+                {
+                    buckets.remove(key);
+                }
+        }
+
+    private static long hourOf(long time)
+        {
+            return (long) Math.floor(time / (double) HOUR_IN_MILLISECONDS);
+        }
+
+    private static long dayOf(long time)
+        {
+            return (long) Math.floor(time / (double) DAY_IN_MILLISECONDS);
+        }
+
+    private static int countOf(Bucket bucket)
+        {
+            return bucket == null ? 0 : bucket.count;
+        }
+
+    private static double maxOf(Bucket bucket)
+        {
+            return bucket == null ? Double.NaN : bucket.max;
+        }
+
+    /**
+     * Returns the larger of two magnitudes, either of which may be NaN for none.
+     */
+    private static double maxOf(double first, double second)
+        {
+            if(Double.isNaN(first))
+                {
+                    return second;
+                }
+            return Double.isNaN(second) ? first : Math.max(first, second);
+        }
+
+    /**
+     * The events of one band, hour, day or region: their number and their magnitudes, so the
+     * maximum is still known after the largest event was taken out.
+     */
+    private static final class Bucket {
+
+        int count;
+        double max = Double.NaN;
+
+        /* Number of events by magnitude */
+        final TreeMap<Double, Integer> magnitudes = new TreeMap<>();
+
+        void count(double magnitude, int delta)
+            {
+                count += delta;
+
+                //An unknown magnitude is counted, but it is nobody's maximum
+                if(Double.isNaN(magnitude))
+                    {
+                        return;
+                    }
+                Integer previous = magnitudes.get(magnitude);
+                int events = (previous == null ? 0 : previous) + delta;
+                if(events > 0)
+                    {
+                        magnitudes.put(magnitude, events);
+                    }
+                else
+                    {
+                        magnitudes.remove(magnitude);
+                    }
+                max = magnitudes.isEmpty() ? Double.NaN : magnitudes.lastKey();
+            }
+
+        void clear()
+            {
+                count = 0;
+                max = Double.NaN;
+                magnitudes.clear();
+            }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_DEPTH;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_EVENT_ID;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_LATITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_LONGITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_MAGNITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_PLACE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_ID;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_TIME;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_UPDATED;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_URL;
+import static com.example.android.quakereport.EarthquakeDbHelper.TABLE_EARTHQUAKES;
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Keeps the last set of earthquakes fetched from USGS on the device, so they can be shown
+ * right away on the next launch, even without a network connection.
+ *
+ * All methods do disk I/O and must be called from a background thread, except for
+ * {@link #loadSnapshot(Context)}.
+ */
+public class EarthquakeStore {
+
+    private static final String[] COLUMNS =
+            {COLUMN_EVENT_ID, COLUMN_MAGNITUDE, COLUMN_PLACE, COLUMN_TIME, COLUMN_UPDATED, COLUMN_URL,
+                    COLUMN_LONGITUDE, COLUMN_LATITUDE, COLUMN_DEPTH};
+
+    private static final String SQL_INSERT =
+            "INSERT OR REPLACE INTO " + TABLE_EARTHQUAKES + " ("
+                    + COLUMN_EVENT_ID + ", " + COLUMN_MAGNITUDE + ", " + COLUMN_PLACE + ", "
+                    + COLUMN_TIME + ", " + COLUMN_UPDATED + ", " + COLUMN_URL + ", "
+                    + COLUMN_LONGITUDE + ", " + COLUMN_LATITUDE + ", " + COLUMN_DEPTH
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* The snapshot of the last synced earthquakes, read at startup */
+    private static final String SNAPSHOT_FILE_NAME = "earthquakes.snapshot";
+
+    private final EarthquakeDbHelper mDbHelper;
+
+    private final File mSnapshotFile;
+
+    /**
+     * Constructs a new {@link EarthquakeStore}.
+     *
+     * @param context any context, only its application context is kept
+     */
+    public EarthquakeStore(Context context)
+        {
+            mDbHelper = EarthquakeDbHelper.getInstance(context);
+            mSnapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+        }
+
+    /**
+     * Returns the earthquakes of the last sync from their {@link EarthquakeSnapshot}, or null
+     * if there is none. This only maps a small file, without opening the database, so it can
+     * be called from the main thread to show the list in the first frame.
+     */
+    public static List<Earthquake> loadSnapshot(Context context)
+        {
+            long start = SystemClock.elapsedRealtime();
+            File file = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+            if(!file.exists())
+                {
+                    return null;
+                }
+            try
+                {
+                    List<Earthquake> earthquakes = EarthquakeSnapshot.map(file).toList();
+                    Log.i(LOG_TAG, "Read snapshot of " + earthquakes.size() + " earthquakes in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                    return earthquakes;
+                }
+            catch (IOException e)
+                {
+                    Log.e(LOG_TAG, "Problem reading the snapshot", e);
+                    return null;
+                }
+        }
+
+    public boolean hasSnapshot()
+        {
+            return mSnapshotFile.exists();
+        }
+
+    /**
+     * Returns true if no earthquake is stored, as after the first launch or a database
+     * upgrade.
+     */
+    public boolean isEmpty()
+        {
+            return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), TABLE_EARTHQUAKES) == 0;
+        }
+
+    /**
+     * Replaces the snapshot read at startup with the given earthquakes. A snapshot that can't
+     * be written is not an error, the stored earthquakes are still there.
+     */
+    public void saveSnapshot(List<Earthquake> earthquakes)
+        {
+            try
+                {
+                    EarthquakeSnapshot.write(mSnapshotFile, earthquakes, System.currentTimeMillis());
+                }
+            catch (IOException e)
+                {
+                    Log.e(LOG_TAG, "Problem writing the snapshot", e);
+                }
+        }
+
+    /**
+     * Returns every stored earthquake, most recent first.
+     */
+    public List<Earthquake> loadAll()
+        {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_EARTHQUAKES, COLUMNS, null, null, null, null,
+                    COLUMN_TIME + " DESC");
+            try
+                {
+                    List<Earthquake> earthquakes = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext())
+                        {
+                            earthquakes.add(new Earthquake(cursor.getString(0), getDouble(cursor, 1),
+                                    cursor.getString(2), cursor.getLong(3), cursor.getLong(4),
+                                    cursor.getString(5), getDouble(cursor, 6), getDouble(cursor, 7),
+                                    getDouble(cursor, 8)));
+                        }
+                    return earthquakes;
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    /**
+     * Replaces the stored earthquakes with the given list in a single transaction.
+     */
+    public void replaceAll(List<Earthquake> earthquakes)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try
+                {
+                    db.delete(TABLE_EARTHQUAKES, null, null);
+                    insert(db, earthquakes);
+                    db.setTransactionSuccessful();
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+        }
+
+    /**
+     * Applies a set of changes in a single transaction: the changed earthquakes replace the
+     * rows with the same event id (or are added), the removed keys are deleted, and if
+     * maxRows is positive only the newest maxRows earthquakes are kept.
+     *
+     * @param changed the new or revised earthquakes
+     * @param removedKeys the keys (see {@link #getKey(Earthquake)}) of the events to delete
+     * @param maxRows the number of rows to keep, or 0 to keep all of them
+     */
+    public void applyChanges(List<Earthquake> changed, List<String> removedKeys, int maxRows)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try
+                {
+                    insert(db, changed);
+                    for (int i = 0; i < removedKeys.size(); i++)
+                        {
+                            db.delete(TABLE_EARTHQUAKES, COLUMN_EVENT_ID + " = ?",
+                                    new String[]{removedKeys.get(i)});
+                        }
+                    if(maxRows > 0)
+                        {
+                            db.execSQL("DELETE FROM " + TABLE_EARTHQUAKES + " WHERE " + COLUMN_ID
+                                    + " NOT IN (SELECT " + COLUMN_ID + " FROM " + TABLE_EARTHQUAKES
+                                    + " ORDER BY " + COLUMN_TIME + " DESC LIMIT " + maxRows + ")");
+                        }
+                    db.setTransactionSuccessful();
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+        }
+
+    /**
+     * Inserts the earthquakes with one precompiled statement, replacing rows that have
+     * the same event id.
+     */
+    private static void insert(SQLiteDatabase db, List<Earthquake> earthquakes)
+        {
+            SQLiteStatement statement = db.compileStatement(SQL_INSERT);
+            try
+                {
+                    for (int i = 0; i < earthquakes.size(); i++)
+                        {
+                            Earthquake earthquake = earthquakes.get(i);
+                            statement.clearBindings();
+                            statement.bindString(1, getKey(earthquake));
+                            bindDoubleOrNull(statement, 2, earthquake.getMagnitude());
+                            bindStringOrNull(statement, 3, earthquake.getCity());
+                            statement.bindLong(4, earthquake.getTimeInMilliseconds());
+                            statement.bindLong(5, earthquake.getUpdatedInMilliseconds());
+                            bindStringOrNull(statement, 6, earthquake.getUrl());
+                            bindDoubleOrNull(statement, 7, earthquake.getLongitude());
+                            bindDoubleOrNull(statement, 8, earthquake.getLatitude());
+                            bindDoubleOrNull(statement, 9, earthquake.getDepth());
+                            statement.executeInsert();
+                        }
+                }
+            finally
+                {
+                    statement.close();
+                }
+        }
+
+    /**
+     * Returns the key a row is stored under, see {@link Earthquake#getKey()}.
+     */
+    static String getKey(Earthquake earthquake)
+        {
+            return earthquake.getKey();
+        }
+
+    /**
+     * Binds a double, storing NaN (an unknown value) as NULL.
+     */
+    private static void bindDoubleOrNull(SQLiteStatement statement, int index, double value)
+        {
+            if(Double.isNaN(value))
+                {
+                    statement.bindNull(index);
+                }
+            else
+                {
+                    statement.bindDouble(index, value);
+                }
+        }
+
+    /**
+     * Reads a double, returning NaN for NULL.
+     */
+    private static double getDouble(Cursor cursor, int index)
+        {
+            return cursor.isNull(index) ? Double.NaN : cursor.getDouble(index);
+        }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value)
+        {
+            if(value == null)
+                {
+                    statement.bindNull(index);
+                }
+            else
+                {
+                    statement.bindString(index, value);
+                }
+        }
+}
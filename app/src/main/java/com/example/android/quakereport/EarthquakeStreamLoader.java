@@ -0,0 +1,274 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Loads a whole USGS query in one request, publishing the earthquakes in batches while the
+ * response is still being downloaded and parsed.
+ *
+ * Every batch is formatted on the loader thread and then posted to the main thread, where
+ * it is handed to the {@link BatchCallbacks}. The delivered result is all the earthquakes of
+ * the query, which a recreated activity gets at once, or null if the request failed after
+ * some batches were published.
+ */
+public class EarthquakeStreamLoader extends AsyncTaskLoader<List<Earthquake>> {
+
+    /**
+     * Receives the batches of an {@link EarthquakeStreamLoader} on the main thread.
+     */
+    public interface BatchCallbacks {
+
+        /**
+         * Called with the next earthquakes of the query, in the order of the query.
+         */
+        void onEarthquakesBatch(EarthquakeStreamLoader loader, List<Earthquake> batch);
+    }
+
+    /* Request Url */
+    private final String mUrl;
+
+    /* The number of earthquakes published at a time */
+    private final int mBatchSize;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Receives the batches, null once the activity went away. Only used on the main thread */
+    private BatchCallbacks mCallbacks;
+
+    /* The last delivered result, so a restarted loader doesn't fetch the query again */
+    private List<Earthquake> mEarthquakes;
+
+    /* Cancels the running load, null while none is running. Guarded by this */
+    private LoadCancellation mCancellation;
+
+    /* Set when the running load is cancelled, even before it created mCancellation, until it is over */
+    private volatile boolean mLoadCanceled;
+
+    /* When the running load was asked for, on the System.nanoTime() clock */
+    private volatile long mForceLoadNanos;
+
+    /**
+     * Constructs a new {@link EarthquakeStreamLoader}.
+     *
+     * @param context of the activity
+     * @param url the query to load, without offset and limit
+     * @param batchSize the number of earthquakes published at a time
+     * @param callbacks receives the batches
+     */
+    public EarthquakeStreamLoader(Context context, String url, int batchSize, BatchCallbacks callbacks)
+        {
+            super(context);
+            this.mUrl = url;
+            this.mBatchSize = batchSize;
+            this.mCallbacks = callbacks;
+        }
+
+    public String getUrl()
+        {
+            return mUrl;
+        }
+
+    /**
+     * Replaces the receiver of the batches, or removes it if null, for when the activity
+     * is destroyed.
+     */
+    public void setBatchCallbacks(BatchCallbacks callbacks)
+        {
+            mCallbacks = callbacks;
+        }
+
+    @Override
+    protected void onStartLoading()
+        {
+            if(mEarthquakes != null)
+                {
+                    deliverResult(mEarthquakes);
+                }
+            else
+                {
+                    forceLoad();
+                }
+        }
+
+    /**
+     * Notes when the load was asked for, to measure how long it waits for a loader thread.
+     */
+    @Override
+    protected void onForceLoad()
+        {
+            mForceLoadNanos = System.nanoTime();
+            super.onForceLoad();
+        }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public List<Earthquake> loadInBackground()
+        {
+            Log.i(LOG_TAG, "Streaming " + mUrl);
+            PipelineMetrics.LOADER_QUEUE.record(PipelineMetrics.microsSince(mForceLoadNanos));
+
+            final LoadCancellation cancellation;
+            synchronized (this)
+                {
+                    if(mLoadCanceled)
+                        {
+                            return null;
+                        }
+                    cancellation = new LoadCancellation();
+                    mCancellation = cancellation;
+                }
+
+            //A long history is fetched in time slices side by side instead
+            if(TimeShardedFetch.isShardable(mUrl))
+                {
+                    return loadSharded(cancellation);
+                }
+
+            //Format the rows here, so the adapter doesn't have to while scrolling
+            final EarthquakeFormatter formatter = EarthquakeAdapter.newFormatter(getContext());
+            final List<Earthquake> earthquakes = new ArrayList<>();
+            final long start = System.currentTimeMillis();
+            boolean complete;
+            PipelineMetrics.beginSection("load");
+            try
+                {
+                    complete = QueryUtils.streamEarthquakeData(mUrl, mBatchSize, cancellation,
+                            new GeoJsonStreamParser.BatchListener()
+                                {
+                                    @Override
+                                    public void onBatch(List<Earthquake> batch)
+                                        {
+                                            if(earthquakes.isEmpty())
+                                                {
+                                                    Log.i(LOG_TAG, "First batch after "
+                                                            + (System.currentTimeMillis() - start) + " ms");
+                                                }
+                                            formatter.formatAll(batch);
+                                            earthquakes.addAll(batch);
+                                            publish(batch, cancellation);
+                                        }
+                                });
+                }
+            finally
+                {
+                    PipelineMetrics.endSection();
+                    synchronized (this)
+                        {
+                            mCancellation = null;
+                        }
+                }
+
+            Log.i(LOG_TAG, "Streamed " + earthquakes.size() + " earthquakes in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return complete ? earthquakes : null;
+        }
+
+    /**
+     * Loads the query through {@link EarthquakeRepository}, which splits it into time slices
+     * with {@link TimeShardedFetch}. The slices only make sense once they are joined, so the
+     * batches are published after the whole query arrived.
+     */
+    private List<Earthquake> loadSharded(LoadCancellation cancellation)
+        {
+            long start = System.currentTimeMillis();
+            List<Earthquake> earthquakes;
+            PipelineMetrics.beginSection("load");
+            try
+                {
+                    earthquakes = EarthquakeRepository.getInstance(getContext()).fetch(mUrl, cancellation);
+                }
+            finally
+                {
+                    PipelineMetrics.endSection();
+                    synchronized (this)
+                        {
+                            mCancellation = null;
+                        }
+                }
+            if(earthquakes == null)
+                {
+                    return null;
+                }
+
+            //The repository formatted the earthquakes, which other loaders share
+            for (int i = 0; i < earthquakes.size(); i += mBatchSize)
+                {
+                    publish(new ArrayList<>(earthquakes.subList(i, Math.min(i + mBatchSize, earthquakes.size()))),
+                            cancellation);
+                }
+            Log.i(LOG_TAG, "Fetched " + earthquakes.size() + " earthquakes in slices in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return earthquakes;
+        }
+
+    /**
+     * Hands a batch to the callbacks on the main thread, unless the load was cancelled or
+     * the loader stopped meanwhile. The final result is posted to the same thread after the
+     * batches, so it always arrives last.
+     */
+    private void publish(final List<Earthquake> batch, final LoadCancellation cancellation)
+        {
+            mMainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        {
+                            if(mCallbacks != null && isStarted() && !cancellation.isCanceled())
+                                {
+                                    mCallbacks.onEarthquakesBatch(EarthquakeStreamLoader.this, batch);
+                                }
+                        }
+                });
+        }
+
+    /**
+     * Stops the request of a query the user moved away from.
+     */
+    @Override
+    public boolean cancelLoad()
+        {
+            boolean canceled = super.cancelLoad();
+
+            //False means no load was running: there was none, or it was dropped before it started
+            if(canceled)
+                {
+                    synchronized (this)
+                        {
+                            mLoadCanceled = true;
+                            if(mCancellation != null)
+                                {
+                                    mCancellation.cancel();
+                                }
+                        }
+                }
+            return canceled;
+        }
+
+    /**
+     * Called on the main thread once a cancelled load is over, before the next one starts.
+     */
+    @Override
+    public void onCanceled(List<Earthquake> data)
+        {
+            super.onCanceled(data);
+            mLoadCanceled = false;
+        }
+
+    @Override
+    public void deliverResult(List<Earthquake> data)
+        {
+            mEarthquakes = data;
+            super.deliverResult(data);
+        }
+}
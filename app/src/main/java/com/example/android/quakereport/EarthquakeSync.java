@@ -0,0 +1,237 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Keeps the {@link EarthquakeStore} up to date with a USGS query by only downloading what
+ * changed since the last sync.
+ *
+ * The first sync of a query fetches it in full. Afterwards the highest "updated" time seen so
+ * far is remembered, and the next sync asks USGS only for events updated after it (including
+ * deleted ones). Those changes are merged into the stored earthquakes keyed by event id, so
+ * revised magnitudes replace the old rows and deleted events disappear. A limited query whose
+ * merged result would come up short of its limit, because events were deleted or revised out
+ * of it, is fetched in full again, since the changes can't tell which events move up into it.
+ */
+public class EarthquakeSync {
+
+    private static final String PREFERENCES_NAME = "earthquake_sync";
+    private static final String KEY_QUERY = "query";
+    private static final String KEY_UPDATED_HIGH_WATER_MARK = "updated_high_water_mark";
+    private static final String KEY_SYNCED_AT = "synced_at";
+
+    private final EarthquakeStore mStore;
+    private final SharedPreferences mPreferences;
+    private final EarthquakeRepository mRepository;
+
+    /* The new and changed earthquakes of the last successful sync, all of them after a full sync */
+    private List<Earthquake> mLastChanges = Collections.emptyList();
+
+    /* The number of earthquakes deleted by the last successful sync */
+    private int mLastRemovedCount;
+
+    /* Whether the last successful sync returned the response of the query as it came */
+    private boolean mLastSyncFull;
+
+    /**
+     * Constructs a new {@link EarthquakeSync}.
+     *
+     * @param context any context, used to open the sync state and the repository
+     * @param store the store to keep up to date
+     */
+    public EarthquakeSync(Context context, EarthquakeStore store)
+        {
+            mStore = store;
+            mRepository = EarthquakeRepository.getInstance(context);
+            mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        }
+
+    /**
+     * Brings the store up to date with the given query. This is on a background thread.
+     *
+     * @param url the USGS query to sync
+     * @param cancellation stops the request when the load is no longer needed
+     * @return the earthquakes of the query after the sync, most recent first, or null if
+     *         the request failed or was cancelled and nothing was changed
+     */
+    public List<Earthquake> sync(String url, LoadCancellation cancellation)
+        {
+            long highWaterMark = 0;
+            if(url.equals(mPreferences.getString(KEY_QUERY, null)))
+                {
+                    highWaterMark = mPreferences.getLong(KEY_UPDATED_HIGH_WATER_MARK, 0);
+                }
+
+            //A new query (or one that never synced) has nothing to merge with, and neither has a
+            //store that lost its rows, such as after a database upgrade rebuilt the table
+            if(highWaterMark == 0 || mStore.isEmpty())
+                {
+                    return fullSync(url, cancellation);
+                }
+            return deltaSync(url, highWaterMark, cancellation);
+        }
+
+    private List<Earthquake> fullSync(String url, LoadCancellation cancellation)
+        {
+            List<Earthquake> earthquakes = mRepository.fetch(url, cancellation);
+            if(earthquakes == null)
+                {
+                    return null;
+                }
+
+            mStore.replaceAll(earthquakes);
+            mStore.saveSnapshot(earthquakes);
+            saveHighWaterMark(url, getHighWaterMark(earthquakes, 0));
+            mLastChanges = earthquakes;
+            mLastRemovedCount = 0;
+            mLastSyncFull = true;
+            return earthquakes;
+        }
+
+    private List<Earthquake> deltaSync(String url, long highWaterMark, LoadCancellation cancellation)
+        {
+            UsgsQuery query = UsgsQuery.parse(url);
+            int limit = query.getInt("limit", 0);
+
+            //The limit applies to the merged result, not to the number of changes
+            String deltaUrl = query.without("limit")
+                    .with("updatedafter", UsgsQuery.formatTime(highWaterMark))
+                    .with("includedeleted", "true")
+                    .toUrl();
+
+            List<Earthquake> changes = mRepository.fetch(deltaUrl, cancellation);
+            if(changes == null)
+                {
+                    return null;
+                }
+
+            //Index the stored earthquakes by event id so each change is a single lookup
+            List<Earthquake> stored = mStore.loadAll();
+            HashMap<String, Earthquake> merged = new HashMap<>(stored.size() * 2);
+            for (int i = 0; i < stored.size(); i++)
+                {
+                    Earthquake earthquake = stored.get(i);
+                    merged.put(EarthquakeStore.getKey(earthquake), earthquake);
+                }
+
+            List<Earthquake> changed = new ArrayList<>();
+            List<String> removedKeys = new ArrayList<>();
+            for (int i = 0; i < changes.size(); i++)
+                {
+                    Earthquake change = changes.get(i);
+                    String key = EarthquakeStore.getKey(change);
+                    if(change.isDeleted())
+                        {
+                            merged.remove(key);
+                            removedKeys.add(key);
+                        }
+                    else
+                        {
+                            merged.put(key, change);
+                            changed.add(change);
+                        }
+                }
+
+            Log.i(LOG_TAG, "Delta sync: " + changed.size() + " changed, "
+                    + removedKeys.size() + " deleted");
+
+            //The changes only hold events that changed, so they can't refill the rows a deletion
+            //or a revision out of the query left empty in a limited result. Fetch it whole
+            //instead, which is no more than the limit anyway
+            if(limit > 0 && (merged.size() < limit || !removedKeys.isEmpty()))
+                {
+                    Log.i(LOG_TAG, "Delta sync left " + merged.size() + " of " + limit
+                            + " earthquakes, syncing in full");
+                    return fullSync(url, cancellation);
+                }
+
+            mStore.applyChanges(changed, removedKeys, limit);
+            saveHighWaterMark(url, getHighWaterMark(changes, highWaterMark));
+            mLastChanges = changed;
+            mLastRemovedCount = removedKeys.size();
+            mLastSyncFull = false;
+
+            ArrayList<Earthquake> result = new ArrayList<>(merged.values());
+            Collections.sort(result, EarthquakeQuery.MOST_RECENT_FIRST);
+            if(limit > 0 && result.size() > limit)
+                {
+                    result.subList(limit, result.size()).clear();
+                }
+            //The snapshot already holds this result if nothing changed
+            if(!changed.isEmpty() || !removedKeys.isEmpty() || !mStore.hasSnapshot())
+                {
+                    mStore.saveSnapshot(result);
+                }
+            return result;
+        }
+
+    /**
+     * Returns the new and changed earthquakes of the last successful sync made by this
+     * instance, or every earthquake of the query if it was a full sync.
+     */
+    public List<Earthquake> getLastChanges()
+        {
+            return mLastChanges;
+        }
+
+    /**
+     * Returns true if the last successful sync made by this instance fetched the query in
+     * full, so its result is the response as USGS sent it rather than a merge with the store.
+     */
+    public boolean wasLastSyncFull()
+        {
+            return mLastSyncFull;
+        }
+
+    /**
+     * Returns true if the last successful sync made by this instance changed nothing.
+     */
+    public boolean wasLastSyncQuiet()
+        {
+            return mLastChanges.isEmpty() && mLastRemovedCount == 0;
+        }
+
+    /**
+     * Returns when the given query was last synced successfully, in milliseconds from the
+     * Epoch, or 0 if it never was.
+     */
+    public long getSyncedAt(String url)
+        {
+            if(!url.equals(mPreferences.getString(KEY_QUERY, null)))
+                {
+                    return 0;
+                }
+            return mPreferences.getLong(KEY_SYNCED_AT, 0);
+        }
+
+    private void saveHighWaterMark(String url, long highWaterMark)
+        {
+            mPreferences.edit()
+                    .putString(KEY_QUERY, url)
+                    .putLong(KEY_UPDATED_HIGH_WATER_MARK, highWaterMark)
+                    .putLong(KEY_SYNCED_AT, System.currentTimeMillis())
+                    .apply();
+        }
+
+    /**
+     * Returns the latest "updated" time of the given earthquakes, or the given value if
+     * none of them is later.
+     */
+    private static long getHighWaterMark(List<Earthquake> earthquakes, long highWaterMark)
+        {
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    highWaterMark = Math.max(highWaterMark, earthquakes.get(i).getUpdatedInMilliseconds());
+                }
+            return highWaterMark;
+        }
+}
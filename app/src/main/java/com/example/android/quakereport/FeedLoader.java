@@ -0,0 +1,199 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Keeps a USGS summary feed up to date by polling it with a {@link FeedMonitor} while started.
+ *
+ * A poll is scheduled a minute after every delivered result, which is about as often as USGS
+ * regenerates the feeds. Most polls are answered with a 304 and deliver empty
+ * {@link FeedMonitor.Changes}; only the new and changed events of the others are formatted.
+ */
+public class FeedLoader extends AsyncTaskLoader<FeedMonitor.Changes> {
+
+    /* The time between the end of a poll and the next one */
+    private static final long POLL_INTERVAL_MILLIS = 60 * 1000;
+
+    private final FeedMonitor mMonitor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* The last delivered result, so a restarted loader shows the feed at once */
+    private FeedMonitor.Changes mChanges;
+
+    /* Cancels the running poll, null while none is running. Guarded by this */
+    private LoadCancellation mCancellation;
+
+    /* Set when the running poll is cancelled, even before it created mCancellation, until it is over */
+    private volatile boolean mLoadCanceled;
+
+    /* When the running poll was asked for, on the System.nanoTime() clock */
+    private volatile long mForceLoadNanos;
+
+    private final Runnable mPoll = new Runnable()
+        {
+            @Override
+            public void run()
+                {
+                    if(isStarted())
+                        {
+                            forceLoad();
+                        }
+                }
+        };
+
+    /**
+     * Constructs a new {@link FeedLoader}.
+     *
+     * @param context of the activity
+     * @param feedUrl the summary feed to poll, such as {@link FeedMonitor#FEED_4_5_DAY}
+     */
+    public FeedLoader(Context context, String feedUrl)
+        {
+            super(context);
+            this.mMonitor = new FeedMonitor(feedUrl);
+        }
+
+    @Override
+    protected void onStartLoading()
+        {
+            if(mChanges != null)
+                {
+                    deliverResult(mChanges);
+                }
+            else
+                {
+                    forceLoad();
+                }
+        }
+
+    /**
+     * Notes when the poll was asked for, to measure how long it waits for a loader thread.
+     */
+    @Override
+    protected void onForceLoad()
+        {
+            mMainHandler.removeCallbacks(mPoll);
+            mForceLoadNanos = System.nanoTime();
+            super.onForceLoad();
+        }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public FeedMonitor.Changes loadInBackground()
+        {
+            PipelineMetrics.LOADER_QUEUE.record(PipelineMetrics.microsSince(mForceLoadNanos));
+
+            LoadCancellation cancellation;
+            synchronized (this)
+                {
+                    if(mLoadCanceled)
+                        {
+                            return null;
+                        }
+                    cancellation = new LoadCancellation();
+                    mCancellation = cancellation;
+                }
+
+            PipelineMetrics.beginSection("load");
+            try
+                {
+                    FeedMonitor.Changes changes = mMonitor.poll(cancellation);
+                    if(changes != null && !changes.isEmpty())
+                        {
+                            //Unchanged events were formatted at an earlier poll
+                            EarthquakeFormatter formatter = EarthquakeAdapter.newFormatter(getContext());
+                            formatter.formatAll(changes.getAdded());
+                            formatter.formatAll(changes.getChanged());
+                        }
+                    return changes;
+                }
+            finally
+                {
+                    PipelineMetrics.endSection();
+                    synchronized (this)
+                        {
+                            mCancellation = null;
+                        }
+                }
+        }
+
+    /**
+     * Stops the request of a poll that is no longer needed.
+     */
+    @Override
+    public boolean cancelLoad()
+        {
+            boolean canceled = super.cancelLoad();
+
+            //False means no load was running: there was none, or it was dropped before it started
+            if(canceled)
+                {
+                    synchronized (this)
+                        {
+                            mLoadCanceled = true;
+                            if(mCancellation != null)
+                                {
+                                    mCancellation.cancel();
+                                }
+                        }
+                }
+            return canceled;
+        }
+
+    /**
+     * Called on the main thread once a cancelled poll is over, before the next one starts.
+     */
+    @Override
+    public void onCanceled(FeedMonitor.Changes data)
+        {
+            super.onCanceled(data);
+            mLoadCanceled = false;
+        }
+
+    /**
+     * Delivers the result of a poll and schedules the next one. A failed poll delivers null,
+     * which keeps the previous result.
+     */
+    @Override
+    public void deliverResult(FeedMonitor.Changes data)
+        {
+            if(data != null)
+                {
+                    mChanges = data;
+                }
+            else
+                {
+                    Log.i(LOG_TAG, "Poll failed, keeping " + mMonitor);
+                }
+
+            if(isStarted())
+                {
+                    mMainHandler.removeCallbacks(mPoll);
+                    mMainHandler.postDelayed(mPoll, POLL_INTERVAL_MILLIS);
+                }
+            super.deliverResult(data);
+        }
+
+    @Override
+    protected void onStopLoading()
+        {
+            mMainHandler.removeCallbacks(mPoll);
+            cancelLoad();
+        }
+
+    @Override
+    protected void onReset()
+        {
+            onStopLoading();
+            mChanges = null;
+        }
+}
@@ -0,0 +1,262 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Polls one of the pre-generated USGS summary feeds and tells what changed since the last poll.
+ *
+ * USGS regenerates the summary feeds about once a minute and serves them with ETag and
+ * Last-Modified validators. Every poll sends them back as If-None-Match and If-Modified-Since,
+ * so a feed that didn't change costs a 304 without a body and nothing is parsed. A feed that
+ * did change is diffed against the previous one by event id: events that are new, that were
+ * updated, and that left the feed. Unchanged events keep the instance of the previous poll,
+ * so whatever was computed for them (such as their formatted texts) is kept too.
+ *
+ * This sits next to {@link QueryUtils#fetchEarthquakeData(String, LoadCancellation)} and only
+ * shares its {@link HttpTransport}. Polls are on a background thread, one at a time.
+ */
+public class FeedMonitor {
+
+    private static final String FEED_BASE_URL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/";
+
+    /* Earthquakes of magnitude 4.5 and above in the past day */
+    public static final String FEED_4_5_DAY = FEED_BASE_URL + "4.5_day.geojson";
+
+    /* Earthquakes of magnitude 2.5 and above in the past day */
+    public static final String FEED_2_5_DAY = FEED_BASE_URL + "2.5_day.geojson";
+
+    /* All earthquakes in the past hour */
+    public static final String FEED_ALL_HOUR = FEED_BASE_URL + "all_hour.geojson";
+
+    private final String mFeedUrl;
+
+    /* The validators of the last feed, null until one was received */
+    private String mETag;
+    private String mLastModified;
+
+    /* The events of the last feed by key, in feed order */
+    private Map<String, Earthquake> mEvents = new LinkedHashMap<>();
+    private List<Earthquake> mSnapshot = Collections.emptyList();
+
+    /* How many polls were made and how many of them were answered with a 304 */
+    private int mPollCount;
+    private int mNotModifiedCount;
+
+    /**
+     * Constructs a new {@link FeedMonitor}.
+     *
+     * @param feedUrl the summary feed to poll, such as {@link #FEED_4_5_DAY}
+     */
+    public FeedMonitor(String feedUrl)
+        {
+            mFeedUrl = feedUrl;
+        }
+
+    public String getFeedUrl()
+        {
+            return mFeedUrl;
+        }
+
+    /**
+     * Fetches the feed if it changed since the last poll.
+     *
+     * @param cancellation stops the request when the load is no longer needed
+     * @return what changed, which is nothing if the feed was not modified, or null if the
+     *         request failed or was cancelled
+     */
+    public synchronized Changes poll(LoadCancellation cancellation)
+        {
+            mPollCount++;
+
+            Map<String, String> requestHeaders = new HashMap<>();
+            if(mETag != null)
+                {
+                    requestHeaders.put("If-None-Match", mETag);
+                }
+            if(mLastModified != null)
+                {
+                    requestHeaders.put("If-Modified-Since", mLastModified);
+                }
+
+            HttpResponse response;
+            try
+                {
+                    response = QueryUtils.getTransport().get(new URL(mFeedUrl), requestHeaders, cancellation);
+                }
+            catch (MalformedURLException e)
+                {
+                    Log.e(LOG_TAG, "Error with creating url", e);
+                    return null;
+                }
+            catch (IOException e)
+                {
+                    if(!cancellation.isCanceled())
+                        {
+                            Log.e(LOG_TAG, "Problem polling " + mFeedUrl, e);
+                        }
+                    return null;
+                }
+
+            //An unchanged feed has no body, so there is nothing to parse
+            if(response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+                {
+                    mNotModifiedCount++;
+                    return new Changes(mSnapshot, Collections.<Earthquake>emptyList(),
+                            Collections.<Earthquake>emptyList(), Collections.<String>emptyList());
+                }
+            if(!response.isSuccessful())
+                {
+                    Log.e(LOG_TAG, "Error response code: " + response.getResponseCode());
+                    return null;
+                }
+
+            //Only diff complete feeds, a partial one would look like events left it
+            List<Earthquake> earthquakes = new ArrayList<>();
+            try
+                {
+                    new GeoJsonStreamParser(cancellation.wrap(response.getBodyReader())).parse(earthquakes);
+                }
+            catch (IOException e)
+                {
+                    if(!cancellation.isCanceled())
+                        {
+                            Log.e(LOG_TAG, "Problem parsing " + mFeedUrl, e);
+                        }
+                    return null;
+                }
+
+            Changes changes = diff(earthquakes);
+            mETag = response.getHeader("ETag");
+            mLastModified = response.getHeader("Last-Modified");
+            Log.i(LOG_TAG, "Polled " + mFeedUrl + ": " + changes);
+            return changes;
+        }
+
+    /**
+     * Replaces the last feed with the given one and returns the differences.
+     */
+    private Changes diff(List<Earthquake> earthquakes)
+        {
+            Map<String, Earthquake> events = new LinkedHashMap<>(earthquakes.size() * 2);
+            List<Earthquake> snapshot = new ArrayList<>(earthquakes.size());
+            List<Earthquake> added = new ArrayList<>();
+            List<Earthquake> changed = new ArrayList<>();
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i);
+                    String key = EarthquakeStore.getKey(earthquake);
+                    if(events.containsKey(key))
+                        {
+                            continue;
+                        }
+
+                    Earthquake previous = mEvents.get(key);
+                    if(previous == null)
+                        {
+                            added.add(earthquake);
+                        }
+                    else if(previous.getUpdatedInMilliseconds() != earthquake.getUpdatedInMilliseconds())
+                        {
+                            changed.add(earthquake);
+                        }
+                    else
+                        {
+                            earthquake = previous;
+                        }
+                    events.put(key, earthquake);
+                    snapshot.add(earthquake);
+                }
+
+            List<String> removedKeys = new ArrayList<>();
+            for (String key : mEvents.keySet())
+                {
+                    if(!events.containsKey(key))
+                        {
+                            removedKeys.add(key);
+                        }
+                }
+
+            mEvents = events;
+            mSnapshot = Collections.unmodifiableList(snapshot);
+            return new Changes(mSnapshot, added, changed, removedKeys);
+        }
+
+    @Override
+    public synchronized String toString()
+        {
+            return "FeedMonitor{" + mFeedUrl + ", polls=" + mPollCount + ", notModified="
+                    + mNotModifiedCount + ", events=" + mSnapshot.size() + "}";
+        }
+
+    /**
+     * The result of a poll: the whole feed and how it differs from the one before.
+     */
+    public static class Changes {
+
+        private final List<Earthquake> snapshot;
+        private final List<Earthquake> added;
+        private final List<Earthquake> changed;
+        private final List<String> removedKeys;
+
+        Changes(List<Earthquake> snapshot, List<Earthquake> added, List<Earthquake> changed,
+                List<String> removedKeys)
+            {
+                this.snapshot = snapshot;
+                this.added = added;
+                this.changed = changed;
+                this.removedKeys = removedKeys;
+            }
+
+        /**
+         * Returns every event of the feed, in feed order (most recent first). The list must
+         * not be modified.
+         */
+        public List<Earthquake> getSnapshot()
+            {
+                return snapshot;
+            }
+
+        public List<Earthquake> getAdded()
+            {
+                return added;
+            }
+
+        public List<Earthquake> getChanged()
+            {
+                return changed;
+            }
+
+        public List<String> getRemovedKeys()
+            {
+                return removedKeys;
+            }
+
+        /**
+         * Returns true if the feed is the same as at the poll before.
+         */
+        public boolean isEmpty()
+            {
+                return added.isEmpty() && changed.isEmpty() && removedKeys.isEmpty();
+            }
+
+        @Override
+        public String toString()
+            {
+                return added.size() + " added, " + changed.size() + " changed, "
+                        + removedKeys.size() + " removed of " + snapshot.size();
+            }
+    }
+}
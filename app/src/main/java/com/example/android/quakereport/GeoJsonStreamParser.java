@@ -0,0 +1,710 @@
+package com.example.android.quakereport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for the USGS GeoJSON response that reads the "features" array token by token.
+ *
+ * Only the properties and coordinates an {@link Earthquake} needs are decoded. Everything else in
+ * the response (bbox, metadata and the unused properties) is skipped straight out of the character
+ * buffer, so no intermediate tree is ever built and the only per-feature allocations are the
+ * {@link Earthquake} itself and its strings.
+ */
+final class GeoJsonStreamParser {
+
+    /**
+     * Receives the features of a response in batches while the response is being parsed.
+     */
+    interface BatchListener {
+
+        /**
+         * Called with every full batch, and with the last, possibly smaller, one once the
+         * response was read. The list belongs to the listener.
+         *
+         * @throws IOException to stop parsing
+         */
+        void onBatch(List<Earthquake> batch) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /* Where the features go when they are handed out in batches, null otherwise */
+    private BatchListener batchListener;
+    private int batchSize;
+
+    /* Reused for every key, string and number token that has to be decoded */
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    /* Fields of the feature currently being read */
+    private String id;
+    private double magnitude;
+    private String place;
+    private long time;
+    private boolean hasTime;
+    private long updated;
+    private String url;
+    private double longitude;
+    private double latitude;
+    private double depth;
+    private boolean deleted;
+    private boolean hasUrl;
+
+    /**
+     * Constructs a new {@link GeoJsonStreamParser}.
+     *
+     * @param in the reader positioned at the start of the JSON response
+     */
+    GeoJsonStreamParser(Reader in)
+        {
+            this.in = in;
+        }
+
+    /**
+     * Reads the whole response and adds every feature found in its "features" array to the
+     * given list. Features that were read before a parse error stay in the list.
+     *
+     * @param earthquakes the list the parsed earthquakes are added to
+     * @throws IOException if the reader fails or the response is not valid GeoJSON
+     */
+    void parse(List<Earthquake> earthquakes) throws IOException
+        {
+            expect('{');
+            if(consumeIf('}'))
+                {
+                    return;
+                }
+            do
+                {
+                    readName();
+                    if(tokenEquals("features"))
+                        {
+                            readFeatures(earthquakes);
+                        }
+                    else
+                        {
+                            skipValue();
+                        }
+                }
+            while (consumeIf(','));
+            expect('}');
+        }
+
+    /**
+     * Reads the whole response like {@link #parse(List)}, but hands the features to the
+     * listener in batches as soon as each batch is complete, so only one batch is held at a
+     * time. If parsing fails, the features read since the last batch stay in the given list.
+     *
+     * @param batch the list the features of the current batch are collected in
+     * @param batchSize the number of features in a batch
+     * @param listener receives the batches
+     * @throws IOException if the reader or the listener fails or the response is not valid GeoJSON
+     */
+    void parse(List<Earthquake> batch, int batchSize, BatchListener listener) throws IOException
+        {
+            this.batchSize = batchSize;
+            this.batchListener = listener;
+            parse(batch);
+            if(!batch.isEmpty())
+                {
+                    publishBatch(batch);
+                }
+        }
+
+    /**
+     * Reads a bare, comma separated run of features up to the end of the input, which is
+     * how {@link ParallelGeoJsonParser} hands out its slices of the "features" array.
+     *
+     * @param earthquakes the list the parsed earthquakes are added to
+     * @throws IOException if the reader fails or a feature is not valid GeoJSON
+     */
+    void parseFeatures(List<Earthquake> earthquakes) throws IOException
+        {
+            if(isAtEnd())
+                {
+                    return;
+                }
+            while (true)
+                {
+                    earthquakes.add(readFeature());
+                    if(isAtEnd())
+                        {
+                            return;
+                        }
+                    expect(',');
+                }
+        }
+
+    private void readFeatures(List<Earthquake> earthquakes) throws IOException
+        {
+            expect('[');
+            if(consumeIf(']'))
+                {
+                    return;
+                }
+            do
+                {
+                    earthquakes.add(readFeature());
+                    if(batchListener != null && earthquakes.size() >= batchSize)
+                        {
+                            publishBatch(earthquakes);
+                        }
+                }
+            while (consumeIf(','));
+            expect(']');
+        }
+
+    private void publishBatch(List<Earthquake> batch) throws IOException
+        {
+            batchListener.onBatch(new ArrayList<>(batch));
+            batch.clear();
+        }
+
+    private Earthquake readFeature() throws IOException
+        {
+            id = null;
+            magnitude = Double.NaN;
+            place = null;
+            hasTime = false;
+            updated = 0;
+            url = null;
+            longitude = Double.NaN;
+            latitude = Double.NaN;
+            depth = Double.NaN;
+            deleted = false;
+            hasUrl = false;
+
+            expect('{');
+            if(!consumeIf('}'))
+                {
+                    do
+                        {
+                            readName();
+                            if(tokenEquals("properties"))
+                                {
+                                    readProperties();
+                                }
+                            else if(tokenEquals("geometry"))
+                                {
+                                    readGeometry();
+                                }
+                            else if(tokenEquals("id"))
+                                {
+                                    id = readStringValue();
+                                }
+                            else
+                                {
+                                    skipValue();
+                                }
+                        }
+                    while (consumeIf(','));
+                    expect('}');
+                }
+
+            // "time" and "url" are required by the JSONObject path as well (getLong/getString)
+            if(!hasTime || !hasUrl)
+                {
+                    throw new IOException("Feature is missing its time or url property");
+                }
+            Earthquake earthquake = new Earthquake(id, magnitude, place, time, updated, url,
+                    longitude, latitude, depth);
+            earthquake.setDeleted(deleted);
+            return earthquake;
+        }
+
+    private void readProperties() throws IOException
+        {
+            expect('{');
+            if(consumeIf('}'))
+                {
+                    return;
+                }
+            do
+                {
+                    readName();
+                    if(tokenEquals("mag"))
+                        {
+                            magnitude = readDouble();
+                        }
+                    else if(tokenEquals("place"))
+                        {
+                            place = readOptionalString();
+                        }
+                    else if(tokenEquals("time"))
+                        {
+                            time = readLong();
+                            hasTime = true;
+                        }
+                    else if(tokenEquals("updated"))
+                        {
+                            updated = readOptionalLong();
+                        }
+                    else if(tokenEquals("status"))
+                        {
+                            readTokenInto(scratch);
+                            deleted = tokenEquals("deleted");
+                        }
+                    else if(tokenEquals("url"))
+                        {
+                            url = readStringValue();
+                            hasUrl = true;
+                        }
+                    else
+                        {
+                            skipValue();
+                        }
+                }
+            while (consumeIf(','));
+            expect('}');
+        }
+
+    /**
+     * Reads the point geometry of a feature, whose coordinates are longitude, latitude and
+     * depth in kilometers.
+     */
+    private void readGeometry() throws IOException
+        {
+            if(peek() != '{')
+                {
+                    // A feature without a location has a null geometry
+                    skipValue();
+                    return;
+                }
+            expect('{');
+            if(consumeIf('}'))
+                {
+                    return;
+                }
+            do
+                {
+                    readName();
+                    if(tokenEquals("coordinates") && peek() == '[')
+                        {
+                            readCoordinates();
+                        }
+                    else
+                        {
+                            skipValue();
+                        }
+                }
+            while (consumeIf(','));
+            expect('}');
+        }
+
+    private void readCoordinates() throws IOException
+        {
+            expect('[');
+            if(consumeIf(']'))
+                {
+                    return;
+                }
+            int index = 0;
+            do
+                {
+                    double value = readDouble();
+                    if(index == 0)
+                        {
+                            longitude = value;
+                        }
+                    else if(index == 1)
+                        {
+                            latitude = value;
+                        }
+                    else if(index == 2)
+                        {
+                            depth = value;
+                        }
+                    index++;
+                }
+            while (consumeIf(','));
+            expect(']');
+        }
+
+    /**
+     * Reads an object key and the ':' that follows it into {@link #scratch}, where it can be
+     * checked with {@link #tokenEquals(String)}.
+     */
+    private void readName() throws IOException
+        {
+            readStringInto(scratch);
+            expect(':');
+        }
+
+    /**
+     * Compares the last token read into {@link #scratch} with the given string,
+     * without allocating.
+     */
+    private boolean tokenEquals(String name)
+        {
+            int length = name.length();
+            if(scratch.length() != length)
+                {
+                    return false;
+                }
+            for (int i = 0; i < length; i++)
+                {
+                    if(scratch.charAt(i) != name.charAt(i))
+                        {
+                            return false;
+                        }
+                }
+            return true;
+        }
+
+    /**
+     * Reads a string value. A JSON null is returned as "null", the same way
+     * JSONObject.optString() renders it, so both parse modes produce equal output.
+     */
+    private String readStringValue() throws IOException
+        {
+            readTokenInto(scratch);
+            return scratch.toString();
+        }
+
+    /**
+     * Reads a string, returning null for null (the same contract as
+     * JSONObject.optString(name, null)).
+     */
+    private String readOptionalString() throws IOException
+        {
+            if(peek() == 'n')
+                {
+                    readLiteralInto(scratch);
+                    return null;
+                }
+            return readStringValue();
+        }
+
+    /**
+     * Reads a string or an unquoted token into the given builder without allocating a String.
+     */
+    private void readTokenInto(StringBuilder out) throws IOException
+        {
+            if(peek() == '"')
+                {
+                    readStringInto(out);
+                }
+            else
+                {
+                    readLiteralInto(out);
+                }
+        }
+
+    /**
+     * Reads an integral number, returning 0 for null (the same contract as JSONObject.optLong()).
+     */
+    private long readOptionalLong() throws IOException
+        {
+            if(peek() == 'n')
+                {
+                    readLiteralInto(scratch);
+                    return 0;
+                }
+            return readLong();
+        }
+
+    /**
+     * Reads a number, returning NaN for null or anything that is not a number
+     * (the same contract as JSONObject.optDouble()).
+     */
+    private double readDouble() throws IOException
+        {
+            readTokenInto(scratch);
+            try
+                {
+                    return Double.parseDouble(scratch.toString());
+                }
+            catch (NumberFormatException e)
+                {
+                    return Double.NaN;
+                }
+        }
+
+    /**
+     * Reads an integral number without going through a String when it is plain digits,
+     * which is always the case for the USGS epoch millisecond timestamps.
+     */
+    private long readLong() throws IOException
+        {
+            readLiteralInto(scratch);
+            int length = scratch.length();
+            boolean negative = length > 0 && scratch.charAt(0) == '-';
+            int start = negative ? 1 : 0;
+            if(length == start || length - start > 18)
+                {
+                    return parseLongSlow();
+                }
+            long value = 0;
+            for (int i = start; i < length; i++)
+                {
+                    char c = scratch.charAt(i);
+                    if(c < '0' || c > '9')
+                        {
+                            return parseLongSlow();
+                        }
+                    value = value * 10 + (c - '0');
+                }
+            return negative ? -value : value;
+        }
+
+    private long parseLongSlow() throws IOException
+        {
+            try
+                {
+                    return (long) Double.parseDouble(scratch.toString());
+                }
+            catch (NumberFormatException e)
+                {
+                    throw new IOException("Expected a number but was " + scratch);
+                }
+        }
+
+    /**
+     * Reads an unquoted token (number, true, false or null) into the given builder.
+     */
+    private void readLiteralInto(StringBuilder out) throws IOException
+        {
+            peek();
+            out.setLength(0);
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            break;
+                        }
+                    char c = buffer[pos];
+                    if(isDelimiter(c))
+                        {
+                            break;
+                        }
+                    out.append(c);
+                    pos++;
+                }
+            if(out.length() == 0)
+                {
+                    throw new IOException("Unexpected character '" + (char) peek() + "'");
+                }
+        }
+
+    /**
+     * Reads a quoted string, decoding escape sequences, into the given builder.
+     */
+    private void readStringInto(StringBuilder out) throws IOException
+        {
+            expect('"');
+            out.setLength(0);
+            while (true)
+                {
+                    char c = nextChar();
+                    if(c == '"')
+                        {
+                            return;
+                        }
+                    if(c == '\\')
+                        {
+                            out.append(readEscape());
+                        }
+                    else
+                        {
+                            out.append(c);
+                        }
+                }
+        }
+
+    private char readEscape() throws IOException
+        {
+            char c = nextChar();
+            switch (c)
+                {
+                    case 'b':
+                        return '\b';
+                    case 'f':
+                        return '\f';
+                    case 'n':
+                        return '\n';
+                    case 'r':
+                        return '\r';
+                    case 't':
+                        return '\t';
+                    case 'u':
+                        int value = 0;
+                        for (int i = 0; i < 4; i++)
+                            {
+                                int digit = Character.digit(nextChar(), 16);
+                                if(digit < 0)
+                                    {
+                                        throw new IOException("Invalid unicode escape");
+                                    }
+                                value = (value << 4) | digit;
+                            }
+                        return (char) value;
+                    default:
+                        // '"', '\\', '/' and anything else stand for themselves
+                        return c;
+                }
+        }
+
+    /**
+     * Skips the next value of any kind. Objects and arrays are skipped by counting
+     * brackets, so nothing inside them is decoded.
+     */
+    private void skipValue() throws IOException
+        {
+            int c = peek();
+            if(c == '"')
+                {
+                    pos++;
+                    skipStringBody();
+                    return;
+                }
+            if(c != '{' && c != '[')
+                {
+                    readLiteralInto(scratch);
+                    return;
+                }
+            int depth = 0;
+            do
+                {
+                    c = nextChar();
+                    if(c == '"')
+                        {
+                            skipStringBody();
+                        }
+                    else if(c == '{' || c == '[')
+                        {
+                            depth++;
+                        }
+                    else if(c == '}' || c == ']')
+                        {
+                            depth--;
+                        }
+                }
+            while (depth > 0);
+        }
+
+    /**
+     * Skips the rest of a string whose opening quote has already been consumed.
+     */
+    private void skipStringBody() throws IOException
+        {
+            while (true)
+                {
+                    char c = nextChar();
+                    if(c == '"')
+                        {
+                            return;
+                        }
+                    if(c == '\\')
+                        {
+                            nextChar();
+                        }
+                }
+        }
+
+    private void expect(char expected) throws IOException
+        {
+            int c = peek();
+            if(c != expected)
+                {
+                    throw new IOException("Expected '" + expected + "' but was '" + (char) c + "'");
+                }
+            pos++;
+        }
+
+    private boolean consumeIf(char expected) throws IOException
+        {
+            if(peek() == expected)
+                {
+                    pos++;
+                    return true;
+                }
+            return false;
+        }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     */
+    private int peek() throws IOException
+        {
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            throw new EOFException("Unexpected end of JSON input");
+                        }
+                    char c = buffer[pos];
+                    if(c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                        {
+                            return c;
+                        }
+                    pos++;
+                }
+        }
+
+    /**
+     * Skips whitespace and returns true if nothing else is left in the input.
+     */
+    private boolean isAtEnd() throws IOException
+        {
+            while (true)
+                {
+                    if(pos == limit && !fill())
+                        {
+                            return true;
+                        }
+                    char c = buffer[pos];
+                    if(c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                        {
+                            return false;
+                        }
+                    pos++;
+                }
+        }
+
+    private char nextChar() throws IOException
+        {
+            if(pos == limit && !fill())
+                {
+                    throw new EOFException("Unexpected end of JSON input");
+                }
+            return buffer[pos++];
+        }
+
+    private boolean fill() throws IOException
+        {
+            int read = in.read(buffer, 0, buffer.length);
+            if(read <= 0)
+                {
+                    return false;
+                }
+            pos = 0;
+            limit = read;
+            return true;
+        }
+
+    private static boolean isDelimiter(char c)
+        {
+            switch (c)
+                {
+                    case ',':
+                    case '}':
+                    case ']':
+                    case ':':
+                    case ' ':
+                    case '\n':
+                    case '\r':
+                    case '\t':
+                        return true;
+                    default:
+                        return false;
+                }
+        }
+}
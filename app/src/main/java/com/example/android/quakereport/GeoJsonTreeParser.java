@@ -0,0 +1,114 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Parses the USGS GeoJSON response by building the full JSONObject tree first. Kept free of
+ * Android logging, so it can also be measured on a plain JVM next to {@link GeoJsonStreamParser}.
+ */
+final class GeoJsonTreeParser {
+
+    private GeoJsonTreeParser() {
+    }
+
+    /**
+     * Adds an {@link Earthquake} for every feature of the response to the given list.
+     * Features that were read before a parse error stay in the list.
+     *
+     * @param earthquakeJson the whole JSON response
+     * @param earthquakes the list the parsed earthquakes are added to
+     * @throws JSONException if the response is not valid GeoJSON
+     */
+    static void parse(String earthquakeJson, List<Earthquake> earthquakes) throws JSONException
+        {
+            //Create a JSON object from the JSON response string
+            JSONObject baseJsonResponse = new JSONObject(earthquakeJson);
+
+            //Extract the JSONArray associated with the key called "features",
+            //which represents a list of features (earthquakes)
+            JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
+
+            //For each earthquake in the earthquake array, create an {@link Earthquake} object
+            for (int i=0; i<earthquakeArray.length(); i++)
+                {
+                    //Add the {@link Earthquake} of the feature at position i to the list
+                    earthquakes.add(parseFeature(earthquakeArray.getJSONObject(i)));
+                }
+        }
+
+    /**
+     * Same as {@link #parse(String, List)}, but stops between two features once the load
+     * is cancelled. Building the JSONObject tree itself can't be stopped halfway.
+     *
+     * @throws InterruptedIOException if the load was cancelled
+     */
+    static void parse(String earthquakeJson, List<Earthquake> earthquakes, LoadCancellation cancellation)
+            throws JSONException, InterruptedIOException
+        {
+            JSONArray earthquakeArray = new JSONObject(earthquakeJson).getJSONArray("features");
+            for (int i = 0; i < earthquakeArray.length(); i++)
+                {
+                    cancellation.throwIfCanceled();
+                    earthquakes.add(parseFeature(earthquakeArray.getJSONObject(i)));
+                }
+        }
+
+    /**
+     * Creates the {@link Earthquake} of a single feature of the response.
+     */
+    private static Earthquake parseFeature(JSONObject earthquakeObject) throws JSONException
+        {
+            // For a given earthquake, extract the JSONObject associated with the
+            // key called "properties", which represents a list of all properties
+            // for that earthquake.
+            JSONObject properties = earthquakeObject.getJSONObject("properties");
+
+            //Extract the value for the key called "mag"
+            double magnitude = properties.optDouble("mag");
+
+            //Extract the value for the key called "place", null if the event has none
+            String place = properties.optString("place", null);
+
+            //Extract the value for the key called "time"
+            long date = properties.getLong("time");
+
+            //Extract the value for the key called "url"
+            String url = properties.getString("url");
+
+            //Extract the value for the key called "updated", the time of the
+            //last revision of the event
+            long updated = properties.optLong("updated");
+
+            //Extract the USGS event id, which sits next to "properties"
+            String id = earthquakeObject.optString("id", null);
+
+            //Extract the coordinates of the epicenter (longitude, latitude, depth)
+            //from the point geometry of the earthquake
+            double longitude = Double.NaN;
+            double latitude = Double.NaN;
+            double depth = Double.NaN;
+            JSONObject geometry = earthquakeObject.optJSONObject("geometry");
+            JSONArray coordinates = geometry != null ? geometry.optJSONArray("coordinates") : null;
+            if(coordinates != null)
+                {
+                    longitude = coordinates.optDouble(0);
+                    latitude = coordinates.optDouble(1);
+                    depth = coordinates.optDouble(2);
+                }
+
+            //Create a new {@link Earthquake} object with id, magnitude, location,
+            //time, last update, url and coordinates from the JSON response
+            Earthquake earthquake = new Earthquake(id, magnitude, place, date, updated, url,
+                    longitude, latitude, depth);
+
+            //Events deleted by USGS are only reported when asked for with
+            //includedeleted=true, so they can be removed from the stored data
+            earthquake.setDeleted("deleted".equals(properties.optString("status")));
+            return earthquake;
+        }
+}
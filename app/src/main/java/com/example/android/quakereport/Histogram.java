@@ -0,0 +1,162 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of non-negative long values, such as durations or sizes.
+ *
+ * Values below 16 get a bucket each; above that, every power of two is split into 16 equal
+ * buckets, so any value is known to within 1/16 (about 6%) of itself. Recording a value is
+ * a few atomic increments with no allocation, cheap enough for the main thread. Reads are
+ * not synchronized with writes, so a snapshot taken while values are being recorded may be
+ * off by those values.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /* Enough buckets for every positive long */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String mName;
+    private final String mUnit;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Constructs a new {@link Histogram}.
+     *
+     * @param name the name it is exported under
+     * @param unit the unit of the values, for display
+     */
+    public Histogram(String name, String unit)
+        {
+            mName = name;
+            mUnit = unit;
+        }
+
+    public String getName()
+        {
+            return mName;
+        }
+
+    public String getUnit()
+        {
+            return mUnit;
+        }
+
+    /**
+     * Adds a value. Negative values are counted as 0.
+     */
+    public void record(long value)
+        {
+            if(value < 0)
+                {
+                    value = 0;
+                }
+            mCounts.incrementAndGet(indexOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value))
+                {
+                    max = mMax.get();
+                }
+        }
+
+    public long getCount()
+        {
+            return mCount.get();
+        }
+
+    public long getMax()
+        {
+            return mMax.get();
+        }
+
+    public double getMean()
+        {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values lie, as the
+     * upper end of the bucket it falls in, or 0 if nothing was recorded.
+     *
+     * @param percentile between 0 and 100
+     */
+    public long getPercentile(double percentile)
+        {
+            long count = mCount.get();
+            if(count == 0)
+                {
+                    return 0;
+                }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                {
+                    seen += mCounts.get(i);
+                    if(seen >= rank)
+                        {
+                            return Math.min(highestValueOf(i), getMax());
+                        }
+                }
+            return getMax();
+        }
+
+    /**
+     * Forgets every recorded value.
+     */
+    public void reset()
+        {
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                {
+                    mCounts.set(i, 0);
+                }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+    @Override
+    public String toString()
+        {
+            return String.format(Locale.US, "%s{count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d %s}",
+                    mName, getCount(), getMean(), getPercentile(50), getPercentile(90),
+                    getPercentile(99), getMax(), mUnit);
+        }
+
+    static int indexOf(long value)
+        {
+            if(value < SUB_BUCKETS)
+                {
+                    return (int) value;
+                }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+    /**
+     * Returns the largest value that falls in the given bucket.
+     */
+    static long highestValueOf(int index)
+        {
+            if(index < SUB_BUCKETS)
+                {
+                    return index;
+                }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+}
@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A fully read HTTP response as returned by an {@link HttpTransport}.
+ *
+ * The body is kept as the raw (already decompressed) bytes, so it can be handed to a parser
+ * through {@link #getBodyReader()} without first being copied into a String.
+ */
+public class HttpResponse {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int responseCode;
+    private final byte[] body;
+    private final int bodyLength;
+    private final long transferredBytes;
+    private final long elapsedMillis;
+
+    /* Header values by lower case name */
+    private final Map<String, String> headers;
+
+    /**
+     * Constructs a new {@link HttpResponse}.
+     *
+     * @param responseCode is the HTTP status code
+     * @param body is the buffer holding the decoded body, which may be larger than the body
+     * @param bodyLength is the number of valid bytes at the start of the buffer
+     * @param transferredBytes is the number of body bytes read from the network, before
+     *                         any gzip decoding
+     * @param elapsedMillis is the time from opening the connection until the body was read
+     */
+    public HttpResponse(int responseCode, byte[] body, int bodyLength, long transferredBytes,
+                        long elapsedMillis)
+        {
+            this(responseCode, body, bodyLength, transferredBytes, elapsedMillis,
+                    Collections.<String, String>emptyMap());
+        }
+
+    /**
+     * Constructs a new {@link HttpResponse} with the given headers.
+     *
+     * @param headers is the first value of every response header, by lower case name
+     */
+    public HttpResponse(int responseCode, byte[] body, int bodyLength, long transferredBytes,
+                        long elapsedMillis, Map<String, String> headers)
+        {
+            this.responseCode = responseCode;
+            this.body = body;
+            this.bodyLength = bodyLength;
+            this.transferredBytes = transferredBytes;
+            this.elapsedMillis = elapsedMillis;
+            this.headers = headers;
+        }
+
+    public int getResponseCode()
+        {
+            return responseCode;
+        }
+
+    public boolean isSuccessful()
+        {
+            return responseCode == 200;
+        }
+
+    /**
+     * Returns the value of a response header, or null if the response doesn't have it.
+     *
+     * @param name the header name, in any case
+     */
+    public String getHeader(String name)
+        {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+    public int getBodyLength()
+        {
+            return bodyLength;
+        }
+
+    public long getTransferredBytes()
+        {
+            return transferredBytes;
+        }
+
+    public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+    /**
+     * Returns the buffer holding the body, which may be longer than {@link #getBodyLength()}.
+     * The buffer is not copied, so it must not be modified.
+     */
+    public byte[] getBody()
+        {
+            return body;
+        }
+
+    /**
+     * Returns a UTF-8 reader over the body bytes.
+     */
+    public Reader getBodyReader()
+        {
+            return new InputStreamReader(new ByteArrayInputStream(body, 0, bodyLength), UTF_8);
+        }
+
+    /**
+     * Decodes the whole body into a String. Prefer {@link #getBodyReader()} for large bodies.
+     */
+    public String getBodyAsString()
+        {
+            return new String(body, 0, bodyLength, UTF_8);
+        }
+}
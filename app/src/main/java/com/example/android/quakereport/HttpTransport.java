@@ -0,0 +1,68 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The way {@link QueryUtils} talks to the network. The default implementation is
+ * {@link UrlConnectionTransport}; a different one can be installed with
+ * {@link QueryUtils#setTransport(HttpTransport)}, for example to point the app at a local
+ * stand-in server.
+ */
+public interface HttpTransport {
+
+    /**
+     * Reads the body of a successful response while it is being downloaded.
+     */
+    interface BodyConsumer {
+
+        /**
+         * Reads as much of the body as needed. Whatever is left is discarded afterwards.
+         *
+         * @param body the decoded (not gzipped) body, which must not be closed
+         * @throws IOException to fail the request
+         */
+        void consume(InputStream body) throws IOException;
+    }
+
+    /**
+     * Performs a GET request and reads the whole response body.
+     *
+     * @param url the URL to request
+     * @param cancellation aborts the request, including a blocking connect or read, when cancelled
+     * @return the response, whatever its status code
+     * @throws IOException if the connection fails or the body can't be read, or an
+     *         InterruptedIOException if the request was cancelled
+     */
+    HttpResponse get(URL url, LoadCancellation cancellation) throws IOException;
+
+    /**
+     * Performs a GET request with extra request headers, such as the validators of a
+     * conditional GET, and reads the whole response body.
+     *
+     * @param url the URL to request
+     * @param requestHeaders the headers to send, by name
+     * @param cancellation aborts the request, including a blocking connect or read, when cancelled
+     * @return the response, whatever its status code
+     * @throws IOException if the connection fails or the body can't be read, or an
+     *         InterruptedIOException if the request was cancelled
+     */
+    HttpResponse get(URL url, Map<String, String> requestHeaders, LoadCancellation cancellation)
+            throws IOException;
+
+    /**
+     * Performs a GET request and hands the body of a successful response to the consumer
+     * while it is still arriving, instead of buffering it first. The body of an error
+     * response is read as by {@link #get(URL, LoadCancellation)} and not given to the consumer.
+     *
+     * @param url the URL to request
+     * @param cancellation aborts the request, including a blocking connect or read, when cancelled
+     * @param consumer reads the body of a successful response
+     * @return the response, whose body is empty if it was given to the consumer
+     * @throws IOException if the connection fails or the consumer fails, or an
+     *         InterruptedIOException if the request was cancelled
+     */
+    HttpResponse get(URL url, LoadCancellation cancellation, BodyConsumer consumer) throws IOException;
+}
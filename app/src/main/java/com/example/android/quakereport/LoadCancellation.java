@@ -0,0 +1,138 @@
+package com.example.android.quakereport;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+
+/**
+ * Lets a loader cancel the request it is running from another thread.
+ *
+ * This plays the part of android.os.CancellationSignal, which needs API 16. The code doing the
+ * work checks {@link #throwIfCanceled()} between steps, waits with {@link #sleep(long)}, and
+ * registers an {@link OnCancelListener} to abort a blocking call (such as closing the
+ * connection under a socket read). Cancellation surfaces as an {@link InterruptedIOException},
+ * so it takes the same path as any other failed request.
+ */
+public final class LoadCancellation {
+
+    /**
+     * Called on the cancelling thread when the load is cancelled.
+     */
+    public interface OnCancelListener {
+
+        void onCancel();
+    }
+
+    private boolean mCanceled;
+    private OnCancelListener mOnCancelListener;
+
+    /**
+     * Cancels the load. The listener, if any, is called before this returns.
+     */
+    public void cancel()
+        {
+            OnCancelListener listener;
+            synchronized (this)
+                {
+                    if(mCanceled)
+                        {
+                            return;
+                        }
+                    mCanceled = true;
+                    listener = mOnCancelListener;
+
+                    //Wake up a thread waiting in sleep()
+                    notifyAll();
+                }
+            if(listener != null)
+                {
+                    listener.onCancel();
+                }
+        }
+
+    public synchronized boolean isCanceled()
+        {
+            return mCanceled;
+        }
+
+    /**
+     * Throws an {@link InterruptedIOException} if the load was cancelled.
+     */
+    public void throwIfCanceled() throws InterruptedIOException
+        {
+            if(isCanceled())
+                {
+                    throw new InterruptedIOException("Load canceled");
+                }
+        }
+
+    /**
+     * Sets the listener to call on cancellation, or removes it if null. If the load was
+     * already cancelled, the listener is called right away.
+     */
+    public void setOnCancelListener(OnCancelListener listener)
+        {
+            synchronized (this)
+                {
+                    mOnCancelListener = listener;
+                    if(!mCanceled || listener == null)
+                        {
+                            return;
+                        }
+                }
+            listener.onCancel();
+        }
+
+    /**
+     * Waits for the given time, returning early by throwing if the load is cancelled
+     * (or the thread interrupted) meanwhile.
+     */
+    public void sleep(long millis) throws InterruptedIOException
+        {
+            long deadline = System.currentTimeMillis() + millis;
+            synchronized (this)
+                {
+                    long remaining = millis;
+                    while (!mCanceled && remaining > 0)
+                        {
+                            try
+                                {
+                                    wait(remaining);
+                                }
+                            catch (InterruptedException e)
+                                {
+                                    //Keep the interrupt for whoever owns the thread
+                                    Thread.currentThread().interrupt();
+                                    throw new InterruptedIOException("Load interrupted");
+                                }
+                            remaining = deadline - System.currentTimeMillis();
+                        }
+                }
+            throwIfCanceled();
+        }
+
+    /**
+     * Wraps a reader so every read fails once the load is cancelled, which stops a parser
+     * reading from it at its next buffer refill.
+     */
+    public Reader wrap(Reader reader)
+        {
+            return new FilterReader(reader)
+                {
+                    @Override
+                    public int read() throws IOException
+                        {
+                            throwIfCanceled();
+                            return super.read();
+                        }
+
+                    @Override
+                    public int read(char[] buffer, int offset, int length) throws IOException
+                        {
+                            throwIfCanceled();
+                            return super.read(buffer, offset, length);
+                        }
+                };
+        }
+}
@@ -0,0 +1,286 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a large USGS GeoJSON body with several {@link GeoJsonStreamParser}s side by side.
+ *
+ * One pass over the raw bytes finds the "features" array and the commas between its
+ * features, skipping over strings and nested values. The array is cut at those commas into
+ * about one slice per thread, every slice is parsed as a bare run of features on the given
+ * executor, and the slices are joined in their original order. The scan only looks at ASCII
+ * bytes, which never occur inside a multi-byte UTF-8 character, so the slices can be cut
+ * from the bytes before they are decoded.
+ *
+ * Bodies without a "features" array of their own, or that end in the middle of a value,
+ * are left to the sequential parser, which reports the problem the usual way.
+ */
+final class ParallelGeoJsonParser {
+
+    /* Bodies smaller than this parse faster than the threads can be handed work */
+    static final int PARALLEL_THRESHOLD_BYTES = 1024 * 1024;
+
+    /* Slices are not made smaller than this, whatever the number of threads */
+    private static final int MIN_SLICE_BYTES = 256 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ParallelGeoJsonParser() {
+    }
+
+    /**
+     * Adds every feature of the body to the given list, in the order of the body. As with the
+     * sequential parser, the features of the slices before a parse error stay in the list.
+     *
+     * @param body the buffer holding the JSON response
+     * @param length the number of bytes of the response in the buffer
+     * @param earthquakes the list the parsed earthquakes are added to
+     * @param executor runs the slices
+     * @param parallelism the number of slices to aim for, usually the number of threads
+     * @param cancellation stops every slice at its next buffer refill
+     * @throws IOException if a slice is not valid GeoJSON or the load was cancelled
+     */
+    static void parse(byte[] body, int length, List<Earthquake> earthquakes, ExecutorService executor,
+                      int parallelism, LoadCancellation cancellation) throws IOException
+        {
+            int[] bounds = split(body, length, parallelism);
+            if(bounds == null)
+                {
+                    new GeoJsonStreamParser(cancellation.wrap(reader(body, 0, length))).parse(earthquakes);
+                    return;
+                }
+
+            //Slice i goes from bounds[i] up to the comma at bounds[i + 1]
+            int sliceCount = bounds.length - 1;
+            List<Future<Slice>> futures = new ArrayList<>(sliceCount);
+            for (int i = 0; i < sliceCount; i++)
+                {
+                    int start = i == 0 ? bounds[i] : bounds[i] + 1;
+                    futures.add(executor.submit(new Slice(body, start, bounds[i + 1], cancellation)));
+                }
+
+            try
+                {
+                    for (int i = 0; i < sliceCount; i++)
+                        {
+                            Slice slice = futures.get(i).get();
+                            earthquakes.addAll(slice.earthquakes);
+                            if(slice.error != null)
+                                {
+                                    throw slice.error;
+                                }
+                        }
+                }
+            catch (InterruptedException e)
+                {
+                    //Keep the interrupt for whoever owns the thread
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Parse interrupted");
+                }
+            catch (ExecutionException e)
+                {
+                    throw new IOException("Problem parsing a slice of the features", e.getCause());
+                }
+            finally
+                {
+                    //Don't let slices nobody will read keep the threads busy
+                    for (int i = 0; i < sliceCount; i++)
+                        {
+                            futures.get(i).cancel(false);
+                        }
+                }
+        }
+
+    /**
+     * Finds where to cut the "features" array of the body.
+     *
+     * @return the index of the first byte of the array content, the indexes of the commas the
+     *         array is cut at, and the index of its closing bracket; or null if the body has
+     *         to be parsed sequentially
+     */
+    static int[] split(byte[] body, int length, int parallelism)
+        {
+            int start = findFeatures(body, length);
+            if(start < 0)
+                {
+                    return null;
+                }
+
+            int sliceBytes = Math.max(MIN_SLICE_BYTES, (length - start) / Math.max(1, parallelism));
+            int[] bounds = new int[8];
+            int count = 0;
+            bounds[count++] = start;
+            int nextCut = start + sliceBytes;
+
+            int depth = 0;
+            for (int i = start; i < length; i++)
+                {
+                    byte b = body[i];
+                    if(b == '"')
+                        {
+                            i = skipString(body, i, length);
+                        }
+                    else if(b == '{' || b == '[')
+                        {
+                            depth++;
+                        }
+                    else if(b == '}' || b == ']')
+                        {
+                            if(depth == 0)
+                                {
+                                    if(bounds.length == count)
+                                        {
+                                            bounds = grow(bounds);
+                                        }
+                                    bounds[count++] = i;
+                                    return copyOf(bounds, count);
+                                }
+                            depth--;
+                        }
+                    else if(b == ',' && depth == 0 && i >= nextCut)
+                        {
+                            if(bounds.length == count)
+                                {
+                                    bounds = grow(bounds);
+                                }
+                            bounds[count++] = i;
+                            nextCut = i + sliceBytes;
+                        }
+                }
+
+            //The array never ends
+            return null;
+        }
+
+    /**
+     * Returns the index just after the opening bracket of the top level "features" array,
+     * or -1 if there is none.
+     */
+    private static int findFeatures(byte[] body, int length)
+        {
+            int depth = 0;
+            boolean lastNameIsFeatures = false;
+            for (int i = 0; i < length; i++)
+                {
+                    byte b = body[i];
+                    if(b == '"')
+                        {
+                            int end = skipString(body, i, length);
+                            if(depth == 1)
+                                {
+                                    lastNameIsFeatures = end - i - 1 == 8 && startsWith(body, i + 1, "features");
+                                }
+                            i = end;
+                        }
+                    else if(b == '{' || b == '[')
+                        {
+                            //At the top level a value can only open after its name
+                            if(depth == 1 && b == '[' && lastNameIsFeatures)
+                                {
+                                    return i + 1;
+                                }
+                            depth++;
+                        }
+                    else if(b == '}' || b == ']')
+                        {
+                            depth--;
+                        }
+                }
+            return -1;
+        }
+
+    /**
+     * Returns the index of the quote closing the string that opens at the given index.
+     */
+    private static int skipString(byte[] body, int quote, int length)
+        {
+            for (int i = quote + 1; i < length; i++)
+                {
+                    byte b = body[i];
+                    if(b == '\\')
+                        {
+                            i++;
+                        }
+                    else if(b == '"')
+                        {
+                            return i;
+                        }
+                }
+            return length;
+        }
+
+    private static boolean startsWith(byte[] body, int offset, String ascii)
+        {
+            for (int i = 0; i < ascii.length(); i++)
+                {
+                    if(body[offset + i] != ascii.charAt(i))
+                        {
+                            return false;
+                        }
+                }
+            return true;
+        }
+
+    private static int[] grow(int[] bounds)
+        {
+            return copyOf(bounds, bounds.length * 2);
+        }
+
+    private static int[] copyOf(int[] values, int length)
+        {
+            int[] result = new int[length];
+            System.arraycopy(values, 0, result, 0, Math.min(length, values.length));
+            return result;
+        }
+
+    private static InputStreamReader reader(byte[] body, int start, int end)
+        {
+            return new InputStreamReader(new ByteArrayInputStream(body, start, end - start), UTF_8);
+        }
+
+    /**
+     * One run of features of the array and, once parsed, its earthquakes. A parse error is
+     * kept rather than thrown, so the features read before it are not lost.
+     */
+    private static class Slice implements Callable<Slice> {
+
+        final byte[] body;
+        final int start;
+        final int end;
+        final LoadCancellation cancellation;
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        IOException error;
+
+        Slice(byte[] body, int start, int end, LoadCancellation cancellation)
+            {
+                this.body = body;
+                this.start = start;
+                this.end = end;
+                this.cancellation = cancellation;
+            }
+
+        @Override
+        public Slice call()
+            {
+                try
+                    {
+                        new GeoJsonStreamParser(cancellation.wrap(reader(body, start, end))).parseFeatures(earthquakes);
+                    }
+                catch (IOException e)
+                    {
+                        error = e;
+                    }
+                return this;
+            }
+    }
+}
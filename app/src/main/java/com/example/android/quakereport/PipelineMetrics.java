@@ -0,0 +1,134 @@
+package com.example.android.quakereport;
+
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * The histograms of every stage of getting earthquakes on screen, from the connection to
+ * binding a row, and the trace sections around those stages.
+ *
+ * The stages record into process-wide {@link Histogram}s, so the numbers of all loads add up.
+ * They can be read with "adb shell dumpsys activity
+ * com.example.android.quakereport/.EarthquakeActivity", which prints {@link #dump(PrintWriter)},
+ * or exported with {@link #toJson()}. The trace sections show up in systrace under the
+ * "Quake:" prefix.
+ */
+public final class PipelineMetrics {
+
+    /* DNS lookup, TCP and TLS handshakes, until the connection is open */
+    public static final Histogram CONNECT = new Histogram("connect", "us");
+
+    /* From the open connection to the response headers */
+    public static final Histogram FIRST_BYTE = new Histogram("first_byte", "us");
+
+    /* From the response headers to the last byte of the body */
+    public static final Histogram DOWNLOAD = new Histogram("download", "us");
+
+    /* Size of the decoded body and of what went over the wire */
+    public static final Histogram BODY_BYTES = new Histogram("body_bytes", "B");
+    public static final Histogram TRANSFERRED_BYTES = new Histogram("transferred_bytes", "B");
+
+    /* Turning a body into earthquakes, and how many there were */
+    public static final Histogram PARSE = new Histogram("parse", "us");
+    public static final Histogram FEATURES = new Histogram("features", "");
+
+    /* From asking a loader to load to its loadInBackground() starting */
+    public static final Histogram LOADER_QUEUE = new Histogram("loader_queue", "us");
+
+    /* Binding one row in EarthquakeAdapter.getView() */
+    public static final Histogram BIND = new Histogram("bind", "ns");
+
+    private static final Histogram[] ALL = {CONNECT, FIRST_BYTE, DOWNLOAD, BODY_BYTES,
+            TRANSFERRED_BYTES, PARSE, FEATURES, LOADER_QUEUE, BIND};
+
+    private static final String SECTION_PREFIX = "Quake:";
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Returns the microseconds since the given System.nanoTime().
+     */
+    public static long microsSince(long startNanos)
+        {
+            return (System.nanoTime() - startNanos) / 1000;
+        }
+
+    /**
+     * Starts a trace section on this thread. Every call must be matched by
+     * {@link #endSection()} on the same thread, so put that in a finally block.
+     */
+    public static void beginSection(String name)
+        {
+            TraceCompat.beginSection(SECTION_PREFIX + name);
+        }
+
+    public static void endSection()
+        {
+            TraceCompat.endSection();
+        }
+
+    /**
+     * Prints a line per histogram: its count, mean, percentiles and maximum.
+     */
+    public static void dump(PrintWriter writer)
+        {
+            writer.println("Pipeline metrics:");
+            for (Histogram histogram : ALL)
+                {
+                    writer.println(String.format(Locale.US, "  %-18s count=%-6d mean=%-10.1f p50=%-8d p90=%-8d p99=%-8d max=%d %s",
+                            histogram.getName(), histogram.getCount(), histogram.getMean(),
+                            histogram.getPercentile(50), histogram.getPercentile(90),
+                            histogram.getPercentile(99), histogram.getMax(), histogram.getUnit()));
+                }
+        }
+
+    /**
+     * Returns every histogram as a JSON object keyed by its name, for uploading or comparing
+     * between builds.
+     */
+    public static JSONObject toJson()
+        {
+            JSONObject json = new JSONObject();
+            try
+                {
+                    for (Histogram histogram : ALL)
+                        {
+                            JSONObject values = new JSONObject();
+                            values.put("unit", histogram.getUnit());
+                            values.put("count", histogram.getCount());
+                            values.put("mean", histogram.getMean());
+                            values.put("p50", histogram.getPercentile(50));
+                            values.put("p90", histogram.getPercentile(90));
+                            values.put("p99", histogram.getPercentile(99));
+                            values.put("max", histogram.getMax());
+                            json.put(histogram.getName(), values);
+                        }
+                }
+            catch (JSONException e)
+                {
+                    //Only thrown for NaN or infinite numbers, which a mean never is
+                    Log.e(LOG_TAG, "Problem exporting the metrics", e);
+                }
+            return json;
+        }
+
+    /**
+     * Forgets everything recorded so far, for example before measuring a single scenario.
+     */
+    public static void reset()
+        {
+            for (Histogram histogram : ALL)
+                {
+                    histogram.reset();
+                }
+        }
+}
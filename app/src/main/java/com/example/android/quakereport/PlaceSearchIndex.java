@@ -0,0 +1,303 @@
+package com.example.android.quakereport;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the earthquakes whose primary location (like "Hachinohe, Japan") contains a search
+ * text, without looking at every earthquake.
+ *
+ * Earthquakes are grouped by primary location, of which there are far fewer than events, and
+ * each location is indexed twice: by its trigrams (every run of three characters) and by the
+ * words in it. A search of three characters or more looks up the locations that have all the
+ * trigrams of the text and only checks those for the text itself. A shorter search matches
+ * the locations with a word starting with it, from a sorted map of the words. Case and
+ * accents are ignored, so "sao" finds "S&atilde;o Paulo".
+ *
+ * Events are told apart by {@link Earthquake#getKey()}: putting an event that is already
+ * indexed replaces it, so the index follows the data as it changes. Only use it from one
+ * thread.
+ */
+public final class PlaceSearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /* The location of every indexed event by key */
+    private final HashMap<String, Location> eventLocations = new HashMap<>();
+
+    /* Every location with events, by its normalized text */
+    private final HashMap<String, Location> locations = new HashMap<>();
+
+    private final HashMap<String, Set<Location>> trigrams = new HashMap<>();
+    private final TreeMap<String, Set<Location>> words = new TreeMap<>();
+
+    /* Counts the changes to the indexed events, see getVersion() */
+    private int version;
+
+    /**
+     * Indexes an event, or replaces the indexed event with the same key by this revision.
+     */
+    public void put(Earthquake earthquake)
+        {
+            String key = earthquake.getKey();
+            remove(key);
+
+            String text = normalize(EarthquakeFormatter.getPrimaryLocation(
+                    earthquake.getCity() == null ? "" : earthquake.getCity()));
+            Location location = locations.get(text);
+            if(location == null)
+                {
+                    location = new Location(text);
+                    locations.put(text, location);
+                    index(location);
+                }
+            location.events.put(key, earthquake);
+            eventLocations.put(key, location);
+            version++;
+        }
+
+    public void putAll(List<Earthquake> earthquakes)
+        {
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    put(earthquakes.get(i));
+                }
+        }
+
+    /**
+     * Takes the event with the given key out of the index, if it is in it.
+     */
+    public void remove(String key)
+        {
+            Location location = eventLocations.remove(key);
+            if(location == null)
+                {
+                    return;
+                }
+            location.events.remove(key);
+            version++;
+            if(location.events.isEmpty())
+                {
+                    locations.remove(location.text);
+                    unindex(location);
+                }
+        }
+
+    public void clear()
+        {
+            eventLocations.clear();
+            locations.clear();
+            trigrams.clear();
+            words.clear();
+            version++;
+        }
+
+    /**
+     * Starts over with the given events, for when a different list is shown.
+     */
+    public void replaceAll(List<Earthquake> earthquakes)
+        {
+            clear();
+            putAll(earthquakes);
+        }
+
+    public int size()
+        {
+            return eventLocations.size();
+        }
+
+    /**
+     * Returns a number that changes whenever an event is put or removed, so whatever is built
+     * from {@link #getEvents()} can tell when to build it again.
+     */
+    public int getVersion()
+        {
+            return version;
+        }
+
+    /**
+     * Returns every indexed event, in no particular order.
+     */
+    public List<Earthquake> getEvents()
+        {
+            List<Earthquake> events = new ArrayList<>(eventLocations.size());
+            for (Location location : locations.values())
+                {
+                    events.addAll(location.events.values());
+                }
+            return events;
+        }
+
+    /**
+     * Returns the number of distinct primary locations.
+     */
+    public int getLocationCount()
+        {
+            return locations.size();
+        }
+
+    /**
+     * Returns the events whose primary location contains the text, or for a text shorter than
+     * three characters, has a word starting with it.
+     *
+     * @param query the search text, in any case and with or without accents
+     * @param order the order of the result
+     */
+    public List<Earthquake> search(String query, Comparator<Earthquake> order)
+        {
+            String text = normalize(query.trim());
+            List<Earthquake> result = new ArrayList<>();
+            if(text.isEmpty())
+                {
+                    return result;
+                }
+
+            for (Location location : findLocations(text))
+                {
+                    result.addAll(location.events.values());
+                }
+            Collections.sort(result, order);
+            return result;
+        }
+
+    private Set<Location> findLocations(String text)
+        {
+            Set<Location> found = new HashSet<>();
+            if(text.length() < GRAM_LENGTH)
+                {
+                    for (Set<Location> matches : words.subMap(text, text + Character.MAX_VALUE).values())
+                        {
+                            found.addAll(matches);
+                        }
+                    return found;
+                }
+
+            //Start from the rarest trigram, the others can only shrink the candidates
+            Set<Location> rarest = null;
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+                {
+                    Set<Location> matches = trigrams.get(text.substring(i, i + GRAM_LENGTH));
+                    if(matches == null)
+                        {
+                            return found;
+                        }
+                    if(rarest == null || matches.size() < rarest.size())
+                        {
+                            rarest = matches;
+                        }
+                }
+
+            //Having every trigram doesn't mean having them in a row, so check the candidates
+            for (Location location : rarest)
+                {
+                    if(location.text.contains(text))
+                        {
+                            found.add(location);
+                        }
+                }
+            return found;
+        }
+
+    private void index(Location location)
+        {
+            for (String gram : getTrigrams(location.text))
+                {
+                    add(trigrams, gram, location);
+                }
+            for (String word : getWords(location.text))
+                {
+                    add(words, word, location);
+                }
+        }
+
+    private void unindex(Location location)
+        {
+            for (String gram : getTrigrams(location.text))
+                {
+                    remove(trigrams, gram, location);
+                }
+            for (String word : getWords(location.text))
+                {
+                    remove(words, word, location);
+                }
+        }
+
+    private static void add(Map<String, Set<Location>> postings, String term, Location location)
+        {
+            Set<Location> matches = postings.get(term);
+            if(matches == null)
+                {
+                    matches = new HashSet<>();
+                    postings.put(term, matches);
+                }
+            matches.add(location);
+        }
+
+    private static void remove(Map<String, Set<Location>> postings, String term, Location location)
+        {
+            Set<Location> matches = postings.get(term);
+            if(matches != null && matches.remove(location) && matches.isEmpty())
+                {
+                    postings.remove(term);
+                }
+        }
+
+    private static Set<String> getTrigrams(String text)
+        {
+            Set<String> grams = new HashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+                {
+                    grams.add(text.substring(i, i + GRAM_LENGTH));
+                }
+            return grams;
+        }
+
+    private static Set<String> getWords(String text)
+        {
+            Set<String> result = new HashSet<>();
+            for (String word : WORD_SEPARATORS.split(text))
+                {
+                    if(!word.isEmpty())
+                        {
+                            result.add(word);
+                        }
+                }
+            return result;
+        }
+
+    /**
+     * Lower cases a text and takes the accents off its letters.
+     */
+    static String normalize(String text)
+        {
+            String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+            return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.US);
+        }
+
+    /**
+     * The events of one primary location.
+     */
+    private static final class Location {
+
+        final String text;
+        final HashMap<String, Earthquake> events = new HashMap<>();
+
+        Location(String text)
+            {
+                this.text = text;
+            }
+    }
+}
@@ -3,20 +3,23 @@ package com.example.android.quakereport;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
 
@@ -38,6 +41,63 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /* The transport used for every request, shared so its connections can be reused */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
+    /* Threads parsing the slices of large responses, one per core */
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService PARSE_EXECUTOR = Executors.newFixedThreadPool(PARSE_THREADS);
+
+    /* Three attempts, waiting about 0.5 s and then 1 s, and never more than 10 s */
+    private static volatile RetryPolicy sRetryPolicy = new RetryPolicy(3, 500, 10000, new Random());
+
+    /* Opens after 5 failed requests in a row and then refuses requests for 30 s */
+    private static volatile CircuitBreaker sCircuitBreaker = new CircuitBreaker(5, 30000);
+
+    /* The "format" of queries answered in CSV, which is parsed instead of the default GeoJSON */
+    static final String FORMAT_CSV = "csv";
+
+    /* The last successful result of the most recently fetched queries, by URL */
+    private static final int MAX_LAST_GOOD_RESULTS = 4;
+    private static final Map<String, List<Earthquake>> sLastGoodResults =
+            new LinkedHashMap<String, List<Earthquake>>(8, 0.75f, true)
+                {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, List<Earthquake>> eldest)
+                        {
+                            return size() > MAX_LAST_GOOD_RESULTS;
+                        }
+                };
+
+    /**
+     * Replaces the {@link HttpTransport} used for all following requests.
+     */
+    public static void setTransport(HttpTransport transport)
+        {
+            sTransport = transport;
+        }
+
+    static HttpTransport getTransport()
+        {
+            return sTransport;
+        }
+
+    /**
+     * Replaces the {@link RetryPolicy} of all following requests, so tests don't wait seconds.
+     */
+    static void setRetryPolicy(RetryPolicy retryPolicy)
+        {
+            sRetryPolicy = retryPolicy;
+        }
+
+    /**
+     * Replaces the {@link CircuitBreaker}, so tests start from a closed one.
+     */
+    static void setCircuitBreaker(CircuitBreaker circuitBreaker)
+        {
+            sCircuitBreaker = circuitBreaker;
+        }
+
     /**
      * Returns new URL object from the given string URL.
      */
@@ -55,71 +115,58 @@ public final class QueryUtils {
             return url;
         }
 
-    private static String makeHttpRequest(URL url) throws IOException
+    /**
+     * Performs the HTTP request through the current {@link HttpTransport}.
+     *
+     * @return the response, whatever its status code, or null if the url is null
+     * @throws InterruptedIOException if the request was cancelled
+     */
+    private static HttpResponse makeHttpRequest(URL url, LoadCancellation cancellation) throws IOException
         {
-            String jsonResponse = " ";
-
             //if the url is null, then return early
             if(url == null)
                 {
-                    return jsonResponse;
+                    return null;
                 }
 
-            HttpURLConnection urlConnection = null;
-            InputStream inputStream = null;
+            HttpResponse response;
+            PipelineMetrics.beginSection("fetch");
             try
                 {
-                    urlConnection = (HttpURLConnection) url.openConnection();
-                    urlConnection.setReadTimeout(10000 /* milliseconds */);
-                    urlConnection.setConnectTimeout(15000 /* milliseconds */);
-                    urlConnection.setRequestMethod("GET");
-                    urlConnection.connect();
-
-                    //If the request was successful (response code 200)
-                    //then read the input stream and parse the response
-                    if(urlConnection.getResponseCode() == 200)
-                        {
-                            inputStream = urlConnection.getInputStream();
-                            jsonResponse = readFromStream(inputStream);
-                        }
-                    else
-                        {
-                            Log.e(LOG_TAG,"Error response code: " + urlConnection.getResponseCode());
-                        }
+                    response = sTransport.get(url, cancellation);
                 }
-            catch (IOException e)
+            finally
                 {
-                    Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results", e);
+                    PipelineMetrics.endSection();
                 }
-            finally
+
+            //If the request wasn't successful (response code 200),
+            //the caller decides whether to try again
+            if(!response.isSuccessful())
                 {
-                    if(urlConnection != null)
-                        {
-                            urlConnection.disconnect();
-                        }
-                    if(inputStream != null)
-                        {
-                            inputStream.close();
-                        }
+                    Log.e(LOG_TAG,"Error response code: " + response.getResponseCode());
+                    return response;
                 }
-            return jsonResponse;
+
+            Log.i(LOG_TAG, "Received " + response.getBodyLength() + " bytes ("
+                    + response.getTransferredBytes() + " transferred) in "
+                    + response.getElapsedMillis() + " ms");
+            PipelineMetrics.BODY_BYTES.record(response.getBodyLength());
+            PipelineMetrics.TRANSFERRED_BYTES.record(response.getTransferredBytes());
+            return response;
         }
 
-    private static String readFromStream(InputStream inputStream) throws IOException
+    /**
+     * Ends the parse section and records how long the parse took and what it found.
+     */
+    private static void endParse(long startNanos, List<Earthquake> earthquakes)
         {
-            StringBuilder output = new StringBuilder();
-            if(inputStream != null)
+            PipelineMetrics.endSection();
+            if(earthquakes != null)
                 {
-                    InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-                    BufferedReader reader = new BufferedReader(inputStreamReader);
-                    String line = reader.readLine();
-                    while (line != null)
-                        {
-                            output.append(line);
-                            line = reader.readLine();
-                        }
+                    PipelineMetrics.PARSE.record(PipelineMetrics.microsSince(startNanos));
+                    PipelineMetrics.FEATURES.record(earthquakes.size());
                 }
-            return output.toString();
         }
 
     /**
@@ -127,6 +174,18 @@ public final class QueryUtils {
      * parsing a JSON response.
      */
     public static ArrayList<Earthquake> extractFeatureFromJson(String earthquakeJson)
+        {
+            return extractFeatureFromJson(earthquakeJson, new LoadCancellation());
+        }
+
+    /**
+     * Same as {@link #extractFeatureFromJson(String)}, but stops parsing once the load
+     * is cancelled.
+     *
+     * @return the earthquakes, or null if the JSON is empty or the load was cancelled
+     */
+    public static ArrayList<Earthquake> extractFeatureFromJson(String earthquakeJson,
+                                                               LoadCancellation cancellation)
         {
             //If the JSON is empty, return early
             if(TextUtils.isEmpty(earthquakeJson))
@@ -136,93 +195,482 @@ public final class QueryUtils {
 
             // Create an empty ArrayList that we can start adding earthquakes to
             ArrayList<Earthquake> earthquakes = new ArrayList<>();
+            long start = System.nanoTime();
+            PipelineMetrics.beginSection("parse");
 
             // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
             // is formatted, a JSONException exception object will be thrown.
             // Catch the exception so the app doesn't crash, and print the error message to the logs.
             try
                 {
-                    //Create a JSON object from the JSON response string
-                    JSONObject baseJsonResponse = new JSONObject(earthquakeJson);
+                    //Build the JSONObject tree and create an {@link Earthquake} for each feature
+                    GeoJsonTreeParser.parse(earthquakeJson, earthquakes, cancellation);
+                }
+            catch (InterruptedIOException e)
+                {
+                    //Nobody is waiting for the rest of the list anymore
+                    earthquakes = null;
+                }
+            catch (JSONException e)
+                {
+                    // If an error is thrown when executing any of the above statements in the "try" block,
+                    // catch the exception here, so the app doesn't crash. Print a log message
+                    // with the message from the exception.
+                    Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+                }
+            finally
+                {
+                    endParse(start, earthquakes);
+                }
 
-                    //Extract the JSONArray associated with the key called "features",
-                    //which represents a list of features (earthquakes)
-                    JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
+            // Return the list of earthquakes
+            return earthquakes;
+        }
 
-                    //For each earthquake in the earthquake array, create an {@link Earthquake} object
-                    for (int i=0; i<earthquakeArray.length(); i++)
-                        {
-                            //Get a single earthquake at position i within the list of earthquake array
-                            JSONObject earthquakeObject = earthquakeArray.getJSONObject(i);
+    /**
+     * Return a list of {@link Earthquake} objects parsed straight from a stream of the JSON
+     * response with {@link GeoJsonStreamParser}.
+     *
+     * Unlike {@link #extractFeatureFromJson(String)} no JSONObject tree is built for the response,
+     * so the heap used stays close to the size of the resulting list even for thousands of
+     * features. If the response is malformed, the earthquakes parsed up to that point are returned.
+     */
+    public static ArrayList<Earthquake> extractFeatureFromJsonStream(Reader earthquakeJson)
+        {
+            return extractFeatureFromJsonStream(earthquakeJson, new LoadCancellation());
+        }
 
-                            // For a given earthquake, extract the JSONObject associated with the
-                            // key called "properties", which represents a list of all properties
-                            // for that earthquake.
-                            JSONObject properties = earthquakeObject.getJSONObject("properties");
+    /**
+     * Same as {@link #extractFeatureFromJsonStream(Reader)}, but stops parsing at the next
+     * buffer refill once the load is cancelled.
+     *
+     * @return the earthquakes, or null if there is no JSON or the load was cancelled
+     */
+    public static ArrayList<Earthquake> extractFeatureFromJsonStream(Reader earthquakeJson,
+                                                                     LoadCancellation cancellation)
+        {
+            //If there is no JSON to read, return early
+            if(earthquakeJson == null)
+                {
+                    return null;
+                }
 
-                            //Extract the value for the key called "mag"
-                            double magnitude = properties.optDouble("mag");
+            // Create an empty ArrayList that we can start adding earthquakes to
+            ArrayList<Earthquake> earthquakes = new ArrayList<>();
+            long start = System.nanoTime();
+            PipelineMetrics.beginSection("parse");
 
-                            //Extract the value for the key called "place"
-                            String place = properties.optString("place");
+            try
+                {
+                    new GeoJsonStreamParser(cancellation.wrap(earthquakeJson)).parse(earthquakes);
+                }
+            catch (IOException e)
+                {
+                    if(cancellation.isCanceled())
+                        {
+                            //Nobody is waiting for the rest of the list anymore
+                            earthquakes = null;
+                        }
+                    else
+                        {
+                            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+                        }
+                }
+            finally
+                {
+                    endParse(start, earthquakes);
+                }
 
-                            //Extract the value for the key called "time"
-                            long date = properties.getLong("time");
+            // Return the list of earthquakes
+            return earthquakes;
+        }
 
-                            //Extract the value for the key called "url"
-                            String url = properties.getString("url");
+    /**
+     * Return a list of {@link Earthquake} objects parsed from a stream of the CSV response
+     * of a query made with format=csv, see {@link CsvStreamParser}. If the response is
+     * malformed, the earthquakes parsed up to that point are returned.
+     *
+     * @return the earthquakes, or null if there is no CSV or the load was cancelled
+     */
+    public static ArrayList<Earthquake> extractFeatureFromCsvStream(Reader earthquakeCsv,
+                                                                    LoadCancellation cancellation)
+        {
+            //If there is no CSV to read, return early
+            if(earthquakeCsv == null)
+                {
+                    return null;
+                }
 
-                            //Create a new {@link Earthquake} object with magnitude, location,
-                            //time and url from the JSON response
-                            Earthquake earthquake = new Earthquake(magnitude, place, date, url);
+            ArrayList<Earthquake> earthquakes = new ArrayList<>();
+            long start = System.nanoTime();
+            PipelineMetrics.beginSection("parse");
 
-                            //Add the new {@link Earthquake} to the list of earthquakes
-                            earthquakes.add(earthquake);
+            try
+                {
+                    new CsvStreamParser(cancellation.wrap(earthquakeCsv)).parse(earthquakes);
+                }
+            catch (IOException e)
+                {
+                    if(cancellation.isCanceled())
+                        {
+                            //Nobody is waiting for the rest of the list anymore
+                            earthquakes = null;
+                        }
+                    else
+                        {
+                            Log.e("QueryUtils", "Problem parsing the earthquake CSV results", e);
                         }
                 }
-            catch (JSONException e)
+            finally
                 {
-                    // If an error is thrown when executing any of the above statements in the "try" block,
-                    // catch the exception here, so the app doesn't crash. Print a log message
-                    // with the message from the exception.
-                    Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+                    endParse(start, earthquakes);
                 }
+            return earthquakes;
+        }
 
-            // Return the list of earthquakes
+    /**
+     * Returns true if the query asks USGS for CSV rather than GeoJSON.
+     */
+    static boolean isCsv(String resultUrl)
+        {
+            return FORMAT_CSV.equals(UsgsQuery.parse(resultUrl).get("format"));
+        }
+
+    /**
+     * Return a list of {@link Earthquake} objects parsed from a response body with
+     * {@link ParallelGeoJsonParser}, which parses slices of the "features" array on one
+     * thread per core. If the response is malformed, the earthquakes of the slices before the
+     * problem are returned.
+     *
+     * @return the earthquakes, or null if the load was cancelled
+     */
+    static ArrayList<Earthquake> extractFeatureFromJsonParallel(HttpResponse response,
+                                                                LoadCancellation cancellation)
+        {
+            ArrayList<Earthquake> earthquakes = new ArrayList<>();
+            long start = System.nanoTime();
+            PipelineMetrics.beginSection("parse");
+            try
+                {
+                    ParallelGeoJsonParser.parse(response.getBody(), response.getBodyLength(), earthquakes,
+                            PARSE_EXECUTOR, PARSE_THREADS, cancellation);
+                }
+            catch (IOException e)
+                {
+                    if(cancellation.isCanceled())
+                        {
+                            //Nobody is waiting for the rest of the list anymore
+                            earthquakes = null;
+                        }
+                    else
+                        {
+                            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+                        }
+                }
+            finally
+                {
+                    endParse(start, earthquakes);
+                }
             return earthquakes;
         }
 
     public static List<Earthquake> fetchEarthquakeData(String resultUrl)
+        {
+            return fetchEarthquakeData(resultUrl, new LoadCancellation());
+        }
+
+    /**
+     * Fetches and parses the earthquakes of a USGS query. Cancelling the given
+     * {@link LoadCancellation} stops the request in whatever stage it is: the simulated
+     * delay, the connection or download, or the parse.
+     *
+     * @return the earthquakes, or null if the request failed or was cancelled
+     */
+    public static List<Earthquake> fetchEarthquakeData(String resultUrl, LoadCancellation cancellation)
         {
             Log.i(LOG_TAG, "TEST: fetchEarthquakeData() called ... ");
 
-            // A simulation of a slow network with a delay time of 2 seconds
+            // A simulation of a slow network with a delay time of 2 seconds,
+            // which ends early when the load is cancelled
             try
                 {
-                   Thread.sleep(2000);
+                    cancellation.sleep(2000);
                 }
-            catch (InterruptedException e)
+            catch (InterruptedIOException e)
                 {
-                    e.printStackTrace();
+                    Log.i(LOG_TAG, "Canceled before requesting " + resultUrl);
+                    return null;
                 }
+            return requestEarthquakeData(resultUrl, cancellation);
+        }
 
+    /**
+     * Fetches and parses the earthquakes of a USGS query like
+     * {@link #fetchEarthquakeData(String, LoadCancellation)}, without the simulated delay, for
+     * the slices of a {@link TimeShardedFetch} which would otherwise each add it.
+     *
+     * @return the earthquakes, or null if the request failed or was cancelled
+     */
+    static List<Earthquake> requestEarthquakeData(String resultUrl, LoadCancellation cancellation)
+        {
             //Create URL object
             URL url = createURL(resultUrl);
-
-            //Perform HTTP request to the URL and recieve a json response
-            String jsonResponse = null;
-            try
+            if(url == null)
                 {
-                    jsonResponse = makeHttpRequest(url);
+                    return null;
                 }
-            catch (IOException e)
+
+            //Perform HTTP request to the URL and recieve a json response,
+            //trying again while the failures look transient
+            HttpResponse response;
+            for (int attempt = 1; ; attempt++)
                 {
-                    Log.e(LOG_TAG, "Problem making HTTP Request", e);
+                    //While USGS is struggling, don't ask it again
+                    if(!sCircuitBreaker.allowRequest(System.currentTimeMillis()))
+                        {
+                            Log.w(LOG_TAG, "Not requesting " + resultUrl + " while the circuit is open");
+                            return null;
+                        }
+
+                    response = null;
+                    try
+                        {
+                            response = makeHttpRequest(url, cancellation);
+                        }
+                    catch (IOException e)
+                        {
+                            //A read timeout is an InterruptedIOException too, so ask the cancellation
+                            if(cancellation.isCanceled())
+                                {
+                                    Log.i(LOG_TAG, "Canceled while requesting " + resultUrl);
+                                    return null;
+                                }
+                            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results", e);
+                        }
+
+                    if(response != null && response.isSuccessful())
+                        {
+                            sCircuitBreaker.onSuccess();
+                            break;
+                        }
+                    if(response != null && !RetryPolicy.isRetryable(response.getResponseCode()))
+                        {
+                            //The server works but rejects the request, so asking again won't help
+                            sCircuitBreaker.onSuccess();
+                            return null;
+                        }
+                    if(!backOff(attempt, response, cancellation))
+                        {
+                            return null;
+                        }
                 }
 
             //Extract relevant fields from the JSON response and create a list of {@link Earthquake}
-            List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
+            //using the streaming parser, which decodes the body bytes as it goes. Large responses
+            //are split up and parsed on all cores. CSV responses are small and cheap enough to
+            //parse on this thread
+            List<Earthquake> earthquakes;
+            if(isCsv(resultUrl))
+                {
+                    earthquakes = extractFeatureFromCsvStream(response.getBodyReader(), cancellation);
+                }
+            else if(PARSE_THREADS > 1 && response.getBodyLength() >= ParallelGeoJsonParser.PARALLEL_THRESHOLD_BYTES)
+                {
+                    earthquakes = extractFeatureFromJsonParallel(response, cancellation);
+                }
+            else
+                {
+                    earthquakes = extractFeatureFromJsonStream(response.getBodyReader(), cancellation);
+                }
 
+            if(earthquakes != null)
+                {
+                    synchronized (sLastGoodResults)
+                        {
+                            sLastGoodResults.put(resultUrl, earthquakes);
+                        }
+                }
             return earthquakes;
         }
+
+    /**
+     * Records a failed attempt and, if the request is worth another one, waits before it.
+     *
+     * @param attempt the attempt that failed, 1 for the first
+     * @param response the error response, or null if there was none
+     * @return true to try again, false if the attempts are used up, the circuit opened, the
+     *         server asked for a longer wait than a load should take, or the load was cancelled
+     */
+    private static boolean backOff(int attempt, HttpResponse response, LoadCancellation cancellation)
+        {
+            long now = System.currentTimeMillis();
+            long retryAfter = response == null
+                    ? -1
+                    : RetryPolicy.parseRetryAfter(response.getHeader("Retry-After"), now);
+            sCircuitBreaker.onFailure(now, retryAfter);
+            if(attempt >= sRetryPolicy.getMaxAttempts() || sCircuitBreaker.isOpen(now)
+                    || retryAfter > sRetryPolicy.getMaxDelayMillis())
+                {
+                    return false;
+                }
+
+            long delay = Math.max(sRetryPolicy.getBackoffMillis(attempt), retryAfter);
+            Log.i(LOG_TAG, "Retrying in " + delay + " ms after attempt " + attempt);
+            try
+                {
+                    cancellation.sleep(delay);
+                    return true;
+                }
+            catch (InterruptedIOException e)
+                {
+                    return false;
+                }
+        }
+
+    /**
+     * Returns a copy of the last earthquakes successfully fetched for the url, or null if
+     * there are none.
+     *
+     * A failed fetch never returns these itself: they can be any age, so only a caller that
+     * merely shows them may fall back to them. Anything that stores, caches or records the
+     * time of a result must treat the failure as one.
+     */
+    static List<Earthquake> getLastGoodResult(String resultUrl)
+        {
+            List<Earthquake> earthquakes;
+            synchronized (sLastGoodResults)
+                {
+                    earthquakes = sLastGoodResults.get(resultUrl);
+                }
+            if(earthquakes == null)
+                {
+                    return null;
+                }
+            Log.i(LOG_TAG, "Serving the last good result of " + resultUrl);
+            return new ArrayList<>(earthquakes);
+        }
+
+    /**
+     * Fetches the earthquakes of a USGS query and hands them to the listener in batches while
+     * the response is still being downloaded, so the first rows can be shown long before the
+     * last ones arrive. Neither the body nor the whole list is ever held here, only the batch
+     * being parsed.
+     *
+     * Failures before the body arrives are retried as in {@link #fetchEarthquakeData(String,
+     * LoadCancellation)}; once batches may have been handed out, a failure ends the stream.
+     *
+     * @param resultUrl the USGS query
+     * @param batchSize the number of earthquakes in a batch
+     * @param cancellation stops the request in whatever stage it is
+     * @param listener receives the batches on this thread
+     * @return true if the whole response was read, false if the request failed or was
+     *         cancelled, possibly after some batches were handed out
+     */
+    static boolean streamEarthquakeData(String resultUrl, int batchSize, LoadCancellation cancellation,
+                                        GeoJsonStreamParser.BatchListener listener)
+        {
+            // The same simulation of a slow network as in fetchEarthquakeData()
+            try
+                {
+                    cancellation.sleep(2000);
+                }
+            catch (InterruptedIOException e)
+                {
+                    Log.i(LOG_TAG, "Canceled before requesting " + resultUrl);
+                    return false;
+                }
+
+            URL url = createURL(resultUrl);
+            if(url == null)
+                {
+                    return false;
+                }
+
+            StreamingParse parse = new StreamingParse(isCsv(resultUrl), batchSize, cancellation, listener);
+            for (int attempt = 1; ; attempt++)
+                {
+                    if(!sCircuitBreaker.allowRequest(System.currentTimeMillis()))
+                        {
+                            Log.w(LOG_TAG, "Not streaming " + resultUrl + " while the circuit is open");
+                            return false;
+                        }
+
+                    HttpResponse response = null;
+                    try
+                        {
+                            response = sTransport.get(url, cancellation, parse);
+                        }
+                    catch (IOException e)
+                        {
+                            if(cancellation.isCanceled())
+                                {
+                                    Log.i(LOG_TAG, "Canceled while streaming " + resultUrl);
+                                    return false;
+                                }
+                            Log.e(LOG_TAG, "Problem streaming the earthquake JSON results", e);
+
+                            //Once the body started, batches may have been handed out already
+                            if(parse.started)
+                                {
+                                    return false;
+                                }
+                        }
+
+                    if(response != null && response.isSuccessful())
+                        {
+                            sCircuitBreaker.onSuccess();
+                            Log.i(LOG_TAG, "Streamed " + response.getTransferredBytes() + " bytes in "
+                                    + response.getElapsedMillis() + " ms");
+                            PipelineMetrics.TRANSFERRED_BYTES.record(response.getTransferredBytes());
+                            return true;
+                        }
+                    if(response != null && !RetryPolicy.isRetryable(response.getResponseCode()))
+                        {
+                            Log.e(LOG_TAG,"Error response code: " + response.getResponseCode());
+                            sCircuitBreaker.onSuccess();
+                            return false;
+                        }
+                    if(!backOff(attempt, response, cancellation))
+                        {
+                            return false;
+                        }
+                }
+        }
+
+    /**
+     * Parses a streamed GeoJSON or CSV body in batches, remembering whether it got to see any
+     * of it.
+     */
+    private static class StreamingParse implements HttpTransport.BodyConsumer {
+
+        final boolean csv;
+        final int batchSize;
+        final LoadCancellation cancellation;
+        final GeoJsonStreamParser.BatchListener listener;
+        volatile boolean started;
+
+        StreamingParse(boolean csv, int batchSize, LoadCancellation cancellation,
+                       GeoJsonStreamParser.BatchListener listener)
+            {
+                this.csv = csv;
+                this.batchSize = batchSize;
+                this.cancellation = cancellation;
+                this.listener = listener;
+            }
+
+        @Override
+        public void consume(InputStream body) throws IOException
+            {
+                started = true;
+                Reader reader = cancellation.wrap(new InputStreamReader(body, Charset.forName("UTF-8")));
+                if(csv)
+                    {
+                        new CsvStreamParser(reader).parse(new ArrayList<Earthquake>(batchSize), batchSize, listener);
+                    }
+                else
+                    {
+                        new GeoJsonStreamParser(reader).parse(new ArrayList<Earthquake>(batchSize), batchSize, listener);
+                    }
+            }
+    }
 }
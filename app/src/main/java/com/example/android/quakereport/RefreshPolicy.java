@@ -0,0 +1,115 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+
+/**
+ * Decides how long to wait before the next background refresh.
+ *
+ * The interval starts at a base value and doubles with every refresh in a row that found
+ * nothing new, since a quiet feed is likely to stay quiet. A large recent earthquake brings
+ * it down to the minimum, because revisions and aftershocks follow quickly. Metered and slow
+ * networks stretch whatever interval that gives, and nothing waits longer than the maximum.
+ * Failed refreshes are tried again after the minimum interval, doubled with every failure
+ * in a row, so a device that is offline or a server that is down isn't asked every minute.
+ */
+public final class RefreshPolicy {
+
+    /* The magnitude from which a recent earthquake shortens the interval */
+    public static final double LARGE_EVENT_MAGNITUDE = 6.5;
+
+    /* How long after it happened an earthquake still counts as recent */
+    public static final long LARGE_EVENT_WINDOW_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /* The most times a quiet feed doubles the interval */
+    private static final int MAX_QUIET_DOUBLINGS = 3;
+
+    /* The most times failures in a row double the retry delay */
+    private static final int MAX_FAILURE_DOUBLINGS = 10;
+
+    private static final int METERED_FACTOR = 2;
+    private static final int POOR_NETWORK_FACTOR = 4;
+
+    private final long mMinIntervalMillis;
+    private final long mBaseIntervalMillis;
+    private final long mMaxIntervalMillis;
+
+    /**
+     * Constructs a new {@link RefreshPolicy}.
+     *
+     * @param minIntervalMillis the interval after a large earthquake, on a good network
+     * @param baseIntervalMillis the interval while the feed changes, on a good network
+     * @param maxIntervalMillis the longest interval
+     */
+    public RefreshPolicy(long minIntervalMillis, long baseIntervalMillis, long maxIntervalMillis)
+        {
+            mMinIntervalMillis = minIntervalMillis;
+            mBaseIntervalMillis = baseIntervalMillis;
+            mMaxIntervalMillis = maxIntervalMillis;
+        }
+
+    public long getBaseIntervalMillis()
+        {
+            return mBaseIntervalMillis;
+        }
+
+    public long getMaxIntervalMillis()
+        {
+            return mMaxIntervalMillis;
+        }
+
+    /**
+     * Returns the time to wait before the next refresh.
+     *
+     * @param quietRefreshes the number of refreshes in a row that changed nothing
+     * @param largeEvent whether the last refresh brought a large recent earthquake
+     * @param metered whether the network is metered
+     * @param poorNetwork whether the network is slow (2G) or roaming
+     */
+    public long getIntervalMillis(int quietRefreshes, boolean largeEvent, boolean metered, boolean poorNetwork)
+        {
+            long interval = largeEvent
+                    ? mMinIntervalMillis
+                    : mBaseIntervalMillis << Math.min(quietRefreshes, MAX_QUIET_DOUBLINGS);
+            if(metered)
+                {
+                    interval *= METERED_FACTOR;
+                }
+            if(poorNetwork)
+                {
+                    interval *= POOR_NETWORK_FACTOR;
+                }
+            return Math.min(interval, mMaxIntervalMillis);
+        }
+
+    /**
+     * Returns the time to wait before trying again after failed refreshes: the minimum
+     * interval, doubled with every further failure in a row, up to the maximum.
+     *
+     * @param failedRefreshes the number of refreshes in a row that failed, at least 1
+     */
+    public long getRetryDelayMillis(int failedRefreshes)
+        {
+            int doublings = Math.min(Math.max(0, failedRefreshes - 1), MAX_FAILURE_DOUBLINGS);
+            return Math.min(mMinIntervalMillis << doublings, mMaxIntervalMillis);
+        }
+
+    /**
+     * Returns true if one of the given earthquakes is large and happened recently.
+     *
+     * @param earthquakes the new and changed earthquakes of a refresh
+     * @param now the current time in milliseconds from the Epoch
+     */
+    public static boolean hasLargeEvent(List<Earthquake> earthquakes, long now)
+        {
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i);
+                    if(earthquake.getMagnitude() >= LARGE_EVENT_MAGNITUDE
+                            && now - earthquake.getTimeInMilliseconds() < LARGE_EVENT_WINDOW_MILLIS)
+                        {
+                            return true;
+                        }
+                }
+            return false;
+        }
+}
@@ -0,0 +1,20 @@
+package com.example.android.quakereport;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Schedules the background refresh again after a reboot, which clears all alarms.
+ */
+public class RefreshReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent)
+        {
+            if(Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()))
+                {
+                    RefreshService.schedule(context);
+                }
+        }
+}
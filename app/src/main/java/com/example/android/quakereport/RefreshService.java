@@ -0,0 +1,205 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Refreshes the stored first page in the background, so the app opens on recent earthquakes
+ * instead of waiting for the network.
+ *
+ * Every refresh schedules the next one with a non-wakeup alarm, counted from the refresh
+ * itself: after a successful one at an interval picked by the {@link RefreshPolicy} from how
+ * it went and from the network, after a failed one (no network, a failed request or an
+ * exception) at a retry delay that grows with every failure in a row. There is only ever one
+ * alarm, since scheduling again replaces it, and the time it is due is kept in the
+ * preferences, so it can be set again after a reboot without asking whether it is pending.
+ * Triggers that overlap are merged: a refresh is skipped if the query was synced less than
+ * an interval ago, whether by an earlier trigger or by the app itself, and a refresh running
+ * along with the app shares its request through the {@link EarthquakeRepository}.
+ *
+ * This uses AlarmManager and an IntentService rather than JobScheduler, which needs API 21.
+ */
+public class RefreshService extends IntentService {
+
+    private static final long MINUTE_IN_MILLISECONDS = 60 * 1000L;
+
+    private static final RefreshPolicy POLICY = new RefreshPolicy(10 * MINUTE_IN_MILLISECONDS,
+            30 * MINUTE_IN_MILLISECONDS, 6 * 60 * MINUTE_IN_MILLISECONDS);
+
+    private static final String PREFERENCES_NAME = "earthquake_refresh";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_QUIET_REFRESHES = "quiet_refreshes";
+    private static final String KEY_FAILED_REFRESHES = "failed_refreshes";
+
+    /* When the next refresh is due, in milliseconds from the Epoch */
+    private static final String KEY_NEXT_REFRESH_AT = "next_refresh_at";
+
+    public RefreshService()
+        {
+            super("RefreshService");
+        }
+
+    /**
+     * Sets the alarm for the refresh that is due, for when the app starts and after a reboot
+     * (which clears all alarms). Setting it again while it is pending only replaces it.
+     */
+    public static void schedule(Context context)
+        {
+            SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            long delay = preferences.getLong(KEY_NEXT_REFRESH_AT, 0) - System.currentTimeMillis();
+
+            //An overdue refresh runs now. A clock set back must not put it off for longer than
+            //any interval
+            scheduleNext(context, preferences, Math.min(Math.max(0, delay), POLICY.getMaxIntervalMillis()));
+        }
+
+    /**
+     * Sets the alarm for the refresh due the given delay from now.
+     */
+    private static void scheduleNext(Context context, SharedPreferences preferences, long delayMillis)
+        {
+            preferences.edit()
+                    .putLong(KEY_NEXT_REFRESH_AT, System.currentTimeMillis() + delayMillis)
+                    .apply();
+
+            Intent intent = new Intent(context, RefreshService.class);
+            PendingIntent operation =
+                    PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+            //Not a wakeup alarm: a sleeping device has nobody to show earthquakes to, so the
+            //refresh waits for the next time the device is awake anyway
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delayMillis, operation);
+            Log.i(LOG_TAG, "Next refresh in " + delayMillis / MINUTE_IN_MILLISECONDS + " min");
+        }
+
+    /**
+     * This is on a background thread, one refresh at a time.
+     */
+    @Override
+    protected void onHandleIntent(Intent intent)
+        {
+            SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+            long delay = 0;
+            boolean finished = false;
+            try
+                {
+                    delay = refresh(preferences);
+                    finished = true;
+                }
+            finally
+                {
+                    //A refresh that threw, for example a SQLiteException on a full disk, is a
+                    //failure like any other and must not end the refreshes
+                    if(!finished)
+                        {
+                            delay = onRefreshFailed(preferences);
+                        }
+                    scheduleNext(this, preferences, delay);
+                }
+        }
+
+    /**
+     * Syncs the first page, unless that isn't needed, and returns the delay to the next
+     * refresh.
+     */
+    private long refresh(SharedPreferences preferences)
+        {
+            long interval = preferences.getLong(KEY_INTERVAL, POLICY.getBaseIntervalMillis());
+            EarthquakeSync sync = new EarthquakeSync(this, new EarthquakeStore(this));
+            String url = EarthquakeActivity.FIRST_PAGE_URL;
+
+            //Synced less than an interval ago, so this refresh is merged into that sync. The
+            //sync time is 0 if the store last synced another query, which doesn't skip it
+            long sinceSync = System.currentTimeMillis() - sync.getSyncedAt(url);
+            if(sinceSync >= 0 && sinceSync < interval)
+                {
+                    Log.i(LOG_TAG, "Refresh skipped, synced meanwhile");
+                    return interval - sinceSync;
+                }
+
+            ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+            NetworkInfo network = cm.getActiveNetworkInfo();
+            if(network == null || !network.isConnected())
+                {
+                    Log.i(LOG_TAG, "Refresh skipped, no network");
+                    return onRefreshFailed(preferences);
+                }
+            boolean metered = ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+            boolean poorNetwork = isPoorNetwork(network);
+
+            List<Earthquake> result = sync.sync(url, new LoadCancellation());
+
+            //A failed refresh tells nothing about the feed, so it keeps the interval's basis
+            if(result == null)
+                {
+                    Log.i(LOG_TAG, "Refresh failed");
+                    return onRefreshFailed(preferences);
+                }
+
+            int quietRefreshes = sync.wasLastSyncQuiet() ? preferences.getInt(KEY_QUIET_REFRESHES, 0) + 1 : 0;
+            boolean largeEvent = RefreshPolicy.hasLargeEvent(sync.getLastChanges(), System.currentTimeMillis());
+            interval = POLICY.getIntervalMillis(quietRefreshes, largeEvent, metered, poorNetwork);
+            preferences.edit()
+                    .putLong(KEY_INTERVAL, interval)
+                    .putInt(KEY_QUIET_REFRESHES, quietRefreshes)
+                    .putInt(KEY_FAILED_REFRESHES, 0)
+                    .apply();
+            Log.i(LOG_TAG, "Refreshed " + sync.getLastChanges().size() + " changes"
+                    + ", quiet " + quietRefreshes + ", large event " + largeEvent
+                    + ", metered " + metered + ", poor network " + poorNetwork);
+            return interval;
+        }
+
+    /**
+     * Counts a failed refresh and returns the delay before trying again.
+     */
+    private static long onRefreshFailed(SharedPreferences preferences)
+        {
+            int failedRefreshes = preferences.getInt(KEY_FAILED_REFRESHES, 0) + 1;
+            preferences.edit()
+                    .putInt(KEY_FAILED_REFRESHES, failedRefreshes)
+                    .apply();
+            return POLICY.getRetryDelayMillis(failedRefreshes);
+        }
+
+    /**
+     * Returns true for networks that are slow or expensive beyond being metered: 2G and roaming.
+     */
+    private static boolean isPoorNetwork(NetworkInfo network)
+        {
+            if(network.isRoaming())
+                {
+                    return true;
+                }
+            if(network.getType() != ConnectivityManager.TYPE_MOBILE)
+                {
+                    return false;
+                }
+            switch (network.getSubtype())
+                {
+                    case TelephonyManager.NETWORK_TYPE_GPRS:
+                    case TelephonyManager.NETWORK_TYPE_EDGE:
+                    case TelephonyManager.NETWORK_TYPE_CDMA:
+                    case TelephonyManager.NETWORK_TYPE_1xRTT:
+                    case TelephonyManager.NETWORK_TYPE_IDEN:
+                        return true;
+                    default:
+                        return false;
+                }
+        }
+}
@@ -0,0 +1,107 @@
+package com.example.android.quakereport;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides which failed requests are worth trying again and how long to wait before that.
+ *
+ * Server errors (5xx), 408 Request Timeout, 429 Too Many Requests and failed connections are
+ * transient and retried. Any other 4xx means the request itself is wrong, so it is not. The
+ * wait doubles with every retry up to a maximum and is jittered, so clients that failed
+ * together don't come back together. A Retry-After header sent by the server is a lower bound
+ * for the wait.
+ */
+public final class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    /**
+     * Constructs a new {@link RetryPolicy}.
+     *
+     * @param maxAttempts the number of times a request is made at most, including the first
+     * @param baseDelayMillis the wait before the first retry, before jitter
+     * @param maxDelayMillis the longest wait; a request whose Retry-After asks for more is
+     *                       given up on
+     * @param random the source of the jitter
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random)
+        {
+            mMaxAttempts = maxAttempts;
+            mBaseDelayMillis = baseDelayMillis;
+            mMaxDelayMillis = maxDelayMillis;
+            mRandom = random;
+        }
+
+    public int getMaxAttempts()
+        {
+            return mMaxAttempts;
+        }
+
+    public long getMaxDelayMillis()
+        {
+            return mMaxDelayMillis;
+        }
+
+    /**
+     * Returns true if a response with the given status code may succeed when asked again.
+     */
+    public static boolean isRetryable(int responseCode)
+        {
+            return responseCode >= 500 || responseCode == 408 || responseCode == 429;
+        }
+
+    /**
+     * Returns the time to wait before the given retry: a random time between half and all
+     * of the base delay doubled for every retry before it, capped at the maximum delay.
+     *
+     * @param retry 1 for the first retry
+     */
+    public long getBackoffMillis(int retry)
+        {
+            long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(retry - 1, 30));
+            return ceiling / 2 + (long) (mRandom.nextDouble() * (ceiling / 2 + 1));
+        }
+
+    /**
+     * Returns the wait asked for by a Retry-After header, which is either a number of seconds
+     * or an HTTP date.
+     *
+     * @param value the header value, may be null
+     * @param now the current time in milliseconds from the Epoch
+     * @return the wait in milliseconds, or -1 if there is no valid header
+     */
+    public static long parseRetryAfter(String value, long now)
+        {
+            if(value == null)
+                {
+                    return -1;
+                }
+            value = value.trim();
+            try
+                {
+                    return Math.max(0, Long.parseLong(value) * 1000);
+                }
+            catch (NumberFormatException e)
+                {
+                    //Not a number of seconds, so it should be a date
+                }
+
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try
+                {
+                    return Math.max(0, format.parse(value).getTime() - now);
+                }
+            catch (ParseException e)
+                {
+                    return -1;
+                }
+        }
+}
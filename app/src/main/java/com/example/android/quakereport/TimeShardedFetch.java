@@ -0,0 +1,292 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+
+/**
+ * Fetches a query over a long time range as adjacent starttime/endtime slices, several at a
+ * time, instead of as one huge response.
+ *
+ * {@link EarthquakeStreamLoader} loads the queries of the last 12 months this way, through
+ * {@link EarthquakeRepository}, rather than streaming them in one request.
+ *
+ * Each slice is requested, without the simulated delay of a load, and parsed on a worker of
+ * its own, with at most
+ * {@link #MAX_CONNECTIONS} slices in flight across the process. Slices ask for at most the
+ * USGS maximum of {@link #USGS_MAX_EVENTS} events, since USGS refuses a query matching more
+ * without a limit; a slice that comes back full was cut off, so it is split in two and
+ * fetched again. The slices are then joined in time order; events on a slice boundary are
+ * returned by both neighbours, so duplicate event ids are dropped while joining.
+ */
+public final class TimeShardedFetch {
+
+    /* The most events USGS returns for one query */
+    static final int USGS_MAX_EVENTS = 20000;
+
+    /* Slices fetched at the same time, one below the idle connections kept per host */
+    private static final int MAX_CONNECTIONS = 4;
+
+    private static final long DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+    /* Without a starttime USGS only returns the earthquakes of the last 30 days */
+    private static final long USGS_DEFAULT_WINDOW_MILLIS = 30 * DAY_IN_MILLISECONDS;
+
+    /* The time range covered by one slice */
+    private static final long SLICE_MILLIS = 14 * DAY_IN_MILLISECONDS;
+
+    /* A cut off slice is not split below this */
+    private static final long MIN_SLICE_MILLIS = 60 * 60 * 1000L;
+
+    /* Shared by all sharded fetches, which bounds the connections they open together */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+
+    private TimeShardedFetch() {
+    }
+
+    /**
+     * Returns true if the query is worth sharding: it asks for everything (no limit or
+     * offset) over a time range longer than the USGS default window.
+     */
+    public static boolean isShardable(String url)
+        {
+            UsgsQuery query = UsgsQuery.parse(url);
+            if(query.get("limit") != null || query.get("offset") != null)
+                {
+                    return false;
+                }
+            long now = System.currentTimeMillis();
+            return getEndTime(query, now) - getStartTime(query, now) > USGS_DEFAULT_WINDOW_MILLIS;
+        }
+
+    /**
+     * Fetches the query slice by slice. This is on a background thread.
+     *
+     * @param url the USGS query, without limit and offset
+     * @param cancellation stops every slice when the load is cancelled
+     * @return the earthquakes in the order of the query, or null if a slice failed or the
+     *         load was cancelled
+     */
+    public static List<Earthquake> fetch(String url, LoadCancellation cancellation)
+        {
+            UsgsQuery query = UsgsQuery.parse(url);
+            long now = System.currentTimeMillis();
+            long startTime = getStartTime(query, now);
+            long endTime = getEndTime(query, now);
+
+            //Every slice comes back in time order, so joining them keeps that order
+            String orderBy = query.get("orderby");
+            boolean ascending = EarthquakeQuery.ORDER_BY_TIME_ASC.equals(orderBy)
+                    || EarthquakeQuery.ORDER_BY_MAGNITUDE_ASC.equals(orderBy);
+            //Without a limit USGS refuses a slice of more than USGS_MAX_EVENTS events with a 400.
+            //With it, such a slice comes back full and is split
+            UsgsQuery sliceQuery = query.without("start").without("end")
+                    .with("orderby", ascending ? EarthquakeQuery.ORDER_BY_TIME_ASC : EarthquakeQuery.ORDER_BY_TIME)
+                    .with("limit", String.valueOf(USGS_MAX_EVENTS));
+
+            final List<LoadCancellation> sliceCancellations = new ArrayList<>();
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            cancelAll(sliceCancellations);
+                        }
+                });
+
+            List<Slice> slices = new ArrayList<>();
+            try
+                {
+                    CompletionService<Slice> completionService = new ExecutorCompletionService<>(EXECUTOR);
+                    int pending = 0;
+                    for (long sliceStart = startTime; sliceStart < endTime; sliceStart += SLICE_MILLIS)
+                        {
+                            submit(completionService, new Slice(sliceQuery, sliceStart,
+                                    Math.min(sliceStart + SLICE_MILLIS, endTime)), sliceCancellations,
+                                    cancellation);
+                            pending++;
+                        }
+
+                    while (pending > 0)
+                        {
+                            Slice slice = completionService.take().get();
+                            pending--;
+                            if(slice.earthquakes == null)
+                                {
+                                    //The whole result is useless without this slice
+                                    cancelAll(sliceCancellations);
+                                    return null;
+                                }
+                            if(slice.earthquakes.size() >= USGS_MAX_EVENTS
+                                    && slice.endTime - slice.startTime > MIN_SLICE_MILLIS)
+                                {
+                                    long middle = slice.startTime + (slice.endTime - slice.startTime) / 2;
+                                    submit(completionService, new Slice(sliceQuery, slice.startTime, middle),
+                                            sliceCancellations, cancellation);
+                                    submit(completionService, new Slice(sliceQuery, middle, slice.endTime),
+                                            sliceCancellations, cancellation);
+                                    pending += 2;
+                                }
+                            else
+                                {
+                                    if(slice.earthquakes.size() >= USGS_MAX_EVENTS)
+                                        {
+                                            Log.w(LOG_TAG, "Slice " + slice.url + " is full but too short to split");
+                                        }
+                                    slices.add(slice);
+                                }
+                        }
+                }
+            catch (InterruptedException e)
+                {
+                    cancelAll(sliceCancellations);
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            catch (ExecutionException e)
+                {
+                    Log.e(LOG_TAG, "Problem fetching a slice of " + url, e);
+                    cancelAll(sliceCancellations);
+                    return null;
+                }
+            finally
+                {
+                    cancellation.setOnCancelListener(null);
+                }
+
+            List<Earthquake> result = join(slices, ascending);
+            if(EarthquakeQuery.ORDER_BY_MAGNITUDE.equals(orderBy)
+                    || EarthquakeQuery.ORDER_BY_MAGNITUDE_ASC.equals(orderBy))
+                {
+                    Collections.sort(result, ascending
+                            ? Collections.reverseOrder(EarthquakeQuery.LARGEST_FIRST)
+                            : EarthquakeQuery.LARGEST_FIRST);
+                }
+            Log.i(LOG_TAG, "Fetched " + result.size() + " earthquakes in " + slices.size() + " slices");
+            return result;
+        }
+
+    private static void submit(CompletionService<Slice> completionService, final Slice slice,
+                               List<LoadCancellation> sliceCancellations, LoadCancellation cancellation)
+        {
+            //Every slice gets a cancellation of its own, since each one only holds one listener
+            synchronized (sliceCancellations)
+                {
+                    sliceCancellations.add(slice.cancellation);
+                }
+
+            //A cancel that came before the slice was added didn't reach it
+            if(cancellation.isCanceled())
+                {
+                    slice.cancellation.cancel();
+                }
+            completionService.submit(new Callable<Slice>()
+                {
+                    @Override
+                    public Slice call()
+                        {
+                            slice.earthquakes = QueryUtils.requestEarthquakeData(slice.url, slice.cancellation);
+                            return slice;
+                        }
+                });
+        }
+
+    private static void cancelAll(List<LoadCancellation> sliceCancellations)
+        {
+            List<LoadCancellation> cancellations;
+            synchronized (sliceCancellations)
+                {
+                    cancellations = new ArrayList<>(sliceCancellations);
+                }
+            for (int i = 0; i < cancellations.size(); i++)
+                {
+                    cancellations.get(i).cancel();
+                }
+        }
+
+    /**
+     * Joins the slices in time order. Neighbouring slices share their boundary time, so an
+     * event on it can be in both; only its first copy is kept.
+     */
+    private static List<Earthquake> join(List<Slice> slices, boolean ascending)
+        {
+            Collections.sort(slices, new Comparator<Slice>()
+                {
+                    @Override
+                    public int compare(Slice first, Slice second)
+                        {
+                            return first.startTime < second.startTime ? -1 : (first.startTime == second.startTime ? 0 : 1);
+                        }
+                });
+            if(!ascending)
+                {
+                    Collections.reverse(slices);
+                }
+
+            int size = 0;
+            for (int i = 0; i < slices.size(); i++)
+                {
+                    size += slices.get(i).earthquakes.size();
+                }
+            List<Earthquake> result = new ArrayList<>(size);
+            Set<String> keys = new HashSet<>(size * 2);
+            for (int i = 0; i < slices.size(); i++)
+                {
+                    List<Earthquake> earthquakes = slices.get(i).earthquakes;
+                    for (int j = 0; j < earthquakes.size(); j++)
+                        {
+                            Earthquake earthquake = earthquakes.get(j);
+                            if(keys.add(EarthquakeStore.getKey(earthquake)))
+                                {
+                                    result.add(earthquake);
+                                }
+                        }
+                }
+            return result;
+        }
+
+    private static long getStartTime(UsgsQuery query, long now)
+        {
+            return query.getTime("starttime", query.getTime("start", now - USGS_DEFAULT_WINDOW_MILLIS));
+        }
+
+    private static long getEndTime(UsgsQuery query, long now)
+        {
+            return query.getTime("endtime", query.getTime("end", now));
+        }
+
+    /**
+     * One starttime/endtime slice of the query and, once fetched, its earthquakes.
+     */
+    private static class Slice {
+
+        final long startTime;
+        final long endTime;
+        final String url;
+        final LoadCancellation cancellation = new LoadCancellation();
+        volatile List<Earthquake> earthquakes;
+
+        Slice(UsgsQuery sliceQuery, long startTime, long endTime)
+            {
+                this.startTime = startTime;
+                this.endTime = endTime;
+                this.url = sliceQuery
+                        .with("starttime", UsgsQuery.formatTime(startTime))
+                        .with("endtime", UsgsQuery.formatTime(endTime))
+                        .toUrl();
+            }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} on top of {@link HttpURLConnection} that keeps connections alive and
+ * asks for gzip compressed responses.
+ *
+ * HttpURLConnection returns a connection to the platform's keep-alive pool when its response
+ * stream is read to the end and closed, but throws it away on disconnect(). So this transport
+ * always drains and closes the stream and never disconnects a successful request, which lets
+ * repeated refreshes against the same host skip the TCP and TLS handshakes. The pool itself
+ * is left as the platform configures it (keep-alive on, 5 idle connections per host), since
+ * its settings are System properties shared by the whole process.
+ *
+ * Cancelling a request disconnects it, which on Android closes the socket under a connect or
+ * read that is blocked on it, so the request fails right away instead of waiting for its
+ * timeout. The disconnect runs on a thread of its own, since cancellation comes from the main
+ * thread and some HttpURLConnection implementations lock the stream while disconnecting.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /* Runs the disconnects of cancelled requests off the cancelling thread */
+    private static final Executor DISCONNECT_EXECUTOR = Executors.newCachedThreadPool();
+
+    @Override
+    public HttpResponse get(URL url, LoadCancellation cancellation) throws IOException
+        {
+            return execute(url, null, cancellation, null);
+        }
+
+    @Override
+    public HttpResponse get(URL url, Map<String, String> requestHeaders, LoadCancellation cancellation)
+            throws IOException
+        {
+            return execute(url, requestHeaders, cancellation, null);
+        }
+
+    @Override
+    public HttpResponse get(URL url, LoadCancellation cancellation, BodyConsumer consumer) throws IOException
+        {
+            return execute(url, null, cancellation, consumer);
+        }
+
+    /**
+     * Performs the request.
+     *
+     * @param requestHeaders extra headers to send, or null
+     * @param consumer reads the body of a successful response, or null to read it into the response
+     */
+    private HttpResponse execute(URL url, Map<String, String> requestHeaders, LoadCancellation cancellation,
+                                 BodyConsumer consumer) throws IOException
+        {
+            long start = SystemClock.elapsedRealtime();
+
+            cancellation.throwIfCanceled();
+            final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setRequestMethod("GET");
+
+            // Setting the header ourselves means we also have to decode the body ourselves,
+            // but it lets us report how many bytes actually went over the wire
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            urlConnection.setRequestProperty("Connection", "keep-alive");
+            if(requestHeaders != null)
+                {
+                    for (Map.Entry<String, String> header : requestHeaders.entrySet())
+                        {
+                            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                        }
+                }
+
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            DISCONNECT_EXECUTOR.execute(new Runnable()
+                                {
+                                    @Override
+                                    public void run()
+                                        {
+                                            urlConnection.disconnect();
+                                        }
+                                });
+                        }
+                });
+
+            boolean keepConnection = false;
+            try
+                {
+                    long connectStart = System.nanoTime();
+                    urlConnection.connect();
+                    PipelineMetrics.CONNECT.record(PipelineMetrics.microsSince(connectStart));
+
+                    long requestStart = System.nanoTime();
+                    int responseCode = urlConnection.getResponseCode();
+                    PipelineMetrics.FIRST_BYTE.record(PipelineMetrics.microsSince(requestStart));
+                    Map<String, String> headers = readHeaders(urlConnection);
+                    InputStream rawStream = responseCode >= 400
+                            ? urlConnection.getErrorStream()
+                            : urlConnection.getInputStream();
+                    if(rawStream == null)
+                        {
+                            return new HttpResponse(responseCode, new byte[0], 0, 0,
+                                    SystemClock.elapsedRealtime() - start, headers);
+                        }
+
+                    long downloadStart = System.nanoTime();
+                    CountingInputStream countingStream = new CountingInputStream(rawStream);
+                    InputStream bodyStream = countingStream;
+                    try
+                        {
+                            if("gzip".equalsIgnoreCase(urlConnection.getContentEncoding()))
+                                {
+                                    bodyStream = new GZIPInputStream(countingStream);
+                                }
+                            if(consumer != null && responseCode < 300)
+                                {
+                                    consumer.consume(bodyStream);
+
+                                    //Read what the consumer left, so the connection can be reused
+                                    drain(bodyStream, cancellation);
+                                    drain(countingStream, cancellation);
+                                    PipelineMetrics.DOWNLOAD.record(PipelineMetrics.microsSince(downloadStart));
+                                    keepConnection = true;
+                                    return new HttpResponse(responseCode, new byte[0], 0,
+                                            countingStream.count, SystemClock.elapsedRealtime() - start, headers);
+                                }
+                            //The Content-Length of a gzipped body is its compressed size
+                            int sizeHint = bodyStream == countingStream ? urlConnection.getContentLength() : -1;
+                            Body body = readFully(bodyStream, sizeHint, cancellation);
+                            //The gzip data can end before the raw stream does, as a chunked body ends
+                            //with an empty chunk, and a connection only goes back to the pool at its end
+                            drain(countingStream, cancellation);
+                            PipelineMetrics.DOWNLOAD.record(PipelineMetrics.microsSince(downloadStart));
+                            keepConnection = true;
+                            return new HttpResponse(responseCode, body.bytes, body.length,
+                                    countingStream.count, SystemClock.elapsedRealtime() - start, headers);
+                        }
+                    finally
+                        {
+                            bodyStream.close();
+                        }
+                }
+            catch (IOException e)
+                {
+                    // A read aborted by the disconnect fails with whatever the socket reports
+                    cancellation.throwIfCanceled();
+                    throw e;
+                }
+            finally
+                {
+                    cancellation.setOnCancelListener(null);
+
+                    // Only connections whose body was fully read can go back to the pool
+                    if(!keepConnection)
+                        {
+                            urlConnection.disconnect();
+                        }
+                }
+        }
+
+    /**
+     * Reads the stream to the end into a single growing byte array, without any
+     * charset decoding or line splitting. A buffer sized by an accurate hint is not grown
+     * just to find the end of the stream, and one that was grown is trimmed if much of it
+     * is unused, since the response keeps it for as long as it is parsed.
+     *
+     * @param inputStream the stream to read
+     * @param sizeHint the expected number of bytes, or -1 if unknown
+     * @param cancellation checked before every read
+     */
+    private static Body readFully(InputStream inputStream, int sizeHint, LoadCancellation cancellation)
+            throws IOException
+        {
+            byte[] bytes = new byte[sizeHint > 0 ? sizeHint : INITIAL_BUFFER_SIZE];
+            int length = 0;
+            while (true)
+                {
+                    cancellation.throwIfCanceled();
+                    if(length == bytes.length)
+                        {
+                            //Only grow the buffer if the stream doesn't end here
+                            int next = inputStream.read();
+                            if(next < 0)
+                                {
+                                    break;
+                                }
+                            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                            bytes[length++] = (byte) next;
+                        }
+                    int read = inputStream.read(bytes, length, bytes.length - length);
+                    if(read < 0)
+                        {
+                            break;
+                        }
+                    length += read;
+                }
+            if(bytes.length - length > length / 4 && bytes.length > INITIAL_BUFFER_SIZE)
+                {
+                    bytes = Arrays.copyOf(bytes, length);
+                }
+            return new Body(bytes, length);
+        }
+
+    /**
+     * Returns the first value of every response header by lower case name, leaving out the
+     * status line.
+     */
+    private static Map<String, String> readHeaders(HttpURLConnection urlConnection)
+        {
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet())
+                {
+                    if(header.getKey() != null && !header.getValue().isEmpty())
+                        {
+                            headers.put(header.getKey().toLowerCase(Locale.US), header.getValue().get(0));
+                        }
+                }
+            return headers;
+        }
+
+    /**
+     * Reads the stream to the end without keeping anything.
+     */
+    private static void drain(InputStream inputStream, LoadCancellation cancellation) throws IOException
+        {
+            byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+            do
+                {
+                    cancellation.throwIfCanceled();
+                }
+            while (inputStream.read(buffer) >= 0);
+        }
+
+    /**
+     * A byte array together with the number of bytes in use.
+     */
+    private static class Body {
+
+        final byte[] bytes;
+        final int length;
+
+        Body(byte[] bytes, int length)
+            {
+                this.bytes = bytes;
+                this.length = length;
+            }
+    }
+
+    /**
+     * Counts the bytes read from the underlying (possibly compressed) stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in)
+            {
+                super(in);
+            }
+
+        @Override
+        public int read() throws IOException
+            {
+                int b = super.read();
+                if(b >= 0)
+                    {
+                        count++;
+                    }
+                return b;
+            }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+            {
+                int read = super.read(buffer, offset, length);
+                if(read > 0)
+                    {
+                        count += read;
+                    }
+                return read;
+            }
+    }
+}
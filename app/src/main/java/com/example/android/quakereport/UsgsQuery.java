@@ -0,0 +1,253 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * A USGS query URL split into its endpoint and its query parameters, so single parameters
+ * can be read, added or removed without string surgery on the whole URL.
+ *
+ * Instances are immutable; every change returns a new {@link UsgsQuery}.
+ */
+public final class UsgsQuery {
+
+    /* The UTC time formats USGS accepts, most precise first */
+    private static final String[] TIME_PATTERNS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+
+    private final String mEndpoint;
+    private final LinkedHashMap<String, String> mParameters;
+
+    private UsgsQuery(String endpoint, LinkedHashMap<String, String> parameters)
+        {
+            mEndpoint = endpoint;
+            mParameters = parameters;
+        }
+
+    /**
+     * Parses a query URL such as the one in EarthquakeActivity.
+     *
+     * @param url the URL to parse, with or without a query string
+     */
+    public static UsgsQuery parse(String url)
+        {
+            int queryStart = url.indexOf('?');
+            String endpoint = queryStart < 0 ? url : url.substring(0, queryStart);
+            LinkedHashMap<String, String> parameters = new LinkedHashMap<>();
+            if(queryStart >= 0)
+                {
+                    int start = queryStart + 1;
+                    while (start <= url.length())
+                        {
+                            int end = url.indexOf('&', start);
+                            if(end < 0)
+                                {
+                                    end = url.length();
+                                }
+                            if(end > start)
+                                {
+                                    String pair = url.substring(start, end);
+                                    int equals = pair.indexOf('=');
+                                    if(equals < 0)
+                                        {
+                                            parameters.put(decode(pair), "");
+                                        }
+                                    else
+                                        {
+                                            parameters.put(decode(pair.substring(0, equals)),
+                                                    decode(pair.substring(equals + 1)));
+                                        }
+                                }
+                            start = end + 1;
+                        }
+                }
+            return new UsgsQuery(endpoint, parameters);
+        }
+
+    public String getEndpoint()
+        {
+            return mEndpoint;
+        }
+
+    /**
+     * Returns the value of the given parameter, or null if it is not set.
+     */
+    public String get(String name)
+        {
+            return mParameters.get(name);
+        }
+
+    /**
+     * Returns the value of the given parameter as an int, or the fallback if it is not set
+     * or not a number.
+     */
+    public int getInt(String name, int fallback)
+        {
+            String value = mParameters.get(name);
+            if(value == null)
+                {
+                    return fallback;
+                }
+            try
+                {
+                    return Integer.parseInt(value);
+                }
+            catch (NumberFormatException e)
+                {
+                    return fallback;
+                }
+        }
+
+    /**
+     * Returns the value of the given parameter as a double, or the fallback if it is not set
+     * or not a number.
+     */
+    public double getDouble(String name, double fallback)
+        {
+            String value = mParameters.get(name);
+            if(value == null)
+                {
+                    return fallback;
+                }
+            try
+                {
+                    return Double.parseDouble(value);
+                }
+            catch (NumberFormatException e)
+                {
+                    return fallback;
+                }
+        }
+
+    /**
+     * Returns the value of the given time parameter in milliseconds, or the fallback if it is
+     * not set or not in one of the formats USGS accepts.
+     */
+    public long getTime(String name, long fallback)
+        {
+            String value = mParameters.get(name);
+            if(value == null)
+                {
+                    return fallback;
+                }
+            for (String pattern : TIME_PATTERNS)
+                {
+                    SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+                    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    format.setLenient(false);
+                    ParsePosition position = new ParsePosition(0);
+                    Date date = format.parse(value, position);
+                    if(date != null && position.getIndex() == value.length())
+                        {
+                            return date.getTime();
+                        }
+                }
+            return fallback;
+        }
+
+    /**
+     * Returns a copy of this query with the given parameter set, replacing any previous value.
+     */
+    public UsgsQuery with(String name, String value)
+        {
+            LinkedHashMap<String, String> parameters = new LinkedHashMap<>(mParameters);
+            parameters.put(name, value);
+            return new UsgsQuery(mEndpoint, parameters);
+        }
+
+    /**
+     * Returns a copy of this query without the given parameter.
+     */
+    public UsgsQuery without(String name)
+        {
+            if(!mParameters.containsKey(name))
+                {
+                    return this;
+                }
+            LinkedHashMap<String, String> parameters = new LinkedHashMap<>(mParameters);
+            parameters.remove(name);
+            return new UsgsQuery(mEndpoint, parameters);
+        }
+
+    /**
+     * Returns a copy of this query with the parameters sorted by name, so two URLs asking
+     * for the same thing in a different parameter order compare equal.
+     */
+    public UsgsQuery canonical()
+        {
+            LinkedHashMap<String, String> parameters = new LinkedHashMap<>();
+            for (Map.Entry<String, String> parameter : new TreeMap<>(mParameters).entrySet())
+                {
+                    parameters.put(parameter.getKey(), parameter.getValue());
+                }
+            return new UsgsQuery(mEndpoint, parameters);
+        }
+
+    /**
+     * Builds the URL, keeping the parameters in the order they were added.
+     */
+    public String toUrl()
+        {
+            StringBuilder url = new StringBuilder(mEndpoint);
+            char separator = '?';
+            for (Map.Entry<String, String> parameter : mParameters.entrySet())
+                {
+                    url.append(separator)
+                            .append(encode(parameter.getKey()))
+                            .append('=')
+                            .append(encode(parameter.getValue()));
+                    separator = '&';
+                }
+            return url.toString();
+        }
+
+    @Override
+    public String toString()
+        {
+            return toUrl();
+        }
+
+    /**
+     * Formats a time as the ISO 8601 UTC timestamp USGS expects for starttime, endtime and
+     * updatedafter.
+     */
+    public static String formatTime(long timeInMilliseconds)
+        {
+            SimpleDateFormat format = new SimpleDateFormat(TIME_PATTERNS[0], Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.format(new Date(timeInMilliseconds));
+        }
+
+    private static String decode(String value)
+        {
+            try
+                {
+                    return URLDecoder.decode(value, "UTF-8");
+                }
+            catch (UnsupportedEncodingException e)
+                {
+                    throw new AssertionError(e);
+                }
+        }
+
+    private static String encode(String value)
+        {
+            try
+                {
+                    return URLEncoder.encode(value, "UTF-8");
+                }
+            catch (UnsupportedEncodingException e)
+                {
+                    throw new AssertionError(e);
+                }
+        }
+}
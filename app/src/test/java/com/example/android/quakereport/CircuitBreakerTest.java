@@ -0,0 +1,96 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks a {@link CircuitBreaker} through opening, its single trial request, and closing
+ * again, on a clock passed in by the test.
+ */
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 30000;
+
+    @Test
+    public void opensAfterTooManyFailuresInARow()
+        {
+            CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS);
+            long now = 1000;
+
+            breaker.onFailure(now, -1);
+            breaker.onFailure(now, -1);
+            breaker.onSuccess();
+            breaker.onFailure(now, -1);
+            breaker.onFailure(now, -1);
+            assertTrue(breaker.allowRequest(now));
+
+            breaker.onFailure(now, -1);
+            assertTrue(breaker.isOpen(now));
+            assertFalse(breaker.allowRequest(now));
+            assertFalse(breaker.allowRequest(now + OPEN_MILLIS - 1));
+        }
+
+    @Test
+    public void letsOneTrialThroughAndClosesWhenItSucceeds()
+        {
+            CircuitBreaker breaker = openBreaker(1000);
+            long now = 1000 + OPEN_MILLIS;
+
+            assertFalse(breaker.isOpen(now));
+            assertTrue(breaker.allowRequest(now));
+            assertFalse(breaker.allowRequest(now));
+
+            breaker.onSuccess();
+            assertTrue(breaker.allowRequest(now));
+            assertTrue(breaker.allowRequest(now));
+        }
+
+    @Test
+    public void reopensWhenTheTrialFails()
+        {
+            CircuitBreaker breaker = openBreaker(1000);
+            long now = 1000 + OPEN_MILLIS;
+
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now, -1);
+            assertTrue(breaker.isOpen(now));
+            assertFalse(breaker.allowRequest(now + OPEN_MILLIS - 1));
+            assertTrue(breaker.allowRequest(now + OPEN_MILLIS));
+        }
+
+    @Test
+    public void givesUpOnATrialThatNeverReportsBack()
+        {
+            CircuitBreaker breaker = openBreaker(1000);
+            long now = 1000 + OPEN_MILLIS;
+
+            assertTrue(breaker.allowRequest(now));
+            assertFalse(breaker.allowRequest(now + OPEN_MILLIS - 1));
+            assertTrue(breaker.allowRequest(now + OPEN_MILLIS));
+        }
+
+    @Test
+    public void staysOpenAsLongAsRetryAfterAsks()
+        {
+            CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS);
+            breaker.onFailure(1000, 4 * OPEN_MILLIS);
+
+            assertFalse(breaker.allowRequest(1000 + OPEN_MILLIS));
+            assertTrue(breaker.isOpen(1000 + 4 * OPEN_MILLIS - 1));
+            assertTrue(breaker.allowRequest(1000 + 4 * OPEN_MILLIS));
+        }
+
+    /**
+     * Returns a breaker that opened at the given time.
+     */
+    private static CircuitBreaker openBreaker(long now)
+        {
+            CircuitBreaker breaker = new CircuitBreaker(2, OPEN_MILLIS);
+            breaker.onFailure(now, -1);
+            breaker.onFailure(now, -1);
+            assertTrue(breaker.isOpen(now));
+            return breaker;
+        }
+}
@@ -0,0 +1,65 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link CsvStreamParser} turns a USGS CSV response into the same earthquakes as
+ * {@link GeoJsonStreamParser} does for the GeoJSON response of the same query.
+ */
+public class CsvStreamParserTest {
+
+    /* The columns of a USGS response in format=csv */
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,"
+            + "updated,place,type,horizontalError,depthError,magError,magNst,status,locationSource,magSource";
+
+    private static final String CSV = HEADER + "\n"
+            + "2018-01-20T09:26:36.920Z,44.4636,141.1082,235.74,6.2,mww,,45,1.725,0.91,us,us2000ciac,"
+            + "2018-01-20T11:17:25.040Z,\"74km NW of Rumoi, Japan\",earthquake,7.7,3.2,0.041,57,reviewed,us,us\n"
+            + "2018-01-19T16:40:00.000Z,56.0464,-149.1658,14.06,7.0,mww,,,,,at,at00p2u8n4,"
+            + "2018-01-19T16:40:00.000Z,,earthquake,,,,,deleted,at,at\n";
+
+    private static final String GEOJSON = "{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"properties\":{\"mag\":6.2,\"place\":\"74km NW of Rumoi, Japan\","
+            + "\"time\":1516440396920,\"updated\":1516447045040,"
+            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us2000ciac\",\"status\":\"reviewed\"},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[141.1082,44.4636,235.74]},\"id\":\"us2000ciac\"},"
+            + "{\"type\":\"Feature\",\"properties\":{\"mag\":7.0,\"place\":null,"
+            + "\"time\":1516380000000,\"updated\":1516380000000,"
+            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/at00p2u8n4\",\"status\":\"deleted\"},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-149.1658,56.0464,14.06]},\"id\":\"at00p2u8n4\"}"
+            + "]}";
+
+    @Test
+    public void parsesSameEarthquakesAsGeoJson() throws IOException
+        {
+            List<Earthquake> fromCsv = new ArrayList<>();
+            new CsvStreamParser(new StringReader(CSV)).parse(fromCsv);
+            List<Earthquake> fromGeoJson = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(GEOJSON)).parse(fromGeoJson);
+
+            assertEquals(2, fromCsv.size());
+            GeoJsonStreamParserTest.assertSameEarthquakes(fromGeoJson, fromCsv);
+        }
+
+    @Test
+    public void eventWithoutAPlaceHasNone() throws IOException
+        {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            new CsvStreamParser(new StringReader(CSV)).parse(earthquakes);
+
+            Earthquake withoutPlace = earthquakes.get(1);
+            assertNull(withoutPlace.getCity());
+            assertEquals("", EarthquakeStats.getRegion(withoutPlace.getCity()));
+            EarthquakeDisplay display = new EarthquakeFormatter("Near the", new int[]{0}).format(withoutPlace);
+            assertEquals("Near the", display.getOffsetLocation());
+            assertEquals("", display.getPrimaryLocation());
+        }
+}
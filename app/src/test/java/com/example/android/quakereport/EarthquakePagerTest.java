@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the row ids of {@link EarthquakePager} and that looking up the data of a row, the
+ * earthquake, its id, display and detail, allocates nothing. The views and the ViewHolder of
+ * EarthquakeAdapter need a device and are not covered here.
+ */
+public class EarthquakePagerTest {
+
+    private static final int PAGE_SIZE = 20;
+
+    /* Lookups measured after the warmup, enough for boxing even one int per lookup to show */
+    private static final int MEASURED_LOOKUPS = 200000;
+
+    @Test
+    public void eventsWithCollidingKeyHashesGetDifferentIds()
+        {
+            // "Aa" and "BB" have the same String.hashCode()
+            assertEquals("Aa".hashCode(), "BB".hashCode());
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, 3, new NoOpListener());
+            List<Earthquake> page = new ArrayList<>();
+            page.add(earthquake("Aa", 0));
+            page.add(earthquake("BB", 1));
+            pager.reset(page);
+
+            assertNotEquals(pager.getItemId(0), pager.getItemId(1));
+        }
+
+    @Test
+    public void idsStayWithTheirEvents()
+        {
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, 3, new NoOpListener());
+            List<Earthquake> first = page(0, 0);
+            pager.reset(first);
+            long id = pager.getItemId(5);
+
+            // The same event at another position after a refresh keeps its id
+            List<Earthquake> refreshed = new ArrayList<>(first);
+            refreshed.add(0, earthquake("new", 0));
+            refreshed.remove(refreshed.size() - 1);
+            pager.reset(refreshed);
+            assertEquals(id, pager.getItemId(6));
+
+            // Rows that are not in memory get negative ids
+            assertTrue(pager.getItemId(PAGE_SIZE * 3) < 0);
+        }
+
+    @Test
+    public void keepsTheWindowOfPagesAroundTheViewport()
+        {
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, 3, new NoOpListener());
+            for (int page = 0; page < 5; page++)
+                {
+                    pager.getItem(page * PAGE_SIZE);
+                    pager.putPage(page, page(page, page * PAGE_SIZE));
+                }
+            assertNull(pager.peekItem(0));
+            assertNull(pager.peekItem(PAGE_SIZE));
+            assertEquals("us" + (2 * PAGE_SIZE), pager.peekItem(2 * PAGE_SIZE).getId());
+            assertEquals("us" + (4 * PAGE_SIZE + 1), pager.peekItem(4 * PAGE_SIZE + 1).getId());
+        }
+
+    @Test
+    public void handsOutTheRowsOfAnEvictedPage()
+        {
+            final List<String> evicted = new ArrayList<>();
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, 2, new NoOpListener()
+                {
+                    @Override
+                    public void onPageEvicted(int page, List<Earthquake> earthquakes)
+                        {
+                            evicted.add(page + ":" + earthquakes.get(0).getId());
+                        }
+                });
+            for (int page = 0; page < 3; page++)
+                {
+                    pager.getItem(page * PAGE_SIZE);
+                    pager.putPage(page, page(page, page * PAGE_SIZE));
+                }
+            assertEquals("[0:us0]", evicted.toString());
+        }
+
+    @Test
+    public void filteringKeepsThePages()
+        {
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, 3, new NoOpListener());
+            pager.reset(page(0, 0));
+            pager.putPage(1, page(1, PAGE_SIZE));
+
+            List<Earthquake> matches = new ArrayList<>();
+            matches.add(pager.peekItem(PAGE_SIZE + 3));
+            pager.setFilteredRows(matches);
+            assertEquals(1, pager.getCount());
+            assertEquals("us" + (PAGE_SIZE + 3), pager.getItem(0).getId());
+
+            pager.setFilteredRows(null);
+            assertEquals(2 * PAGE_SIZE, pager.getCount());
+            assertEquals("us" + (PAGE_SIZE + 3), pager.peekItem(PAGE_SIZE + 3).getId());
+        }
+
+    @Test
+    public void lookingUpARowAllocatesNothing()
+        {
+            // Page numbers above 127, where boxing an Integer would allocate
+            int firstPage = 200;
+            int pages = 5;
+            EarthquakePager pager = new EarthquakePager(PAGE_SIZE, pages, new NoOpListener());
+            DetailCache detailCache = new DetailCache(64 * 1024);
+            for (int page = firstPage; page < firstPage + pages; page++)
+                {
+                    List<Earthquake> earthquakes = page(page, page * PAGE_SIZE);
+                    for (int i = 0; i < earthquakes.size(); i += 2)
+                        {
+                            EarthquakeDetail detail = new EarthquakeDetail(12, 4.1, 5.2, "green", false, true);
+                            detail.setText("PAGER GREEN, Felt by 12, MMI 5.2");
+                            detailCache.put(earthquakes.get(i), detail);
+                        }
+                    pager.putPage(page, earthquakes);
+                }
+
+            // Rows far enough from the end of the known rows that the next page isn't requested
+            int firstPosition = firstPage * PAGE_SIZE;
+            int rows = (pages - 1) * PAGE_SIZE;
+
+            long warmupDetails = lookUpAll(pager, detailCache, firstPosition, rows, 20000);
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long details = lookUpAll(pager, detailCache, firstPosition, rows, MEASURED_LOOKUPS);
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            assertTrue("Looking up rows allocated " + allocated + " bytes in " + MEASURED_LOOKUPS + " lookups",
+                    allocated < MEASURED_LOOKUPS / 10);
+            // Every other earthquake has a detail
+            assertEquals((20000 + MEASURED_LOOKUPS) / 2, warmupDetails + details);
+        }
+
+    /**
+     * Looks up what EarthquakeAdapter.getView() reads for a row: the earthquake at the
+     * position, its row id, its display and its detail.
+     *
+     * @return the number of rows that had a detail, so the lookups can't be optimized away
+     */
+    private static long lookUpAll(EarthquakePager pager, DetailCache detailCache, int firstPosition, int rows,
+                                  int lookups)
+        {
+            long details = 0;
+            for (int i = 0; i < lookups; i++)
+                {
+                    int position = firstPosition + i % rows;
+                    Earthquake earthquake = pager.getItem(position);
+                    if(pager.getItemId(position) >= 0 && earthquake.getDisplay() != null
+                            && detailCache.get(earthquake) != null)
+                        {
+                            details++;
+                        }
+                }
+            return details;
+        }
+
+    private static List<Earthquake> page(int page, int firstPosition)
+        {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            for (int i = 0; i < PAGE_SIZE; i++)
+                {
+                    earthquakes.add(earthquake("us" + (firstPosition + i), page));
+                }
+            return earthquakes;
+        }
+
+    private static Earthquake earthquake(String id, int index)
+        {
+            Earthquake earthquake = new Earthquake(id, 5.5, "10km N of Place " + id, 1516451696000L - index,
+                    1516451696000L, "https://example.com/" + id, 0, 0, 10);
+            earthquake.setDisplay(new EarthquakeDisplay("5.5", 0xff0000, "10km N of", "Place " + id,
+                    "Jan 20, 2018", "12:34 PM"));
+            return earthquake;
+        }
+
+    private static class NoOpListener implements EarthquakePager.Listener {
+
+        @Override
+        public void onPageNeeded(int page)
+            {
+            }
+
+        @Override
+        public void onPageEvicted(int page, List<Earthquake> earthquakes)
+            {
+            }
+    }
+}
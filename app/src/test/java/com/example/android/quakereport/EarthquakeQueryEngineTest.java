@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which queries {@link EarthquakeQueryEngine} answers on the device, depending on
+ * where its rows came from.
+ */
+public class EarthquakeQueryEngineTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long NOW = 1516451696000L;
+
+    private static final String FIRST_PAGE_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&orderby=time&minmag=5&limit=20";
+
+    private static final EarthquakeQuery PAST_WEEK_ABOVE_6 = EarthquakeQuery.ALL
+            .withMagnitudeRange(6, Double.POSITIVE_INFINITY)
+            .withTimeRange(NOW - 7 * 24 * HOUR, Long.MAX_VALUE);
+
+    @Test
+    public void fetchedPageShortOfItsLimitCoversTheWholeWindow()
+        {
+            EarthquakeQueryEngine engine = EarthquakeQueryEngine.forResult(hourly(5), FIRST_PAGE_URL, NOW, true);
+            assertTrue(engine.canAnswer(PAST_WEEK_ABOVE_6));
+            assertEquals(3, engine.select(PAST_WEEK_ABOVE_6).size());
+        }
+
+    @Test
+    public void mergedPageShortOfItsLimitIsTakenAsCutOff()
+        {
+            EarthquakeQueryEngine engine = EarthquakeQueryEngine.forResult(hourly(5), FIRST_PAGE_URL, NOW, false);
+            assertFalse(engine.canAnswer(PAST_WEEK_ABOVE_6));
+            assertFalse(engine.canAnswer(EarthquakeQuery.ALL.withTimeRange(NOW - 2 * HOUR, NOW)));
+        }
+
+    @Test
+    public void fullPageOnlyCoversTheRangeOfItsRows()
+        {
+            EarthquakeQueryEngine engine = EarthquakeQueryEngine.forResult(hourly(20), FIRST_PAGE_URL, NOW, true);
+            assertFalse(engine.canAnswer(PAST_WEEK_ABOVE_6));
+            assertTrue(engine.canAnswer(EarthquakeQuery.ALL.withMagnitudeRange(6, Double.POSITIVE_INFINITY)
+                    .withTimeRange(NOW - 2 * HOUR, Long.MAX_VALUE)));
+        }
+
+    @Test
+    public void storedRowsCoverNothingAfterTheirSync()
+        {
+            String url = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=5";
+            long syncedAt = NOW - 24 * HOUR;
+            EarthquakeQueryEngine engine = EarthquakeQueryEngine.forResult(hourly(5), url, syncedAt, false);
+            assertFalse(engine.canAnswer(PAST_WEEK_ABOVE_6));
+            assertTrue(engine.canAnswer(EarthquakeQuery.ALL.withMagnitudeRange(6, Double.POSITIVE_INFINITY)
+                    .withTimeRange(syncedAt - 7 * 24 * HOUR, syncedAt)));
+        }
+
+    @Test
+    public void emptyStoredPageCoversNothing()
+        {
+            EarthquakeQueryEngine engine = EarthquakeQueryEngine.forResult(new ArrayList<Earthquake>(),
+                    FIRST_PAGE_URL, NOW, false);
+            assertFalse(engine.canAnswer(EarthquakeQuery.ALL.withTimeRange(NOW - HOUR, NOW)));
+        }
+
+    /**
+     * Returns earthquakes one hour apart before {@link #NOW}, most recent first, alternating
+     * between magnitude 6.5 and 5.5.
+     */
+    private static List<Earthquake> hourly(int count)
+        {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+                {
+                    earthquakes.add(new Earthquake("us" + i, i % 2 == 0 ? 6.5 : 5.5, "Place " + i,
+                            NOW - (i + 1) * HOUR, NOW - i * HOUR, "https://example.com/" + i, 0, 0, 10));
+                }
+            return earthquakes;
+        }
+}
@@ -0,0 +1,105 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the queries of {@link EarthquakeSpatialIndex} against a scan of every row.
+ */
+public class EarthquakeSpatialIndexTest {
+
+    private static final int ROWS = 5000;
+    private static final int QUERIES = 200;
+
+    @Test
+    public void radiusQueriesFindWhatAScanFinds()
+        {
+            Random random = new Random(42);
+            EarthquakeCatalog catalog = randomCatalog(random);
+            EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(catalog);
+            for (int i = 0; i < QUERIES; i++)
+                {
+                    double latitude = random.nextDouble() * 180 - 90;
+                    double longitude = random.nextDouble() * 360 - 180;
+                    double radiusKm = random.nextDouble() * 3000;
+
+                    List<Integer> expected = new ArrayList<>();
+                    for (int row = 0; row < catalog.size(); row++)
+                        {
+                            if(EarthquakeSpatialIndex.distanceKm(latitude, longitude, catalog.getLatitude(row),
+                                    catalog.getLongitude(row)) <= radiusKm)
+                                {
+                                    expected.add(row);
+                                }
+                        }
+                    assertEquals(latitude + "," + longitude + " within " + radiusKm + " km",
+                            expected.toString(), toString(index.queryRadius(latitude, longitude, radiusKm)));
+                }
+        }
+
+    @Test
+    public void boxQueriesFindWhatAScanFinds()
+        {
+            Random random = new Random(7);
+            EarthquakeCatalog catalog = randomCatalog(random);
+            EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(catalog);
+            for (int i = 0; i < QUERIES; i++)
+                {
+                    double south = random.nextDouble() * 180 - 90;
+                    double north = Math.min(90, south + random.nextDouble() * 60);
+                    double west = random.nextDouble() * 360 - 180;
+                    // Every other box crosses the 180th meridian
+                    double east = i % 2 == 0 ? Math.min(180, west + random.nextDouble() * 60) : west - 300;
+                    if(east < -180)
+                        {
+                            east += 360;
+                        }
+                    boolean crossesAntimeridian = west > east;
+
+                    List<Integer> expected = new ArrayList<>();
+                    for (int row = 0; row < catalog.size(); row++)
+                        {
+                            double latitude = catalog.getLatitude(row);
+                            double longitude = catalog.getLongitude(row);
+                            boolean insideLongitude = crossesAntimeridian
+                                    ? longitude >= west || longitude <= east
+                                    : longitude >= west && longitude <= east;
+                            if(latitude >= south && latitude <= north && insideLongitude)
+                                {
+                                    expected.add(row);
+                                }
+                        }
+                    assertEquals(south + "," + west + " to " + north + "," + east, expected.toString(),
+                            toString(index.queryBoundingBox(south, west, north, east)));
+                }
+        }
+
+    /**
+     * Returns a catalogue of earthquakes spread over the globe, every tenth of them without a
+     * location, which the index leaves out.
+     */
+    private static EarthquakeCatalog randomCatalog(Random random)
+        {
+            EarthquakeCatalog.Builder builder = new EarthquakeCatalog.Builder(ROWS);
+            for (int row = 0; row < ROWS; row++)
+                {
+                    boolean located = row % 10 != 0;
+                    builder.add("us" + row, 5 + random.nextDouble() * 3, "Place " + row, 1516451696000L - row,
+                            1516451696000L, null,
+                            located ? random.nextDouble() * 360 - 180 : Double.NaN,
+                            located ? random.nextDouble() * 180 - 90 : Double.NaN, 10);
+                }
+            return builder.build();
+        }
+
+    private static String toString(int[] rows)
+        {
+            return Arrays.toString(rows);
+        }
+}
@@ -0,0 +1,152 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link GeoJsonStreamParser} turns a USGS response into the same earthquakes as
+ * the JSONObject tree of {@link GeoJsonTreeParser}. How much heap each one needs is compared
+ * in the benchmark module, see ParseHeapComparison.
+ */
+public class GeoJsonStreamParserTest {
+
+    /* A response with null properties, a null geometry, a deleted event, escapes and nesting */
+    static final String FIXTURE = "usgs_query.json";
+
+    @Test
+    public void parsesSameEarthquakesAsTreeParser() throws IOException, JSONException
+        {
+            String json = readResource(FIXTURE);
+            List<Earthquake> fromTree = new ArrayList<>();
+            GeoJsonTreeParser.parse(json, fromTree);
+            List<Earthquake> fromStream = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(fromStream);
+
+            assertEquals(6, fromTree.size());
+            assertSameEarthquakes(fromTree, fromStream);
+        }
+
+    @Test
+    public void decodesTheFieldsOfAFeature() throws IOException
+        {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(readResource(FIXTURE))).parse(earthquakes);
+
+            Earthquake first = earthquakes.get(0);
+            assertEquals("us2000ciac", first.getId());
+            assertEquals(6.2, first.getMagnitude(), 0);
+            assertEquals("74km NW of Rumoi, Japan", first.getCity());
+            assertEquals(1516440396920L, first.getTimeInMilliseconds());
+            assertEquals(1516447045040L, first.getUpdatedInMilliseconds());
+            assertEquals(141.1082, first.getLongitude(), 0);
+            assertEquals(44.4636, first.getLatitude(), 0);
+            assertEquals(235.74, first.getDepth(), 0);
+
+            Earthquake withoutGeometry = earthquakes.get(2);
+            assertTrue(Double.isNaN(withoutGeometry.getMagnitude()));
+            assertTrue(Double.isNaN(withoutGeometry.getLatitude()));
+            assertEquals(0, withoutGeometry.getUpdatedInMilliseconds());
+            assertEquals("12km S of S\u00e3o Tom\u00e9, \"Sao Tome\" / Principe", withoutGeometry.getCity());
+
+            assertTrue(earthquakes.get(3).isDeleted());
+            assertNull(earthquakes.get(5).getCity());
+            assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/at00p2u8n4", earthquakes.get(5).getKey());
+        }
+
+    @Test
+    public void handsOutBatches() throws IOException
+        {
+            final List<Integer> sizes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(readResource(FIXTURE))).parse(new ArrayList<Earthquake>(), 4,
+                    new GeoJsonStreamParser.BatchListener()
+                        {
+                            @Override
+                            public void onBatch(List<Earthquake> batch)
+                                {
+                                    sizes.add(batch.size());
+                                }
+                        });
+            assertEquals("[4, 2]", sizes.toString());
+        }
+
+    @Test
+    public void keepsTheFeaturesBeforeAnError() throws IOException
+        {
+            String json = readResource(FIXTURE);
+            String truncated = json.substring(0, json.indexOf("\"id\":\"us2000ci9w\"") + 30);
+            List<Earthquake> earthquakes = new ArrayList<>();
+            try
+                {
+                    new GeoJsonStreamParser(new StringReader(truncated)).parse(earthquakes);
+                    fail("Parsed a truncated response");
+                }
+            catch (IOException expected)
+                {
+                    assertEquals(2, earthquakes.size());
+                }
+        }
+
+    /**
+     * Asserts that both lists hold earthquakes with equal fields, in the same order.
+     */
+    static void assertSameEarthquakes(List<Earthquake> expected, List<Earthquake> actual)
+        {
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                {
+                    Earthquake e = expected.get(i);
+                    Earthquake a = actual.get(i);
+                    String row = "earthquake " + i + " ";
+                    assertEquals(row + "id", e.getId(), a.getId());
+                    assertEquals(row + "magnitude", e.getMagnitude(), a.getMagnitude(), 0);
+                    assertEquals(row + "place", e.getCity(), a.getCity());
+                    assertEquals(row + "time", e.getTimeInMilliseconds(), a.getTimeInMilliseconds());
+                    assertEquals(row + "updated", e.getUpdatedInMilliseconds(), a.getUpdatedInMilliseconds());
+                    assertEquals(row + "url", e.getUrl(), a.getUrl());
+                    assertEquals(row + "longitude", e.getLongitude(), a.getLongitude(), 0);
+                    assertEquals(row + "latitude", e.getLatitude(), a.getLatitude(), 0);
+                    assertEquals(row + "depth", e.getDepth(), a.getDepth(), 0);
+                    assertEquals(row + "deleted", e.isDeleted(), a.isDeleted());
+                }
+        }
+
+    /**
+     * Returns a test resource decoded as UTF-8.
+     */
+    static String readResource(String name) throws IOException
+        {
+            InputStream in = GeoJsonStreamParserTest.class.getClassLoader().getResourceAsStream(name);
+            if(in == null)
+                {
+                    throw new IOException("Missing test resource " + name);
+                }
+            try
+                {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1)
+                        {
+                            out.write(buffer, 0, read);
+                        }
+                    return new String(out.toByteArray(), Charset.forName("UTF-8"));
+                }
+            finally
+                {
+                    in.close();
+                }
+        }
+}
@@ -0,0 +1,317 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Cancels a load during each of its stages, the simulated latency, the connect, the download
+ * and the parse, and checks that the stage gives up right away with an
+ * {@link InterruptedIOException}.
+ *
+ * The connect and the download are blocked on real sockets. Their listener closes the socket,
+ * which is what disconnecting the HttpURLConnection does on Android, and the failure is turned
+ * into a cancellation the way UrlConnectionTransport does it.
+ */
+public class LoadCancellationTest {
+
+    /* Far longer than any stage takes once it is cancelled */
+    private static final long BLOCKED_MILLIS = 60000;
+
+    /* How long a cancelled stage may take to give up */
+    private static final long CANCEL_TIMEOUT_MILLIS = 5000;
+
+    private ExecutorService mLoaderThread;
+    private ServerSocket mServer;
+    private final List<Socket> mSockets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+        {
+            mLoaderThread = Executors.newSingleThreadExecutor();
+            mServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        }
+
+    @After
+    public void tearDown() throws IOException
+        {
+            mLoaderThread.shutdownNow();
+            for (Socket socket : mSockets)
+                {
+                    socket.close();
+                }
+            mServer.close();
+        }
+
+    @Test
+    public void callsTheListenerOnceOnTheCancellingThread()
+        {
+            final List<Thread> calls = new ArrayList<>();
+            LoadCancellation cancellation = new LoadCancellation();
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            calls.add(Thread.currentThread());
+                        }
+                });
+            cancellation.cancel();
+            cancellation.cancel();
+
+            assertEquals(1, calls.size());
+            assertSame(Thread.currentThread(), calls.get(0));
+
+            //A listener set after the cancellation, by a stage that starts late, is called right away
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            calls.add(Thread.currentThread());
+                        }
+                });
+            assertEquals(2, calls.size());
+        }
+
+    @Test
+    public void cancelStopsTheSleep() throws Exception
+        {
+            final LoadCancellation cancellation = new LoadCancellation();
+            final CountDownLatch started = new CountDownLatch(1);
+            Future<?> load = mLoaderThread.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                        {
+                            started.countDown();
+                            cancellation.sleep(BLOCKED_MILLIS);
+                            return null;
+                        }
+                });
+
+            cancelWhileBlocked(cancellation, started);
+            assertCanceled(load);
+        }
+
+    @Test
+    public void cancelAbortsABlockedConnect() throws Exception
+        {
+            //Connections nobody accepts fill the backlog, after which a connect blocks
+            boolean backlogFull = false;
+            for (int i = 0; i < 10 && !backlogFull; i++)
+                {
+                    backlogFull = connectTimesOut();
+                }
+            assertTrue("The backlog never filled up", backlogFull);
+
+            final LoadCancellation cancellation = new LoadCancellation();
+            final CountDownLatch started = new CountDownLatch(1);
+            final Socket socket = newSocket();
+            Future<?> load = mLoaderThread.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                        {
+                            closeOnCancel(cancellation, socket);
+                            started.countDown();
+                            try
+                                {
+                                    socket.connect(address(), (int) BLOCKED_MILLIS);
+                                }
+                            catch (IOException e)
+                                {
+                                    cancellation.throwIfCanceled();
+                                    throw e;
+                                }
+                            fail("Connected although the backlog was full");
+                            return null;
+                        }
+                });
+
+            cancelWhileBlocked(cancellation, started);
+            assertCanceled(load);
+        }
+
+    @Test
+    public void cancelAbortsABlockedDownload() throws Exception
+        {
+            final LoadCancellation cancellation = new LoadCancellation();
+            final CountDownLatch started = new CountDownLatch(1);
+            final Socket socket = newSocket();
+            socket.connect(address());
+
+            //The server takes the connection but never sends a byte
+            mSockets.add(mServer.accept());
+
+            Future<?> load = mLoaderThread.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                        {
+                            closeOnCancel(cancellation, socket);
+                            InputStream in = socket.getInputStream();
+                            started.countDown();
+                            try
+                                {
+                                    byte[] buffer = new byte[8192];
+                                    while (in.read(buffer) >= 0)
+                                        {
+                                            cancellation.throwIfCanceled();
+                                        }
+                                }
+                            catch (IOException e)
+                                {
+                                    cancellation.throwIfCanceled();
+                                    throw e;
+                                }
+                            fail("Read a response nobody sent");
+                            return null;
+                        }
+                });
+
+            cancelWhileBlocked(cancellation, started);
+            assertCanceled(load);
+        }
+
+    @Test
+    public void cancelStopsTheParseAtTheNextRead() throws IOException
+        {
+            final LoadCancellation cancellation = new LoadCancellation();
+            String json = GeoJsonStreamParserTest.readResource(GeoJsonStreamParserTest.FIXTURE);
+
+            //Hands the response out in small chunks and cancels while the parser is halfway
+            Reader chunked = new StringReader(json)
+                {
+                    private int mReads;
+
+                    @Override
+                    public int read(char[] buffer, int offset, int length) throws IOException
+                        {
+                            if(++mReads == 8)
+                                {
+                                    cancellation.cancel();
+                                }
+                            return super.read(buffer, offset, Math.min(length, 256));
+                        }
+                };
+
+            List<Earthquake> earthquakes = new ArrayList<>();
+            try
+                {
+                    new GeoJsonStreamParser(cancellation.wrap(chunked)).parse(earthquakes);
+                    fail("Parsed the whole response after the load was cancelled");
+                }
+            catch (InterruptedIOException expected)
+                {
+                    assertTrue(earthquakes.size() < 6);
+                }
+        }
+
+    /**
+     * Cancels the load from this thread once the stage is about to block. The stage may not
+     * be blocked yet, but then it starts out cancelled, which must stop it just the same.
+     */
+    private static void cancelWhileBlocked(LoadCancellation cancellation, CountDownLatch started)
+            throws InterruptedException
+        {
+            assertTrue(started.await(CANCEL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            Thread.sleep(100);
+            cancellation.cancel();
+        }
+
+    /**
+     * Asserts that the load gives up with an {@link InterruptedIOException} in time.
+     */
+    private static void assertCanceled(Future<?> load) throws InterruptedException
+        {
+            try
+                {
+                    load.get(CANCEL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    fail("The load finished although it was cancelled");
+                }
+            catch (TimeoutException e)
+                {
+                    fail("The load was still blocked " + CANCEL_TIMEOUT_MILLIS + " ms after it was cancelled");
+                }
+            catch (ExecutionException e)
+                {
+                    assertTrue("Failed with " + e.getCause(), e.getCause() instanceof InterruptedIOException);
+                }
+        }
+
+    private static void closeOnCancel(LoadCancellation cancellation, final Socket socket)
+        {
+            cancellation.setOnCancelListener(new LoadCancellation.OnCancelListener()
+                {
+                    @Override
+                    public void onCancel()
+                        {
+                            try
+                                {
+                                    socket.close();
+                                }
+                            catch (IOException e)
+                                {
+                                    throw new AssertionError(e);
+                                }
+                        }
+                });
+        }
+
+    /**
+     * Opens a connection that the server never accepts, and returns true if the connect timed
+     * out because the backlog is full.
+     */
+    private boolean connectTimesOut() throws IOException
+        {
+            Socket socket = newSocket();
+            try
+                {
+                    socket.connect(address(), 200);
+                    return false;
+                }
+            catch (SocketTimeoutException e)
+                {
+                    return true;
+                }
+        }
+
+    private InetSocketAddress address()
+        {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), mServer.getLocalPort());
+        }
+
+    private Socket newSocket()
+        {
+            Socket socket = new Socket();
+            mSockets.add(socket);
+            return socket;
+        }
+}
@@ -0,0 +1,188 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the USGS query endpoint that answers every request with the same body,
+ * so the transport and the fetch path can be tested without the network.
+ *
+ * The body can be gzip compressed when the client asks for it, and is sent with a
+ * Content-Length or chunked. The server counts the requests and the connections they
+ * came on, which tells whether a client reuses its connections. It can also be told to fail
+ * the next few requests, to test how the client retries.
+ */
+final class LocalUsgsServer {
+
+    static final String PATH = "/fdsnws/event/1/query";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] mBody;
+    private final boolean mGzip;
+    private final boolean mChunked;
+
+    /* Guarded by this */
+    private int mRequestCount;
+    private final Set<Integer> mClientPorts = new HashSet<>();
+
+    /* The requests still to fail, and how. Guarded by this */
+    private int mFailuresLeft;
+    private int mFailureCode;
+    private String mRetryAfter;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * Constructs a new {@link LocalUsgsServer}.
+     *
+     * @param body the response to every request
+     * @param gzip true to compress it for clients that accept gzip
+     * @param chunked true to send it chunked rather than with a Content-Length
+     */
+    LocalUsgsServer(String body, boolean gzip, boolean chunked)
+        {
+            mBody = body.getBytes(UTF_8);
+            mGzip = gzip;
+            mChunked = chunked;
+        }
+
+    /**
+     * Starts serving on a free port of the loopback interface.
+     */
+    synchronized void start() throws IOException
+        {
+            mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+            mServer.createContext(PATH, new HttpHandler()
+                {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException
+                        {
+                            try
+                                {
+                                    serve(exchange);
+                                }
+                            finally
+                                {
+                                    exchange.close();
+                                }
+                        }
+                });
+            mExecutor = Executors.newCachedThreadPool();
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+        }
+
+    synchronized void stop()
+        {
+            if(mServer != null)
+                {
+                    mServer.stop(0);
+                    mExecutor.shutdownNow();
+                    mServer = null;
+                }
+        }
+
+    /**
+     * Returns the URL of a query to this server.
+     *
+     * @param query the query string, without the "?"
+     */
+    synchronized URL getUrl(String query) throws IOException
+        {
+            return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + PATH + "?" + query);
+        }
+
+    synchronized int getRequestCount()
+        {
+            return mRequestCount;
+        }
+
+    /**
+     * Returns the number of connections the requests came on.
+     */
+    synchronized int getConnectionCount()
+        {
+            return mClientPorts.size();
+        }
+
+    int getBodyLength()
+        {
+            return mBody.length;
+        }
+
+    /**
+     * Answers the next requests with an error instead of the body.
+     *
+     * @param requests the number of requests to fail
+     * @param responseCode the status code of the errors
+     * @param retryAfter the Retry-After header to send with them, or null for none
+     */
+    synchronized void failNext(int requests, int responseCode, String retryAfter)
+        {
+            mFailuresLeft = requests;
+            mFailureCode = responseCode;
+            mRetryAfter = retryAfter;
+        }
+
+    private void serve(HttpExchange exchange) throws IOException
+        {
+            int failureCode = 0;
+            synchronized (this)
+                {
+                    mRequestCount++;
+                    mClientPorts.add(exchange.getRemoteAddress().getPort());
+                    if(mFailuresLeft > 0)
+                        {
+                            mFailuresLeft--;
+                            failureCode = mFailureCode;
+                            if(mRetryAfter != null)
+                                {
+                                    exchange.getResponseHeaders().set("Retry-After", mRetryAfter);
+                                }
+                        }
+                }
+            if(failureCode != 0)
+                {
+                    send(exchange, failureCode, ("Error " + failureCode + "\n").getBytes(UTF_8));
+                }
+            else
+                {
+                    send(exchange, 200, mBody);
+                }
+        }
+
+    private void send(HttpExchange exchange, int responseCode, byte[] body) throws IOException
+        {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if(mGzip && acceptEncoding != null && acceptEncoding.contains("gzip"))
+                {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(body);
+                    gzip.close();
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(responseCode, mChunked ? 0 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+}
@@ -0,0 +1,117 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link ParallelGeoJsonParser} turns a large USGS response into the same
+ * earthquakes, in the same order, as a single {@link GeoJsonStreamParser}.
+ *
+ * The response repeats the features of the fixture, so the cuts land next to null
+ * properties, escaped quotes, commas and brackets inside strings, nested arrays and
+ * multi-byte characters.
+ */
+public class ParallelGeoJsonParserTest {
+
+    /* Copies of the fixture's features, enough for a body over the parallel threshold */
+    private static final int REPEATS = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp()
+        {
+            mExecutor = Executors.newFixedThreadPool(4);
+        }
+
+    @After
+    public void tearDown()
+        {
+            mExecutor.shutdownNow();
+        }
+
+    @Test
+    public void parsesSameEarthquakesAsTheSequentialParser() throws IOException
+        {
+            String json = largeResponse();
+            byte[] body = json.getBytes(UTF_8);
+            assertTrue(body.length >= ParallelGeoJsonParser.PARALLEL_THRESHOLD_BYTES);
+
+            List<Earthquake> sequential = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(sequential);
+            assertEquals(6 * REPEATS, sequential.size());
+
+            for (int parallelism = 2; parallelism <= 4; parallelism++)
+                {
+                    int[] bounds = ParallelGeoJsonParser.split(body, body.length, parallelism);
+                    assertNotNull(bounds);
+                    assertEquals(parallelism + 1, bounds.length);
+
+                    List<Earthquake> parallel = new ArrayList<>();
+                    ParallelGeoJsonParser.parse(body, body.length, parallel, mExecutor, parallelism,
+                            new LoadCancellation());
+                    GeoJsonStreamParserTest.assertSameEarthquakes(sequential, parallel);
+                }
+        }
+
+    @Test
+    public void leavesATruncatedResponseToTheSequentialParser() throws IOException
+        {
+            String json = largeResponse();
+            byte[] body = json.getBytes(UTF_8);
+            int length = body.length / 2;
+            assertNull(ParallelGeoJsonParser.split(body, length, 4));
+
+            List<Earthquake> earthquakes = new ArrayList<>();
+            try
+                {
+                    ParallelGeoJsonParser.parse(body, length, earthquakes, mExecutor, 4, new LoadCancellation());
+                    fail("Parsed a truncated response");
+                }
+            catch (IOException expected)
+                {
+                    assertTrue(earthquakes.size() > 0);
+                }
+        }
+
+    /**
+     * Returns the fixture with its features repeated {@link #REPEATS} times.
+     */
+    private static String largeResponse() throws IOException
+        {
+            String json = GeoJsonStreamParserTest.readResource(GeoJsonStreamParserTest.FIXTURE);
+            int start = json.indexOf("\"features\":[") + "\"features\":[".length();
+            int end = json.lastIndexOf("],\"bbox\"");
+            String features = json.substring(start, end).trim();
+
+            StringBuilder builder = new StringBuilder(json.length() * REPEATS);
+            builder.append(json, 0, start);
+            for (int i = 0; i < REPEATS; i++)
+                {
+                    if(i > 0)
+                        {
+                            builder.append(",\n");
+                        }
+                    builder.append(features);
+                }
+            builder.append(json, end, json.length());
+            return builder.toString();
+        }
+}
@@ -0,0 +1,108 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Fetches through {@link QueryUtils} from a {@link LocalUsgsServer} that fails on demand, and
+ * checks which failures are retried, that an open circuit makes no request, and that a failed
+ * fetch reports the failure instead of passing off the last good result as a fresh one.
+ */
+public class QueryUtilsRetryTest {
+
+    private LocalUsgsServer mServer;
+
+    @Before
+    public void setUp() throws IOException
+        {
+            //Short waits, and a breaker that opens after the three attempts of a fetch
+            QueryUtils.setRetryPolicy(new RetryPolicy(3, 10, 100, new Random(42)));
+            QueryUtils.setCircuitBreaker(new CircuitBreaker(3, 60000));
+            mServer = new LocalUsgsServer(GeoJsonStreamParserTest.readResource(GeoJsonStreamParserTest.FIXTURE),
+                    true, false);
+            mServer.start();
+        }
+
+    @After
+    public void tearDown()
+        {
+            mServer.stop();
+        }
+
+    @Test
+    public void retriesATransientError() throws IOException
+        {
+            mServer.failNext(2, 503, null);
+
+            List<Earthquake> earthquakes = QueryUtils.requestEarthquakeData(url("retry"), new LoadCancellation());
+
+            assertNotNull(earthquakes);
+            assertEquals(6, earthquakes.size());
+            assertEquals(3, mServer.getRequestCount());
+        }
+
+    @Test
+    public void doesNotRetryARejectedRequest() throws IOException
+        {
+            mServer.failNext(1, 400, null);
+
+            assertNull(QueryUtils.requestEarthquakeData(url("rejected"), new LoadCancellation()));
+            assertEquals(1, mServer.getRequestCount());
+        }
+
+    @Test
+    public void givesUpWhenAskedToWaitTooLong() throws IOException
+        {
+            mServer.failNext(1, 503, "3600");
+
+            assertNull(QueryUtils.requestEarthquakeData(url("retryafter"), new LoadCancellation()));
+            assertEquals(1, mServer.getRequestCount());
+        }
+
+    @Test
+    public void openCircuitMakesNoRequest() throws IOException
+        {
+            mServer.failNext(3, 503, null);
+            assertNull(QueryUtils.requestEarthquakeData(url("circuit"), new LoadCancellation()));
+            assertEquals(3, mServer.getRequestCount());
+
+            //The server is back, but the breaker keeps the app off it for a while
+            assertNull(QueryUtils.requestEarthquakeData(url("circuit"), new LoadCancellation()));
+            assertEquals(3, mServer.getRequestCount());
+        }
+
+    @Test
+    public void failedFetchDoesNotReturnTheLastGoodResult() throws IOException
+        {
+            String url = url("lastgood");
+            List<Earthquake> fresh = QueryUtils.requestEarthquakeData(url, new LoadCancellation());
+            assertNotNull(fresh);
+
+            mServer.failNext(3, 503, null);
+            assertNull(QueryUtils.requestEarthquakeData(url, new LoadCancellation()));
+            assertNull(QueryUtils.requestEarthquakeData(url, new LoadCancellation()));
+
+            //Only a caller that asks for it gets the old result
+            List<Earthquake> stale = QueryUtils.getLastGoodResult(url);
+            assertNotNull(stale);
+            GeoJsonStreamParserTest.assertSameEarthquakes(fresh, stale);
+        }
+
+    /**
+     * Returns a query to the server, made unique by the test so the last good results of
+     * the tests are kept apart.
+     */
+    private String url(String test) throws IOException
+        {
+            return mServer.getUrl("format=geojson&eventtype=" + test).toString();
+        }
+}
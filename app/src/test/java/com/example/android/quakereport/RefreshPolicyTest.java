@@ -0,0 +1,38 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the intervals {@link RefreshPolicy} picks after successful and failed refreshes.
+ */
+public class RefreshPolicyTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private static final RefreshPolicy POLICY = new RefreshPolicy(10 * MINUTE, 30 * MINUTE, 6 * 60 * MINUTE);
+
+    @Test
+    public void quietFeedStretchesTheInterval()
+        {
+            assertEquals(30 * MINUTE, POLICY.getIntervalMillis(0, false, false, false));
+            assertEquals(60 * MINUTE, POLICY.getIntervalMillis(1, false, false, false));
+            assertEquals(240 * MINUTE, POLICY.getIntervalMillis(10, false, false, false));
+            assertEquals(10 * MINUTE, POLICY.getIntervalMillis(10, true, false, false));
+            assertEquals(6 * 60 * MINUTE, POLICY.getIntervalMillis(3, false, true, true));
+        }
+
+    @Test
+    public void failuresBackOffUpToTheMaximum()
+        {
+            assertEquals(10 * MINUTE, POLICY.getRetryDelayMillis(1));
+            assertEquals(20 * MINUTE, POLICY.getRetryDelayMillis(2));
+            assertEquals(160 * MINUTE, POLICY.getRetryDelayMillis(5));
+            assertEquals(320 * MINUTE, POLICY.getRetryDelayMillis(6));
+            assertEquals(6 * 60 * MINUTE, POLICY.getRetryDelayMillis(7));
+
+            //However long it stays down, the delay never overflows or drops back
+            assertEquals(6 * 60 * MINUTE, POLICY.getRetryDelayMillis(Integer.MAX_VALUE));
+        }
+}
@@ -0,0 +1,61 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which responses {@link RetryPolicy} retries, the bounds of its jittered waits and
+ * how it reads a Retry-After header.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesOnlyTransientErrors()
+        {
+            assertTrue(RetryPolicy.isRetryable(500));
+            assertTrue(RetryPolicy.isRetryable(503));
+            assertTrue(RetryPolicy.isRetryable(408));
+            assertTrue(RetryPolicy.isRetryable(429));
+            assertFalse(RetryPolicy.isRetryable(400));
+            assertFalse(RetryPolicy.isRetryable(404));
+        }
+
+    @Test
+    public void backoffDoublesWithinItsJitterUpToTheMaximum()
+        {
+            RetryPolicy policy = new RetryPolicy(5, 500, 3000, new Random(42));
+            long[] ceilings = {500, 1000, 2000, 3000, 3000};
+            for (int i = 0; i < 1000; i++)
+                {
+                    for (int retry = 1; retry <= ceilings.length; retry++)
+                        {
+                            long ceiling = ceilings[retry - 1];
+                            long delay = policy.getBackoffMillis(retry);
+                            assertTrue(delay >= ceiling / 2);
+                            assertTrue(delay <= ceiling);
+                        }
+                }
+
+            //A shift past the width of a long must not wrap around
+            assertTrue(policy.getBackoffMillis(100) <= 3000);
+        }
+
+    @Test
+    public void readsRetryAfterInSecondsOrAsADate()
+        {
+            long now = 1516440396000L;
+            assertEquals(-1, RetryPolicy.parseRetryAfter(null, now));
+            assertEquals(-1, RetryPolicy.parseRetryAfter("soon", now));
+            assertEquals(120000, RetryPolicy.parseRetryAfter(" 120 ", now));
+            assertEquals(0, RetryPolicy.parseRetryAfter("-5", now));
+
+            //Sat, 20 Jan 2018 09:26:36 GMT is now, so this is 30 s later
+            assertEquals(30000, RetryPolicy.parseRetryAfter("Sat, 20 Jan 2018 09:27:06 GMT", now));
+            assertEquals(0, RetryPolicy.parseRetryAfter("Sat, 20 Jan 2018 09:00:00 GMT", now));
+        }
+}
@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link UrlConnectionTransport} against a {@link LocalUsgsServer}: that it reads a
+ * body exactly, whether sent with a Content-Length, chunked or gzipped, and that it keeps its
+ * connection for the next request, also when a consumer stops reading early.
+ */
+public class UrlConnectionTransportTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private LocalUsgsServer mServer;
+
+    @After
+    public void tearDown()
+        {
+            if(mServer != null)
+                {
+                    mServer.stop();
+                }
+        }
+
+    @Test
+    public void readsABodyOfKnownLengthWithoutSlack() throws IOException
+        {
+            String json = startServer(false, false);
+
+            HttpResponse response = new UrlConnectionTransport().get(mServer.getUrl("format=geojson"),
+                    new LoadCancellation());
+
+            assertEquals(200, response.getResponseCode());
+            assertEquals(mServer.getBodyLength(), response.getBodyLength());
+            assertEquals(response.getBodyLength(), response.getBody().length);
+            assertEquals(json, response.getBodyAsString());
+        }
+
+    @Test
+    public void readsAChunkedBody() throws IOException
+        {
+            String json = startServer(false, true);
+
+            HttpResponse response = new UrlConnectionTransport().get(mServer.getUrl("format=geojson"),
+                    new LoadCancellation());
+
+            assertEquals(mServer.getBodyLength(), response.getBodyLength());
+            assertEquals(json, response.getBodyAsString());
+        }
+
+    @Test
+    public void decodesAGzippedBody() throws IOException
+        {
+            String json = startServer(true, false);
+
+            HttpResponse response = new UrlConnectionTransport().get(mServer.getUrl("format=geojson"),
+                    new LoadCancellation());
+
+            assertEquals(json, response.getBodyAsString());
+            assertTrue(response.getTransferredBytes() < mServer.getBodyLength());
+        }
+
+    @Test
+    public void reusesTheConnection() throws IOException
+        {
+            String json = startServer(true, false);
+            UrlConnectionTransport transport = new UrlConnectionTransport();
+
+            for (int i = 0; i < 3; i++)
+                {
+                    HttpResponse response = transport.get(mServer.getUrl("format=geojson"), new LoadCancellation());
+                    assertEquals(json, response.getBodyAsString());
+                }
+
+            assertEquals(3, mServer.getRequestCount());
+            assertEquals(1, mServer.getConnectionCount());
+        }
+
+    @Test
+    public void drainsWhatTheConsumerLeaves() throws IOException
+        {
+            String json = startServer(true, true);
+            final byte[] expected = Arrays.copyOf(json.getBytes(UTF_8), 100);
+            final byte[] consumed = new byte[expected.length];
+            UrlConnectionTransport transport = new UrlConnectionTransport();
+
+            HttpResponse response = transport.get(mServer.getUrl("format=geojson"), new LoadCancellation(),
+                    new HttpTransport.BodyConsumer()
+                        {
+                            @Override
+                            public void consume(InputStream body) throws IOException
+                                {
+                                    int length = 0;
+                                    while (length < consumed.length)
+                                        {
+                                            length += body.read(consumed, length, consumed.length - length);
+                                        }
+                                }
+                        });
+            assertEquals(200, response.getResponseCode());
+            assertEquals(0, response.getBodyLength());
+            assertArrayEquals(expected, consumed);
+
+            transport.get(mServer.getUrl("format=geojson"), new LoadCancellation());
+            assertEquals(1, mServer.getConnectionCount());
+        }
+
+    /**
+     * Starts a server for the fixture and returns the fixture.
+     */
+    private String startServer(boolean gzip, boolean chunked) throws IOException
+        {
+            String json = GeoJsonStreamParserTest.readResource(GeoJsonStreamParserTest.FIXTURE);
+            mServer = new LocalUsgsServer(json, gzip, chunked);
+            mServer.start();
+            return json;
+        }
+}
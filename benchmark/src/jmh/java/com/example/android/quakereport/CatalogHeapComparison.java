@@ -0,0 +1,144 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the heap retained by the earthquakes of a response kept as a List of
+ * {@link Earthquake} objects and as an {@link EarthquakeCatalog}, next to the catalogue's own
+ * estimate from {@link EarthquakeCatalog#getFootprintBytes()}.
+ *
+ * Copies of each are built on a thread of their own, like a loader builds them, and measured
+ * as the amount the used heap, after full collections, shrinks by when they are let go of. So
+ * unlike the estimate, it includes object headers, array lengths and the padding the JVM adds.
+ * The copies make the few hundred KB a collection may or may not free besides them, such as
+ * what is left of the finished thread, small next to what is measured.
+ *
+ * Run it with "./gradlew :benchmark:catalogHeap".
+ */
+final class CatalogHeapComparison {
+
+    /* The most events USGS returns for one query */
+    private static final int FEATURES = 20000;
+
+    private static final int RUNS = 3;
+
+    /* Copies held at once, each measurement is divided by this */
+    private static final int COPIES = 10;
+
+    /* What is being measured, held in a field so nothing else decides when it can be collected */
+    private static volatile Object sHeld;
+
+    private CatalogHeapComparison() {
+    }
+
+    public static void main(String[] args) throws Exception
+        {
+            //Load and compile the classes involved first, so they don't count as retained
+            measure(FEATURES);
+
+            for (int i = 0; i < RUNS; i++)
+                {
+                    System.out.println(measure(FEATURES));
+                }
+        }
+
+    private static String measure(int features) throws Exception
+        {
+            long list = measureRelease(false, features) / COPIES;
+            long catalog = measureRelease(true, features) / COPIES;
+            long estimate = EarthquakeCatalog.from(parse(features)).getFootprintBytes();
+            return String.format(Locale.US,
+                    "%d earthquakes: List<Earthquake> %.2f MB, EarthquakeCatalog %.2f MB (%.1fx less, estimated %.2f MB)",
+                    features, list / 1e6, catalog / 1e6, (double) list / catalog, estimate / 1e6);
+        }
+
+    /**
+     * Builds copies of the parsed earthquakes in a list, or in a catalogue, on a new thread and
+     * returns how much the heap shrinks when they are let go of.
+     */
+    private static long measureRelease(final boolean catalog, final int features) throws Exception
+        {
+            final IOException[] failure = new IOException[1];
+            Thread builder = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                        {
+                            try
+                                {
+                                    Object[] copies = new Object[COPIES];
+                                    for (int i = 0; i < COPIES; i++)
+                                        {
+                                            List<Earthquake> earthquakes = parse(features);
+                                            //The parsed earthquakes are garbage once they are in a catalogue
+                                            copies[i] = catalog ? EarthquakeCatalog.from(earthquakes) : earthquakes;
+                                        }
+                                    sHeld = copies;
+                                }
+                            catch (IOException e)
+                                {
+                                    failure[0] = e;
+                                }
+                        }
+                });
+            builder.start();
+            builder.join();
+            if(failure[0] != null)
+                {
+                    throw failure[0];
+                }
+
+            long held = usedAfterCollection();
+            sHeld = null;
+            return held - usedAfterCollection();
+        }
+
+    /**
+     * Parses a synthetic response. Only the earthquakes are returned, the response is garbage
+     * by the time the heap is measured.
+     */
+    private static List<Earthquake> parse(int features) throws IOException
+        {
+            String json = SyntheticGeoJson.generate(features, 42);
+            List<Earthquake> earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(earthquakes);
+            if(earthquakes.isEmpty())
+                {
+                    throw new IllegalStateException("Nothing was parsed");
+                }
+            return earthquakes;
+        }
+
+    /**
+     * Returns the used heap after full collections, collecting until it stops shrinking.
+     */
+    private static long usedAfterCollection()
+        {
+            long used = Long.MAX_VALUE;
+            for (int i = 0; i < 20; i++)
+                {
+                    System.gc();
+                    long previous = used;
+                    used = 0;
+                    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                        {
+                            if(pool.getType() == MemoryType.HEAP)
+                                {
+                                    used += pool.getUsage().getUsed();
+                                }
+                        }
+                    if(used >= previous)
+                        {
+                            break;
+                        }
+                }
+            return used;
+        }
+}
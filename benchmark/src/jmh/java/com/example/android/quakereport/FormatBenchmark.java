@@ -0,0 +1,70 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures preparing the list rows: magnitude text and color, the location split and the
+ * date and time texts, for a whole result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FormatBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private List<Earthquake> earthquakes;
+    private EarthquakeFormatter formatter;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(SyntheticGeoJson.generate(features, 42)))
+                    .parse(earthquakes);
+
+            int[] colors = new int[11];
+            for (int i = 0; i < colors.length; i++)
+                {
+                    colors[i] = 0xff000000 | i;
+                }
+            formatter = new EarthquakeFormatter("Near the", colors);
+        }
+
+    @Benchmark
+    public void formatRows(Blackhole blackhole)
+        {
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    blackhole.consume(formatter.format(earthquakes.get(i)));
+                }
+        }
+
+    /**
+     * A new formatter per result, as every load creates one.
+     */
+    @Benchmark
+    public void formatRowsWithNewFormatter(Blackhole blackhole)
+        {
+            EarthquakeFormatter loadFormatter = new EarthquakeFormatter("Near the", new int[11]);
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    blackhole.consume(loadFormatter.format(earthquakes.get(i)));
+                }
+        }
+}
@@ -0,0 +1,52 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the pipeline metrics add to a stage: recording into a {@link Histogram}, from
+ * one thread and from four at once, next to the System.nanoTime() call every record needs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark {
+
+    private final Histogram histogram = new Histogram("benchmark", "ns");
+
+    @Benchmark
+    public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+    @Benchmark
+    public void recordElapsed()
+        {
+            long start = System.nanoTime();
+            histogram.record(System.nanoTime() - start);
+        }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void recordContended()
+        {
+            long start = System.nanoTime();
+            histogram.record(System.nanoTime() - start);
+        }
+
+    @Benchmark
+    public long percentile()
+        {
+            return histogram.getPercentile(99);
+        }
+}
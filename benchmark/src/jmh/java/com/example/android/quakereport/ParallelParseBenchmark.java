@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing multi-megabyte bodies with one streaming parser and with
+ * {@link ParallelGeoJsonParser} on 2 and 4 threads. The parallel results are checked against
+ * the sequential ones in the setup, so a wrong split fails the run instead of looking fast.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelParseBenchmark {
+
+    /* About 1.1 kB per feature, so 1.1, 5.5 and 22 MB */
+    @Param({"1000", "5000", "20000"})
+    public int features;
+
+    @Param({"2", "4"})
+    public int threads;
+
+    private byte[] body;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+        {
+            body = SyntheticGeoJson.generate(features, 42).getBytes(Charset.forName("UTF-8"));
+            executor = Executors.newFixedThreadPool(threads);
+
+            List<Earthquake> sequential = sequential();
+            List<Earthquake> parallel = parallel();
+            if(sequential.size() != features || parallel.size() != features)
+                {
+                    throw new IllegalStateException("Expected " + features + " features, got "
+                            + sequential.size() + " and " + parallel.size());
+                }
+            for (int i = 0; i < features; i++)
+                {
+                    if(!sequential.get(i).getId().equals(parallel.get(i).getId()))
+                        {
+                            throw new IllegalStateException("Feature " + i + " differs");
+                        }
+                }
+        }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+        {
+            executor.shutdown();
+        }
+
+    @Benchmark
+    public List<Earthquake> sequential() throws IOException
+        {
+            HttpResponse response = new HttpResponse(200, body, body.length, body.length, 0);
+            List<Earthquake> result = new ArrayList<>();
+            new GeoJsonStreamParser(response.getBodyReader()).parse(result);
+            return result;
+        }
+
+    @Benchmark
+    public List<Earthquake> parallel() throws IOException
+        {
+            List<Earthquake> result = new ArrayList<>();
+            ParallelGeoJsonParser.parse(body, body.length, result, executor, threads, new LoadCancellation());
+            return result;
+        }
+}
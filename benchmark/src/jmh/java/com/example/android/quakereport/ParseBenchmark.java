@@ -0,0 +1,88 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a response body into earthquakes, with the JSONObject tree parser and
+ * with the streaming parser, starting from a String or from the raw body bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private String json;
+    private byte[] body;
+    private List<Earthquake> earthquakes;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            json = SyntheticGeoJson.generate(features, 42);
+            body = json.getBytes(Charset.forName("UTF-8"));
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(earthquakes);
+        }
+
+    @Benchmark
+    public List<Earthquake> jsonObjectTree() throws JSONException
+        {
+            List<Earthquake> result = new ArrayList<>();
+            GeoJsonTreeParser.parse(json, result);
+            return result;
+        }
+
+    @Benchmark
+    public List<Earthquake> streamingFromString() throws IOException
+        {
+            List<Earthquake> result = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(result);
+            return result;
+        }
+
+    /**
+     * The path a fetched response takes: the body bytes are decoded while they are parsed.
+     */
+    @Benchmark
+    public List<Earthquake> streamingFromBody() throws IOException
+        {
+            HttpResponse response = new HttpResponse(200, body, body.length, body.length, 0);
+            List<Earthquake> result = new ArrayList<>();
+            new GeoJsonStreamParser(response.getBodyReader()).parse(result);
+            return result;
+        }
+
+    /**
+     * Decoding the whole body into a String first, as the tree parser needs.
+     */
+    @Benchmark
+    public String bodyToString()
+        {
+            HttpResponse response = new HttpResponse(200, body, body.length, body.length, 0);
+            return response.getBodyAsString();
+        }
+
+    @Benchmark
+    public EarthquakeCatalog buildCatalog()
+        {
+            return EarthquakeCatalog.from(earthquakes);
+        }
+}
@@ -0,0 +1,106 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the peak heap of parsing a response with the JSONObject tree parser and with the
+ * streaming parser, starting from the body bytes as a fetched response does. The output of
+ * the two is compared in GeoJsonStreamParserTest.
+ *
+ * The peak is taken from the heap memory pools after a full collection, so it includes the
+ * garbage of the parse that was not collected yet. The task runs with a small young
+ * generation to keep that garbage small next to what the parse holds on to, such as the
+ * String and the tree of the whole response.
+ *
+ * Run it with "./gradlew :benchmark:parseHeap".
+ */
+final class ParseHeapComparison {
+
+    private static final int[] FEATURE_COUNTS = {1000, 20000};
+
+    private static final int WARMUP_RUNS = 5;
+
+    private ParseHeapComparison() {
+    }
+
+    public static void main(String[] args) throws Exception
+        {
+            for (int features : FEATURE_COUNTS)
+                {
+                    byte[] body = SyntheticGeoJson.generate(features, 42).getBytes(Charset.forName("UTF-8"));
+                    for (int i = 0; i < WARMUP_RUNS; i++)
+                        {
+                            parseTree(body);
+                            parseStream(body);
+                        }
+
+                    long tree = measurePeak(body, true);
+                    long stream = measurePeak(body, false);
+                    System.out.println(String.format(Locale.US,
+                            "%d features, %.1f MB body: tree parser peak %.1f MB, streaming parser peak %.1f MB (%.1fx less)",
+                            features, body.length / 1e6, tree / 1e6, stream / 1e6, (double) tree / stream));
+                }
+        }
+
+    /**
+     * Returns how far the heap grew above its level after a full collection while parsing.
+     */
+    private static long measurePeak(byte[] body, boolean tree) throws IOException, JSONException
+        {
+            List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                {
+                    if(pool.getType() == MemoryType.HEAP)
+                        {
+                            pools.add(pool);
+                        }
+                }
+
+            System.gc();
+            System.gc();
+            long baseline = 0;
+            for (MemoryPoolMXBean pool : pools)
+                {
+                    pool.resetPeakUsage();
+                    baseline += pool.getUsage().getUsed();
+                }
+
+            List<Earthquake> earthquakes = tree ? parseTree(body) : parseStream(body);
+
+            long peak = 0;
+            for (MemoryPoolMXBean pool : pools)
+                {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            if(earthquakes.isEmpty())
+                {
+                    throw new IllegalStateException("Nothing was parsed");
+                }
+            return peak - baseline;
+        }
+
+    private static List<Earthquake> parseTree(byte[] body) throws JSONException
+        {
+            HttpResponse response = new HttpResponse(200, body, body.length, body.length, 0);
+            List<Earthquake> earthquakes = new ArrayList<>();
+            GeoJsonTreeParser.parse(response.getBodyAsString(), earthquakes);
+            return earthquakes;
+        }
+
+    private static List<Earthquake> parseStream(byte[] body) throws IOException
+        {
+            HttpResponse response = new HttpResponse(200, body, body.length, body.length, 0);
+            List<Earthquake> earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(response.getBodyReader()).parse(earthquakes);
+            return earthquakes;
+        }
+}
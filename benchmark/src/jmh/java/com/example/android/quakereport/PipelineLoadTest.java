@@ -0,0 +1,278 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Drives the fetch and parse pipeline against a {@link SyntheticUsgsServer} and reports the
+ * throughput and the latency percentiles of every stage.
+ *
+ * Clients fetch a mix of the queries the app makes: the first page, later pages, a narrowed
+ * down query as streamed by the app, a delta sync with updatedafter, and the largest events.
+ * A request is made the way UrlConnectionTransport makes it (gzip, the body read fully into
+ * one array) and its body is parsed with {@link GeoJsonStreamParser}, or with
+ * {@link CsvStreamParser} in CSV mode; UrlConnectionTransport and QueryUtils use the Android
+ * framework, so they don't run on the JVM themselves.
+ *
+ * Run it with "./gradlew :benchmark:loadTest -Pargs='--events 100000 --latency 100'".
+ * Options: --events (20000), --seed (42), --latency in milliseconds (50), --bandwidth in
+ * kilobytes per second (0 for no limit), --chunked, --format (geojson or csv), --clients (4),
+ * --requests (400) and --warmup (40), the number of requests made before measuring. The
+ * server's fault options --fail-every, --fail-code and --retry-after are passed on to it; the
+ * failed requests are counted but not retried.
+ */
+final class PipelineLoadTest {
+
+    private static final int PAGE_SIZE = 20;
+
+    /* The stages of a request, in microseconds */
+    private final Histogram mTotal = new Histogram("total", "us");
+    private final Histogram mFirstByte = new Histogram("first_byte", "us");
+    private final Histogram mDownload = new Histogram("download", "us");
+    private final Histogram mParse = new Histogram("parse", "us");
+
+    private final AtomicLong mEvents = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+
+    private final String mEndpoint;
+    private final long mClock;
+    private final boolean mCsv;
+
+    private PipelineLoadTest(String endpoint, long clock, boolean csv)
+        {
+            mEndpoint = endpoint;
+            mClock = clock;
+            mCsv = csv;
+        }
+
+    /**
+     * Returns the query of the given request, drawn from the mix of the app's queries.
+     */
+    String nextUrl(Random random)
+        {
+            String base = mEndpoint + (mCsv ? "?format=csv" : "?format=geojson");
+            int kind = random.nextInt(10);
+            if(kind < 4)
+                {
+                    //The first page, as loaded at every start
+                    return base + "&orderby=time&minmag=5&limit=" + PAGE_SIZE;
+                }
+            if(kind < 6)
+                {
+                    //A page further down while scrolling
+                    int page = 1 + random.nextInt(50);
+                    return base + "&orderby=time&minmag=5&limit=" + PAGE_SIZE + "&offset=" + (page * PAGE_SIZE + 1);
+                }
+            if(kind < 8)
+                {
+                    //A narrowed down query, loaded whole
+                    return base + "&orderby=time&minmag=6&starttime="
+                            + UsgsQuery.formatTime(mClock - 7 * 24 * 60 * 60 * 1000L);
+                }
+            if(kind < 9)
+                {
+                    //A delta sync of the first page
+                    return base + "&orderby=time&minmag=5&limit=" + PAGE_SIZE + "&updatedafter="
+                            + UsgsQuery.formatTime(mClock - 60 * 60 * 1000L);
+                }
+            return base + "&orderby=magnitude&limit=100";
+        }
+
+    /**
+     * Fetches and parses one query.
+     *
+     * @param measure false for the warmup requests, which are not recorded
+     */
+    void run(String url, boolean measure) throws IOException
+        {
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            int responseCode = connection.getResponseCode();
+            long firstByte = System.nanoTime();
+            if(responseCode != 200)
+                {
+                    connection.getErrorStream().close();
+                    mFailures.incrementAndGet();
+                    return;
+                }
+
+            CountingInputStream wire = new CountingInputStream(connection.getInputStream());
+            InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(wire) : wire;
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                {
+                    body.write(buffer, 0, read);
+                }
+            in.close();
+            long downloaded = System.nanoTime();
+
+            HttpResponse response = new HttpResponse(responseCode, body.toByteArray(), body.size(), wire.count,
+                    (downloaded - start) / 1000000);
+            List<Earthquake> earthquakes = new ArrayList<>();
+            if(mCsv)
+                {
+                    new CsvStreamParser(response.getBodyReader()).parse(earthquakes);
+                }
+            else
+                {
+                    new GeoJsonStreamParser(response.getBodyReader()).parse(earthquakes);
+                }
+            long parsed = System.nanoTime();
+
+            if(measure)
+                {
+                    mFirstByte.record((firstByte - start) / 1000);
+                    mDownload.record((downloaded - firstByte) / 1000);
+                    mParse.record((parsed - downloaded) / 1000);
+                    mTotal.record((parsed - start) / 1000);
+                    mEvents.addAndGet(earthquakes.size());
+                    mWireBytes.addAndGet(wire.count);
+                    mBodyBytes.addAndGet(body.size());
+                }
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+            Map<String, String> options = SyntheticUsgsServer.parseOptions(args);
+            int clients = (int) SyntheticUsgsServer.getOption(options, "clients", 4);
+            int requests = (int) SyntheticUsgsServer.getOption(options, "requests", 400);
+            int warmup = (int) SyntheticUsgsServer.getOption(options, "warmup", 40);
+            long latencyMillis = SyntheticUsgsServer.getOption(options, "latency", 50);
+            long bandwidth = SyntheticUsgsServer.getOption(options, "bandwidth", 0);
+            boolean chunked = options.containsKey("chunked");
+            boolean csv = "csv".equals(options.get("format"));
+            final SyntheticUsgsServer server = new SyntheticUsgsServer(
+                    (int) SyntheticUsgsServer.getOption(options, "events", 20000),
+                    SyntheticUsgsServer.getOption(options, "seed", 42), latencyMillis, bandwidth * 1024, chunked);
+            SyntheticUsgsServer.injectFaults(server, options);
+            int port = server.start(0);
+            final PipelineLoadTest test = new PipelineLoadTest(SyntheticUsgsServer.getEndpoint(port), server.getClock(), csv);
+
+            //The same seed gives the same sequence of queries
+            final Random random = new Random(SyntheticUsgsServer.getOption(options, "seed", 42));
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < warmup + requests; i++)
+                {
+                    urls.add(test.nextUrl(random));
+                }
+
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            try
+                {
+                    runAll(executor, test, urls.subList(0, warmup), false);
+                    long start = System.nanoTime();
+                    runAll(executor, test, urls.subList(warmup, urls.size()), true);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+
+                    System.out.println(String.format(Locale.US,
+                            "%d events, %d ms latency, %s, %s, %s, %d clients: %d requests in %.2f s, %d failed",
+                            server.getEventCount(), latencyMillis,
+                            bandwidth > 0 ? bandwidth + " KB/s" : "unlimited bandwidth",
+                            chunked ? "chunked" : "Content-Length", csv ? "csv" : "geojson", clients, requests, seconds,
+                            test.mFailures.get()));
+                    System.out.println(String.format(Locale.US,
+                            "  %.1f requests/s, %.0f events/s, %.2f MB/s on the wire (%.2f MB/s decoded)",
+                            requests / seconds, test.mEvents.get() / seconds, test.mWireBytes.get() / seconds / 1e6,
+                            test.mBodyBytes.get() / seconds / 1e6));
+                    for (Histogram histogram : new Histogram[]{test.mTotal, test.mFirstByte, test.mDownload, test.mParse})
+                        {
+                            System.out.println(String.format(Locale.US, "  %-10s mean=%-10.0f p50=%-8d p90=%-8d p99=%-8d max=%d %s",
+                                    histogram.getName(), histogram.getMean(), histogram.getPercentile(50),
+                                    histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMax(),
+                                    histogram.getUnit()));
+                        }
+                }
+            finally
+                {
+                    executor.shutdownNow();
+                    executor.awaitTermination(10, TimeUnit.SECONDS);
+                    server.stop();
+                }
+        }
+
+    /**
+     * Runs the requests on the clients and waits for all of them.
+     */
+    private static void runAll(ExecutorService executor, final PipelineLoadTest test, List<String> urls,
+                               final boolean measure) throws Exception
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final String url : urls)
+                {
+                    futures.add(executor.submit(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                                {
+                                    try
+                                        {
+                                            test.run(url, measure);
+                                        }
+                                    catch (IOException e)
+                                        {
+                                            test.mFailures.incrementAndGet();
+                                        }
+                                }
+                        }));
+                }
+            for (Future<?> future : futures)
+                {
+                    future.get();
+                }
+        }
+
+    /**
+     * Counts the bytes read from the connection, before gzip decoding.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in)
+            {
+                super(in);
+            }
+
+        @Override
+        public int read() throws IOException
+            {
+                int b = super.read();
+                if(b >= 0)
+                    {
+                        count++;
+                    }
+                return b;
+            }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+            {
+                int read = super.read(buffer, offset, length);
+                if(read > 0)
+                    {
+                        count += read;
+                    }
+                return read;
+            }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the local query engine (done on the loader thread) and answering a
+ * filter change with it (done on the main thread).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryEngineBenchmark {
+
+    private static final String URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&orderby=time";
+
+    @Param({"1000", "20000"})
+    public int features;
+
+    private List<Earthquake> earthquakes;
+    private EarthquakeQueryEngine engine;
+    private EarthquakeQuery largestLastWeek;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(SyntheticGeoJson.generate(features, 42)))
+                    .parse(earthquakes);
+            engine = EarthquakeQueryEngine.forResult(earthquakes, URL, System.currentTimeMillis(), true);
+
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    newest = Math.max(newest, earthquakes.get(i).getTimeInMilliseconds());
+                }
+            largestLastWeek = EarthquakeQuery.ALL
+                    .withMagnitudeRange(5, Double.POSITIVE_INFINITY)
+                    .withTimeRange(newest - 7 * 24 * 60 * 60 * 1000L, Long.MAX_VALUE)
+                    .withOrderBy(EarthquakeQuery.ORDER_BY_MAGNITUDE);
+        }
+
+    @Benchmark
+    public EarthquakeQueryEngine build()
+        {
+            return EarthquakeQueryEngine.forResult(earthquakes, URL, System.currentTimeMillis(), true);
+        }
+
+    @Benchmark
+    public int[] query()
+        {
+            return engine.query(largestLastWeek);
+        }
+}
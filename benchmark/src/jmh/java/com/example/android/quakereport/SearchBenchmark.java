@@ -0,0 +1,109 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a keystroke of the search box: looking the text up in the place index, against
+ * scanning every row with contains(), and what it costs to build and update the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchBenchmark {
+
+    /* The number of events a refresh revises */
+    private static final int REVISIONS = 50;
+
+    @Param({"1000", "20000"})
+    public int features;
+
+    /* A word prefix, a common region and a rare town */
+    @Param({"ja", "papua", "town42,"})
+    public String query;
+
+    private List<Earthquake> earthquakes;
+    private List<Earthquake> revisions;
+    private PlaceSearchIndex index;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(SyntheticGeoJson.generate(features, 42))).parse(earthquakes);
+
+            revisions = new ArrayList<>();
+            for (int i = 0; i < REVISIONS; i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i * (features / REVISIONS));
+                    revisions.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude(),
+                            "5km N of Revised" + i + ", Iceland", earthquake.getTimeInMilliseconds(),
+                            earthquake.getUpdatedInMilliseconds() + 1, earthquake.getUrl()));
+                }
+
+            index = new PlaceSearchIndex();
+            index.putAll(earthquakes);
+        }
+
+    @Benchmark
+    public int search()
+        {
+            return index.search(query, EarthquakeQuery.MOST_RECENT_FIRST).size();
+        }
+
+    /**
+     * What every keystroke would cost without the index.
+     */
+    @Benchmark
+    public int scan()
+        {
+            String text = PlaceSearchIndex.normalize(query);
+            List<Earthquake> result = new ArrayList<>();
+            for (int i = 0; i < earthquakes.size(); i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i);
+                    if(PlaceSearchIndex.normalize(EarthquakeFormatter.getPrimaryLocation(earthquake.getCity()))
+                            .contains(text))
+                        {
+                            result.add(earthquake);
+                        }
+                }
+            Collections.sort(result, EarthquakeQuery.MOST_RECENT_FIRST);
+            return result.size();
+        }
+
+    @Benchmark
+    public int build()
+        {
+            PlaceSearchIndex built = new PlaceSearchIndex();
+            built.putAll(earthquakes);
+            return built.size();
+        }
+
+    /**
+     * Moves a few events to new places and back, so every invocation does the same work.
+     */
+    @Benchmark
+    public int incrementalRefresh()
+        {
+            index.putAll(revisions);
+            for (int i = 0; i < REVISIONS; i++)
+                {
+                    index.put(earthquakes.get(i * (features / REVISIONS)));
+                }
+            return index.size();
+        }
+}
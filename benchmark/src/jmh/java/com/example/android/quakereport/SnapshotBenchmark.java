@@ -0,0 +1,87 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restoring the list at startup from the binary snapshot, mapped from a file or
+ * from bytes in memory, against parsing the same earthquakes from GeoJSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotBenchmark {
+
+    @Param({"20", "1000", "20000"})
+    public int features;
+
+    private String json;
+    private List<Earthquake> earthquakes;
+    private byte[] snapshot;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            json = SyntheticGeoJson.generate(features, 42);
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(earthquakes);
+
+            ByteBuffer buffer = EarthquakeSnapshot.encode(earthquakes, 0);
+            snapshot = new byte[buffer.remaining()];
+            buffer.get(snapshot);
+
+            file = File.createTempFile("earthquakes", ".snapshot");
+            EarthquakeSnapshot.write(file, earthquakes, 0);
+        }
+
+    @TearDown
+    public void tearDown()
+        {
+            file.delete();
+        }
+
+    @Benchmark
+    public List<Earthquake> parseGeoJson() throws IOException
+        {
+            List<Earthquake> result = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(json)).parse(result);
+            return result;
+        }
+
+    @Benchmark
+    public List<Earthquake> snapshotFromBytes() throws IOException
+        {
+            return EarthquakeSnapshot.wrap(snapshot).toList();
+        }
+
+    /**
+     * The path taken at startup: the file is mapped and every row is built.
+     */
+    @Benchmark
+    public List<Earthquake> snapshotFromFile() throws IOException
+        {
+            return EarthquakeSnapshot.map(file).toList();
+        }
+
+    @Benchmark
+    public ByteBuffer encodeSnapshot()
+        {
+            return EarthquakeSnapshot.encode(earthquakes, 0);
+        }
+}
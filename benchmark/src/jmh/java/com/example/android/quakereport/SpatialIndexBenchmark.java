@@ -0,0 +1,73 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures "what happened near here" queries with the grid index against scanning every row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpatialIndexBenchmark {
+
+    @Param({"1000", "20000"})
+    public int features;
+
+    @Param({"100", "1000"})
+    public double radiusKm;
+
+    private EarthquakeCatalog catalog;
+    private EarthquakeSpatialIndex index;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(SyntheticGeoJson.generate(features, 42)))
+                    .parse(earthquakes);
+            catalog = EarthquakeCatalog.from(earthquakes);
+            index = new EarthquakeSpatialIndex(catalog);
+        }
+
+    @Benchmark
+    public int[] indexedRadius()
+        {
+            return index.queryRadius(35.7, 139.7, radiusKm);
+        }
+
+    @Benchmark
+    public int[] linearRadius()
+        {
+            int[] rows = new int[catalog.size()];
+            int matches = 0;
+            for (int row = 0; row < catalog.size(); row++)
+                {
+                    if(EarthquakeSpatialIndex.distanceKm(35.7, 139.7, catalog.getLatitude(row),
+                            catalog.getLongitude(row)) <= radiusKm)
+                        {
+                            rows[matches++] = row;
+                        }
+                }
+            return Arrays.copyOf(rows, matches);
+        }
+
+    @Benchmark
+    public EarthquakeSpatialIndex buildIndex()
+        {
+            return new EarthquakeSpatialIndex(catalog);
+        }
+}
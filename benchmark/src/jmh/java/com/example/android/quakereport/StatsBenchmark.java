@@ -0,0 +1,101 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures keeping the summary statistics up to date with a refresh that revises a few events,
+ * against counting the whole catalogue again, and reading the summary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StatsBenchmark {
+
+    private static final int BAND_COUNT = 11;
+
+    /* The number of events a refresh revises */
+    private static final int REVISIONS = 50;
+
+    @Param({"1000", "20000"})
+    public int features;
+
+    private List<Earthquake> earthquakes;
+    private List<Earthquake> revisions;
+    private EarthquakeStats stats;
+    private long now;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            earthquakes = new ArrayList<>();
+            new GeoJsonStreamParser(new StringReader(SyntheticGeoJson.generate(features, 42))).parse(earthquakes);
+
+            //Every revision changes the magnitude, so buckets really change
+            revisions = new ArrayList<>();
+            for (int i = 0; i < REVISIONS; i++)
+                {
+                    Earthquake earthquake = earthquakes.get(i * (features / REVISIONS));
+                    revisions.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude() + 0.3,
+                            earthquake.getCity(), earthquake.getTimeInMilliseconds(),
+                            earthquake.getUpdatedInMilliseconds() + 1, earthquake.getUrl()));
+                }
+
+            stats = new EarthquakeStats(BAND_COUNT);
+            stats.putAll(earthquakes);
+            now = earthquakes.get(0).getTimeInMilliseconds();
+        }
+
+    /**
+     * Applies the revisions and then takes them back, so every invocation does the same work.
+     */
+    @Benchmark
+    public int incrementalRefresh()
+        {
+            stats.putAll(revisions);
+            for (int i = 0; i < REVISIONS; i++)
+                {
+                    stats.put(earthquakes.get(i * (features / REVISIONS)));
+                }
+            return stats.size();
+        }
+
+    @Benchmark
+    public int fullRecount()
+        {
+            EarthquakeStats recount = new EarthquakeStats(BAND_COUNT);
+            recount.putAll(earthquakes);
+            return recount.size();
+        }
+
+    /**
+     * Everything the summary panel reads.
+     */
+    @Benchmark
+    public double readSummary()
+        {
+            double result = stats.size() + stats.getCountInHours(now, 24) + stats.getCountInDays(now, 7)
+                    + stats.getMaxMagnitude() + stats.getMaxMagnitudeInHours(now, 24);
+            for (int band = 0; band < BAND_COUNT; band++)
+                {
+                    result += stats.getBandCount(band);
+                }
+            for (String region : stats.getTopRegions(3))
+                {
+                    result += stats.getRegionCount(region);
+                }
+            return result;
+        }
+}
@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generates USGS-like GeoJSON responses with all the properties, geometry and metadata of the
+ * real feed, so the benchmarks parse payloads of a realistic shape and size. The same events
+ * can be written as the CSV response of a query made with format=csv.
+ *
+ * The same feature count and seed always give the same response. The features can also be
+ * generated on their own, so {@link SyntheticUsgsServer} can filter and sort them before
+ * writing a response.
+ */
+final class SyntheticGeoJson {
+
+    private static final String[] REGIONS = {
+            "Alaska", "Japan", "Indonesia", "Chile", "Tonga", "Fiji", "Papua New Guinea",
+            "Peru", "Mexico", "Philippines", "Vanuatu", "Solomon Islands", "Greece", "Turkey"
+    };
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    /* The columns of a USGS response in format=csv */
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,"
+            + "updated,place,type,horizontalError,depthError,magError,magNst,status,locationSource,magSource";
+
+    /* Roughly the start of 2018, in milliseconds from the Epoch */
+    static final long START_TIME = 1514764800000L;
+
+    private SyntheticGeoJson() {
+    }
+
+    /**
+     * Returns a response with the given number of features, most recent first.
+     */
+    static String generate(int featureCount, long seed)
+        {
+            return toResponse(generateFeatures(featureCount, seed), START_TIME);
+        }
+
+    /**
+     * Returns the given number of features, most recent first. The most recent one happened
+     * about featureCount * 10 minutes after {@link #START_TIME}.
+     */
+    static List<Feature> generateFeatures(int featureCount, long seed)
+        {
+            Random random = new Random(seed);
+            List<Feature> features = new ArrayList<>(featureCount);
+            long time = START_TIME + featureCount * 600000L;
+            for (int i = 0; i < featureCount; i++)
+                {
+                    time -= 1000 + random.nextInt(1200000);
+                    features.add(new Feature(random, i, time));
+                }
+            return features;
+        }
+
+    /**
+     * Returns a response with the given features, in the given order.
+     *
+     * @param generated the time the response claims it was generated at
+     */
+    static String toResponse(List<Feature> features, long generated)
+        {
+            StringBuilder json = new StringBuilder(features.size() * 1100 + 512);
+            json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                    .append(generated)
+                    .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                    .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\",\"count\":")
+                    .append(features.size())
+                    .append("},\"features\":[");
+
+            for (int i = 0; i < features.size(); i++)
+                {
+                    if(i > 0)
+                        {
+                            json.append(',');
+                        }
+                    features.get(i).appendTo(json);
+                }
+
+            json.append("],\"bbox\":[-179.9,-60.5,0.5,179.9,70.1,650.2]}");
+            return json.toString();
+        }
+
+    /**
+     * Returns the CSV response of a query made with format=csv for the same features as
+     * {@link #generate(int, long)}.
+     */
+    static String generateCsv(int featureCount, long seed)
+        {
+            return toCsv(generateFeatures(featureCount, seed));
+        }
+
+    /**
+     * Returns the CSV response with the given features, in the given order. It has the same
+     * columns as the USGS one, and the same values as the GeoJSON response of the features.
+     */
+    static String toCsv(List<Feature> features)
+        {
+            SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            StringBuilder csv = new StringBuilder(features.size() * 200 + 256);
+            csv.append(CSV_HEADER).append('\n');
+            for (Feature feature : features)
+                {
+                    feature.appendCsvTo(csv, timeFormat);
+                    csv.append('\n');
+                }
+            return csv.toString();
+        }
+
+    /**
+     * One generated event. Only its random fields are kept, its JSON is written when needed,
+     * so a catalogue of 100,000 events takes tens rather than hundreds of megabytes.
+     */
+    static final class Feature {
+
+        final String id;
+        final double magnitude;
+        final String place;
+        final long time;
+        final long updated;
+
+        private final double longitude;
+        private final double latitude;
+        private final double depth;
+        private final int felt;
+        private final int cdi;
+        private final int mmi;
+        private final int tsunami;
+        private final int sig;
+        private final double dmin;
+        private final double rms;
+        private final int gap;
+
+        /**
+         * Draws the fields of the feature from the random generator, in a fixed order.
+         */
+        Feature(Random random, int index, long time)
+            {
+                this.id = String.format(Locale.US, "us%04dabcd", index);
+                this.magnitude = Math.round((2.5 + random.nextDouble() * 5) * 10) / 10.0;
+                String region = REGIONS[random.nextInt(REGIONS.length)];
+                this.place = random.nextInt(10) == 0
+                        ? region + " region"
+                        : (1 + random.nextInt(300)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                                + " of Town" + random.nextInt(500) + ", " + region;
+                this.longitude = -180 + random.nextDouble() * 360;
+                this.latitude = -80 + random.nextDouble() * 160;
+                this.depth = random.nextDouble() * 600;
+                this.time = time;
+                this.updated = time + random.nextInt(86400000);
+                this.felt = random.nextInt(50);
+                this.cdi = random.nextInt(9);
+                this.mmi = random.nextInt(9);
+                this.tsunami = random.nextInt(2);
+                this.sig = random.nextInt(1000);
+                this.dmin = random.nextDouble() * 10;
+                this.rms = random.nextDouble();
+                this.gap = random.nextInt(180);
+            }
+
+        void appendTo(StringBuilder json)
+            {
+                json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                        .append(",\"place\":\"").append(place)
+                        .append("\",\"time\":").append(time)
+                        .append(",\"updated\":").append(updated)
+                        .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id)
+                        .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id)
+                        .append("&format=geojson\",\"felt\":").append(felt)
+                        .append(",\"cdi\":").append(cdi)
+                        .append(",\"mmi\":").append(mmi)
+                        .append(",\"alert\":\"green\",\"status\":\"reviewed\",\"tsunami\":").append(tsunami)
+                        .append(",\"sig\":").append(sig)
+                        .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2))
+                        .append("\",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\",")
+                        .append("\"types\":\",dyfi,geoserve,losspager,moment-tensor,origin,phase-data,shakemap,\",")
+                        .append("\"nst\":null,\"dmin\":").append(dmin)
+                        .append(",\"rms\":").append(rms)
+                        .append(",\"gap\":").append(gap)
+                        .append(",\"magType\":\"mww\",\"type\":\"earthquake\",\"title\":\"M ").append(magnitude)
+                        .append(" - ").append(place)
+                        .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                        .append(longitude).append(',').append(latitude).append(',').append(depth)
+                        .append("]},\"id\":\"").append(id).append("\"}");
+            }
+
+        /**
+         * Appends the event as one line of a CSV response, without the line break. The place
+         * is always quoted, as USGS does.
+         */
+        void appendCsvTo(StringBuilder csv, DateFormat timeFormat)
+            {
+                csv.append(timeFormat.format(new Date(time)))
+                        .append(',').append(latitude).append(',').append(longitude).append(',').append(depth)
+                        .append(',').append(magnitude).append(",mww,,").append(gap)
+                        .append(',').append(dmin).append(',').append(rms).append(",us,").append(id)
+                        .append(',').append(timeFormat.format(new Date(updated)))
+                        .append(",\"").append(place.replace("\"", "\"\"")).append("\",earthquake,,,,,reviewed,us,us");
+            }
+    }
+}
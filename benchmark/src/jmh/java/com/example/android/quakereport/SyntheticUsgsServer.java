@@ -0,0 +1,435 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the USGS fdsnws/event/1/query endpoint, serving a deterministic synthetic
+ * catalogue from {@link SyntheticGeoJson}, so the fetch and parse pipeline can be measured
+ * without the network.
+ *
+ * It answers the parameters the app sends: limit, offset (from 1), starttime, endtime,
+ * updatedafter, minmag and maxmag (or minmagnitude and maxmagnitude), and orderby (time,
+ * time-asc, magnitude, magnitude-asc), in format geojson or csv. Like USGS, a query without a start time covers the 30
+ * days before the catalogue's clock, which is a minute after its most recent event, and a
+ * query matching more than 20,000 events without a limit is refused with a 400.
+ *
+ * Every response waits for the configured latency before its headers, is gzip compressed if
+ * the client asks for it, and is written no faster than the configured bandwidth, with a
+ * Content-Length or chunked. To exercise the retries and the circuit breaker of the app, every
+ * so many requests can be failed with a status code and optionally a Retry-After.
+ *
+ * Run it on its own with "./gradlew :benchmark:syntheticUsgs" and point the app at
+ * http://10.0.2.2:8080/fdsnws/event/1/query from an emulator, or drive it with
+ * {@link PipelineLoadTest}.
+ */
+final class SyntheticUsgsServer {
+
+    static final String PATH = "/fdsnws/event/1/query";
+
+    /* The largest limit USGS accepts, and the most events it returns without one */
+    private static final int MAX_LIMIT = 20000;
+
+    private static final long DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+    /* USGS defaults the start time to this long before now */
+    private static final long DEFAULT_WINDOW_MILLIS = 30 * DAY_IN_MILLISECONDS;
+
+    /* Bandwidth-limited responses are written in slices of this many bytes */
+    private static final int SLICE_SIZE = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<SyntheticGeoJson.Feature> LARGEST_FIRST = new Comparator<SyntheticGeoJson.Feature>()
+        {
+            @Override
+            public int compare(SyntheticGeoJson.Feature first, SyntheticGeoJson.Feature second)
+                {
+                    return Double.compare(second.magnitude, first.magnitude);
+                }
+        };
+
+    /* The catalogue, most recent first */
+    private final List<SyntheticGeoJson.Feature> mCatalog;
+    private final long mClock;
+
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+    private final boolean mChunked;
+
+    /* Fails every mFailEvery-th request with mFailureCode, 0 for no failures */
+    private volatile int mFailEvery;
+    private volatile int mFailureCode;
+    private volatile String mRetryAfter;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * Constructs a new {@link SyntheticUsgsServer}, generating its catalogue.
+     *
+     * @param eventCount the number of events in the catalogue
+     * @param seed the same seed always gives the same catalogue
+     * @param latencyMillis how long every request waits before its response starts
+     * @param bytesPerSecond the bandwidth every response is limited to, or 0 for no limit
+     * @param chunked true to send the responses chunked rather than with a Content-Length
+     */
+    SyntheticUsgsServer(int eventCount, long seed, long latencyMillis, long bytesPerSecond, boolean chunked)
+        {
+            mCatalog = SyntheticGeoJson.generateFeatures(eventCount, seed);
+            mClock = (mCatalog.isEmpty() ? SyntheticGeoJson.START_TIME : mCatalog.get(0).time) + 60 * 1000;
+            mLatencyMillis = latencyMillis;
+            mBytesPerSecond = bytesPerSecond;
+            mChunked = chunked;
+        }
+
+    /**
+     * Starts serving on the given port of every interface.
+     *
+     * @param port the port, or 0 for any free one
+     * @return the port the server listens on
+     */
+    synchronized int start(int port) throws IOException
+        {
+            //Without TCP_NODELAY, a small body written after the headers waits for a delayed ACK
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            mServer = HttpServer.create(new InetSocketAddress(port), 64);
+            mServer.createContext(PATH, new HttpHandler()
+                {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException
+                        {
+                            try
+                                {
+                                    serve(exchange);
+                                }
+                            finally
+                                {
+                                    exchange.close();
+                                }
+                        }
+                });
+            mExecutor = Executors.newCachedThreadPool();
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+            return mServer.getAddress().getPort();
+        }
+
+    synchronized void stop()
+        {
+            if(mServer != null)
+                {
+                    mServer.stop(0);
+                    mExecutor.shutdownNow();
+                    mServer = null;
+                }
+        }
+
+    /**
+     * Returns the query endpoint on the local host, for the given port.
+     */
+    static String getEndpoint(int port)
+        {
+            return "http://127.0.0.1:" + port + PATH;
+        }
+
+    /**
+     * Returns the time the catalogue treats as now, a minute after its most recent event.
+     */
+    long getClock()
+        {
+            return mClock;
+        }
+
+    int getEventCount()
+        {
+            return mCatalog.size();
+        }
+
+    /**
+     * Injects faults: from now on every so many requests are answered with an error.
+     *
+     * @param every the period of the failures, 1 to fail every request, 0 for no failures
+     * @param responseCode the status code of the errors, such as 503
+     * @param retryAfter the Retry-After header to send with them, or null for none
+     */
+    void failEvery(int every, int responseCode, String retryAfter)
+        {
+            mFailureCode = responseCode;
+            mRetryAfter = retryAfter;
+            mFailEvery = every;
+        }
+
+    long getRequestCount()
+        {
+            return mRequestCount.get();
+        }
+
+    long getErrorCount()
+        {
+            return mErrorCount.get();
+        }
+
+    long getBytesSent()
+        {
+            return mBytesSent.get();
+        }
+
+    private void serve(HttpExchange exchange) throws IOException
+        {
+            long request = mRequestCount.incrementAndGet();
+            int failEvery = mFailEvery;
+            if(failEvery > 0 && request % failEvery == 0)
+                {
+                    if(mRetryAfter != null)
+                        {
+                            exchange.getResponseHeaders().set("Retry-After", mRetryAfter);
+                        }
+                    sendError(exchange, mFailureCode, "Injected fault");
+                    return;
+                }
+
+            UsgsQuery query = UsgsQuery.parse(exchange.getRequestURI().toString());
+
+            String format = query.get("format");
+            boolean csv = "csv".equals(format);
+            if(format != null && !csv && !format.equals("geojson"))
+                {
+                    sendError(exchange, 400, "Bad Request: unsupported format " + format);
+                    return;
+                }
+
+            List<SyntheticGeoJson.Feature> features;
+            try
+                {
+                    features = select(query);
+                }
+            catch (IllegalArgumentException e)
+                {
+                    sendError(exchange, 400, "Bad Request: " + e.getMessage());
+                    return;
+                }
+
+            if(csv)
+                {
+                    send(exchange, "text/csv", SyntheticGeoJson.toCsv(features).getBytes(UTF_8));
+                }
+            else
+                {
+                    send(exchange, "application/json", SyntheticGeoJson.toResponse(features, mClock).getBytes(UTF_8));
+                }
+        }
+
+    /**
+     * Returns the events of the catalogue that match the query, in its order and page.
+     *
+     * @throws IllegalArgumentException for a parameter USGS would refuse
+     */
+    List<SyntheticGeoJson.Feature> select(UsgsQuery query)
+        {
+            long startTime = query.getTime("starttime", mClock - DEFAULT_WINDOW_MILLIS);
+            long endTime = query.getTime("endtime", Long.MAX_VALUE);
+            long updatedAfter = query.getTime("updatedafter", Long.MIN_VALUE);
+            double minMagnitude = query.getDouble("minmag", query.getDouble("minmagnitude", Double.NEGATIVE_INFINITY));
+            double maxMagnitude = query.getDouble("maxmag", query.getDouble("maxmagnitude", Double.POSITIVE_INFINITY));
+            int limit = query.getInt("limit", -1);
+            int offset = query.getInt("offset", 1);
+            String orderBy = query.get("orderby") == null ? EarthquakeQuery.ORDER_BY_TIME : query.get("orderby");
+
+            if(query.get("limit") != null && (limit < 1 || limit > MAX_LIMIT))
+                {
+                    throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+                }
+            if(offset < 1)
+                {
+                    throw new IllegalArgumentException("offset must be at least 1");
+                }
+
+            //The catalogue is most recent first, which is the default order
+            List<SyntheticGeoJson.Feature> matches = new ArrayList<>();
+            for (int i = 0; i < mCatalog.size(); i++)
+                {
+                    SyntheticGeoJson.Feature feature = mCatalog.get(i);
+                    if(feature.time >= startTime && feature.time <= endTime && feature.updated > updatedAfter
+                            && feature.magnitude >= minMagnitude && feature.magnitude <= maxMagnitude)
+                        {
+                            matches.add(feature);
+                        }
+                }
+
+            if(orderBy.equals(EarthquakeQuery.ORDER_BY_TIME_ASC))
+                {
+                    Collections.reverse(matches);
+                }
+            else if(orderBy.equals(EarthquakeQuery.ORDER_BY_MAGNITUDE))
+                {
+                    Collections.sort(matches, LARGEST_FIRST);
+                }
+            else if(orderBy.equals(EarthquakeQuery.ORDER_BY_MAGNITUDE_ASC))
+                {
+                    Collections.sort(matches, Collections.reverseOrder(LARGEST_FIRST));
+                }
+            else if(!orderBy.equals(EarthquakeQuery.ORDER_BY_TIME))
+                {
+                    throw new IllegalArgumentException("unknown orderby " + orderBy);
+                }
+
+            if(limit < 0 && matches.size() - (offset - 1) > MAX_LIMIT)
+                {
+                    throw new IllegalArgumentException((matches.size() - (offset - 1))
+                            + " matching events exceeds search limit of " + MAX_LIMIT);
+                }
+            int from = Math.min(offset - 1, matches.size());
+            int to = limit < 0 ? matches.size() : (int) Math.min((long) from + limit, matches.size());
+            return matches.subList(from, to);
+        }
+
+    private void sendError(HttpExchange exchange, int responseCode, String message) throws IOException
+        {
+            mErrorCount.incrementAndGet();
+            byte[] body = ("Error " + responseCode + ": " + message + "\n").getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(responseCode, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+
+    /**
+     * Sends a successful response after the latency, compressed if the client accepts gzip,
+     * and no faster than the bandwidth.
+     */
+    void send(HttpExchange exchange, String contentType, byte[] body) throws IOException
+        {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if(acceptEncoding != null && acceptEncoding.contains("gzip"))
+                {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 8 + 64);
+                    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                    gzip.write(body);
+                    gzip.close();
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+
+            sleep(mLatencyMillis);
+            exchange.sendResponseHeaders(200, mChunked ? 0 : body.length);
+
+            OutputStream out = exchange.getResponseBody();
+            long start = System.nanoTime();
+            for (int sent = 0; sent < body.length; )
+                {
+                    int slice = mBytesPerSecond > 0 ? Math.min(SLICE_SIZE, body.length - sent) : body.length - sent;
+                    out.write(body, sent, slice);
+                    out.flush();
+                    sent += slice;
+                    mBytesSent.addAndGet(slice);
+
+                    //Wait until the bytes sent so far would have taken this long at the bandwidth
+                    if(mBytesPerSecond > 0)
+                        {
+                            long due = sent * 1000L / mBytesPerSecond;
+                            sleep(due - (System.nanoTime() - start) / 1000000);
+                        }
+                }
+            out.close();
+        }
+
+    private static void sleep(long millis)
+        {
+            if(millis <= 0)
+                {
+                    return;
+                }
+            try
+                {
+                    Thread.sleep(millis);
+                }
+            catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+        }
+
+    /**
+     * Applies the --fail-every, --fail-code and --retry-after options to the server.
+     */
+    static void injectFaults(SyntheticUsgsServer server, Map<String, String> options)
+        {
+            server.failEvery((int) getOption(options, "fail-every", 0), (int) getOption(options, "fail-code", 503),
+                    options.get("retry-after"));
+        }
+
+    /**
+     * Parses "--name value" and "--flag" arguments.
+     */
+    static Map<String, String> parseOptions(String[] args)
+        {
+            Map<String, String> options = new HashMap<>();
+            for (int i = 0; i < args.length; i++)
+                {
+                    if(!args[i].startsWith("--"))
+                        {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                    String name = args[i].substring(2);
+                    if(i + 1 < args.length && !args[i + 1].startsWith("--"))
+                        {
+                            options.put(name, args[++i]);
+                        }
+                    else
+                        {
+                            options.put(name, "true");
+                        }
+                }
+            return options;
+        }
+
+    static long getOption(Map<String, String> options, String name, long fallback)
+        {
+            String value = options.get(name);
+            return value == null ? fallback : Long.parseLong(value);
+        }
+
+    /**
+     * Serves a catalogue until the process is killed.
+     *
+     * Options: --port (8080), --events (20000), --seed (42), --latency in milliseconds (0),
+     * --bandwidth in kilobytes per second (0 for no limit), --chunked, and for injecting faults
+     * --fail-every (0 for none), --fail-code (503) and --retry-after in seconds.
+     */
+    public static void main(String[] args) throws IOException
+        {
+            Map<String, String> options = parseOptions(args);
+            SyntheticUsgsServer server = new SyntheticUsgsServer(
+                    (int) getOption(options, "events", 20000), getOption(options, "seed", 42),
+                    getOption(options, "latency", 0), getOption(options, "bandwidth", 0) * 1024,
+                    options.containsKey("chunked"));
+            injectFaults(server, options);
+            int port = server.start((int) getOption(options, "port", 8080));
+            System.out.println("Serving " + server.getEventCount() + " events at " + getEndpoint(port)
+                    + ", the catalogue's clock is " + UsgsQuery.formatTime(server.getClock()));
+        }
+}
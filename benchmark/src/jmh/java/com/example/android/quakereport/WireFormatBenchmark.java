@@ -0,0 +1,96 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the GeoJSON and the CSV response of the same query: the bytes each one takes on
+ * the wire, printed once per trial, and the time to turn its body into earthquakes, with the
+ * JSONObject tree parser, the GeoJSON streaming parser and the CSV parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WireFormatBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private byte[] geoJsonBody;
+    private byte[] csvBody;
+
+    @Setup
+    public void setUp() throws IOException
+        {
+            Charset utf8 = Charset.forName("UTF-8");
+            geoJsonBody = SyntheticGeoJson.generate(features, 42).getBytes(utf8);
+            csvBody = SyntheticGeoJson.generateCsv(features, 42).getBytes(utf8);
+
+            List<Earthquake> fromGeoJson = geoJsonStream();
+            List<Earthquake> fromCsv = csv();
+            if(fromGeoJson.size() != fromCsv.size())
+                {
+                    throw new IllegalStateException("The formats differ: " + fromGeoJson.size()
+                            + " GeoJSON and " + fromCsv.size() + " CSV earthquakes");
+                }
+
+            System.out.println(String.format(Locale.US,
+                    "%n%d features: GeoJSON %,d bytes (%,d gzipped), CSV %,d bytes (%,d gzipped)",
+                    features, geoJsonBody.length, gzippedSize(geoJsonBody), csvBody.length, gzippedSize(csvBody)));
+        }
+
+    /**
+     * The JSONObject path: the body is decoded into a String and parsed into a tree.
+     */
+    @Benchmark
+    public List<Earthquake> geoJsonObjectTree() throws JSONException
+        {
+            HttpResponse response = new HttpResponse(200, geoJsonBody, geoJsonBody.length, geoJsonBody.length, 0);
+            List<Earthquake> result = new ArrayList<>();
+            GeoJsonTreeParser.parse(response.getBodyAsString(), result);
+            return result;
+        }
+
+    @Benchmark
+    public List<Earthquake> geoJsonStream() throws IOException
+        {
+            HttpResponse response = new HttpResponse(200, geoJsonBody, geoJsonBody.length, geoJsonBody.length, 0);
+            List<Earthquake> result = new ArrayList<>();
+            new GeoJsonStreamParser(response.getBodyReader()).parse(result);
+            return result;
+        }
+
+    @Benchmark
+    public List<Earthquake> csv() throws IOException
+        {
+            HttpResponse response = new HttpResponse(200, csvBody, csvBody.length, csvBody.length, 0);
+            List<Earthquake> result = new ArrayList<>();
+            new CsvStreamParser(response.getBodyReader()).parse(result);
+            return result;
+        }
+
+    private static int gzippedSize(byte[] body) throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(body);
+            gzip.close();
+            return out.size();
+        }
+}